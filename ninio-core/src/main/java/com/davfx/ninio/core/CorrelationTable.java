@@ -0,0 +1,217 @@
+package com.davfx.ninio.core;
+
+import java.util.Arrays;
+
+import com.davfx.ninio.util.DateUtils;
+
+// In-flight requests by int ID (open addressing, linear probing, backward shift deletion: no boxing, no entry object, no tombstone), not thread-safe
+public final class CorrelationTable<V> {
+
+	public static interface Visitor<V> {
+		void visit(int key, V value);
+	}
+
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private int[] keys;
+	private Object[] values; // null marks a free slot
+	private double[] timestamps;
+	private int mask;
+	private int size = 0;
+
+	// Removed values are visited after the table has been updated, so that visitors can use it
+	private int[] removedKeys = new int[0];
+	private Object[] removedValues = new Object[0];
+
+	public CorrelationTable() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public CorrelationTable(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, DEFAULT_CAPACITY / 2) * 2 - 1) << 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		timestamps = new double[capacity];
+		mask = capacity - 1;
+	}
+
+	// Request IDs are often sequential
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private int index(int key) {
+		int i = hash(key) & mask;
+		while (values[i] != null) {
+			if (keys[i] == key) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return ~i;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean containsKey(int key) {
+		return index(key) >= 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int i = index(key);
+		return (i < 0) ? null : (V) values[i];
+	}
+
+	public V put(int key, V value) {
+		return put(key, value, DateUtils.now());
+	}
+
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value, double timestamp) {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+		int i = index(key);
+		if (i >= 0) {
+			V previous = (V) values[i];
+			values[i] = value;
+			timestamps[i] = timestamp;
+			return previous;
+		}
+		if ((size + 1) > (values.length >>> 1)) {
+			grow();
+			i = index(key);
+		}
+		i = ~i;
+		keys[i] = key;
+		values[i] = value;
+		timestamps[i] = timestamp;
+		size++;
+		return null;
+	}
+
+	private void grow() {
+		int[] k = keys;
+		Object[] v = values;
+		double[] t = timestamps;
+		allocate(v.length << 1);
+		for (int j = 0; j < v.length; j++) {
+			if (v[j] != null) {
+				int i = ~index(k[j]);
+				keys[i] = k[j];
+				values[i] = v[j];
+				timestamps[i] = t[j];
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int i = index(key);
+		if (i < 0) {
+			return null;
+		}
+		V previous = (V) values[i];
+		delete(i);
+		return previous;
+	}
+
+	// Following entries of the cluster are shifted back, so that probing never stops too early
+	private void delete(int i) {
+		size--;
+		int j = i;
+		while (true) {
+			values[i] = null;
+			while (true) {
+				j = (j + 1) & mask;
+				if (values[j] == null) {
+					return;
+				}
+				int home = hash(keys[j]) & mask;
+				// Moved back only if its home slot is not cyclically in (i, j]
+				if ((i <= j) ? ((i >= home) || (home > j)) : ((i >= home) && (home > j))) {
+					break;
+				}
+			}
+			keys[i] = keys[j];
+			values[i] = values[j];
+			timestamps[i] = timestamps[j];
+			i = j;
+		}
+	}
+
+	private void reserve(int n) {
+		if (removedValues.length < n) {
+			removedKeys = new int[n];
+			removedValues = new Object[n];
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void visitRemoved(int n, Visitor<? super V> visitor) {
+		int[] k = removedKeys;
+		Object[] v = removedValues;
+		// Visitors may remove in turn
+		removedKeys = new int[0];
+		removedValues = new Object[0];
+		try {
+			for (int j = 0; j < n; j++) {
+				V value = (V) v[j];
+				v[j] = null;
+				visitor.visit(k[j], value);
+			}
+		} finally {
+			Arrays.fill(v, 0, n, null);
+			if (removedValues.length < v.length) {
+				removedKeys = k;
+				removedValues = v;
+			}
+		}
+	}
+
+	public void removeAll(Visitor<? super V> visitor) {
+		int n = 0;
+		reserve(size);
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				removedKeys[n] = keys[i];
+				removedValues[n] = values[i];
+				n++;
+			}
+		}
+		Arrays.fill(values, null);
+		size = 0;
+		visitRemoved(n, visitor);
+	}
+
+	// Removes (then visits) all the entries put before the given timestamp
+	public int expire(double before, Visitor<? super V> visitor) {
+		int n = 0;
+		reserve(size);
+		int i = 0;
+		while (i < values.length) {
+			if ((values[i] != null) && (timestamps[i] < before)) {
+				removedKeys[n] = keys[i];
+				removedValues[n] = values[i];
+				n++;
+				delete(i); // Another entry may have been shifted here
+			} else {
+				i++;
+			}
+		}
+		visitRemoved(n, visitor);
+		return n;
+	}
+}
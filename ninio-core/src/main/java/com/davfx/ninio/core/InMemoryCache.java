@@ -1,26 +1,41 @@
 package com.davfx.ninio.core;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.davfx.ninio.core.dependencies.Dependencies;
+import com.davfx.ninio.util.ConfigUtils;
 import com.davfx.ninio.util.DateUtils;
-import com.davfx.ninio.util.MemoryCache;
+import com.typesafe.config.Config;
 
 public final class InMemoryCache {
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryCache.class);
 
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(InMemoryCache.class.getPackage().getName());
+	private static final double CHECK_TIME = ConfigUtils.getDuration(CONFIG, "cache.check");
+
 	public static interface Builder<T> extends NinioBuilder<Connecter> {
-		// Builder<T> database(File database);
+		Builder<T> database(File database);
 		Builder<T> dataExpiration(double dataExpiration);
 		Builder<T> requestExpiration(double requestExpiration);
+		Builder<T> heapExpiration(double heapExpiration);
 		Builder<T> using(Interpreter<T> interpreter);
 		Builder<T> with(NinioBuilder<Connecter> builder);
+		
+		// All the connecters created by this builder share the same cache (each with its own underlying connecter), a response is given to all the connecters waiting for it
+		Builder<T> shared(boolean shared);
+		// Packets the interpreter cannot handle are sent and received as is (instead of being refused and dropped)
+		Builder<T> passThrough(boolean passThrough);
 	}
 
 	public static <T> Builder<T> builder() {
@@ -29,8 +44,12 @@ public final class InMemoryCache {
 			
 			private double dataExpiration = 0d;
 			private double requestExpiration = 0d;
+			private double heapExpiration = 0d;
 			private Interpreter<T> interpreter = null;
-			// private File database = null;
+			private File database = null;
+			private boolean shared = false;
+			private boolean passThrough = false;
+			private Table<T> table = null;
 			
 			@Override
 			public Builder<T> using(Interpreter<T> interpreter) {
@@ -44,13 +63,11 @@ public final class InMemoryCache {
 				return this;
 			}
 		
-			/*
 			@Override
 			public Builder<T> database(File database) {
 				this.database = database;
 				return this;
 			}
-			*/
 			@Override
 			public Builder<T> dataExpiration(double dataExpiration) {
 				this.dataExpiration = dataExpiration;
@@ -61,9 +78,25 @@ public final class InMemoryCache {
 				this.requestExpiration = requestExpiration;
 				return this;
 			}
+			@Override
+			public Builder<T> heapExpiration(double heapExpiration) {
+				this.heapExpiration = heapExpiration;
+				return this;
+			}
+			
+			@Override
+			public Builder<T> shared(boolean shared) {
+				this.shared = shared;
+				return this;
+			}
+			@Override
+			public Builder<T> passThrough(boolean passThrough) {
+				this.passThrough = passThrough;
+				return this;
+			}
 			
 			@Override
-			public Connecter create(NinioProvider ninioProvider) {
+			public synchronized Connecter create(NinioProvider ninioProvider) {
 				if (builder == null) {
 					throw new NullPointerException("builder");
 				}
@@ -71,80 +104,161 @@ public final class InMemoryCache {
 					throw new NullPointerException("interpreter");
 				}
 				
-				return new InnerConnecter<>(/*database, */dataExpiration, requestExpiration, interpreter, builder.create(ninioProvider));
+				Table<T> t;
+				if (!shared) {
+					t = new Table<>(database, dataExpiration, requestExpiration, heapExpiration, interpreter);
+				} else {
+					// Created with the first connecter
+					if (table == null) {
+						table = new Table<>(database, dataExpiration, requestExpiration, heapExpiration, interpreter);
+					}
+					t = table;
+				}
+				return new InnerConnecter<>(t, passThrough, builder.create(ninioProvider));
 			}
 		};
 	}
 	
-	private static final class InnerConnecter<T> implements Connecter {
-		// private final File database;
-		private final Connecter wrappee;
-		private final Interpreter<T> interpreter;
+	// Cached requests, by destination address and key
+	private static final class Table<T> {
+		private final File database;
+		public final Interpreter<T> interpreter;
 		private final double dataExpiration;
 		private final double requestExpiration;
-		// private final java.sql.Connection sqlConnection;
-		private final MemoryCache<Address, CacheByAddress<T>> cacheByDestinationAddress;
-		private Connection connectCallback = null;
+		private final double heapExpiration;
+		public final ConcurrentMap<Address, CacheByAddress<T>> cacheByDestinationAddress = new ConcurrentHashMap<>();
+		private final AtomicBoolean checking = new AtomicBoolean(false);
+		private volatile double lastCheck = 0d;
+		
+		// Open while used by at least one connecter
+		private int users = 0;
+		private volatile MappedCacheStore store = null;
 
-		public InnerConnecter(/*File database, */double dataExpiration, double requestExpiration, Interpreter<T> interpreter, Connecter wrappee) {
+		public Table(File database, double dataExpiration, double requestExpiration, double heapExpiration, Interpreter<T> interpreter) {
+			this.database = database;
 			this.dataExpiration = dataExpiration;
 			this.requestExpiration = Math.min(dataExpiration, requestExpiration);
+			// In-flight requests must not be evicted from heap
+			this.heapExpiration = (heapExpiration > 0d) ? Math.max(heapExpiration, this.requestExpiration) : 0d;
 			this.interpreter = interpreter;
-			this.wrappee = wrappee;
-			
-			cacheByDestinationAddress = MemoryCache.<Address, CacheByAddress<T>> builder().expireAfterAccess(dataExpiration).build();
-			
-			/*
-			File databaseFile;
-			if (database == null) {
-				try {
-					databaseFile = File.createTempFile(SqliteCache.class.getName(), null);
-					databaseFile.deleteOnExit();
-				} catch (IOException ioe) {
-					LOGGER.error("Database file error", ioe);
-					databaseFile = null;
-				}
-			} else {
-				databaseFile = database;
+		}
+		
+		// Returns false if the database could not be open
+		public synchronized boolean acquire() {
+			users++;
+			if ((database == null) || (store != null)) {
+				return true;
 			}
-			databaseFile.delete();
-			this.database = databaseFile;
-
-			java.sql.Connection c;
 			try {
-				c = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getCanonicalPath());
-				try {
-					try (PreparedStatement s = c.prepareStatement("CREATE TABLE `data` (`address` TEXT, `key` TEXT, `packet` BLOB, PRIMARY KEY (`address`, `key`))")) {
-						s.executeUpdate();
+				store = new MappedCacheStore(database, dataExpiration);
+				return true;
+			} catch (IOException ioe) {
+				LOGGER.error("Database file error", ioe);
+				return false;
+			}
+		}
+		
+		public synchronized void release() {
+			users--;
+			if ((users == 0) && (store != null)) {
+				store.close();
+				store = null;
+			}
+		}
+		
+		public MappedCacheStore store() {
+			return store;
+		}
+		
+		public double dataExpiration() {
+			return dataExpiration;
+		}
+		
+		public double requestExpiration() {
+			return requestExpiration;
+		}
+		
+		public boolean expired(DataCache<T> subs, double now) {
+			if (subs.data == null) {
+				return now >= (subs.creation + requestExpiration);
+			}
+			if ((dataExpiration > 0d) && ((now - subs.creation) >= dataExpiration)) {
+				return true;
+			}
+			if ((heapExpiration > 0d) && ((now - subs.lastAccess) >= heapExpiration)) {
+				return true;
+			}
+			return false;
+		}
+		
+		public void check(double now) {
+			if ((now - lastCheck) < CHECK_TIME) {
+				return;
+			}
+			if (!checking.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				lastCheck = now;
+				Iterator<CacheByAddress<T>> i = cacheByDestinationAddress.values().iterator();
+				while (i.hasNext()) {
+					CacheByAddress<T> cache = i.next();
+					if ((dataExpiration > 0d) && ((now - cache.lastAccess) >= dataExpiration)) {
+						i.remove();
+						continue;
+					}
+					Iterator<DataCache<T>> j = cache.requestsByKey.values().iterator();
+					while (j.hasNext()) {
+						if (expired(j.next(), now)) {
+							j.remove();
+						}
+					}
+					Iterator<DataCache<T>> k = cache.inFlightBySub.values().iterator();
+					while (k.hasNext()) {
+						DataCache<T> subs = k.next();
+						if ((subs.data != null) || expired(subs, now)) {
+							k.remove();
+						}
 					}
-				} catch (SQLException see) {
-					c.close();
-					throw see;
 				}
-			} catch (SQLException | IOException e) {
-				LOGGER.error("SQL error", e);
-				c = null;
+			} finally {
+				checking.set(false);
+			}
+		}
+	}
+	
+	private static final class InnerConnecter<T> implements Connecter {
+		private final Table<T> table;
+		private final Interpreter<T> interpreter;
+		private final boolean passThrough;
+		private final Connecter wrappee;
+		private final boolean open;
+		private final AtomicBoolean released = new AtomicBoolean(false);
+		public volatile Connection connectCallback = null;
+
+		public InnerConnecter(Table<T> table, boolean passThrough, Connecter wrappee) {
+			this.table = table;
+			interpreter = table.interpreter;
+			this.passThrough = passThrough;
+			this.wrappee = wrappee;
+			open = table.acquire();
+		}
+		
+		private void release() {
+			if (released.compareAndSet(false, true)) {
+				table.release();
 			}
-			sqlConnection = c;
-			*/
 		}
 		
 		@Override
 		public void connect(final Connection callback) {
-			/*
-			if (database == null) {
-				callback.failed(new IOException("Database file could not be created"));
+			if (!open) {
+				release();
+				callback.failed(new IOException("Database could not be open"));
 				return;
 			}
-			if (sqlConnection == null) {
-				callback.failed(new IOException("SQL connection could not be open"));
-				return;
-			}
-			*/
 			
-			synchronized (cacheByDestinationAddress) {
-				connectCallback = callback;
-			}
+			connectCallback = callback;
 
 			wrappee.connect(new Connection() {
 				@Override
@@ -155,76 +269,67 @@ public final class InMemoryCache {
 						sub = interpreter.handleResponse(sb);
 					} catch (Exception e) {
 						LOGGER.trace("Invalid response packet", e);
-						return;
+						sub = null;
 					}
 					if (sub == null) {
 						LOGGER.trace("Invalid response (address = {})", address);
+						if (passThrough) {
+							callback.received(address, sourceBuffer);
+						}
 						return;
 					}
 	
-					String key;
-					List<T> to;
-					synchronized (cacheByDestinationAddress) {
-						CacheByAddress<T> cache = cacheByDestinationAddress.get(address);
-						if (cache == null) {
-							LOGGER.trace("No cache (address = {})", address);
-							return;
+					CacheByAddress<T> cache = table.cacheByDestinationAddress.get(address);
+					if (cache == null) {
+						LOGGER.trace("No cache (address = {})", address);
+						if (passThrough) {
+							callback.received(address, sourceBuffer);
 						}
-						
-						key = cache.subToKey.get(sub);
-						if (key == null) {
-							LOGGER.trace("No key (address = {}, sub = {}) - {}", address, sub, cache.subToKey);
-							return;
-						}
-	
-						cache.subToKey.remove(sub);
-	
-						DataCache<T> subs = cache.requestsByKey.get(key);
-						if (subs == null) {
-							LOGGER.trace("No corresponding subs (address = {}, sub = {}, key = {})", address, sub, key);
-							return;
-						}
-						
-						to = new LinkedList<>();
-						for (T k : subs.subs.keys()) {
-							to.add(k);
+						return;
+					}
+					
+					DataCache<T> subs = cache.inFlightBySub.remove(new InFlight<T>(InnerConnecter.this, sub));
+					if (subs == null) {
+						LOGGER.trace("No corresponding subs (address = {}, sub = {})", address, sub);
+						if (passThrough) {
+							callback.received(address, sourceBuffer);
 						}
-						subs.subs.clear();
-						
-						subs.data = sourceBuffer.duplicate();
+						return;
+					}
+					
+					Waiter<T> to = subs.complete(sourceBuffer.duplicate());
+
+					MappedCacheStore store = table.store();
+					if (store != null) {
+						store.write(address, subs.key, sourceBuffer.duplicate());
 					}
 
-					for (T s : to) {
+					double now = DateUtils.now();
+					double requestExpiration = table.requestExpiration();
+					for (Waiter<T> w = to; w != null; w = w.next) {
+						cache.inFlightBySub.remove(w.inFlight, subs);
+						if ((requestExpiration > 0d) && ((now - w.timestamp) >= requestExpiration)) {
+							continue;
+						}
+						// Maybe waiting on another connecter sharing the cache
+						Connection c = w.inFlight.connecter.connectCallback;
+						if (c == null) {
+							continue;
+						}
 						ByteBuffer ssb = sourceBuffer.duplicate();
 						ByteBuffer b;
 						try {
-							b = interpreter.transform(ssb, s);
+							b = interpreter.transform(ssb, w.inFlight.sub);
 						} catch (Exception e) {
 							LOGGER.trace("Invalid response packet", e);
 							continue;
 						}
 						if (b != null) {
-							callback.received(address, b);
+							c.received(address, b);
 						}
 					}
 
-					LOGGER.trace("New response (address = {}, sub = {}, key = {})", address, sub, key);
-	
-					/*
-					try {
-						byte[] bytes = new byte[sourceBuffer.remaining()];
-						sourceBuffer.get(bytes);
-						try (PreparedStatement s = sqlConnection.prepareStatement("REPLACE INTO `data` (`address`, `key`, `packet`) VALUES (?, ?, ?)")) {
-							int k = 1;
-							s.setString(k++, address.toString());
-							s.setString(k++, key);
-							s.setBytes(k++, bytes);
-							s.executeUpdate();
-						}
-					} catch (SQLException se) {
-						LOGGER.error("SQL error", se);
-					}
-					*/
+					LOGGER.trace("New response (address = {}, sub = {}, key = {})", address, sub, subs.key);
 				}
 				
 				@Override
@@ -234,27 +339,15 @@ public final class InMemoryCache {
 				
 				@Override
 				public void failed(IOException ioe) {
-					/*
-					try {
-						sqlConnection.close();
-					} catch (SQLException e) {
-					}
-					database.delete();
-					*/
-
+					connectCallback = null;
+					release();
 					callback.failed(ioe);
 				}
 				
 				@Override
 				public void closed() {
-					/*
-					try {
-						sqlConnection.close();
-					} catch (SQLException e) {
-					}
-					database.delete();
-					*/
-
+					connectCallback = null;
+					release();
 					callback.closed();
 				}
 			});
@@ -262,129 +355,113 @@ public final class InMemoryCache {
 		
 		@Override
 		public void send(Address address, ByteBuffer sourceBuffer, SendCallback sendCallback) {
-			/*
-			if ((database == null) || (sqlConnection == null)) {
-				sendCallback.failed(new IOException("Could not be created"));
-				return;
-			}
-			*/
-
 			ByteBuffer sb = sourceBuffer.duplicate();
 			Context<T> context;
 			try {
 				context = interpreter.handleRequest(sb);
 			} catch (Exception e) {
+				if (passThrough) {
+					wrappee.send(address, sourceBuffer, sendCallback);
+					return;
+				}
 				sendCallback.failed(new IOException("Invalid packet", e));
 				return;
 			}
 			if (context == null) {
+				if (passThrough) {
+					wrappee.send(address, sourceBuffer, sendCallback);
+					return;
+				}
 				sendCallback.failed(new IOException("Invalid request: " + address));
 				return;
 			}
 
 			double now = DateUtils.now();
+			table.check(now);
 			
-			boolean send;
-			Connection callback;
-			ByteBuffer data;
-			synchronized (cacheByDestinationAddress) {
-				callback = connectCallback;
-				
-				CacheByAddress<T> cache = cacheByDestinationAddress.get(address);
+			CacheByAddress<T> cache = table.cacheByDestinationAddress.get(address);
+			if (cache == null) {
+				CacheByAddress<T> c = new CacheByAddress<T>();
+				cache = table.cacheByDestinationAddress.putIfAbsent(address, c);
 				if (cache == null) {
-					LOGGER.trace("New cache (address = {}, expiration = {})", address, dataExpiration);
-					cache = new CacheByAddress<T>(dataExpiration, requestExpiration);
-					cacheByDestinationAddress.put(address, cache);
+					LOGGER.trace("New cache (address = {}, expiration = {})", address, table.dataExpiration());
+					cache = c;
 				}
-	
-				DataCache<T> subs = cache.requestsByKey.get(context.key);
+			}
+			cache.lastAccess = now;
 
-				if (subs != null) {
-					if (subs.data == null) {
-						if (now >= (subs.creation + requestExpiration)) {
-							subs = null;
-						}
-					}
+			ByteBuffer data;
+			while (true) {
+				boolean send = false;
+				DataCache<T> subs = cache.requestsByKey.get(context.key);
+				if ((subs != null) && table.expired(subs, now)) {
+					cache.requestsByKey.remove(context.key, subs);
+					subs = null;
 				}
 				
 				if (subs == null) {
-					subs = new DataCache<T>(now, requestExpiration);
-					cache.requestsByKey.put(context.key, subs);
-					send = true;
-					LOGGER.trace("New request (address = {}, key = {}, sub = {}) - {}", address, context.key, context.sub, cache.subToKey);
-				} else {
-					send = false;
-					LOGGER.trace("Request already sent (address = {}, key = {}, sub = {}) - {}", address, context.key, context.sub, cache.subToKey);
+					MappedCacheStore store = table.store();
+					MappedCacheStore.Stored stored = (store == null) ? null : store.get(address, context.key);
+					// Expires as it would have if kept in memory
+					DataCache<T> created = (stored == null) ? new DataCache<T>(context.key, now, now, null) : new DataCache<T>(context.key, stored.timestamp, now, stored.data);
+					if (cache.requestsByKey.putIfAbsent(context.key, created) != null) {
+						// Concurrently registered, retry
+						continue;
+					}
+					subs = created;
+					if (stored == null) {
+						send = true;
+						LOGGER.trace("New request (address = {}, key = {}, sub = {})", address, context.key, context.sub);
+					} else {
+						LOGGER.trace("Loaded from database (address = {}, key = {}, sub = {})", address, context.key, context.sub);
+					}
 				}
+				subs.lastAccess = now;
 				
-				data = subs.data;
-				
-				if (send || (data == null)) {
-					subs.subs.put(context.sub, null);
-					cache.subToKey.put(context.sub, context.key);
-				}
-			}
-
-			if (send) {
-				wrappee.send(address, sourceBuffer, sendCallback);
-			} else {
-				if (callback != null) {
-					if (data != null) {
-						ByteBuffer b = data.duplicate();
-						ByteBuffer tb;
-						try {
-							tb = interpreter.transform(b, context.sub);
-						} catch (Exception e) {
-							sendCallback.failed(new IOException("Invalid packet", e));
-							return;
+				if (subs.data == null) {
+					InFlight<T> inFlight = new InFlight<>(this, context.sub);
+					cache.inFlightBySub.put(inFlight, subs);
+					if (subs.register(inFlight, now)) {
+						if (send) {
+							wrappee.send(address, sourceBuffer, sendCallback);
+						} else {
+							LOGGER.trace("Response does not exist yet (address = {}, key = {}, sub = {})", address, context.key, context.sub);
+							sendCallback.sent();
 						}
-						sendCallback.sent();
-						LOGGER.trace("Got from cache (address = {}, key = {}, sub = {})", address, context.key, context.sub);
-						callback.received(address, tb);
 						return;
 					}
-					/*
-					try {
-						try (PreparedStatement s = sqlConnection.prepareStatement("SELECT `packet` FROM `data` WHERE `address`= ? AND `key` = ?")) {
-							int k = 1;
-							s.setString(k++, address.toString());
-							s.setString(k++, context.key);
-							ResultSet rs = s.executeQuery();
-							while (rs.next()) {
-								ByteBuffer bb = ByteBuffer.wrap(rs.getBytes("packet"));
-								
-								LOGGER.trace("Response exists (address = {}, key = {}, sub = {})", address, context.key, context.sub);
-								
-								callback.received(address, interpreter.transform(bb, context.sub));
-								return;
-							}
-						}
-					} catch (SQLException se) {
-						LOGGER.error("SQL error", se);
-					}
-					*/
+					// Completed concurrently, data is now available
+					cache.inFlightBySub.remove(inFlight, subs);
 				}
+				
+				data = subs.data;
+				break;
+			}
 
-				LOGGER.trace("Response does not exist yet (address = {}, key = {}, sub = {})", address, context.key, context.sub);
+			Connection callback = connectCallback;
+			if (callback == null) {
 				sendCallback.sent();
+				return;
 			}
 			
+			ByteBuffer b = data.duplicate();
+			ByteBuffer tb;
+			try {
+				tb = interpreter.transform(b, context.sub);
+			} catch (Exception e) {
+				sendCallback.failed(new IOException("Invalid packet", e));
+				return;
+			}
+			sendCallback.sent();
+			LOGGER.trace("Got from cache (address = {}, key = {}, sub = {})", address, context.key, context.sub);
+			callback.received(address, tb);
 		}
 		
 		@Override
 		public void close() {
+			connectCallback = null;
 			wrappee.close();
-			/*
-			if (sqlConnection != null) {
-				try {
-					sqlConnection.close();
-				} catch (SQLException e) {
-				}
-			}
-			if (database != null) {
-				database.delete();
-			}
-			*/
+			release();
 		}
 	}
 	
@@ -402,21 +479,83 @@ public final class InMemoryCache {
 		ByteBuffer transform(ByteBuffer packet, T sub);
 	}
 	
+	// Request IDs are only unique per connecter
+	private static final class InFlight<T> {
+		public final InnerConnecter<T> connecter;
+		public final T sub;
+		public InFlight(InnerConnecter<T> connecter, T sub) {
+			this.connecter = connecter;
+			this.sub = sub;
+		}
+		@Override
+		public int hashCode() {
+			return (31 * System.identityHashCode(connecter)) + sub.hashCode();
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof InFlight)) {
+				return false;
+			}
+			InFlight<?> other = (InFlight<?>) obj;
+			return (other.connecter == connecter) && other.sub.equals(sub);
+		}
+	}
+	
+	private static final class Waiter<T> {
+		public final InFlight<T> inFlight;
+		public final double timestamp;
+		public Waiter<T> next = null;
+		public Waiter(InFlight<T> inFlight, double timestamp) {
+			this.inFlight = inFlight;
+			this.timestamp = timestamp;
+		}
+	}
+	
+	private static final Waiter<Object> COMPLETED = new Waiter<Object>(null, 0d);
+	
+	// Waiters are pushed lock-free, the response takes them all at once
 	private static final class DataCache<T> {
+		public final String key;
 		public final double creation;
-		public ByteBuffer data = null;
-		public final MemoryCache<T, Void> subs;
-		public DataCache(double now, double requestExpiration) {
-			creation = now;
-			subs = MemoryCache.<T, Void> builder().expireAfterWrite(requestExpiration).build();
+		public volatile double lastAccess;
+		public volatile ByteBuffer data;
+		private final AtomicReference<Waiter<T>> waiters;
+		
+		@SuppressWarnings("unchecked")
+		public DataCache(String key, double creation, double now, ByteBuffer data) {
+			this.key = key;
+			this.creation = creation;
+			lastAccess = now;
+			this.data = data;
+			waiters = new AtomicReference<>((data == null) ? null : (Waiter<T>) COMPLETED);
+		}
+		
+		public boolean register(InFlight<T> inFlight, double now) {
+			Waiter<T> w = new Waiter<>(inFlight, now);
+			while (true) {
+				Waiter<T> head = waiters.get();
+				if (head == COMPLETED) {
+					return false;
+				}
+				w.next = head;
+				if (waiters.compareAndSet(head, w)) {
+					return true;
+				}
+			}
+		}
+		
+		@SuppressWarnings("unchecked")
+		public Waiter<T> complete(ByteBuffer data) {
+			this.data = data;
+			Waiter<T> w = waiters.getAndSet((Waiter<T>) COMPLETED);
+			return (w == COMPLETED) ? null : w;
 		}
 	}
 	private static final class CacheByAddress<T> {
-		public final MemoryCache<String, DataCache<T>> requestsByKey;
-		public final MemoryCache<T, String> subToKey;
-		public CacheByAddress(double dataExpiration, double requestExpiration) {
-			requestsByKey = MemoryCache.<String, DataCache<T>> builder().expireAfterWrite(dataExpiration).build();
-			subToKey = MemoryCache.<T, String> builder().expireAfterWrite(requestExpiration).build();
+		public volatile double lastAccess;
+		public final ConcurrentMap<String, DataCache<T>> requestsByKey = new ConcurrentHashMap<>();
+		public final ConcurrentMap<InFlight<T>, DataCache<T>> inFlightBySub = new ConcurrentHashMap<>();
+		public CacheByAddress() {
 		}
 	}
 }
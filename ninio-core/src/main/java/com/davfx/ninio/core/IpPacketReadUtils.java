@@ -1,6 +1,7 @@
 package com.davfx.ninio.core;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Date;
 
 import org.slf4j.Logger;
@@ -8,85 +9,108 @@ import org.slf4j.LoggerFactory;
 
 final class IpPacketReadUtils {
 	private static final Logger LOGGER = LoggerFactory.getLogger(IpPacketReadUtils.class);
-	
+
+	private static final int UDP = 17;
+
 	private IpPacketReadUtils() {
 	}
-	
+
 	public static void read(double timestamp, byte[] bytes, int off, int length, TcpdumpReader.Handler handler) {
-		ByteBuffer b = ByteBuffer.wrap(bytes, off, length);
-		int firstByte = b.get() & 0xFF;
+		read(timestamp, ByteBuffer.wrap(bytes, off, length), handler);
+	}
+
+	// The UDP payload handed to the handler is a slice of the given buffer (no copy)
+	public static void read(double timestamp, ByteBuffer packet, TcpdumpReader.Handler handler) {
+		ByteBuffer b = packet.duplicate().order(ByteOrder.BIG_ENDIAN);
+		int start = b.position();
+		int end = b.limit();
+		if (b.remaining() < 1) {
+			return;
+		}
+		int firstByte = b.get(start) & 0xFF;
 		int ipVersion = firstByte >> 4;
 		int packetType;
 		byte[] sourceIp;
 		byte[] destinationIp;
+		int payloadPosition;
 		int payloadLength;
 		if (ipVersion == 4) {
+			if (b.remaining() < 20) {
+				return;
+			}
 			int headerLength = (firstByte & 0x0F) * 4;
-			@SuppressWarnings("unused")
-			int tos = b.get() & 0xFF;
-			int totalLength = b.getShort() & 0xFFFF;
-			payloadLength = totalLength - headerLength;
-			@SuppressWarnings("unused")
-			int identification = b.getShort() & 0xFFFF;
-			@SuppressWarnings("unused")
-			int indicatorAndFragmentOffset = b.getShort() & 0xFFFF;
-			@SuppressWarnings("unused")
-			int ttl = b.get() & 0xFF;
-			int protocol = (b.get() & 0xFF);
-			packetType = protocol;
-			@SuppressWarnings("unused")
-			int checksum = b.getShort() & 0xFFFF;
+			int totalLength = b.getShort(start + 2) & 0xFFFF;
+			int indicatorAndFragmentOffset = b.getShort(start + 6) & 0xFFFF;
+			if ((indicatorAndFragmentOffset & 0x1FFF) != 0) {
+				// Not the first fragment, no UDP header
+				return;
+			}
+			packetType = b.get(start + 9) & 0xFF;
 			sourceIp = new byte[4];
+			b.position(start + 12);
 			b.get(sourceIp);
 			destinationIp = new byte[4];
 			b.get(destinationIp);
+			payloadPosition = start + headerLength;
+			payloadLength = totalLength - headerLength;
 		} else if (ipVersion == 6) {
-			// traffic class (low bits) and flow label 
-			b.get(); b.get(); b.get();
-			payloadLength = b.getShort() & 0xFFFF;
-			int nextHeader = (b.get() & 0xFF);
-			packetType = nextHeader;
-			@SuppressWarnings("unused")
-			int hopLimit = b.get() & 0xFF;
-
+			if (b.remaining() < 40) {
+				return;
+			}
+			payloadLength = b.getShort(start + 4) & 0xFFFF;
+			int nextHeader = b.get(start + 6) & 0xFF;
 			sourceIp = new byte[16];
+			b.position(start + 8);
 			b.get(sourceIp);
 			destinationIp = new byte[16];
 			b.get(destinationIp);
+			payloadPosition = start + 40;
+
+			// Hop-by-hop, routing and destination options extension headers
+			while ((nextHeader == 0) || (nextHeader == 43) || (nextHeader == 60)) {
+				if ((payloadPosition + 2) > end) {
+					return;
+				}
+				int extensionLength = ((b.get(payloadPosition + 1) & 0xFF) + 1) * 8;
+				nextHeader = b.get(payloadPosition) & 0xFF;
+				payloadPosition += extensionLength;
+				payloadLength -= extensionLength;
+			}
+			packetType = nextHeader;
 		} else {
-			packetType = -1;
-			sourceIp = null;
-			destinationIp = null;
-			payloadLength = -1;
+			return;
 		}
-		
-		if (packetType == 17) {
-			// UDP
-			int sourcePort = b.getShort() & 0xFFFF;
-			int destinationPort = b.getShort() & 0xFFFF;
-			int udpLength = b.getShort() & 0xFFFF;
-			@SuppressWarnings("unused")
-			int checksum = b.getShort() & 0xFFFF;
-			int packetPosition = b.position();
-			if (udpLength != payloadLength) {
-				LOGGER.warn("Strange packet, udp length {} should equal payload length {}", udpLength, payloadLength);
-			}
-			int packetLength = payloadLength - 8; // udpLength SHOULD EQUAL payloadLength
-			
-			Address sourceAddress = new Address(sourceIp, sourcePort);
-			Address destinationAddress = new Address(destinationIp, destinationPort);
-			
-			LOGGER.trace("Packet received: {} -> {} {}", sourceAddress, destinationAddress, new Date((long) (timestamp * 1000d)));
 
-			ByteBuffer bb;
-			try {
-				bb = ByteBuffer.wrap(bytes, packetPosition, packetLength);
-			} catch (Exception e) {
-				LOGGER.warn("Invalid packet: {} -> {} (position={}, length={}, data={})", sourceAddress, destinationAddress, packetPosition, packetLength, bytes.length, e);
-				return;
-			}
-			
-			handler.handle(timestamp, sourceAddress, destinationAddress, bb);
+		if (packetType != UDP) {
+			return;
+		}
+
+		if ((payloadPosition + 8) > end) {
+			LOGGER.warn("Truncated packet (position = {}, limit = {})", payloadPosition, end);
+			return;
 		}
+
+		int sourcePort = b.getShort(payloadPosition) & 0xFFFF;
+		int destinationPort = b.getShort(payloadPosition + 2) & 0xFFFF;
+		int udpLength = b.getShort(payloadPosition + 4) & 0xFFFF;
+		if (udpLength != payloadLength) {
+			LOGGER.warn("Strange packet, udp length {} should equal payload length {}", udpLength, payloadLength);
+		}
+		int packetPosition = payloadPosition + 8;
+		int packetLength = payloadLength - 8; // udpLength SHOULD EQUAL payloadLength
+
+		Address sourceAddress = new Address(sourceIp, sourcePort);
+		Address destinationAddress = new Address(destinationIp, destinationPort);
+
+		LOGGER.trace("Packet received: {} -> {} {}", sourceAddress, destinationAddress, new Date((long) (timestamp * 1000d)));
+
+		if ((packetLength < 0) || ((packetPosition + packetLength) > end)) {
+			LOGGER.warn("Invalid packet: {} -> {} (position={}, length={}, limit={})", sourceAddress, destinationAddress, packetPosition, packetLength, end);
+			return;
+		}
+
+		b.limit(packetPosition + packetLength);
+		b.position(packetPosition);
+		handler.handle(timestamp, sourceAddress, destinationAddress, b.slice());
 	}
 }
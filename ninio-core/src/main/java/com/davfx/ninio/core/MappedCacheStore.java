@@ -0,0 +1,446 @@
+package com.davfx.ninio.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.davfx.ninio.core.dependencies.Dependencies;
+import com.davfx.ninio.util.ConfigUtils;
+import com.davfx.ninio.util.DateUtils;
+import com.davfx.ninio.util.SerialExecutor;
+import com.davfx.ninio.util.Wait;
+import com.google.common.base.Charsets;
+import com.typesafe.config.Config;
+
+// Append-only log, memory-mapped, indexed off-heap by (address, key)
+// Record: length (int, written last to commit the record), timestamp (double), ip length (byte), ip, port (int), key length (short), key, data
+// Writes from I/O threads go through write(), compactions and syncs are done by the writing thread, lookups never wait for them
+final class MappedCacheStore implements AutoCloseable {
+
+	public static final class Stored {
+		public final double timestamp; // When written
+		public final ByteBuffer data;
+		public Stored(double timestamp, ByteBuffer data) {
+			this.timestamp = timestamp;
+			this.data = data;
+		}
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MappedCacheStore.class);
+
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(MappedCacheStore.class.getPackage().getName());
+	private static final long DEFAULT_SIZE = CONFIG.getBytes("cache.persistent.size").longValue();
+	private static final double COMPACT_PERIOD = ConfigUtils.getDuration(CONFIG, "cache.persistent.compact");
+
+	private static final int RECORD_HEADER_LENGTH = 4 + 8 + 1 + 4 + 2;
+
+	// Slot: hash (long), record position (int), record length (int)
+	private static final int SLOT_LENGTH = 8 + 4 + 4;
+	private static final int INITIAL_INDEX_CAPACITY = 1024;
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final File file;
+	private final double expiration;
+	private final long initialSize;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Executor writer = new SerialExecutor(MappedCacheStore.class);
+
+	private RandomAccessFile randomAccessFile;
+	private MappedByteBuffer log;
+	private int end = 0;
+	private long liveBytes = 0L;
+
+	private ByteBuffer index;
+	private int indexCapacity;
+	private int indexSize;
+
+	private double lastCompaction;
+
+	public MappedCacheStore(File file, double expiration) throws IOException {
+		this(file, expiration, DEFAULT_SIZE);
+	}
+
+	MappedCacheStore(File file, double expiration, long initialSize) throws IOException {
+		this.file = file;
+		this.expiration = expiration;
+		this.initialSize = Math.max(1024L, initialSize);
+
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			log = channel.map(FileChannel.MapMode.READ_WRITE, 0L, Math.min(Integer.MAX_VALUE, Math.max(channel.size(), this.initialSize)));
+		} catch (IOException ioe) {
+			randomAccessFile.close();
+			throw ioe;
+		}
+
+		clearIndex(INITIAL_INDEX_CAPACITY);
+		load();
+		lastCompaction = DateUtils.now();
+	}
+
+	private void load() {
+		double now = DateUtils.now();
+		int position = 0;
+		int count = 0;
+		while ((position + 4) <= log.capacity()) {
+			int length = log.getInt(position);
+			if ((length < RECORD_HEADER_LENGTH) || (length > (log.capacity() - position))) {
+				break;
+			}
+
+			if (!expired(log.getDouble(position + 4), now)) {
+				indexRecord(position, length);
+				count++;
+			}
+
+			position += length;
+		}
+		end = position;
+		LOGGER.debug("Cache loaded from {} ({} records, {} bytes)", file, count, end);
+	}
+
+	private void indexRecord(int position, int length) {
+		ByteBuffer b = log.duplicate();
+		b.position(position + 4 + 8);
+		byte[] ip = new byte[b.get() & 0xFF];
+		b.get(ip);
+		int port = b.getInt();
+		byte[] key = new byte[b.getShort() & 0xFFFF];
+		b.get(key);
+		index(ip, port, key, position, length);
+	}
+
+	private boolean expired(double timestamp, double now) {
+		return (expiration > 0d) && ((now - timestamp) >= expiration);
+	}
+
+	private static long hash(byte[] ip, int port, byte[] key) {
+		long h = FNV_OFFSET;
+		for (byte b : ip) {
+			h = (h ^ (b & 0xFF)) * FNV_PRIME;
+		}
+		h = (h ^ port) * FNV_PRIME;
+		for (byte b : key) {
+			h = (h ^ (b & 0xFF)) * FNV_PRIME;
+		}
+		return (h == 0L) ? 1L : h;
+	}
+
+	private boolean matches(int position, byte[] ip, int port, byte[] key) {
+		int p = position + 4 + 8;
+		if ((log.get(p) & 0xFF) != ip.length) {
+			return false;
+		}
+		p++;
+		for (byte b : ip) {
+			if (log.get(p) != b) {
+				return false;
+			}
+			p++;
+		}
+		if (log.getInt(p) != port) {
+			return false;
+		}
+		p += 4;
+		if ((log.getShort(p) & 0xFFFF) != key.length) {
+			return false;
+		}
+		p += 2;
+		for (byte b : key) {
+			if (log.get(p) != b) {
+				return false;
+			}
+			p++;
+		}
+		return true;
+	}
+
+	private void clearIndex(int capacity) {
+		indexCapacity = capacity;
+		indexSize = 0;
+		index = ByteBuffer.allocateDirect(capacity * SLOT_LENGTH);
+	}
+
+	// Returns the slot holding the key, or -(free slot + 1)
+	private int find(long hash, byte[] ip, int port, byte[] key) {
+		int mask = indexCapacity - 1;
+		int slot = ((int) (hash ^ (hash >>> 32))) & mask;
+		while (true) {
+			long h = index.getLong(slot * SLOT_LENGTH);
+			if (h == 0L) {
+				return -(slot + 1);
+			}
+			if ((h == hash) && matches(index.getInt((slot * SLOT_LENGTH) + 8), ip, port, key)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private void index(byte[] ip, int port, byte[] key, int position, int length) {
+		if (((indexSize + 1) * 2) > indexCapacity) {
+			ByteBuffer previous = index;
+			int previousCapacity = indexCapacity;
+			clearIndex(indexCapacity * 2);
+			int mask = indexCapacity - 1;
+			for (int i = 0; i < previousCapacity; i++) {
+				long h = previous.getLong(i * SLOT_LENGTH);
+				if (h == 0L) {
+					continue;
+				}
+				int slot = ((int) (h ^ (h >>> 32))) & mask;
+				while (index.getLong(slot * SLOT_LENGTH) != 0L) {
+					slot = (slot + 1) & mask;
+				}
+				index.putLong(slot * SLOT_LENGTH, h);
+				index.putInt((slot * SLOT_LENGTH) + 8, previous.getInt((i * SLOT_LENGTH) + 8));
+				index.putInt((slot * SLOT_LENGTH) + 12, previous.getInt((i * SLOT_LENGTH) + 12));
+				indexSize++;
+			}
+		}
+
+		long hash = hash(ip, port, key);
+		int slot = find(hash, ip, port, key);
+		if (slot < 0) {
+			slot = -(slot + 1);
+			indexSize++;
+		} else {
+			liveBytes -= index.getInt((slot * SLOT_LENGTH) + 12);
+		}
+		index.putLong(slot * SLOT_LENGTH, hash);
+		index.putInt((slot * SLOT_LENGTH) + 8, position);
+		index.putInt((slot * SLOT_LENGTH) + 12, length);
+		liveBytes += length;
+	}
+
+	// Null if not found, or if the store is busy (compacting)
+	public Stored get(Address address, String key) {
+		if (!lock.tryLock()) {
+			return null;
+		}
+		try {
+			return doGet(address, key);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Stored doGet(Address address, String key) {
+		if (log == null) {
+			return null;
+		}
+
+		byte[] k = key.getBytes(Charsets.UTF_8);
+		int slot = find(hash(address.ip, address.port, k), address.ip, address.port, k);
+		if (slot < 0) {
+			return null;
+		}
+
+		int position = index.getInt((slot * SLOT_LENGTH) + 8);
+		int length = index.getInt((slot * SLOT_LENGTH) + 12);
+		double timestamp = log.getDouble(position + 4);
+		if (expired(timestamp, DateUtils.now())) {
+			return null;
+		}
+
+		int headerLength = RECORD_HEADER_LENGTH + address.ip.length + k.length;
+		ByteBuffer b = log.duplicate();
+		b.position(position + headerLength);
+		b.limit(position + length);
+
+		// Hot data is kept in heap by the caller, the mapped log may be remapped anytime
+		ByteBuffer data = ByteBuffer.allocate(length - headerLength);
+		data.put(b);
+		data.flip();
+		return new Stored(timestamp, data);
+	}
+
+	// Written later by the writing thread, the data must not be modified
+	public void write(final Address address, final String key, final ByteBuffer data) {
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				put(address, key, data);
+			}
+		});
+	}
+
+	// Can compact, not to be called from an I/O thread
+	public void put(Address address, String key, ByteBuffer data) {
+		lock.lock();
+		try {
+			doPut(address, key, data);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void doPut(Address address, String key, ByteBuffer data) {
+		if (log == null) {
+			return;
+		}
+
+		byte[] k = key.getBytes(Charsets.UTF_8);
+		int length = RECORD_HEADER_LENGTH + address.ip.length + k.length + data.remaining();
+
+		double now = DateUtils.now();
+		try {
+			if ((now - lastCompaction) >= COMPACT_PERIOD) {
+				lastCompaction = now;
+				if ((reclaimable(now) * 4L) >= end) {
+					compact(now, 0);
+				}
+			}
+
+			if ((((long) end) + length + 4L) > log.capacity()) {
+				compact(now, length + 4);
+			}
+		} catch (IOException ioe) {
+			LOGGER.error("Could not compact cache: {}", file, ioe);
+			return;
+		}
+		if ((((long) end) + length + 4L) > log.capacity()) {
+			LOGGER.error("Cache full: {}", file);
+			return;
+		}
+
+		int position = end;
+		ByteBuffer b = log.duplicate();
+		b.position(position + 4);
+		b.putDouble(now);
+		b.put((byte) address.ip.length);
+		b.put(address.ip);
+		b.putInt(address.port);
+		b.putShort((short) k.length);
+		b.put(k);
+		b.put(data.duplicate());
+		b.putInt(0); // Guards against a previously torn record
+		log.putInt(position, length);
+		end += length;
+
+		index(address.ip, address.port, k, position, length);
+	}
+
+	private long reclaimable(double now) {
+		long r = end - liveBytes;
+		if (expiration > 0d) {
+			for (int i = 0; i < indexCapacity; i++) {
+				if (index.getLong(i * SLOT_LENGTH) == 0L) {
+					continue;
+				}
+				if (expired(log.getDouble(index.getInt((i * SLOT_LENGTH) + 8) + 4), now)) {
+					r += index.getInt((i * SLOT_LENGTH) + 12);
+				}
+			}
+		}
+		return r;
+	}
+
+	// Live records are copied to a fresh file, atomically renamed over the previous one
+	private void compact(double now, int required) throws IOException {
+		long size = initialSize;
+		while (size < (((liveBytes + required) * 2L) + 4L)) {
+			size *= 2L;
+		}
+		size = Math.min(Integer.MAX_VALUE, size);
+
+		File compacted = new File(file.getPath() + ".compact");
+		compacted.delete();
+		RandomAccessFile compactedFile = new RandomAccessFile(compacted, "rw");
+		MappedByteBuffer compactedLog;
+		int compactedEnd = 0;
+		ByteBuffer previousIndex = index;
+		int previousCapacity = indexCapacity;
+		try {
+			compactedLog = compactedFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0L, size);
+			for (int i = 0; i < previousCapacity; i++) {
+				if (previousIndex.getLong(i * SLOT_LENGTH) == 0L) {
+					continue;
+				}
+				int position = previousIndex.getInt((i * SLOT_LENGTH) + 8);
+				int length = previousIndex.getInt((i * SLOT_LENGTH) + 12);
+				if (expired(log.getDouble(position + 4), now)) {
+					continue;
+				}
+				ByteBuffer b = log.duplicate();
+				b.position(position);
+				b.limit(position + length);
+				compactedLog.position(compactedEnd);
+				compactedLog.put(b);
+				compactedEnd += length;
+			}
+			compactedLog.force();
+		} catch (IOException ioe) {
+			compactedFile.close();
+			compacted.delete();
+			throw ioe;
+		}
+
+		if (!compacted.renameTo(file)) {
+			compactedFile.close();
+			compacted.delete();
+			throw new IOException("Could not rename " + compacted + " to " + file);
+		}
+
+		randomAccessFile.close();
+		randomAccessFile = compactedFile;
+
+		LOGGER.debug("Cache compacted: {} ({} -> {} bytes)", file, end, compactedEnd);
+
+		log = compactedLog;
+		end = compactedEnd;
+		liveBytes = 0L;
+		clearIndex(previousCapacity);
+		int position = 0;
+		while (position < end) {
+			int length = log.getInt(position);
+			indexRecord(position, length);
+			position += length;
+		}
+	}
+
+	// After the pending writes
+	@Override
+	public void close() {
+		final Wait wait = new Wait();
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				lock.lock();
+				try {
+					doClose();
+				} finally {
+					lock.unlock();
+				}
+				wait.run();
+			}
+		});
+		wait.waitFor();
+	}
+
+	private void doClose() {
+		if (log == null) {
+			return;
+		}
+		log.force();
+		log = null;
+		index = null;
+		try {
+			randomAccessFile.close();
+		} catch (IOException ioe) {
+			LOGGER.error("Could not close cache: {}", file, ioe);
+		}
+	}
+}
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
 import com.davfx.ninio.util.LibraryLoader;
 
@@ -19,10 +20,16 @@ public final class NativeRawSocket {
 	private native static int __recvfrom1(int socket, byte[] data, int offset, int length, int family);
 	private native static int __recvfrom2(int socket, byte[] data, int offset, int length, int family, byte[] address);
 	private native static int __sendto(int socket, byte[] data, int offset, int length, int family, byte[] address, int scope_id);
+	private native static int __batch();
+	private native static int __recvmmsg(int socket, ByteBuffer data, int slot, int count, int family, byte[] addresses, int[] lengths);
+	private native static int __sendmmsg(int socket, ByteBuffer data, int[] offsets, int[] lengths, int count, int family, byte[] addresses, int[] scope_ids);
 
 	public static final int PF_INET;
 	public static final int PF_INET6;
 
+	// Max packets per batched call, 0 if the loaded library predates batched calls
+	public static final int BATCH;
+
 	static {
     	LibraryLoader.load(NativeRawSocket.class.getClassLoader(), "lib/NativeRawSocket");
 		if (__libStartup() != 0) {
@@ -37,6 +44,14 @@ public final class NativeRawSocket {
 
 		PF_INET = __PF_INET();
 		PF_INET6 = __PF_INET6();
+
+		int batch;
+		try {
+			batch = __batch();
+		} catch (UnsatisfiedLinkError e) {
+			batch = 0;
+		}
+		BATCH = batch;
 	}
 
 	private final int socket;
@@ -69,6 +84,9 @@ public final class NativeRawSocket {
 		return 0;
 	}
 
+	public int addressLength() {
+		return (family == PF_INET6) ? 16 : 4;
+	}
 
 
 	public void bind(byte[] address) throws IOException {
@@ -122,4 +140,60 @@ public final class NativeRawSocket {
 		return result;
 	}
 
+	// Blocks until at least one packet is received, then takes the ones already there (up to count)
+	// Packet i is at data[i * slot], its length is lengths[i] and its source address is at addresses[i * addressLength()]
+	public int read(ByteBuffer data, int slot, int count, byte[] addresses, int[] lengths) throws IOException {
+		if (BATCH == 0) {
+			throw new UnsupportedOperationException("Batched calls not supported by native library");
+		}
+		if (!data.isDirect()) {
+			throw new IllegalArgumentException("Direct buffer required");
+		}
+		if ((slot <= 0) || (count <= 0) || (count > BATCH) || (((long) slot * count) > data.capacity()) || (lengths.length < count) || (addresses.length < (count * addressLength()))) {
+			throw new IllegalArgumentException("Invalid slot or count");
+		}
+
+		int result = __recvmmsg(socket, data, slot, count, family, addresses, lengths);
+
+		if (result < 0) {
+			throwIOException(result);
+		}
+
+		return result;
+	}
+
+	// Packet i is at data[offsets[i]], its length is lengths[i] and its destination address is at addresses[i * addressLength()]
+	// Returns the number of packets sent, the following ones could not be sent
+	public int write(ByteBuffer data, int[] offsets, int[] lengths, int count, byte[] addresses) throws IOException {
+		if (BATCH == 0) {
+			throw new UnsupportedOperationException("Batched calls not supported by native library");
+		}
+		if (!data.isDirect()) {
+			throw new IllegalArgumentException("Direct buffer required");
+		}
+		int addressLength = addressLength();
+		if ((count < 0) || (count > BATCH) || (offsets.length < count) || (lengths.length < count) || (addresses.length < (count * addressLength))) {
+			throw new IllegalArgumentException("Invalid count");
+		}
+
+		int[] scope_ids = new int[count];
+		for (int i = 0; i < count; i++) {
+			if ((offsets[i] < 0) || (lengths[i] < 0) || (lengths[i] > (data.capacity() - offsets[i]))) {
+				throw new IllegalArgumentException("Invalid offset or length");
+			}
+			if (family == PF_INET6) {
+				byte[] address = new byte[addressLength];
+				System.arraycopy(addresses, i * addressLength, address, 0, addressLength);
+				scope_ids[i] = getScopeId(address);
+			}
+		}
+
+		int result = __sendmmsg(socket, data, offsets, lengths, count, family, addresses, scope_ids);
+
+		if (result < 0) {
+			throwIOException(result);
+		}
+
+		return result;
+	}
 }
@@ -0,0 +1,425 @@
+package com.davfx.ninio.core;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.davfx.ninio.core.dependencies.Dependencies;
+import com.davfx.ninio.util.ConfigUtils;
+import com.davfx.ninio.util.DateUtils;
+import com.typesafe.config.Config;
+
+/*
+https://wiki.wireshark.org/Development/LibpcapFileFormat
+https://github.com/pcapng/pcapng
+
+Packets are read into one reusable direct buffer and the UDP payload is handed to the handler as a slice of it:
+the handler must not keep the buffer after returning.
+*/
+public final class PcapTcpdumpReader implements TcpdumpReader {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PcapTcpdumpReader.class);
+
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(PcapTcpdumpReader.class.getPackage().getName());
+	private static final int BUFFER_SIZE = CONFIG.getBytes("tcpdump.pcap.buffer").intValue();
+
+	private static final int PCAP_MAGIC_MICRO = 0xA1B2C3D4;
+	private static final int PCAP_MAGIC_NANO = 0xA1B23C4D;
+	private static final int PCAP_MAGIC_MICRO_SWAPPED = 0xD4C3B2A1;
+	private static final int PCAP_MAGIC_NANO_SWAPPED = 0x4D3CB2A1;
+
+	private static final int PCAPNG_SECTION_HEADER_BLOCK = 0x0A0D0D0A;
+	private static final int PCAPNG_BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+	private static final int PCAPNG_INTERFACE_DESCRIPTION_BLOCK = 1;
+	private static final int PCAPNG_PACKET_BLOCK = 2;
+	private static final int PCAPNG_SIMPLE_PACKET_BLOCK = 3;
+	private static final int PCAPNG_ENHANCED_PACKET_BLOCK = 6;
+	private static final int PCAPNG_OPTION_END = 0;
+	private static final int PCAPNG_OPTION_IF_TSRESOL = 9;
+
+	private static final int LINKTYPE_NULL = 0;
+	private static final int LINKTYPE_ETHERNET = 1;
+	private static final int LINKTYPE_RAW = 101;
+	private static final int LINKTYPE_LOOP = 108;
+	private static final int LINKTYPE_LINUX_SLL = 113;
+	private static final int LINKTYPE_IPV4 = 228;
+	private static final int LINKTYPE_IPV6 = 229;
+	private static final int LINKTYPE_LINUX_SLL2 = 276;
+
+	private static final int ETHERTYPE_IPV4 = 0x0800;
+	private static final int ETHERTYPE_IPV6 = 0x86DD;
+	private static final int ETHERTYPE_VLAN = 0x8100;
+	private static final int ETHERTYPE_QINQ = 0x88A8;
+
+	private final int bufferSize;
+
+	public PcapTcpdumpReader() {
+		this(BUFFER_SIZE);
+	}
+	public PcapTcpdumpReader(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	@Override
+	public Iterable<String> tcpdumpOptions() {
+		return Arrays.asList("-w", "-", "-U");
+	}
+
+	@Override
+	public void read(InputStream input, Handler handler) throws IOException {
+		ReadableByteChannel channel;
+		if (input instanceof FileInputStream) {
+			channel = ((FileInputStream) input).getChannel();
+		} else {
+			channel = Channels.newChannel(input);
+		}
+		read(channel, handler);
+	}
+
+	public void read(ReadableByteChannel channel, Handler handler) throws IOException {
+		Stream stream = new Stream(channel, bufferSize);
+		LOGGER.debug("Reading pcap stream");
+		try {
+			if (!stream.ensure(4)) {
+				return;
+			}
+			int magic = stream.buffer.order(ByteOrder.BIG_ENDIAN).getInt(stream.buffer.position());
+			if (magic == PCAPNG_SECTION_HEADER_BLOCK) {
+				readPcapng(stream, handler);
+			} else {
+				readPcap(stream, magic, handler);
+			}
+		} catch (EOFException eof) {
+			LOGGER.trace("Truncated pcap stream", eof);
+		}
+	}
+
+	// Buffer is kept in read mode: position is the next byte to parse, limit is the end of available data
+	private static final class Stream {
+		private final ReadableByteChannel channel;
+		public final ByteBuffer buffer;
+
+		public Stream(ReadableByteChannel channel, int bufferSize) {
+			this.channel = channel;
+			buffer = ByteBuffer.allocateDirect(bufferSize);
+			buffer.limit(0);
+		}
+
+		// Returns false on clean end of stream, throws EOFException if the stream ends in the middle
+		public boolean ensure(int length) throws IOException {
+			if (buffer.remaining() >= length) {
+				return true;
+			}
+			if (length > buffer.capacity()) {
+				throw new IOException("Block too big: " + length);
+			}
+			boolean empty = !buffer.hasRemaining();
+			buffer.compact();
+			try {
+				while (buffer.position() < length) {
+					if (channel.read(buffer) < 0) {
+						if (empty && (buffer.position() == 0)) {
+							return false;
+						}
+						throw new EOFException();
+					}
+				}
+			} finally {
+				buffer.flip();
+			}
+			return true;
+		}
+
+		public void skip(long length) throws IOException {
+			while (length > 0L) {
+				if (!buffer.hasRemaining() && !ensure(1)) {
+					throw new EOFException();
+				}
+				int n = (int) Math.min(length, buffer.remaining());
+				buffer.position(buffer.position() + n);
+				length -= n;
+			}
+		}
+	}
+
+	private static void readPcap(Stream stream, int magic, Handler handler) throws IOException {
+		ByteBuffer b = stream.buffer;
+		boolean nano;
+		if ((magic == PCAP_MAGIC_MICRO) || (magic == PCAP_MAGIC_NANO)) {
+			b.order(ByteOrder.BIG_ENDIAN);
+			nano = (magic == PCAP_MAGIC_NANO);
+		} else if ((magic == PCAP_MAGIC_MICRO_SWAPPED) || (magic == PCAP_MAGIC_NANO_SWAPPED)) {
+			b.order(ByteOrder.LITTLE_ENDIAN);
+			nano = (magic == PCAP_MAGIC_NANO_SWAPPED);
+		} else {
+			throw new IOException("Bad header: 0x" + Integer.toHexString(magic));
+		}
+
+		/*
+		typedef struct pcap_hdr_s {
+			guint32 magic_number;   /* magic number * /
+			guint16 version_major;  /* major version number * /
+			guint16 version_minor;  /* minor version number * /
+			gint32  thiszone;       /* GMT to local correction * /
+			guint32 sigfigs;        /* accuracy of timestamps * /
+			guint32 snaplen;        /* max length of captured packets, in octets * /
+			guint32 network;        /* data link type * /
+		} pcap_hdr_t;
+		*/
+		if (!stream.ensure(24)) {
+			throw new EOFException();
+		}
+		b.getInt();
+		int majorVersionNumber = b.getShort() & 0xFFFF;
+		int minorVersionNumber = b.getShort() & 0xFFFF;
+		int zone = b.getInt();
+		b.getInt();
+		long maxCaptureLength = b.getInt() & 0xFFFFFFFFL;
+		int linkType = b.getInt() & 0x0FFFFFFF; // Upper bits are FCS information
+		LOGGER.debug("Tcpdump header recognized (version = {}/{}, zone = {}, maxCaptureLength = {}, linkType = {}, nano = {})", majorVersionNumber, minorVersionNumber, zone, maxCaptureLength, linkType, nano);
+
+		double fractionPerSecond = nano ? 1_000_000_000d : 1_000_000d;
+
+		while (true) {
+			/*
+			typedef struct pcaprec_hdr_s {
+				guint32 ts_sec;         /* timestamp seconds * /
+				guint32 ts_usec;        /* timestamp microseconds (nanoseconds if nano) * /
+				guint32 incl_len;       /* number of octets of packet saved in file * /
+				guint32 orig_len;       /* actual length of packet * /
+			} pcaprec_hdr_t;
+			*/
+			if (!stream.ensure(16)) {
+				break;
+			}
+			long timestampSeconds = b.getInt() & 0xFFFFFFFFL;
+			long timestampFraction = b.getInt() & 0xFFFFFFFFL;
+			int savedLength = b.getInt();
+			b.getInt();
+
+			double timestamp = timestampSeconds + (timestampFraction / fractionPerSecond);
+
+			LOGGER.trace("Tcpdump packet ({} bytes)", savedLength);
+
+			if ((savedLength < 0) || (savedLength > b.capacity())) {
+				LOGGER.warn("Packet too big, skipped: {}", savedLength & 0xFFFFFFFFL);
+				stream.skip(savedLength & 0xFFFFFFFFL);
+				continue;
+			}
+			if (!stream.ensure(savedLength)) {
+				throw new EOFException();
+			}
+			int position = b.position();
+			int limit = b.limit();
+			b.limit(position + savedLength);
+			readLink(timestamp, linkType, b, handler);
+			b.limit(limit);
+			b.position(position + savedLength);
+		}
+	}
+
+	private static void readPcapng(Stream stream, Handler handler) throws IOException {
+		ByteBuffer b = stream.buffer;
+
+		int[] linkTypes = new int[4];
+		long[] unitsPerSecond = new long[4];
+		int interfaces = 0;
+
+		while (true) {
+			if (!stream.ensure(12)) {
+				break;
+			}
+			int position = b.position();
+			int type = b.getInt(position); // Section header block type is a palindrome
+			if (type == PCAPNG_SECTION_HEADER_BLOCK) {
+				int byteOrderMagic = b.getInt(position + 8);
+				if (byteOrderMagic == PCAPNG_BYTE_ORDER_MAGIC) {
+					b.order(ByteOrder.BIG_ENDIAN);
+				} else if (Integer.reverseBytes(byteOrderMagic) == PCAPNG_BYTE_ORDER_MAGIC) {
+					b.order(ByteOrder.LITTLE_ENDIAN);
+				} else {
+					throw new IOException("Bad byte order magic: 0x" + Integer.toHexString(byteOrderMagic));
+				}
+				interfaces = 0;
+				LOGGER.debug("Pcapng section recognized (byte order = {})", b.order());
+			}
+
+			long blockLength = b.getInt(position + 4) & 0xFFFFFFFFL;
+			if ((blockLength < 12) || ((blockLength % 4) != 0)) {
+				throw new IOException("Invalid block length: " + blockLength);
+			}
+			if (blockLength > b.capacity()) {
+				LOGGER.warn("Block too big, skipped: {}", blockLength);
+				stream.skip(blockLength);
+				continue;
+			}
+			if (!stream.ensure((int) blockLength)) {
+				throw new EOFException();
+			}
+			position = b.position();
+			int limit = b.limit();
+			int bodyEnd = position + ((int) blockLength) - 4;
+
+			switch (type) {
+			case PCAPNG_INTERFACE_DESCRIPTION_BLOCK: {
+				if (interfaces == linkTypes.length) {
+					linkTypes = Arrays.copyOf(linkTypes, interfaces * 2);
+					unitsPerSecond = Arrays.copyOf(unitsPerSecond, interfaces * 2);
+				}
+				linkTypes[interfaces] = b.getShort(position + 8) & 0xFFFF;
+				unitsPerSecond[interfaces] = 1_000_000L;
+				int option = position + 16;
+				while ((option + 4) <= bodyEnd) {
+					int code = b.getShort(option) & 0xFFFF;
+					int length = b.getShort(option + 2) & 0xFFFF;
+					if (code == PCAPNG_OPTION_END) {
+						break;
+					}
+					if ((code == PCAPNG_OPTION_IF_TSRESOL) && (length == 1)) {
+						int resolution = b.get(option + 4) & 0xFF;
+						int exponent = resolution & 0x7F;
+						if ((resolution & 0x80) == 0) {
+							long u = 1L;
+							for (int i = 0; i < Math.min(exponent, 18); i++) {
+								u *= 10L;
+							}
+							unitsPerSecond[interfaces] = u;
+						} else {
+							unitsPerSecond[interfaces] = 1L << Math.min(exponent, 62);
+						}
+					}
+					option += 4 + ((length + 3) & ~3);
+				}
+				LOGGER.debug("Pcapng interface #{} (linkType = {}, unitsPerSecond = {})", interfaces, linkTypes[interfaces], unitsPerSecond[interfaces]);
+				interfaces++;
+				break;
+			}
+			case PCAPNG_ENHANCED_PACKET_BLOCK:
+			case PCAPNG_PACKET_BLOCK: {
+				int interfaceId;
+				if (type == PCAPNG_ENHANCED_PACKET_BLOCK) {
+					interfaceId = b.getInt(position + 8);
+				} else {
+					interfaceId = b.getShort(position + 8) & 0xFFFF;
+				}
+				long timestampUnits = ((b.getInt(position + 12) & 0xFFFFFFFFL) << 32) | (b.getInt(position + 16) & 0xFFFFFFFFL);
+				int capturedLength = b.getInt(position + 20);
+				int dataPosition = position + 28;
+				if ((interfaceId < 0) || (interfaceId >= interfaces)) {
+					LOGGER.warn("Unknown interface: {}", interfaceId);
+					break;
+				}
+				if ((capturedLength < 0) || ((dataPosition + capturedLength) > bodyEnd)) {
+					LOGGER.warn("Invalid captured length: {}", capturedLength);
+					break;
+				}
+				long u = unitsPerSecond[interfaceId];
+				double timestamp = (timestampUnits / u) + (((double) (timestampUnits % u)) / u);
+				b.limit(dataPosition + capturedLength);
+				b.position(dataPosition);
+				readLink(timestamp, linkTypes[interfaceId], b, handler);
+				b.limit(limit);
+				break;
+			}
+			case PCAPNG_SIMPLE_PACKET_BLOCK: {
+				if (interfaces == 0) {
+					LOGGER.warn("Simple packet block without interface");
+					break;
+				}
+				int originalLength = b.getInt(position + 8);
+				int dataPosition = position + 12;
+				int capturedLength = Math.min(originalLength, bodyEnd - dataPosition);
+				if (capturedLength < 0) {
+					break;
+				}
+				b.limit(dataPosition + capturedLength);
+				b.position(dataPosition);
+				readLink(DateUtils.now(), linkTypes[0], b, handler);
+				b.limit(limit);
+				break;
+			}
+			default:
+				break;
+			}
+
+			b.position(position + ((int) blockLength));
+		}
+	}
+
+	// Buffer position and limit frame the link layer packet
+	private static void readLink(double timestamp, int linkType, ByteBuffer b, Handler handler) {
+		int position = b.position();
+		int length = b.remaining();
+		int ipPosition;
+		switch (linkType) {
+		case LINKTYPE_RAW:
+		case LINKTYPE_IPV4:
+		case LINKTYPE_IPV6:
+			ipPosition = position;
+			break;
+		case LINKTYPE_NULL:
+		case LINKTYPE_LOOP:
+			ipPosition = position + 4;
+			break;
+		case LINKTYPE_ETHERNET: {
+			if (length < 14) {
+				return;
+			}
+			int p = position + 12;
+			int etherType = ((b.get(p) & 0xFF) << 8) | (b.get(p + 1) & 0xFF);
+			while ((etherType == ETHERTYPE_VLAN) || (etherType == ETHERTYPE_QINQ)) {
+				p += 4;
+				if ((p + 2) > b.limit()) {
+					return;
+				}
+				etherType = ((b.get(p) & 0xFF) << 8) | (b.get(p + 1) & 0xFF);
+			}
+			if ((etherType != ETHERTYPE_IPV4) && (etherType != ETHERTYPE_IPV6)) {
+				return;
+			}
+			ipPosition = p + 2;
+			break;
+		}
+		case LINKTYPE_LINUX_SLL: {
+			if (length < 16) {
+				return;
+			}
+			int protocol = ((b.get(position + 14) & 0xFF) << 8) | (b.get(position + 15) & 0xFF);
+			if ((protocol != ETHERTYPE_IPV4) && (protocol != ETHERTYPE_IPV6)) {
+				return;
+			}
+			ipPosition = position + 16;
+			break;
+		}
+		case LINKTYPE_LINUX_SLL2: {
+			if (length < 20) {
+				return;
+			}
+			int protocol = ((b.get(position) & 0xFF) << 8) | (b.get(position + 1) & 0xFF);
+			if ((protocol != ETHERTYPE_IPV4) && (protocol != ETHERTYPE_IPV6)) {
+				return;
+			}
+			ipPosition = position + 20;
+			break;
+		}
+		default:
+			LOGGER.trace("Unsupported link type: {}", linkType);
+			return;
+		}
+
+		if (ipPosition >= b.limit()) {
+			return;
+		}
+		b.position(ipPosition);
+		IpPacketReadUtils.read(timestamp, b, handler);
+		b.position(position);
+	}
+}
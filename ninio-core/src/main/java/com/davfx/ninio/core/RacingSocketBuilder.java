@@ -0,0 +1,301 @@
+package com.davfx.ninio.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.davfx.ninio.core.dependencies.Dependencies;
+import com.davfx.ninio.util.ClassThreadFactory;
+import com.davfx.ninio.util.ConfigUtils;
+import com.google.common.collect.ImmutableList;
+import com.typesafe.config.Config;
+
+// Happy Eyeballs (RFC 8305): one connection per address, started one after the other (or as soon as the previous one fails), the first connected wins and the others are closed
+// Wrap the secure builder (not the other way around) to race TLS connections
+public final class RacingSocketBuilder implements TcpSocket.Builder {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RacingSocketBuilder.class);
+
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(RacingSocketBuilder.class.getPackage().getName());
+	private static final double DEFAULT_DELAY = ConfigUtils.getDuration(CONFIG, "tcp.racing.delay");
+
+	private static final ScheduledExecutorService DELAY_EXECUTOR = Executors.newSingleThreadScheduledExecutor(new ClassThreadFactory(RacingSocketBuilder.class, true));
+
+	private List<Address> connectAddresses = ImmutableList.of();
+	private double delay = DEFAULT_DELAY;
+
+	private final TcpSocket.Builder wrappee;
+
+	public RacingSocketBuilder(TcpSocket.Builder wrappee) {
+		this.wrappee = wrappee;
+	}
+
+	public RacingSocketBuilder delay(double delay) {
+		this.delay = delay;
+		return this;
+	}
+
+	@Override
+	public RacingSocketBuilder with(ByteBufferAllocator byteBufferAllocator) {
+		wrappee.with(byteBufferAllocator);
+		return this;
+	}
+
+	@Override
+	public RacingSocketBuilder bind(Address bindAddress) {
+		wrappee.bind(bindAddress);
+		return this;
+	}
+
+	@Override
+	public RacingSocketBuilder to(Address connectAddress) {
+		connectAddresses = ImmutableList.of(connectAddress);
+		return this;
+	}
+
+	// In preference order, address families should already be interleaved
+	public RacingSocketBuilder to(List<Address> connectAddresses) {
+		this.connectAddresses = ImmutableList.copyOf(connectAddresses);
+		return this;
+	}
+
+	@Override
+	public Connecter create(NinioProvider ninioProvider) {
+		if (connectAddresses.isEmpty()) {
+			throw new NullPointerException("connectAddress");
+		}
+		if (connectAddresses.size() == 1) {
+			return wrappee.to(connectAddresses.get(0)).create(ninioProvider);
+		}
+		// Created (not connected) right away, so that the wrapped builder can be reused
+		List<Connecter> attempts = new ArrayList<>(connectAddresses.size());
+		for (Address a : connectAddresses) {
+			attempts.add(wrappee.to(a).create(ninioProvider));
+		}
+		return new RacingConnecter(ninioProvider.executor(), connectAddresses, attempts, delay);
+	}
+
+	private static final class RacingConnecter implements Connecter {
+		private static final class ToSend {
+			public final Address address;
+			public final ByteBuffer buffer;
+			public final SendCallback callback;
+			public ToSend(Address address, ByteBuffer buffer, SendCallback callback) {
+				this.address = address;
+				this.buffer = buffer;
+				this.callback = callback;
+			}
+		}
+
+		private final Executor executor;
+		private final List<Address> addresses;
+		private final List<Connecter> attempts;
+		private final boolean[] done;
+		private final double delay;
+
+		private Connection callback = null;
+		private int next = 0;
+		private int failed = 0;
+		private Connecter winner = null;
+		private boolean closed = false;
+		private ScheduledFuture<?> timer = null;
+		private final List<ToSend> toSend = new LinkedList<>();
+
+		public RacingConnecter(Executor executor, List<Address> addresses, List<Connecter> attempts, double delay) {
+			this.executor = executor;
+			this.addresses = addresses;
+			this.attempts = attempts;
+			done = new boolean[attempts.size()];
+			this.delay = delay;
+		}
+
+		@Override
+		public void connect(final Connection callback) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					RacingConnecter.this.callback = callback;
+					launchNext();
+				}
+			});
+		}
+
+		private void cancelTimer() {
+			if (timer != null) {
+				timer.cancel(false);
+				timer = null;
+			}
+		}
+
+		private void launchNext() {
+			if (closed || (winner != null) || (next == attempts.size())) {
+				return;
+			}
+			cancelTimer();
+			final int i = next;
+			next++;
+			if (next < attempts.size()) {
+				final int expected = next;
+				timer = DELAY_EXECUTOR.schedule(new Runnable() {
+					@Override
+					public void run() {
+						executor.execute(new Runnable() {
+							@Override
+							public void run() {
+								if (next == expected) {
+									timer = null;
+									launchNext();
+								}
+							}
+						});
+					}
+				}, (long) (delay * 1000d), TimeUnit.MILLISECONDS);
+			}
+
+			LOGGER.trace("Connecting to {}", addresses.get(i));
+			final Connecter c = attempts.get(i);
+			c.connect(new Connection() {
+				@Override
+				public void connected(final Address address) {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							if (closed || (winner != null)) {
+								c.close();
+								return;
+							}
+							LOGGER.trace("Connected to {}", addresses.get(i));
+							winner = c;
+							cancelTimer();
+							for (Connecter a : attempts) {
+								if (a != c) {
+									a.close();
+								}
+							}
+							for (ToSend s : toSend) {
+								c.send(s.address, s.buffer, s.callback);
+							}
+							toSend.clear();
+							callback.connected(address);
+						}
+					});
+				}
+
+				@Override
+				public void received(final Address address, final ByteBuffer buffer) {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							if (winner == c) {
+								callback.received(address, buffer);
+							}
+						}
+					});
+				}
+
+				@Override
+				public void closed() {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							if (winner == c) {
+								callback.closed();
+							} else {
+								attemptFailed(i, new IOException("Closed"));
+							}
+						}
+					});
+				}
+
+				@Override
+				public void failed(final IOException ioe) {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							if (winner == c) {
+								callback.failed(ioe);
+							} else {
+								attemptFailed(i, ioe);
+							}
+						}
+					});
+				}
+			});
+		}
+
+		// The next attempt is started right away
+		private void attemptFailed(int i, IOException ioe) {
+			if (closed || (winner != null) || done[i]) {
+				return;
+			}
+			done[i] = true;
+			failed++;
+			LOGGER.trace("Could not connect to {}: {}", addresses.get(i), ioe.getMessage());
+			if (failed == attempts.size()) {
+				closed = true;
+				failAll(ioe);
+				callback.failed(ioe);
+				return;
+			}
+			launchNext();
+		}
+
+		private void failAll(IOException ioe) {
+			for (ToSend s : toSend) {
+				s.callback.failed(ioe);
+			}
+			toSend.clear();
+		}
+
+		@Override
+		public void send(final Address address, final ByteBuffer buffer, final SendCallback callback) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (winner != null) {
+						winner.send(address, buffer, callback);
+					} else if (closed) {
+						callback.failed(new IOException("Closed"));
+					} else {
+						toSend.add(new ToSend(address, buffer, callback));
+					}
+				}
+			});
+		}
+
+		@Override
+		public void close() {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (closed) {
+						return;
+					}
+					cancelTimer();
+					if (winner != null) {
+						winner.close();
+						return;
+					}
+					closed = true;
+					for (Connecter a : attempts) {
+						a.close();
+					}
+					failAll(new IOException("Closed"));
+					if (callback != null) {
+						callback.closed();
+					}
+				}
+			});
+		}
+	}
+}
@@ -4,17 +4,27 @@ import java.io.IOException;
 import java.net.ProtocolFamily;
 import java.net.StandardProtocolFamily;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedList;
 import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.davfx.ninio.core.dependencies.Dependencies;
+import com.davfx.ninio.util.ConfigUtils;
 import com.davfx.ninio.util.SerialExecutor;
+import com.typesafe.config.Config;
 
 public final class RawSocket implements Connecter {
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(RawSocket.class);
 
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(RawSocket.class.getPackage().getName());
+	private static final int MAX_BATCH = CONFIG.getInt("raw.batch");
+	private static final int PACKET_SIZE = CONFIG.getBytes("raw.packet").intValue();
+
 	public static interface Builder extends NinioBuilder<Connecter> {
 		Builder family(ProtocolFamily family);
 		Builder protocol(int protocol);
@@ -47,11 +57,23 @@ public final class RawSocket implements Connecter {
 			
 			@Override
 			public Connecter create(NinioProvider ninioProvider) {
-				return new RawSocket(family, protocol, bindAddress);
+				return new RawSocket(ninioProvider.queue(NinioPriority.HIGH), family, protocol, bindAddress);
 			}
 		};
 	}
 	
+	private static final class ToWrite {
+		public final Address address;
+		public final ByteBuffer buffer;
+		public final SendCallback callback;
+		public ToWrite(Address address, ByteBuffer buffer, SendCallback callback) {
+			this.address = address;
+			this.buffer = buffer;
+			this.callback = callback;
+		}
+	}
+
+	private final Queue queue;
 	private final ProtocolFamily family;
 	private final int protocol;
 	private final Address bindAddress;
@@ -59,9 +81,16 @@ public final class RawSocket implements Connecter {
 	private final Executor loop = new SerialExecutor(RawSocket.class);
 
 	private NativeRawSocket socket = null;
-	private boolean closed = false;
+	private int batch = 0; // Known once the native library is loaded, when the socket is created
+	private volatile boolean closed = false;
+
+	// Accessed in queue only, the sends are flushed together in a single native call
+	private final Deque<ToWrite> toWrite = new LinkedList<>();
+	private boolean flushing = false;
+	private ByteBuffer writeBuffer = null;
 
-	private RawSocket(ProtocolFamily family, int protocol, Address bindAddress) {
+	private RawSocket(Queue queue, ProtocolFamily family, int protocol, Address bindAddress) {
+		this.queue = queue;
 		this.family = family;
 		this.protocol = protocol;
 		this.bindAddress = bindAddress;
@@ -81,7 +110,8 @@ public final class RawSocket implements Connecter {
 		final NativeRawSocket s;
 		try {
 			s = new NativeRawSocket((family == StandardProtocolFamily.INET) ? NativeRawSocket.PF_INET : NativeRawSocket.PF_INET6, protocol);
-		} catch (Exception ee) {
+		} catch (Exception | LinkageError ee) {
+			// LinkageError if the native library is missing
 			closed = true;
 			callback.failed(new IOException("Failed to be created", ee));
 			return;
@@ -101,6 +131,7 @@ public final class RawSocket implements Connecter {
 			}
 		}
 		
+		batch = Math.min(MAX_BATCH, NativeRawSocket.BATCH);
 		socket = s;
 
 		loop.execute(new Runnable() {
@@ -108,24 +139,21 @@ public final class RawSocket implements Connecter {
 			public void run() {
 				callback.connected(null);
 				
-				while (true) {
-					byte[] recvData = new byte[84];
-					byte[] srcAddress = new byte[(family == StandardProtocolFamily.INET) ? 4 : 16];
-					try {
-						int r = s.read(recvData, 0, recvData.length, srcAddress);
-						Address a = new Address(srcAddress, 0);
-						LOGGER.debug("Received raw packet: {} bytes from: {}", r, a);
-
-						final ByteBuffer b = ByteBuffer.wrap(recvData, 0, r);
-						if (family == StandardProtocolFamily.INET) {
-							int headerLength = (b.get() & 0x0F) * 4;
-							b.position(headerLength);
+				if (batch > 0) {
+					readBatches(s, callback);
+				} else {
+					while (true) {
+						byte[] recvData = new byte[PACKET_SIZE];
+						byte[] srcAddress = new byte[s.addressLength()];
+						try {
+							int r = s.read(recvData, 0, recvData.length, srcAddress);
+							Address a = new Address(srcAddress, 0);
+							LOGGER.debug("Received raw packet: {} bytes from: {}", r, a);
+							received(callback, a, ByteBuffer.wrap(recvData, 0, r));
+						} catch (Exception e) {
+							LOGGER.trace("Error, probably closed", e);
+							break;
 						}
-						
-						callback.received(a, b);
-					} catch (Exception e) {
-						LOGGER.trace("Error, probably closed", e);
-						break;
 					}
 				}
 				
@@ -134,11 +162,78 @@ public final class RawSocket implements Connecter {
 		});
 	}
 	
+	// Raw sockets cannot be registered in a selector, reading is still blocking but takes all available packets at once
+	private void readBatches(NativeRawSocket s, Connection callback) {
+		ByteBuffer data = ByteBuffer.allocateDirect(batch * PACKET_SIZE);
+		int addressLength = s.addressLength();
+		byte[] addresses = new byte[batch * addressLength];
+		int[] lengths = new int[batch];
+		while (true) {
+			int n;
+			try {
+				n = s.read(data, PACKET_SIZE, batch, addresses, lengths);
+			} catch (Exception e) {
+				LOGGER.trace("Error, probably closed", e);
+				break;
+			}
+			LOGGER.trace("Received {} raw packets", n);
+
+			// A single copy for the whole batch, receivers may keep the buffers
+			int total = 0;
+			for (int i = 0; i < n; i++) {
+				total += lengths[i];
+			}
+			byte[] copy = new byte[total];
+			int offset = 0;
+			for (int i = 0; i < n; i++) {
+				data.clear();
+				data.position(i * PACKET_SIZE);
+				data.get(copy, offset, lengths[i]);
+				Address a = new Address(Arrays.copyOfRange(addresses, i * addressLength, (i + 1) * addressLength), 0);
+				received(callback, a, ByteBuffer.wrap(copy, offset, lengths[i]));
+				offset += lengths[i];
+			}
+		}
+	}
+	
+	private void received(Connection callback, Address address, ByteBuffer buffer) {
+		if (family == StandardProtocolFamily.INET) {
+			int headerLength = (buffer.get(buffer.position()) & 0x0F) * 4;
+			buffer.position(buffer.position() + headerLength);
+		}
+		callback.received(address, buffer);
+	}
+	
 	@Override
-	public void send(Address address, ByteBuffer buffer, final SendCallback callback) {
+	public void send(final Address address, final ByteBuffer buffer, final SendCallback callback) {
 		if (socket == null) {
 			throw new IllegalStateException("send() must be called after connect()");
 		}
+		if (batch == 0) {
+			write(address, buffer, callback);
+			return;
+		}
+		queue.execute(new Runnable() {
+			@Override
+			public void run() {
+				toWrite.add(new ToWrite(address, buffer, callback));
+				if (flushing) {
+					return;
+				}
+				flushing = true;
+				// Queued after the sends already waiting in queue, they are flushed together
+				queue.execute(new Runnable() {
+					@Override
+					public void run() {
+						flushing = false;
+						flush();
+					}
+				});
+			}
+		});
+	}
+
+	private void write(Address address, ByteBuffer buffer, SendCallback callback) {
 		try {
 			
 			while (buffer.hasRemaining()) {
@@ -155,6 +250,65 @@ public final class RawSocket implements Connecter {
 		}
 	}
 	
+	private void flush() {
+		if (writeBuffer == null) {
+			writeBuffer = ByteBuffer.allocateDirect(batch * PACKET_SIZE);
+		}
+		int addressLength = socket.addressLength();
+		int[] offsets = new int[batch];
+		int[] lengths = new int[batch];
+		byte[] addresses = new byte[batch * addressLength];
+		ToWrite[] pending = new ToWrite[batch];
+
+		while (!toWrite.isEmpty()) {
+			if (closed) {
+				while (!toWrite.isEmpty()) {
+					toWrite.removeFirst().callback.failed(new IOException("Closed"));
+				}
+				return;
+			}
+
+			writeBuffer.clear();
+			int n = 0;
+			while ((n < batch) && !toWrite.isEmpty()) {
+				ToWrite w = toWrite.removeFirst();
+				int length = w.buffer.remaining();
+				if ((length > PACKET_SIZE) || (w.address.ip.length != addressLength)) {
+					write(w.address, w.buffer, w.callback);
+					continue;
+				}
+				offsets[n] = writeBuffer.position();
+				lengths[n] = length;
+				writeBuffer.put(w.buffer);
+				System.arraycopy(w.address.ip, 0, addresses, n * addressLength, addressLength);
+				pending[n] = w;
+				n++;
+			}
+			if (n == 0) {
+				continue;
+			}
+
+			int sent;
+			IOException error;
+			try {
+				sent = socket.write(writeBuffer, offsets, lengths, n, addresses);
+				error = null;
+			} catch (Exception e) {
+				sent = 0;
+				error = new IOException("Could not write", e);
+			}
+			LOGGER.trace("Sent {}/{} raw packets", sent, n);
+			for (int i = 0; i < n; i++) {
+				if (i < sent) {
+					pending[i].callback.sent();
+				} else {
+					pending[i].callback.failed((error == null) ? new IOException("Could not write to: " + pending[i].address) : error);
+				}
+				pending[i] = null;
+			}
+		}
+	}
+	
 	@Override
 	public void close() {
 		try {
@@ -6,6 +6,7 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.LinkedList;
 import java.util.concurrent.Executors;
@@ -28,6 +29,7 @@ public final class TcpSocket implements Connecter {
 
 	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(TcpSocket.class.getPackage().getName());
 	private static final long WRITE_MAX_BUFFER_SIZE = CONFIG.getBytes("tcp.buffer.write").longValue();
+	private static final int WRITE_GATHER = CONFIG.getInt("tcp.write.gather");
 	private static final double SOCKET_TIMEOUT = ConfigUtils.getDuration(CONFIG, "tcp.socket.timeout");
 	private static final long SOCKET_WRITE_BUFFER_SIZE = CONFIG.getBytes("tcp.socket.write").longValue();
 	private static final long SOCKET_READ_BUFFER_SIZE = CONFIG.getBytes("tcp.socket.read").longValue();
@@ -134,6 +136,7 @@ public final class TcpSocket implements Connecter {
 	private SelectionKey currentSelectionKey = null;
 
 	private final Deque<ToWrite> toWriteQueue = new LinkedList<>();
+	private final ByteBuffer[] gathering = new ByteBuffer[Math.max(1, WRITE_GATHER)];
 	private long toWriteLength = 0L;
 	
 	private Connection connectCallback = null;
@@ -243,22 +246,36 @@ public final class TcpSocket implements Connecter {
 															return;
 														}
 													} else {
-														long size = toWrite.buffer.remaining();
+														// Consecutive buffers (e.g. frame headers and payloads) are written at once
+														int n = 0;
+														for (ToWrite w : toWriteQueue) {
+															if ((w.buffer == null) || (n == gathering.length)) {
+																break;
+															}
+															gathering[n] = w.buffer;
+															n++;
+														}
 														
 														try {
+															long size = (n == 1) ? channel.write(gathering[0]) : channel.write(gathering, 0, n);
 															LOGGER.trace("Actual write buffer: {} bytes", size);
-															channel.write(toWrite.buffer);
-															toWriteLength -= size - toWrite.buffer.remaining();
+															toWriteLength -= size;
 														} catch (IOException e) {
 															LOGGER.trace("Write failed", e);
 															toWrite.callback.failed(e);
 															disconnect(channel, inboundKey, selectionKey, callback, e);
 															return;
+														} finally {
+															Arrays.fill(gathering, 0, n, null);
 														}
 														
-														if (toWrite.buffer.hasRemaining()) {
-															return;
+														for (int i = 0; i < n; i++) {
+															if (toWriteQueue.peek().buffer.hasRemaining()) {
+																return;
+															}
+															toWriteQueue.remove().callback.sent();
 														}
+														continue;
 													}
 													
 													toWriteQueue.remove();
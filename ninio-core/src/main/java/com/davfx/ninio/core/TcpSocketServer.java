@@ -7,6 +7,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -30,6 +31,7 @@ public final class TcpSocketServer implements Listener {
 
 	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(TcpSocketServer.class.getPackage().getName());
 	private static final long WRITE_MAX_BUFFER_SIZE = CONFIG.getBytes("tcp.buffer.write").longValue();
+	private static final int WRITE_GATHER = CONFIG.getInt("tcp.write.gather");
 	private static final double SOCKET_TIMEOUT = ConfigUtils.getDuration(CONFIG, "tcp.serversocket.timeout");
 	private static final long SOCKET_READ_BUFFER_SIZE = CONFIG.getBytes("tcp.serversocket.read").longValue();
 
@@ -316,21 +318,36 @@ public final class TcpSocketServer implements Listener {
 																			return;
 																		}
 																	} else {
-																		long size = toWrite.buffer.remaining();
+																		// Consecutive buffers (e.g. frame headers and payloads) are written at once
+																		ByteBuffer[] gathering = context.gathering;
+																		int n = 0;
+																		for (ToWrite w : context.toWriteQueue) {
+																			if ((w.buffer == null) || (n == gathering.length)) {
+																				break;
+																			}
+																			gathering[n] = w.buffer;
+																			n++;
+																		}
 	
 																		try {
-																			outboundChannel.write(toWrite.buffer);
-																			context.toWriteLength -= size - toWrite.buffer.remaining();
+																			long size = (n == 1) ? outboundChannel.write(gathering[0]) : outboundChannel.write(gathering, 0, n);
+																			context.toWriteLength -= size;
 																		} catch (IOException e) {
 																			LOGGER.trace("Write failed", e);
 																			toWrite.callback.failed(e);
 																			context.disconnectAndRemove(e);
 																			return;
+																		} finally {
+																			Arrays.fill(gathering, 0, n, null);
 																		}
 																		
-																		if (toWrite.buffer.hasRemaining()) {
-																			return;
+																		for (int i = 0; i < n; i++) {
+																			if (context.toWriteQueue.peek().buffer.hasRemaining()) {
+																				return;
+																			}
+																			context.toWriteQueue.remove().callback.sent();
 																		}
+																		continue;
 																	}
 																	
 																	toWrite.callback.sent();
@@ -451,6 +468,7 @@ public final class TcpSocketServer implements Listener {
 		Connection connection = null;
 
 		final Deque<ToWrite> toWriteQueue = new LinkedList<>();
+		final ByteBuffer[] gathering = new ByteBuffer[Math.max(1, WRITE_GATHER)];
 		long toWriteLength = 0L;
 		
 		boolean closed = false;
@@ -0,0 +1,523 @@
+package com.davfx.ninio.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.davfx.ninio.core.dependencies.Dependencies;
+import com.davfx.ninio.util.ClassThreadFactory;
+import com.davfx.ninio.util.ConfigUtils;
+import com.davfx.ninio.util.SerialExecutor;
+import com.google.common.base.Joiner;
+import com.typesafe.config.Config;
+
+// One tcpdump process per interface, shared by all subscribers, the subscriber rules being merged in a single BPF expression
+public final class TcpdumpManager implements AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TcpdumpManager.class);
+
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(TcpdumpManager.class.getPackage().getName());
+	private static final String TCPDUMP_COMMAND = CONFIG.getString("tcpdump.path");
+	private static final int DEFAULT_QUEUE_SIZE = CONFIG.getInt("tcpdump.shared.queue");
+
+	public static interface Builder {
+		Builder mode(TcpdumpMode mode);
+		Builder queue(int queueSize);
+		// When not live, no tcpdump process is run and packets only come from feed()
+		Builder live(boolean live);
+		TcpdumpManager build();
+	}
+
+	public static Builder builder() {
+		return new Builder() {
+			private TcpdumpMode mode = TcpdumpMode.RAW;
+			private int queueSize = DEFAULT_QUEUE_SIZE;
+			private boolean live = true;
+
+			@Override
+			public Builder mode(TcpdumpMode mode) {
+				this.mode = mode;
+				return this;
+			}
+			@Override
+			public Builder queue(int queueSize) {
+				this.queueSize = queueSize;
+				return this;
+			}
+			@Override
+			public Builder live(boolean live) {
+				this.live = live;
+				return this;
+			}
+
+			@Override
+			public TcpdumpManager build() {
+				return new TcpdumpManager(mode, queueSize, live);
+			}
+		};
+	}
+
+	public static interface Subscription extends Disconnectable {
+		long dropped();
+	}
+
+	private static void execute(String name, Runnable runnable) {
+		new ClassThreadFactory(TcpdumpManager.class, name).newThread(runnable).start();
+	}
+
+	private final TcpdumpMode mode;
+	private final int queueSize;
+	private final boolean live;
+	private final Map<String, Capture> captures = new HashMap<>();
+	private boolean closed = false;
+
+	private TcpdumpManager(TcpdumpMode mode, int queueSize, boolean live) {
+		this.mode = mode;
+		this.queueSize = queueSize;
+		this.live = live;
+	}
+
+	private TcpdumpReader reader() {
+		return (mode == TcpdumpMode.RAW) ? new PcapTcpdumpReader() : new HexTcpdumpReader();
+	}
+
+	// address is the local address the packets are sent to, its ip may be Address.ANY
+	public Subscription subscribe(String interfaceId, String rule, Address address, Connection callback) {
+		Subscriber subscriber = new Subscriber(interfaceId, rule, address, callback, queueSize);
+		synchronized (captures) {
+			if (closed) {
+				callback.failed(new IOException("Closed"));
+				return subscriber;
+			}
+			Capture capture = captures.get(interfaceId);
+			if (capture == null) {
+				capture = new Capture(interfaceId);
+				captures.put(interfaceId, capture);
+			}
+			capture.subscribers.add(subscriber);
+			capture.update();
+		}
+		return subscriber;
+	}
+
+	// Reads a tcpdump stream (e.g. a .pcap file) and dispatches its packets to the interface subscribers
+	public void feed(String interfaceId, InputStream input) throws IOException {
+		Capture capture;
+		synchronized (captures) {
+			capture = captures.get(interfaceId);
+		}
+		if (capture == null) {
+			return;
+		}
+		reader().read(input, capture);
+	}
+
+	@Override
+	public void close() {
+		List<Capture> toClose;
+		synchronized (captures) {
+			closed = true;
+			toClose = new LinkedList<>(captures.values());
+			captures.clear();
+		}
+		for (Capture c : toClose) {
+			List<Subscriber> subscribers;
+			synchronized (captures) {
+				subscribers = new LinkedList<>(c.subscribers);
+				c.subscribers.clear();
+				c.update();
+			}
+			for (Subscriber s : subscribers) {
+				s.closed();
+			}
+		}
+	}
+
+	static String mergeRules(Iterable<String> subscriberRules) {
+		Set<String> rules = new LinkedHashSet<>();
+		for (String rule : subscriberRules) {
+			String r = (rule == null) ? "" : rule.trim();
+			if (r.isEmpty()) {
+				// Someone wants everything
+				return "";
+			}
+			rules.add(r);
+		}
+		if (rules.size() == 1) {
+			return rules.iterator().next();
+		}
+		StringBuilder b = new StringBuilder();
+		for (String r : rules) {
+			if (b.length() > 0) {
+				b.append(" or ");
+			}
+			b.append('(').append(r).append(')');
+		}
+		return b.toString();
+	}
+
+	private static final class Key {
+		public final byte[] ip;
+		public final int port;
+		public Key(byte[] ip, int port) {
+			this.ip = ip;
+			this.port = port;
+		}
+		@Override
+		public int hashCode() {
+			return (31 * Arrays.hashCode(ip)) + port;
+		}
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return (k.port == port) && Arrays.equals(k.ip, ip);
+		}
+	}
+
+	private final class Capture implements TcpdumpReader.Handler {
+		private final String interfaceId;
+		public final List<Subscriber> subscribers = new LinkedList<>();
+
+		// Rebuilt on every subscription change, read without lock by the capturing thread
+		private volatile Map<Key, Subscriber[]> byAddress = new HashMap<>();
+		private volatile Map<Integer, Subscriber[]> byPort = new HashMap<>();
+
+		private String currentRule = null;
+		private Process process = null;
+
+		public Capture(String interfaceId) {
+			this.interfaceId = interfaceId;
+		}
+
+		// Called with captures lock held
+		public void update() {
+			Map<Key, List<Subscriber>> a = new HashMap<>();
+			Map<Integer, List<Subscriber>> p = new HashMap<>();
+			for (Subscriber s : subscribers) {
+				if ((s.address.ip == null) || Arrays.equals(s.address.ip, Address.ANY)) {
+					List<Subscriber> l = p.get(s.address.port);
+					if (l == null) {
+						l = new LinkedList<>();
+						p.put(s.address.port, l);
+					}
+					l.add(s);
+				} else {
+					Key k = new Key(s.address.ip, s.address.port);
+					List<Subscriber> l = a.get(k);
+					if (l == null) {
+						l = new LinkedList<>();
+						a.put(k, l);
+					}
+					l.add(s);
+				}
+			}
+			Map<Key, Subscriber[]> newByAddress = new HashMap<>();
+			for (Map.Entry<Key, List<Subscriber>> e : a.entrySet()) {
+				newByAddress.put(e.getKey(), e.getValue().toArray(new Subscriber[e.getValue().size()]));
+			}
+			Map<Integer, Subscriber[]> newByPort = new HashMap<>();
+			for (Map.Entry<Integer, List<Subscriber>> e : p.entrySet()) {
+				newByPort.put(e.getKey(), e.getValue().toArray(new Subscriber[e.getValue().size()]));
+			}
+			byAddress = newByAddress;
+			byPort = newByPort;
+
+			if (subscribers.isEmpty()) {
+				captures.remove(interfaceId);
+				stop();
+				return;
+			}
+
+			List<String> rules = new LinkedList<>();
+			for (Subscriber s : subscribers) {
+				rules.add(s.rule);
+			}
+			String rule = mergeRules(rules);
+			if (rule.equals(currentRule)) {
+				return;
+			}
+			currentRule = rule;
+
+			if (live) {
+				stop();
+				start(rule);
+			}
+		}
+
+		private void stop() {
+			if (process != null) {
+				process.destroy();
+				process = null;
+			}
+		}
+
+		private void start(String rule) {
+			final TcpdumpReader tcpdumpReader = reader();
+
+			List<String> toExec = new LinkedList<String>();
+			toExec.add(TCPDUMP_COMMAND);
+			toExec.add("-i");
+			toExec.add(interfaceId);
+			toExec.add("-nn");
+			for (String o : tcpdumpReader.tcpdumpOptions()) {
+				toExec.add(o);
+			}
+			toExec.add("-K");
+			toExec.add("-p");
+			toExec.add("-q");
+			toExec.add("-s");
+			toExec.add("0");
+			if (!rule.isEmpty()) {
+				toExec.add(rule);
+			}
+
+			File dir = new File(".");
+			ProcessBuilder pb = new ProcessBuilder(toExec);
+			pb.directory(dir);
+			final Process p;
+			try {
+				LOGGER.info("Executing: {}", Joiner.on(' ').join(toExec));
+				p = pb.start();
+			} catch (IOException ee) {
+				fail(new IOException("Could not create process", ee));
+				return;
+			}
+			process = p;
+
+			final InputStream error = p.getErrorStream();
+			execute("err", new Runnable() {
+				@Override
+				public void run() {
+					try {
+						try {
+							BufferedReader r = new BufferedReader(new InputStreamReader(error));
+							while (true) {
+								String line = r.readLine();
+								if (line == null) {
+									break;
+								}
+								LOGGER.debug("Tcpdump message: {}", line);
+							}
+						} finally {
+							error.close();
+						}
+					} catch (IOException e) {
+						LOGGER.trace("Error in tcpdump process", e);
+					}
+				}
+			});
+
+			final InputStream input = p.getInputStream();
+			execute("in", new Runnable() {
+				@Override
+				public void run() {
+					try {
+						try {
+							tcpdumpReader.read(input, Capture.this);
+						} finally {
+							input.close();
+						}
+					} catch (IOException e) {
+						LOGGER.trace("Error in tcpdump process", e);
+					}
+				}
+			});
+
+			execute("wait", new Runnable() {
+				@Override
+				public void run() {
+					int code;
+					try {
+						code = p.waitFor();
+					} catch (InterruptedException e) {
+						code = -1;
+					}
+
+					boolean restarted;
+					synchronized (captures) {
+						restarted = (process != p);
+						if (!restarted) {
+							process = null;
+						}
+					}
+					if (restarted) {
+						LOGGER.debug("Tcpdump process replaced (interface = {})", interfaceId);
+						return;
+					}
+					fail(new IOException("Tcpdump ended unexpectedly (code " + code + ")"));
+				}
+			});
+		}
+
+		private void fail(IOException ioe) {
+			List<Subscriber> failed;
+			synchronized (captures) {
+				failed = new LinkedList<>(subscribers);
+				subscribers.clear();
+				currentRule = null;
+				update();
+			}
+			for (Subscriber s : failed) {
+				s.failed(ioe);
+			}
+		}
+
+		@Override
+		public void handle(double timestamp, Address source, Address destination, ByteBuffer buffer) {
+			Subscriber[] a = byAddress.get(new Key(destination.ip, destination.port));
+			Subscriber[] p = byPort.get(destination.port);
+			if ((a == null) && (p == null)) {
+				return;
+			}
+
+			// The reader reuses its buffer, copied once for all subscribers
+			ByteBuffer b = ByteBuffer.allocate(buffer.remaining());
+			b.put(buffer);
+			b.flip();
+
+			if (a != null) {
+				for (Subscriber s : a) {
+					s.push(source, b.duplicate());
+				}
+			}
+			if (p != null) {
+				for (Subscriber s : p) {
+					s.push(source, b.duplicate());
+				}
+			}
+		}
+
+		public void unsubscribe(Subscriber subscriber) {
+			synchronized (captures) {
+				if (subscribers.remove(subscriber)) {
+					update();
+				}
+			}
+		}
+	}
+
+	private static final class Packet {
+		public final Address source;
+		public final ByteBuffer buffer;
+		public Packet(Address source, ByteBuffer buffer) {
+			this.source = source;
+			this.buffer = buffer;
+		}
+	}
+
+	private final class Subscriber implements Subscription {
+		private final String interfaceId;
+		public final String rule;
+		public final Address address;
+		private final Connection callback;
+		private final BlockingQueue<Packet> queue;
+		private final Executor executor = new SerialExecutor(TcpdumpManager.class);
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+		private final AtomicLong dropped = new AtomicLong(0L);
+		private volatile boolean closed = false;
+
+		public Subscriber(String interfaceId, String rule, Address address, Connection callback, int queueSize) {
+			this.interfaceId = interfaceId;
+			this.rule = rule;
+			this.address = address;
+			this.callback = callback;
+			queue = new LinkedBlockingQueue<>(queueSize);
+		}
+
+		@Override
+		public long dropped() {
+			return dropped.get();
+		}
+
+		public void push(Address source, ByteBuffer buffer) {
+			if (closed) {
+				return;
+			}
+			if (!queue.offer(new Packet(source, buffer))) {
+				long d = dropped.incrementAndGet();
+				LOGGER.trace("Packet dropped (address = {}, dropped = {})", address, d);
+				return;
+			}
+			if (scheduled.compareAndSet(false, true)) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						while (true) {
+							Packet packet = queue.poll();
+							if (packet == null) {
+								scheduled.set(false);
+								// Pushed concurrently, after poll() but before scheduled was reset
+								if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+									return;
+								}
+								continue;
+							}
+							if (!closed) {
+								callback.received(packet.source, packet.buffer);
+							}
+						}
+					}
+				});
+			}
+		}
+
+		public void failed(final IOException ioe) {
+			closed = true;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					callback.failed(ioe);
+				}
+			});
+		}
+
+		public void closed() {
+			closed = true;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					callback.closed();
+				}
+			});
+		}
+
+		@Override
+		public void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			Capture capture;
+			synchronized (captures) {
+				capture = captures.get(interfaceId);
+			}
+			if (capture != null) {
+				capture.unsubscribe(this);
+			}
+			if (dropped.get() > 0L) {
+				LOGGER.debug("Subscription closed (address = {}, dropped = {})", address, dropped.get());
+			}
+		}
+	}
+}
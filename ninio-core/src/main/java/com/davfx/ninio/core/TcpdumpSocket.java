@@ -2,6 +2,7 @@ package com.davfx.ninio.core;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -75,6 +76,33 @@ public final class TcpdumpSocket implements Connecter {
 				}
 			}
 		}
+		
+		public static final class Replay {
+			private static final Logger INNER_LOGGER = LoggerFactory.getLogger(Replay.class);
+
+			// Reads a .pcap/.pcapng file at max speed to measure capture throughput
+			public static void main(String[] args) throws Exception {
+				File file = new File(System.getProperty("file", "capture.pcap"));
+				int loops = Integer.parseInt(System.getProperty("loops", "10"));
+				
+				PcapTcpdumpReader reader = new PcapTcpdumpReader();
+				for (int i = 0; i < loops; i++) {
+					final long[] count = new long[] { 0L, 0L };
+					long t = System.nanoTime();
+					try (FileInputStream in = new FileInputStream(file)) {
+						reader.read(in, new TcpdumpReader.Handler() {
+							@Override
+							public void handle(double timestamp, Address source, Address destination, ByteBuffer buffer) {
+								count[0]++;
+								count[1] += buffer.remaining();
+							}
+						});
+					}
+					t = System.nanoTime() - t;
+					INNER_LOGGER.info("{} packets ({} bytes) in {} ms: {} packets/s", count[0], count[1], t / 1_000_000L, (t == 0L) ? 0L : ((count[0] * 1_000_000_000L) / t));
+				}
+			}
+		}
 	}
 
 	public static interface Builder extends NinioBuilder<Connecter> {
@@ -82,6 +110,10 @@ public final class TcpdumpSocket implements Connecter {
 		Builder mode(TcpdumpMode mode);
 		Builder rule(String rule);
 		Builder bind(Address bindAddress);
+		// Reads packets from a .pcap/.pcapng file instead of capturing, then closes
+		Builder replay(File file);
+		// Shares the capture of the interface with the other sockets of the manager
+		Builder shared(TcpdumpManager manager);
 	}
 
 	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(TcpdumpSocket.class.getPackage().getName());
@@ -158,6 +190,8 @@ public final class TcpdumpSocket implements Connecter {
 			private String rule = TCPDUMP_DEFAULT_RULE;
 
 			private Address bindAddress = null;
+			private File replay = null;
+			private TcpdumpManager manager = null;
 
 			@Override
 			public Builder on(String interfaceId) {
@@ -181,12 +215,24 @@ public final class TcpdumpSocket implements Connecter {
 				return this;
 			}
 			
+			@Override
+			public Builder replay(File replay) {
+				this.replay = replay;
+				return this;
+			}
+			
+			@Override
+			public Builder shared(TcpdumpManager manager) {
+				this.manager = manager;
+				return this;
+			}
+			
 			@Override
 			public Connecter create(NinioProvider ninioProvider) {
 				if (interfaceId == null) {
 					throw new NullPointerException("interfaceId");
 				}
-				return new TcpdumpSocket(interfaceId, mode, rule, bindAddress);
+				return new TcpdumpSocket(interfaceId, mode, rule, bindAddress, replay, manager);
 			}
 		};
 	}
@@ -207,16 +253,57 @@ public final class TcpdumpSocket implements Connecter {
 	private final TcpdumpMode mode;
 	private final String rule;
 	private final Address bindAddress;
+	private final File replay;
+	private final TcpdumpManager manager;
 
 	private DatagramSocket socket = null;
 	private Process process = null;
+	private TcpdumpManager.Subscription subscription = null;
 	private boolean closed = false;
 
-	private TcpdumpSocket(String interfaceId, TcpdumpMode mode, String rule, Address bindAddress) { //, final boolean promiscuous) {
+	private TcpdumpSocket(String interfaceId, TcpdumpMode mode, String rule, Address bindAddress, File replay, TcpdumpManager manager) { //, final boolean promiscuous) {
 		this.interfaceId = interfaceId;
 		this.mode = mode;
 		this.rule = rule;
 		this.bindAddress = bindAddress;
+		this.replay = replay;
+		this.manager = manager;
+	}
+	
+	private static void eat(final DatagramSocket s) {
+		execute("eat", new Runnable() {
+			@Override
+			public void run() {
+				byte[] buffer = new byte[64 * 1024];
+				try {
+					while (true) {
+						if (s.isClosed()) {
+							break;
+						}
+						s.receive(new DatagramPacket(buffer, buffer.length));
+					}
+				} catch (IOException e) {
+					LOGGER.trace("Error eating UDP packets", e);
+				}
+			}
+		});
+	}
+	
+	private static TcpdumpReader.Handler handler(final Connection callback) {
+		return new TcpdumpReader.Handler() {
+			@Override
+			public void handle(double timestamp, Address sourceAddress, Address destinationAddress, ByteBuffer buffer) {
+				if (SUPERVISION != null) {
+					SUPERVISION.incIn(buffer.remaining());
+				}
+
+				// The reader reuses its buffer, but receivers may keep what they get
+				ByteBuffer b = ByteBuffer.allocate(buffer.remaining());
+				b.put(buffer);
+				b.flip();
+				callback.received(sourceAddress, b);
+			}
+		};
 	}
 	
 	@Override
@@ -255,7 +342,59 @@ public final class TcpdumpSocket implements Connecter {
 		
 		//
 		
-		final TcpdumpReader tcpdumpReader = (mode == TcpdumpMode.RAW) ? new RawTcpdumpReader(interfaceId.equals("any")) : new HexTcpdumpReader();
+		if (manager != null) {
+			socket = s;
+			callback.connected(null);
+			eat(s);
+			String r = (rule == null) ? null : rule.replace(PORT_PLACEHOLDER, Integer.toString(bindPort));
+			subscription = manager.subscribe(interfaceId, r, new Address((bindAddress == null) ? Address.ANY : bindAddress.ip, bindPort), new Connection() {
+				@Override
+				public void received(Address address, ByteBuffer buffer) {
+					if (SUPERVISION != null) {
+						SUPERVISION.incIn(buffer.remaining());
+					}
+					callback.received(address, buffer);
+				}
+				@Override
+				public void connected(Address address) {
+				}
+				@Override
+				public void failed(IOException ioe) {
+					s.close();
+					callback.failed(ioe);
+				}
+				@Override
+				public void closed() {
+					s.close();
+					callback.closed();
+				}
+			});
+			return;
+		}
+		
+		if (replay != null) {
+			socket = s;
+			callback.connected(null);
+			execute("replay", new Runnable() {
+				@Override
+				public void run() {
+					try {
+						try (FileInputStream in = new FileInputStream(replay)) {
+							new PcapTcpdumpReader().read(in, handler(callback));
+						}
+					} catch (IOException e) {
+						s.close();
+						callback.failed(new IOException("Could not replay: " + replay, e));
+						return;
+					}
+					s.close();
+					callback.closed();
+				}
+			});
+			return;
+		}
+		
+		final TcpdumpReader tcpdumpReader = (mode == TcpdumpMode.RAW) ? new PcapTcpdumpReader() : new HexTcpdumpReader();
 		
 		File dir = new File(".");
 
@@ -334,16 +473,7 @@ public final class TcpdumpSocket implements Connecter {
 			public void run() {
 				try {
 					try {
-						tcpdumpReader.read(input, new TcpdumpReader.Handler() {
-							@Override
-							public void handle(double timestamp, Address sourceAddress, Address destinationAddress, ByteBuffer buffer) {
-								if (SUPERVISION != null) {
-									SUPERVISION.incIn(buffer.remaining());
-								}
-
-								callback.received(sourceAddress, buffer);
-							}
-						});
+						tcpdumpReader.read(input, handler(callback));
 					} finally {
 						input.close();
 					}
@@ -353,22 +483,7 @@ public final class TcpdumpSocket implements Connecter {
 			}
 		});
 
-		execute("eat", new Runnable() {
-			@Override
-			public void run() {
-				byte[] buffer = new byte[64 * 1024];
-				try {
-					while (true) {
-						if (s.isClosed()) {
-							break;
-						}
-						s.receive(new DatagramPacket(buffer, buffer.length));
-					}
-				} catch (IOException e) {
-					LOGGER.trace("Error eating UDP packets", e);
-				}
-			}
-		});
+		eat(s);
 
 		execute("wait", new Runnable() {
 			@Override
@@ -446,5 +561,8 @@ public final class TcpdumpSocket implements Connecter {
 		if (process != null) {
 			process.destroy();
 		}
+		if (subscription != null) {
+			subscription.close();
+		}
 	}
 }
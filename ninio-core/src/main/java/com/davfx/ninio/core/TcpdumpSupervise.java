@@ -121,7 +121,7 @@ public final class TcpdumpSupervise {
 
 		//
 		
-		final TcpdumpReader tcpdumpReader = (mode == TcpdumpMode.RAW) ? new RawTcpdumpReader(interfaceId.equals("any")) : new HexTcpdumpReader();
+		final TcpdumpReader tcpdumpReader = (mode == TcpdumpMode.RAW) ? new PcapTcpdumpReader() : new HexTcpdumpReader();
 		
 		File dir = new File(".");
 
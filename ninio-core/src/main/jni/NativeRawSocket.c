@@ -1,3 +1,7 @@
+#if defined(__linux__)
+#	define _GNU_SOURCE
+#endif
+
 #include <string.h>
 
 #if defined(_WIN32)
@@ -21,6 +25,14 @@
 
 #include "NativeRawSocket.h"
 
+/* Max packets per batched call */
+#define BATCH_MAX 256
+
+union sockaddr_union {
+	struct sockaddr_in sin;
+	struct sockaddr_in6 sin6;
+};
+
 static int setintsockopt(int socket, int level, int option, int value);
 static int settimeout(int socket, int option, int timeout);
 
@@ -249,3 +261,186 @@ Java_com_davfx_ninio_core_NativeRawSocket__1_1sendto
 
 	return result;
 }
+
+static socklen_t
+fill_sockaddr(union sockaddr_union *sin, int family, const jbyte *address, int scope_id) {
+	if (family == PF_INET) {
+		memset(&sin->sin, 0, sizeof(struct sockaddr_in));
+		sin->sin.sin_family = PF_INET;
+		memcpy(&sin->sin.sin_addr, address, sizeof(sin->sin.sin_addr));
+		return sizeof(sin->sin);
+	}
+	memset(&sin->sin6, 0, sizeof(struct sockaddr_in6));
+	sin->sin6.sin6_family = PF_INET6;
+	sin->sin6.sin6_scope_id = scope_id;
+	memcpy(&sin->sin6.sin6_addr, address, sizeof(sin->sin6.sin6_addr));
+	return sizeof(sin->sin6);
+}
+
+static void
+copy_sockaddr(const union sockaddr_union *sin, int family, jbyte *address) {
+	if (family == PF_INET) {
+		memcpy(address, &sin->sin.sin_addr, sizeof(sin->sin.sin_addr));
+	} else {
+		memcpy(address, &sin->sin6.sin6_addr, sizeof(sin->sin6.sin6_addr));
+	}
+}
+
+JNIEXPORT jint JNICALL
+Java_com_davfx_ninio_core_NativeRawSocket__1_1batch
+(JNIEnv *env, jclass cls) {
+	return BATCH_MAX;
+}
+
+/* Blocks until at least one packet is received, then takes what is already there, without blocking */
+JNIEXPORT jint JNICALL
+Java_com_davfx_ninio_core_NativeRawSocket__1_1recvmmsg
+(JNIEnv *env, jclass cls, jint socket, jobject data, jint slot, jint count, jint family, jbyteArray addresses, jintArray lengths) {
+	char *buf;
+	int addrlen;
+	int result;
+	int i;
+	union sockaddr_union from[BATCH_MAX];
+	jint lens[BATCH_MAX];
+	jbyte addrs[BATCH_MAX * 16];
+#if defined(__linux__)
+	struct mmsghdr msgs[BATCH_MAX];
+	struct iovec iov[BATCH_MAX];
+#else
+	socklen_t socklen;
+#endif
+
+	if (family == PF_INET) {
+		addrlen = 4;
+	} else if (family == PF_INET6) {
+		addrlen = 16;
+	} else {
+		return -1;
+	}
+	if (count > BATCH_MAX) {
+		count = BATCH_MAX;
+	}
+
+	buf = (char *)(*env)->GetDirectBufferAddress(env, data);
+	if (buf == NULL) {
+		return -1;
+	}
+
+#if defined(__linux__)
+	memset(msgs, 0, sizeof(struct mmsghdr) * count);
+	for (i = 0; i < count; i++) {
+		iov[i].iov_base = buf + (i * slot);
+		iov[i].iov_len = slot;
+		msgs[i].msg_hdr.msg_iov = &iov[i];
+		msgs[i].msg_hdr.msg_iovlen = 1;
+		msgs[i].msg_hdr.msg_name = &from[i];
+		msgs[i].msg_hdr.msg_namelen = sizeof(from[i]);
+	}
+
+	result = recvmmsg(socket, msgs, count, MSG_WAITFORONE, NULL);
+	if (result <= 0) {
+		return -1;
+	}
+	for (i = 0; i < result; i++) {
+		lens[i] = msgs[i].msg_len;
+		copy_sockaddr(&from[i], family, addrs + (i * addrlen));
+	}
+#else
+	for (i = 0; i < count; i++) {
+		int r;
+		socklen = sizeof(from[i]);
+#	if defined(_WIN32)
+		if (i > 0) {
+			break;
+		}
+		r = recvfrom(socket, buf + (i * slot), slot, 0, (struct sockaddr *)&from[i], &socklen);
+#	else
+		r = recvfrom(socket, buf + (i * slot), slot, (i == 0) ? 0 : MSG_DONTWAIT, (struct sockaddr *)&from[i], &socklen);
+#	endif
+		if (r < 0) {
+			break;
+		}
+		lens[i] = r;
+		copy_sockaddr(&from[i], family, addrs + (i * addrlen));
+	}
+	if (i == 0) {
+		return -1;
+	}
+	result = i;
+#endif
+
+	(*env)->SetIntArrayRegion(env, lengths, 0, result, lens);
+	(*env)->SetByteArrayRegion(env, addresses, 0, result * addrlen, addrs);
+	return result;
+}
+
+/* Returns the number of packets sent, the following ones failed */
+JNIEXPORT jint JNICALL
+Java_com_davfx_ninio_core_NativeRawSocket__1_1sendmmsg
+(JNIEnv *env, jclass cls, jint socket, jobject data, jintArray offsets, jintArray lengths, jint count, jint family, jbyteArray addresses, jintArray scopeIds) {
+	char *buf;
+	int addrlen;
+	int result;
+	int i;
+	union sockaddr_union to[BATCH_MAX];
+	socklen_t tolen[BATCH_MAX];
+	jint offs[BATCH_MAX];
+	jint lens[BATCH_MAX];
+	jint scopes[BATCH_MAX];
+	jbyte addrs[BATCH_MAX * 16];
+#if defined(__linux__)
+	struct mmsghdr msgs[BATCH_MAX];
+	struct iovec iov[BATCH_MAX];
+#endif
+
+	if (family == PF_INET) {
+		addrlen = 4;
+	} else if (family == PF_INET6) {
+		addrlen = 16;
+	} else {
+		return -1;
+	}
+	if (count > BATCH_MAX) {
+		count = BATCH_MAX;
+	}
+	if (count <= 0) {
+		return 0;
+	}
+
+	buf = (char *)(*env)->GetDirectBufferAddress(env, data);
+	if (buf == NULL) {
+		return -1;
+	}
+
+	(*env)->GetIntArrayRegion(env, offsets, 0, count, offs);
+	(*env)->GetIntArrayRegion(env, lengths, 0, count, lens);
+	(*env)->GetIntArrayRegion(env, scopeIds, 0, count, scopes);
+	(*env)->GetByteArrayRegion(env, addresses, 0, count * addrlen, addrs);
+
+	for (i = 0; i < count; i++) {
+		tolen[i] = fill_sockaddr(&to[i], family, addrs + (i * addrlen), scopes[i]);
+	}
+
+#if defined(__linux__)
+	memset(msgs, 0, sizeof(struct mmsghdr) * count);
+	for (i = 0; i < count; i++) {
+		iov[i].iov_base = buf + offs[i];
+		iov[i].iov_len = lens[i];
+		msgs[i].msg_hdr.msg_iov = &iov[i];
+		msgs[i].msg_hdr.msg_iovlen = 1;
+		msgs[i].msg_hdr.msg_name = &to[i];
+		msgs[i].msg_hdr.msg_namelen = tolen[i];
+	}
+
+	result = sendmmsg(socket, msgs, count, 0);
+#else
+	for (i = 0; i < count; i++) {
+		if (sendto(socket, buf + offs[i], lens[i], 0, (struct sockaddr *)&to[i], tolen[i]) < 0) {
+			break;
+		}
+	}
+	result = (i == 0) ? -1 : i;
+#endif
+
+	return result;
+}
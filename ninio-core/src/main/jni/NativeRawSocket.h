@@ -63,6 +63,18 @@ JNIEXPORT jint JNICALL
 Java_com_davfx_ninio_core_NativeRawSocket__1_1sendto
 (JNIEnv *, jclass, jint, jbyteArray, jint, jint, jint, jbyteArray, jint);
 
+JNIEXPORT jint JNICALL
+Java_com_davfx_ninio_core_NativeRawSocket__1_1batch
+(JNIEnv *, jclass);
+
+JNIEXPORT jint JNICALL
+Java_com_davfx_ninio_core_NativeRawSocket__1_1recvmmsg
+(JNIEnv *, jclass, jint, jobject, jint, jint, jint, jbyteArray, jintArray);
+
+JNIEXPORT jint JNICALL
+Java_com_davfx_ninio_core_NativeRawSocket__1_1sendmmsg
+(JNIEnv *, jclass, jint, jobject, jintArray, jintArray, jint, jint, jbyteArray, jintArray);
+
 #ifdef __cplusplus
 }
 #endif
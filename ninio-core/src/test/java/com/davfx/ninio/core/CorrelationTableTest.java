@@ -0,0 +1,64 @@
+package com.davfx.ninio.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class CorrelationTableTest {
+
+	@Test
+	public void testSameAsHashMap() {
+		Random random = new Random(42L);
+		CorrelationTable<Integer> table = new CorrelationTable<>(4);
+		Map<Integer, Integer> map = new HashMap<>();
+		for (int n = 0; n < 200_000; n++) {
+			int key = random.nextInt(2_000) - 1_000;
+			if (random.nextBoolean()) {
+				Assertions.assertThat(table.put(key, n)).isEqualTo(map.put(key, n));
+			} else {
+				Assertions.assertThat(table.remove(key)).isEqualTo(map.remove(key));
+			}
+			Assertions.assertThat(table.size()).isEqualTo(map.size());
+		}
+		for (int key = -1_000; key < 1_000; key++) {
+			Assertions.assertThat(table.get(key)).isEqualTo(map.get(key));
+		}
+	}
+
+	@Test
+	public void testRemoveAllAndExpire() {
+		final CorrelationTable<String> table = new CorrelationTable<>();
+		for (int i = 0; i < 100; i++) {
+			table.put(i, "v" + i, i);
+		}
+
+		final Map<Integer, String> expired = new HashMap<>();
+		Assertions.assertThat(table.expire(50d, new CorrelationTable.Visitor<String>() {
+			@Override
+			public void visit(int key, String value) {
+				expired.put(key, value);
+				table.remove(key + 50); // The table can be used while visiting
+			}
+		})).isEqualTo(50);
+		Assertions.assertThat(expired).hasSize(50).containsEntry(0, "v0").containsEntry(49, "v49");
+		Assertions.assertThat(table.isEmpty()).isTrue();
+
+		for (int i = 0; i < 10; i++) {
+			table.put(i * 1024, "w" + i);
+		}
+		final Map<Integer, String> removed = new HashMap<>();
+		table.removeAll(new CorrelationTable.Visitor<String>() {
+			@Override
+			public void visit(int key, String value) {
+				removed.put(key, value);
+				table.put(-1, "again");
+			}
+		});
+		Assertions.assertThat(removed).hasSize(10).containsEntry(9 * 1024, "w9");
+		Assertions.assertThat(table.size()).isEqualTo(1);
+		Assertions.assertThat(table.get(-1)).isEqualTo("again");
+	}
+}
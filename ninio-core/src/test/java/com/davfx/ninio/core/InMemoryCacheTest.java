@@ -0,0 +1,246 @@
+package com.davfx.ninio.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+public class InMemoryCacheTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryCacheTest.class);
+
+	// Packet: request id (int), key
+	private static final class TestInterpreter implements InMemoryCache.Interpreter<Integer> {
+		@Override
+		public InMemoryCache.Context<Integer> handleRequest(ByteBuffer packet) {
+			int id = packet.getInt();
+			return new InMemoryCache.Context<Integer>(new String(packet.array(), packet.arrayOffset() + packet.position(), packet.remaining(), Charsets.UTF_8), id);
+		}
+		@Override
+		public Integer handleResponse(ByteBuffer packet) {
+			return packet.getInt();
+		}
+		@Override
+		public ByteBuffer transform(ByteBuffer packet, Integer sub) {
+			ByteBuffer b = ByteBuffer.allocate(packet.remaining());
+			b.put(packet);
+			b.putInt(0, sub);
+			b.flip();
+			return b;
+		}
+	}
+
+	private static ByteBuffer packet(int id, String key) {
+		byte[] k = key.getBytes(Charsets.UTF_8);
+		ByteBuffer b = ByteBuffer.allocate(4 + k.length);
+		b.putInt(id);
+		b.put(k);
+		b.flip();
+		return b;
+	}
+
+	private static final class TestConnecter implements Connecter {
+		public final List<ByteBuffer> sent = new LinkedList<>();
+		public Connection callback;
+		public final boolean respondImmediately;
+		public TestConnecter(boolean respondImmediately) {
+			this.respondImmediately = respondImmediately;
+		}
+		@Override
+		public void connect(Connection callback) {
+			this.callback = callback;
+		}
+		@Override
+		public void send(Address address, ByteBuffer buffer, SendCallback callback) {
+			if (respondImmediately) {
+				callback.sent();
+				this.callback.received(address, buffer);
+				return;
+			}
+			synchronized (sent) {
+				sent.add(buffer);
+			}
+			callback.sent();
+		}
+		@Override
+		public void close() {
+		}
+	}
+
+	private static abstract class ReceivingConnection implements Connection {
+		@Override
+		public void connected(Address address) {
+		}
+		@Override
+		public void closed() {
+		}
+		@Override
+		public void failed(IOException ioe) {
+		}
+	}
+
+	private static final Address ADDRESS = new Address(Address.LOCALHOST, 161);
+
+	@Test
+	public void testSingleFlight() throws Exception {
+		final TestConnecter wrappee = new TestConnecter(false);
+		final ConcurrentMap<Integer, Integer> received = new ConcurrentHashMap<>();
+		final Connecter cache = InMemoryCache.<Integer>builder().dataExpiration(10d).requestExpiration(10d).using(new TestInterpreter()).with(new NinioBuilder<Connecter>() {
+			@Override
+			public Connecter create(NinioProvider ninioProvider) {
+				return wrappee;
+			}
+		}).create(null);
+		cache.connect(new ReceivingConnection() {
+			@Override
+			public void received(Address address, ByteBuffer buffer) {
+				int id = buffer.getInt();
+				Integer previous = received.putIfAbsent(id, 1);
+				if (previous != null) {
+					received.put(id, previous + 1);
+				}
+			}
+		});
+
+		int threads = 16;
+		final int perThread = 100;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch end = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			final int base = t * perThread;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < perThread; i++) {
+							cache.send(ADDRESS, packet(base + i, "key"), new Nop());
+						}
+					} catch (InterruptedException ie) {
+					} finally {
+						end.countDown();
+					}
+				}
+			}).start();
+		}
+		start.countDown();
+		end.await();
+
+		Assertions.assertThat(wrappee.sent).hasSize(1);
+		wrappee.callback.received(ADDRESS, wrappee.sent.get(0));
+
+		Assertions.assertThat(received).hasSize(threads * perThread);
+		for (int count : received.values()) {
+			Assertions.assertThat(count).isEqualTo(1);
+		}
+
+		// Served from cache from now on
+		cache.send(ADDRESS, packet(-1, "key"), new Nop());
+		Assertions.assertThat(received.get(-1)).isEqualTo(1);
+		Assertions.assertThat(wrappee.sent).hasSize(1);
+	}
+
+	@Test
+	public void testShared() throws Exception {
+		final List<TestConnecter> wrappees = new LinkedList<>();
+		InMemoryCache.Builder<Integer> builder = InMemoryCache.<Integer>builder().dataExpiration(10d).requestExpiration(10d).using(new TestInterpreter()).shared(true).passThrough(true).with(new NinioBuilder<Connecter>() {
+			@Override
+			public Connecter create(NinioProvider ninioProvider) {
+				TestConnecter wrappee = new TestConnecter(false);
+				wrappees.add(wrappee);
+				return wrappee;
+			}
+		});
+
+		final List<List<Integer>> received = new LinkedList<>();
+		List<Connecter> caches = new LinkedList<>();
+		for (int i = 0; i < 2; i++) {
+			final List<Integer> r = new LinkedList<>();
+			received.add(r);
+			Connecter cache = builder.create(null);
+			cache.connect(new ReceivingConnection() {
+				@Override
+				public void received(Address address, ByteBuffer buffer) {
+					r.add(buffer.getInt());
+				}
+			});
+			caches.add(cache);
+		}
+
+		// Same request ID on both connecters
+		caches.get(0).send(ADDRESS, packet(1, "key"), new Nop());
+		caches.get(1).send(ADDRESS, packet(1, "key"), new Nop());
+		caches.get(1).send(ADDRESS, packet(2, "key"), new Nop());
+		Assertions.assertThat(wrappees.get(0).sent).hasSize(1);
+		Assertions.assertThat(wrappees.get(1).sent).isEmpty();
+
+		wrappees.get(0).callback.received(ADDRESS, wrappees.get(0).sent.get(0));
+		Assertions.assertThat(received.get(0)).containsExactly(1);
+		Assertions.assertThat(received.get(1)).containsOnly(1, 2);
+
+		// Not handled by the interpreter
+		caches.get(1).send(ADDRESS, ByteBuffer.wrap(new byte[] { 1 }), new Nop());
+		Assertions.assertThat(wrappees.get(1).sent).hasSize(1);
+		wrappees.get(1).callback.received(ADDRESS, ByteBuffer.wrap(new byte[] { 0, 0, 0, 3 }));
+		Assertions.assertThat(received.get(1)).containsOnly(1, 2, 3);
+	}
+
+	@Ignore
+	@Test
+	public void testPerf() throws Exception {
+		final TestConnecter wrappee = new TestConnecter(true);
+		final AtomicInteger received = new AtomicInteger(0);
+		final Connecter cache = InMemoryCache.<Integer>builder().dataExpiration(60d).requestExpiration(60d).using(new TestInterpreter()).with(new NinioBuilder<Connecter>() {
+			@Override
+			public Connecter create(NinioProvider ninioProvider) {
+				return wrappee;
+			}
+		}).create(null);
+		cache.connect(new ReceivingConnection() {
+			@Override
+			public void received(Address address, ByteBuffer buffer) {
+				received.incrementAndGet();
+			}
+		});
+
+		for (int threads = 1; threads <= 64; threads *= 2) {
+			final int perThread = 200_000;
+			final CountDownLatch start = new CountDownLatch(1);
+			final CountDownLatch end = new CountDownLatch(threads);
+			for (int t = 0; t < threads; t++) {
+				final int base = t * perThread;
+				new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							start.await();
+							for (int i = 0; i < perThread; i++) {
+								cache.send(new Address(Address.LOCALHOST, 161 + (i % 8)), packet(base + i, "key" + (i % 40)), new Nop());
+							}
+						} catch (InterruptedException ie) {
+						} finally {
+							end.countDown();
+						}
+					}
+				}).start();
+			}
+			long t = System.nanoTime();
+			start.countDown();
+			end.await();
+			t = System.nanoTime() - t;
+			LOGGER.debug("{} threads: {} requests/s", threads, (threads * perThread * 1_000_000_000L) / t);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.davfx.ninio.core;
+
+import java.io.File;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.davfx.ninio.util.DateUtils;
+
+public class MappedCacheStoreTest {
+
+	@Test
+	public void testWarmLoad() throws Exception {
+		File file = File.createTempFile(MappedCacheStoreTest.class.getName(), null);
+		file.deleteOnExit();
+		file.delete();
+
+		Address a = new Address(Address.LOCALHOST, 161);
+		Address b = new Address(Address.LOCALHOST, 162);
+
+		double written = DateUtils.now();
+		try (MappedCacheStore store = new MappedCacheStore(file, 0d)) {
+			store.put(a, "k", ByteBufferUtils.toByteBuffer("a0"));
+			store.put(b, "k", ByteBufferUtils.toByteBuffer("b"));
+			store.write(a, "k", ByteBufferUtils.toByteBuffer("a1"));
+		}
+
+		Thread.sleep(100);
+		try (MappedCacheStore store = new MappedCacheStore(file, 0d)) {
+			Assertions.assertThat(ByteBufferUtils.toString(store.get(a, "k").data)).isEqualTo("a1");
+			// The time of the write, not of the load
+			Assertions.assertThat(store.get(a, "k").timestamp).isBetween(written, written + 0.1d);
+			Assertions.assertThat(ByteBufferUtils.toString(store.get(b, "k").data)).isEqualTo("b");
+			Assertions.assertThat(store.get(a, "other")).isNull();
+		}
+
+		file.delete();
+	}
+
+	@Test
+	public void testCompactionAndGrowth() throws Exception {
+		File file = File.createTempFile(MappedCacheStoreTest.class.getName(), null);
+		file.deleteOnExit();
+		file.delete();
+
+		Address a = new Address(Address.LOCALHOST, 161);
+
+		try (MappedCacheStore store = new MappedCacheStore(file, 0d, 1024L)) {
+			for (int i = 0; i < 10_000; i++) {
+				store.put(a, "k" + (i % 100), ByteBufferUtils.toByteBuffer("v" + i));
+			}
+			for (int i = 0; i < 100; i++) {
+				Assertions.assertThat(ByteBufferUtils.toString(store.get(a, "k" + i).data)).isEqualTo("v" + (9_900 + i));
+			}
+		}
+		Assertions.assertThat(file.length()).isLessThan(64 * 1024L);
+
+		try (MappedCacheStore store = new MappedCacheStore(file, 0d, 1024L)) {
+			Assertions.assertThat(ByteBufferUtils.toString(store.get(a, "k42").data)).isEqualTo("v9942");
+		}
+
+		file.delete();
+	}
+
+	@Test
+	public void testExpiration() throws Exception {
+		File file = File.createTempFile(MappedCacheStoreTest.class.getName(), null);
+		file.deleteOnExit();
+		file.delete();
+
+		Address a = new Address(Address.LOCALHOST, 161);
+
+		try (MappedCacheStore store = new MappedCacheStore(file, 0.5d)) {
+			store.put(a, "k", ByteBufferUtils.toByteBuffer("v"));
+			Assertions.assertThat(ByteBufferUtils.toString(store.get(a, "k").data)).isEqualTo("v");
+			Thread.sleep(600);
+			Assertions.assertThat(store.get(a, "k")).isNull();
+		}
+
+		file.delete();
+	}
+}
@@ -0,0 +1,167 @@
+package com.davfx.ninio.core;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class PcapTcpdumpReaderTest {
+
+	static byte[] udp(String payload, int sourcePort, int destinationPort) {
+		byte[] p = payload.getBytes(Charsets.UTF_8);
+		ByteBuffer b = ByteBuffer.allocate(20 + 8 + p.length);
+		b.put((byte) 0x45);
+		b.put((byte) 0);
+		b.putShort((short) b.capacity());
+		b.putInt(0);
+		b.put((byte) 64);
+		b.put((byte) 17);
+		b.putShort((short) 0);
+		b.put(new byte[] { 10, 0, 0, 1 });
+		b.put(Address.LOCALHOST);
+		b.putShort((short) sourcePort);
+		b.putShort((short) destinationPort);
+		b.putShort((short) (8 + p.length));
+		b.putShort((short) 0);
+		b.put(p);
+		return b.array();
+	}
+
+	static byte[] ethernet(byte[] ip, boolean vlan) {
+		ByteBuffer b = ByteBuffer.allocate(14 + (vlan ? 4 : 0) + ip.length);
+		b.put(new byte[12]);
+		if (vlan) {
+			b.putShort((short) 0x8100);
+			b.putShort((short) 42);
+		}
+		b.putShort((short) 0x0800);
+		b.put(ip);
+		return b.array();
+	}
+
+	static byte[] sll2(byte[] ip) {
+		ByteBuffer b = ByteBuffer.allocate(20 + ip.length);
+		b.putShort((short) 0x0800);
+		b.put(new byte[18]);
+		b.put(ip);
+		return b.array();
+	}
+
+	static byte[] pcap(ByteOrder order, boolean nano, int linkType, byte[]... packets) {
+		int length = 24;
+		for (byte[] p : packets) {
+			length += 16 + p.length;
+		}
+		ByteBuffer b = ByteBuffer.allocate(length).order(order);
+		b.putInt(nano ? 0xA1B23C4D : 0xA1B2C3D4);
+		b.putShort((short) 2);
+		b.putShort((short) 4);
+		b.putInt(0);
+		b.putInt(0);
+		b.putInt(65535);
+		b.putInt(linkType);
+		for (byte[] p : packets) {
+			b.putInt(1_500_000_000);
+			b.putInt(nano ? 500_000_000 : 500_000);
+			b.putInt(p.length);
+			b.putInt(p.length);
+			b.put(p);
+		}
+		return b.array();
+	}
+
+	static byte[] pcapng(int linkType, byte[]... packets) {
+		int length = 28 + 20 + 12;
+		for (byte[] p : packets) {
+			length += 32 + ((p.length + 3) & ~3);
+		}
+		ByteBuffer b = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		b.putInt(0x0A0D0D0A);
+		b.putInt(28);
+		b.putInt(0x1A2B3C4D);
+		b.putShort((short) 1);
+		b.putShort((short) 0);
+		b.putLong(-1L);
+		b.putInt(28);
+
+		// Interface with nanosecond resolution
+		b.putInt(1);
+		b.putInt(32);
+		b.putShort((short) linkType);
+		b.putShort((short) 0);
+		b.putInt(0);
+		b.putShort((short) 9);
+		b.putShort((short) 1);
+		b.put((byte) 9);
+		b.put(new byte[3]);
+		b.putInt(0);
+		b.putInt(32);
+
+		for (byte[] p : packets) {
+			int padded = (p.length + 3) & ~3;
+			long t = 1_500_000_000_500_000_000L;
+			b.putInt(6);
+			b.putInt(32 + padded);
+			b.putInt(0);
+			b.putInt((int) (t >>> 32));
+			b.putInt((int) t);
+			b.putInt(p.length);
+			b.putInt(p.length);
+			b.put(p);
+			b.put(new byte[padded - p.length]);
+			b.putInt(32 + padded);
+		}
+		return b.array();
+	}
+
+	private static List<String> read(byte[] capture, int bufferSize) throws Exception {
+		final List<String> result = new LinkedList<>();
+		new PcapTcpdumpReader(bufferSize).read(new ByteArrayInputStream(capture), new TcpdumpReader.Handler() {
+			@Override
+			public void handle(double timestamp, Address source, Address destination, ByteBuffer buffer) {
+				byte[] b = new byte[buffer.remaining()];
+				buffer.get(b);
+				result.add(timestamp + " " + source + " " + destination + " " + new String(b, Charsets.UTF_8));
+			}
+		});
+		return result;
+	}
+
+	@Test
+	public void testPcapEthernet() throws Exception {
+		byte[] capture = pcap(ByteOrder.LITTLE_ENDIAN, false, 1, ethernet(udp("hello", 1234, 161), false), ethernet(udp("world", 1234, 162), true));
+		Assertions.assertThat(read(capture, 64 * 1024).toString()).isEqualTo("[1.5000000005E9 10.0.0.1:1234 127.0.0.1:161 hello, 1.5000000005E9 10.0.0.1:1234 127.0.0.1:162 world]");
+	}
+
+	@Test
+	public void testPcapNanoSll2BigEndianSmallBuffer() throws Exception {
+		List<byte[]> packets = new LinkedList<>();
+		for (int i = 0; i < 100; i++) {
+			packets.add(sll2(udp("p" + i, 1000 + i, 161)));
+		}
+		byte[] capture = pcap(ByteOrder.BIG_ENDIAN, true, 276, packets.toArray(new byte[0][]));
+		List<String> r = read(capture, 128);
+		Assertions.assertThat(r).hasSize(100);
+		Assertions.assertThat(r.get(42)).isEqualTo("1.5000000005E9 10.0.0.1:1042 127.0.0.1:161 p42");
+	}
+
+	@Test
+	public void testPcapng() throws Exception {
+		byte[] capture = pcapng(1, ethernet(udp("abc", 1234, 161), false), ethernet(udp("defgh", 1234, 161), true));
+		Assertions.assertThat(read(capture, 64 * 1024).toString()).isEqualTo("[1.5000000005E9 10.0.0.1:1234 127.0.0.1:161 abc, 1.5000000005E9 10.0.0.1:1234 127.0.0.1:161 defgh]");
+	}
+
+	@Test
+	public void testTruncated() throws Exception {
+		byte[] capture = pcap(ByteOrder.LITTLE_ENDIAN, false, 1, ethernet(udp("hello", 1234, 161), false), ethernet(udp("world", 1234, 162), false));
+		byte[] truncated = new byte[capture.length - 3];
+		System.arraycopy(capture, 0, truncated, 0, truncated.length);
+		Assertions.assertThat(read(truncated, 64 * 1024)).hasSize(1);
+	}
+}
@@ -0,0 +1,89 @@
+package com.davfx.ninio.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+
+public class RacingSocketBuilderTest {
+
+	private static final int PORT = 8080;
+	private static final int CLOSED_PORT = 8081;
+
+	private static final class QueueConnection implements Connection {
+		public final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+		@Override
+		public void connected(Address address) {
+			events.add("connected");
+		}
+		@Override
+		public void received(Address address, ByteBuffer buffer) {
+			events.add(new String(buffer.array(), buffer.position(), buffer.remaining(), Charsets.UTF_8));
+		}
+		@Override
+		public void failed(IOException ioe) {
+			events.add("failed");
+		}
+		@Override
+		public void closed() {
+			events.add("closed");
+		}
+	}
+
+	@Test
+	public void testFirstFailing() throws Exception {
+		try (final ServerSocket server = new ServerSocket()) {
+			server.setReuseAddress(true);
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT));
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try (Socket s = server.accept()) {
+						InputStream in = s.getInputStream();
+						OutputStream out = s.getOutputStream();
+						int b = in.read();
+						out.write(b);
+						out.flush();
+						in.read();
+					} catch (IOException ioe) {
+					}
+				}
+			}).start();
+
+			try (Ninio ninio = Ninio.create()) {
+				QueueConnection connection = new QueueConnection();
+				Connecter c = ninio.create(new RacingSocketBuilder(TcpSocket.builder()).delay(10d).to(ImmutableList.of(new Address(Address.LOCALHOST, CLOSED_PORT), new Address(Address.LOCALHOST, PORT))));
+				c.connect(connection);
+				c.send(null, ByteBuffer.wrap("a".getBytes(Charsets.UTF_8)), new Nop()); // Sent when connected
+				Assertions.assertThat(connection.events.poll(5, TimeUnit.SECONDS)).isEqualTo("connected"); // Without waiting for the delay
+				Assertions.assertThat(connection.events.poll(5, TimeUnit.SECONDS)).isEqualTo("a");
+				c.close();
+				Assertions.assertThat(connection.events.poll(5, TimeUnit.SECONDS)).isEqualTo("closed");
+			}
+		}
+	}
+
+	@Test
+	public void testAllFailing() throws Exception {
+		try (Ninio ninio = Ninio.create()) {
+			QueueConnection connection = new QueueConnection();
+			Connecter c = ninio.create(new RacingSocketBuilder(TcpSocket.builder()).to(ImmutableList.of(new Address(Address.LOCALHOST, CLOSED_PORT), new Address(Address.LOCALHOST, CLOSED_PORT + 1))));
+			c.connect(connection);
+			Assertions.assertThat(connection.events.poll(5, TimeUnit.SECONDS)).isEqualTo("failed");
+			Assertions.assertThat(connection.events.poll(100, TimeUnit.MILLISECONDS)).isNull();
+		}
+	}
+}
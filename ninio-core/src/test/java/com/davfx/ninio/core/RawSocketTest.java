@@ -0,0 +1,115 @@
+package com.davfx.ninio.core;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.davfx.ninio.util.Lock;
+
+public class RawSocketTest {
+
+	private static ByteBuffer echoRequest(int sequence) {
+		ByteBuffer b = ByteBuffer.allocate(16);
+		b.put((byte) 8); // Echo request
+		b.put((byte) 0);
+		b.putShort((short) 0);
+		b.putShort((short) 0x4242);
+		b.putShort((short) sequence);
+		b.putLong(System.nanoTime());
+
+		int sum = 0;
+		for (int i = 0; i < b.capacity(); i += 2) {
+			sum += b.getShort(i) & 0xFFFF;
+		}
+		while ((sum >> 16) != 0) {
+			sum = (sum & 0xFFFF) + (sum >> 16);
+		}
+		b.putShort(2, (short) ~sum);
+		b.flip();
+		return b;
+	}
+
+	// Whatever the platform (library, rights), creating a raw socket only reports through the callback
+	@Test
+	public void testCreatedWithoutNativeLibrary() throws Exception {
+		try (Ninio ninio = Ninio.create()) {
+			final Lock<String, IOException> lock = new Lock<>();
+			try (Connecter socket = ninio.create(RawSocket.builder().family(StandardProtocolFamily.INET).protocol(1))) {
+				socket.connect(new Connection() {
+					@Override
+					public void failed(IOException ioe) {
+						lock.set("failed");
+					}
+					@Override
+					public void connected(Address address) {
+						lock.set("connected");
+					}
+					@Override
+					public void closed() {
+					}
+					@Override
+					public void received(Address address, ByteBuffer buffer) {
+					}
+				});
+				Assertions.assertThat(lock.waitFor()).isIn("failed", "connected");
+			}
+		}
+	}
+
+	// Needs CAP_NET_RAW (run as root or in a user namespace)
+	@Ignore
+	@Test
+	public void testEchoOnLoopback() throws Exception {
+		int count = 100;
+		final CountDownLatch replies = new CountDownLatch(count);
+		final AtomicInteger sent = new AtomicInteger(0);
+		try (Ninio ninio = Ninio.create()) {
+			try (Connecter socket = ninio.create(RawSocket.builder().family(StandardProtocolFamily.INET).protocol(1))) {
+				socket.connect(new Connection() {
+					@Override
+					public void failed(IOException ioe) {
+					}
+					@Override
+					public void connected(Address address) {
+					}
+					@Override
+					public void closed() {
+					}
+					@Override
+					public void received(Address address, ByteBuffer buffer) {
+						// Loopback requests are received too
+						if ((buffer.get(buffer.position()) == 0) && (buffer.getShort(buffer.position() + 4) == 0x4242)) {
+							replies.countDown();
+						}
+					}
+				});
+
+				for (int i = 0; i < count; i++) {
+					if ((i % 10) == 0) {
+						// The kernel rate-limits ICMP replies
+						Thread.sleep(20);
+					}
+					socket.send(new Address(Address.LOCALHOST, 0), echoRequest(i), new SendCallback() {
+						@Override
+						public void sent() {
+							sent.incrementAndGet();
+						}
+						@Override
+						public void failed(IOException ioe) {
+						}
+					});
+				}
+
+				Assertions.assertThat(replies.await(5, TimeUnit.SECONDS)).isTrue();
+				Assertions.assertThat(sent.get()).isEqualTo(count);
+			}
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package com.davfx.ninio.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class TcpdumpManagerTest {
+
+	private static class Collecting implements Connection {
+		public final List<String> received = new LinkedList<>();
+		public final CountDownLatch latch;
+		public Collecting(int expected) {
+			latch = new CountDownLatch(expected);
+		}
+		@Override
+		public void connected(Address address) {
+		}
+		@Override
+		public void closed() {
+		}
+		@Override
+		public void failed(IOException ioe) {
+		}
+		@Override
+		public void received(Address address, ByteBuffer buffer) {
+			byte[] b = new byte[buffer.remaining()];
+			buffer.get(b);
+			synchronized (received) {
+				received.add(address + " " + new String(b, Charsets.UTF_8));
+			}
+			latch.countDown();
+		}
+	}
+
+	private static byte[] capture(byte[]... ipPackets) {
+		byte[][] frames = new byte[ipPackets.length][];
+		for (int i = 0; i < ipPackets.length; i++) {
+			frames[i] = PcapTcpdumpReaderTest.ethernet(ipPackets[i], false);
+		}
+		return PcapTcpdumpReaderTest.pcap(ByteOrder.LITTLE_ENDIAN, false, 1, frames);
+	}
+
+	@Test
+	public void testFanOut() throws Exception {
+		try (TcpdumpManager manager = TcpdumpManager.builder().live(false).build()) {
+			Collecting any161 = new Collecting(2);
+			Collecting local161 = new Collecting(2);
+			Collecting any162 = new Collecting(1);
+			Collecting other161 = new Collecting(0);
+			manager.subscribe("lo", "dst port 161", new Address(Address.ANY, 161), any161);
+			manager.subscribe("lo", "dst port 161", new Address(Address.LOCALHOST, 161), local161);
+			manager.subscribe("lo", "dst port 162", new Address(Address.ANY, 162), any162);
+			manager.subscribe("lo", "dst port 161", new Address(new byte[] { 10, 0, 0, 2 }, 161), other161);
+
+			manager.feed("lo", new ByteArrayInputStream(capture(
+					PcapTcpdumpReaderTest.udp("a", 1000, 161),
+					PcapTcpdumpReaderTest.udp("b", 1001, 162),
+					PcapTcpdumpReaderTest.udp("c", 1002, 163),
+					PcapTcpdumpReaderTest.udp("d", 1003, 161))));
+
+			Assertions.assertThat(any161.latch.await(5, TimeUnit.SECONDS)).isTrue();
+			Assertions.assertThat(local161.latch.await(5, TimeUnit.SECONDS)).isTrue();
+			Assertions.assertThat(any162.latch.await(5, TimeUnit.SECONDS)).isTrue();
+			Assertions.assertThat(any161.received).containsExactly("10.0.0.1:1000 a", "10.0.0.1:1003 d");
+			Assertions.assertThat(local161.received).containsExactly("10.0.0.1:1000 a", "10.0.0.1:1003 d");
+			Assertions.assertThat(any162.received).containsExactly("10.0.0.1:1001 b");
+			Assertions.assertThat(other161.received).isEmpty();
+		}
+	}
+
+	@Test
+	public void testDropped() throws Exception {
+		try (TcpdumpManager manager = TcpdumpManager.builder().live(false).queue(1).build()) {
+			final CountDownLatch blocked = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			TcpdumpManager.Subscription subscription = manager.subscribe("lo", "", new Address(Address.ANY, 161), new Collecting(0) {
+				@Override
+				public void received(Address address, ByteBuffer buffer) {
+					blocked.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException ie) {
+					}
+				}
+			});
+
+			manager.feed("lo", new ByteArrayInputStream(capture(PcapTcpdumpReaderTest.udp("first", 1000, 161))));
+			Assertions.assertThat(blocked.await(5, TimeUnit.SECONDS)).isTrue();
+
+			// First one is being delivered, the queue holds one, the others are dropped
+			manager.feed("lo", new ByteArrayInputStream(capture(
+					PcapTcpdumpReaderTest.udp("1", 1000, 161),
+					PcapTcpdumpReaderTest.udp("2", 1000, 161),
+					PcapTcpdumpReaderTest.udp("3", 1000, 161))));
+			Assertions.assertThat(subscription.dropped()).isEqualTo(2L);
+			release.countDown();
+		}
+	}
+
+	@Test
+	public void testMergeRules() {
+		Assertions.assertThat(TcpdumpManager.mergeRules(Arrays.asList("dst port 161", " dst port 161", "dst port 162"))).isEqualTo("(dst port 161) or (dst port 162)");
+		Assertions.assertThat(TcpdumpManager.mergeRules(Arrays.asList("dst port 161"))).isEqualTo("dst port 161");
+		Assertions.assertThat(TcpdumpManager.mergeRules(Arrays.asList("dst port 161", ""))).isEqualTo("");
+	}
+}
@@ -0,0 +1,9 @@
+package com.davfx.ninio.dns;
+
+import java.util.List;
+
+import com.davfx.ninio.core.Failing;
+
+public interface DnsAllReceiver extends Failing {
+	void received(List<byte[]> ips); // Never empty, IPv6 and IPv4 interleaved (IPv6 first) if both families were asked for
+}
@@ -0,0 +1,136 @@
+package com.davfx.ninio.dns;
+
+import java.net.ProtocolFamily;
+import java.net.StandardProtocolFamily;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.davfx.ninio.dns.dependencies.Dependencies;
+import com.davfx.ninio.util.ConfigUtils;
+import com.typesafe.config.Config;
+
+// Resolved (and unresolvable) hosts, kept as long as their TTL says (clamped), thread-safe so that it can be shared by several clients
+public final class DnsCache {
+
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(DnsCache.class.getPackage().getName());
+	private static final double TTL_MIN = ConfigUtils.getDuration(CONFIG, "cache.ttl.min");
+	private static final double TTL_MAX = ConfigUtils.getDuration(CONFIG, "cache.ttl.max");
+	private static final double NEGATIVE_TTL_MIN = ConfigUtils.getDuration(CONFIG, "cache.negative.min");
+	private static final double NEGATIVE_TTL_MAX = ConfigUtils.getDuration(CONFIG, "cache.negative.max");
+	private static final double NEGATIVE_TTL_DEFAULT = ConfigUtils.getDuration(CONFIG, "cache.negative.default");
+	private static final double PREFETCH = CONFIG.getDouble("cache.prefetch.before");
+	private static final int PREFETCH_HITS = CONFIG.getInt("cache.prefetch.hits");
+	private static final int MAX_SIZE = CONFIG.getInt("cache.size");
+
+	static final class Entry {
+		public final List<byte[]> ips; // null if not resolved
+		public final double ttl;
+		public final double expiresAt;
+		public int hits = 0;
+		public boolean prefetching = false;
+
+		public Entry(List<byte[]> ips, double ttl, double now) {
+			this.ips = ips;
+			this.ttl = ttl;
+			expiresAt = now + ttl;
+		}
+	}
+
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > MAX_SIZE;
+		}
+	};
+
+	private long hits = 0L;
+	private long negativeHits = 0L;
+	private long misses = 0L;
+	private long coalesced = 0L;
+	private long prefetches = 0L;
+
+	public DnsCache() {
+	}
+
+	static String key(String host, ProtocolFamily family) {
+		return ((family == null) ? "*" : ((family == StandardProtocolFamily.INET6) ? "6" : "4")) + host;
+	}
+
+	// Expired entries are removed, hits are counted
+	synchronized Entry get(String key, double now) {
+		Entry e = entries.get(key);
+		if ((e != null) && (e.expiresAt <= now)) {
+			entries.remove(key);
+			e = null;
+		}
+		if (e == null) {
+			misses++;
+			return null;
+		}
+		e.hits++;
+		if (e.ips == null) {
+			negativeHits++;
+		} else {
+			hits++;
+		}
+		return e;
+	}
+
+	// Hot entries are refreshed once before they expire, without waiting
+	synchronized boolean shouldPrefetch(Entry e, double now) {
+		if ((e.ips == null) || e.prefetching || (e.hits < PREFETCH_HITS) || ((e.expiresAt - now) > (e.ttl * PREFETCH))) {
+			return false;
+		}
+		e.prefetching = true;
+		prefetches++;
+		return true;
+	}
+
+	synchronized void put(String key, List<byte[]> ips, double ttl, double now) {
+		entries.put(key, new Entry(ips, Math.min(TTL_MAX, Math.max(TTL_MIN, ttl)), now));
+	}
+
+	// Negative TTL from the SOA record (RFC 2308), negative if unknown
+	synchronized void putNegative(String key, double ttl, double now) {
+		entries.put(key, new Entry(null, Math.min(NEGATIVE_TTL_MAX, Math.max(NEGATIVE_TTL_MIN, (ttl < 0d) ? NEGATIVE_TTL_DEFAULT : ttl)), now));
+	}
+
+	synchronized void countCoalesced() {
+		coalesced++;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+	public synchronized long hits() {
+		return hits;
+	}
+	public synchronized long negativeHits() {
+		return negativeHits;
+	}
+	public synchronized long misses() {
+		return misses;
+	}
+	// Requests that joined an identical in-flight request
+	public synchronized long coalesced() {
+		return coalesced;
+	}
+	public synchronized long prefetches() {
+		return prefetches;
+	}
+	public synchronized double hitRate() {
+		long total = hits + negativeHits + misses;
+		return (total == 0L) ? 0d : (((double) (hits + negativeHits)) / total);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "DnsCache[size=" + entries.size() + ", hits=" + hits + ", negativeHits=" + negativeHits + ", misses=" + misses + ", coalesced=" + coalesced + ", prefetches=" + prefetches + "]";
+	}
+}
@@ -1,17 +1,27 @@
 package com.davfx.ninio.dns;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.ProtocolFamily;
 import java.net.StandardProtocolFamily;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,14 +29,17 @@ import org.slf4j.LoggerFactory;
 import com.davfx.ninio.core.Address;
 import com.davfx.ninio.core.Connecter;
 import com.davfx.ninio.core.Connection;
+import com.davfx.ninio.core.CorrelationTable;
 import com.davfx.ninio.core.NinioBuilder;
 import com.davfx.ninio.core.NinioProvider;
 import com.davfx.ninio.core.SendCallback;
+import com.davfx.ninio.core.TcpSocket;
 import com.davfx.ninio.core.UdpSocket;
 import com.davfx.ninio.dns.dependencies.Dependencies;
+import com.davfx.ninio.util.ClassThreadFactory;
 import com.davfx.ninio.util.ConfigUtils;
-import com.google.common.base.Charsets;
-import com.google.common.base.Splitter;
+import com.davfx.ninio.util.DateUtils;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.net.InetAddresses;
 import com.google.common.primitives.Shorts;
@@ -38,23 +51,26 @@ public final class DnsClient implements DnsConnecter {
 
 	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(DnsClient.class.getPackage().getName());
 	private static final boolean SYSTEM = CONFIG.getBoolean("system");
+	private static final double TIMEOUT = ConfigUtils.getDuration(CONFIG, "retry.timeout");
+	private static final int ATTEMPTS = CONFIG.getInt("retry.attempts");
+	private static final double RESOLUTION_DELAY = ConfigUtils.getDuration(CONFIG, "dual.delay");
 	private static final ImmutableMap<String, String> HOSTS4;
 	private static final ImmutableMap<String, String> HOSTS6;
 	static {
-		{
-			ImmutableMap.Builder<String, String> m = ImmutableMap.builder();
-			for (Config c : CONFIG.getConfigList("hosts.v4")) {
-				m.put(c.getString("host"), c.getString("ip"));
-			}
-			HOSTS4 = m.build();
+		Map<String, String> v4 = new HashMap<>();
+		Map<String, String> v6 = new HashMap<>();
+		for (Config c : CONFIG.getConfigList("hosts.v4")) {
+			v4.put(c.getString("host").toLowerCase(), c.getString("ip"));
 		}
-		{
-			ImmutableMap.Builder<String, String> m = ImmutableMap.builder();
-			for (Config c : CONFIG.getConfigList("hosts.v6")) {
-				m.put(c.getString("host"), c.getString("ip"));
-			}
-			HOSTS6 = m.build();
+		for (Config c : CONFIG.getConfigList("hosts.v6")) {
+			v6.put(c.getString("host").toLowerCase(), c.getString("ip"));
+		}
+		String hostsFile = CONFIG.getString("resolv.hosts");
+		if (!hostsFile.isEmpty()) {
+			HostsFile.load(new File(hostsFile), v4, v6);
 		}
+		HOSTS4 = ImmutableMap.copyOf(v4);
+		HOSTS6 = ImmutableMap.copyOf(v6);
 	}
 
 	public static final int DEFAULT_PORT = 53;
@@ -70,18 +86,45 @@ public final class DnsClient implements DnsConnecter {
 		DEFAULT_DNS_ADDRESS = new Address(a, DEFAULT_PORT);
 	}
 
+	private static final ResolvConf RESOLV_CONF;
+	static {
+		String resolvConf = CONFIG.getString("resolv.conf");
+		RESOLV_CONF = resolvConf.isEmpty() ? new ResolvConf(DEFAULT_DNS_ADDRESS) : ResolvConf.load(new File(resolvConf), DEFAULT_DNS_ADDRESS);
+		LOGGER.debug("Using {}", RESOLV_CONF);
+	}
+
+	// Blocking system lookups never run on the Ninio executor
+	private static final ThreadPoolExecutor SYSTEM_EXECUTOR;
+	static {
+		int threads = CONFIG.getInt("blocking.threads");
+		SYSTEM_EXECUTOR = SYSTEM ? new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(CONFIG.getInt("blocking.queue")), new ClassThreadFactory(DnsClient.class, true)) : null;
+	}
+
+	private static final ScheduledExecutorService TIMEOUT_EXECUTOR = Executors.newSingleThreadScheduledExecutor(new ClassThreadFactory(DnsClient.class, true));
+
+	private static final int RCODE_FORMAT_ERROR = 1;
+	private static final int RCODE_SERVER_FAILURE = 2;
+	private static final int RCODE_NOT_IMPLEMENTED = 4;
+	private static final int RCODE_REFUSED = 5;
+
 	public static interface Builder extends NinioBuilder<DnsConnecter> {
 		@Deprecated
 		Builder with(Executor executor);
 
-		Builder to(Address dnsAddress);
+		Builder to(Address dnsAddress); // Replaces the name servers of resolv.conf
+		Builder with(ResolvConf resolvConf);
 		Builder with(NinioBuilder<Connecter> connecterFactory);
+		Builder tcp(TcpSocket.Builder tcpConnecterFactory); // Used when responses are truncated
+		Builder with(DnsCache cache); // Can be shared by several clients
 	}
 	
 	public static Builder builder() {
 		return new Builder() {
-			private Address dnsAddress = DEFAULT_DNS_ADDRESS;
+			private Address dnsAddress = null;
+			private ResolvConf resolvConf = RESOLV_CONF;
 			private NinioBuilder<Connecter> connecterFactory = UdpSocket.builder();
+			private TcpSocket.Builder tcpConnecterFactory = TcpSocket.builder();
+			private DnsCache cache = null;
 			
 			@Deprecated
 			@Override
@@ -95,40 +138,75 @@ public final class DnsClient implements DnsConnecter {
 				return this;
 			}
 			
+			@Override
+			public Builder with(ResolvConf resolvConf) {
+				this.resolvConf = resolvConf;
+				return this;
+			}
+
 			@Override
 			public Builder with(NinioBuilder<Connecter> connecterFactory) {
 				this.connecterFactory = connecterFactory;
 				return this;
 			}
 
+			@Override
+			public Builder tcp(TcpSocket.Builder tcpConnecterFactory) {
+				this.tcpConnecterFactory = tcpConnecterFactory;
+				return this;
+			}
+
+			@Override
+			public Builder with(DnsCache cache) {
+				this.cache = cache;
+				return this;
+			}
+
 			@Override
 			public DnsConnecter create(NinioProvider ninioProvider) {
-				return new DnsClient(ninioProvider.executor(), dnsAddress, connecterFactory.create(ninioProvider));
+				return new DnsClient(ninioProvider, (dnsAddress == null) ? resolvConf : resolvConf.to(ImmutableList.of(dnsAddress)), connecterFactory.create(ninioProvider), tcpConnecterFactory, (cache == null) ? new DnsCache() : cache);
 			}
 		};
 	}
 	
+	private final NinioProvider ninioProvider;
 	private final Executor executor;
-	private final Address dnsAddress;
+	private final ResolvConf resolvConf;
+	private final double timeout;
+	private final int attempts;
 	private final Connecter connecter;
+	private final TcpSocket.Builder tcpConnecterFactory;
 	
 	private final InstanceMapper instanceMapper;
 
 	private final RequestIdProvider requestIdProvider = new RequestIdProvider();
 
-	private DnsClient(Executor executor, Address dnsAddress, Connecter connecter) {
-		this.executor = executor;
-		this.dnsAddress = dnsAddress;
+	private final DnsCache cache;
+	private final Map<String, Resolution> resolutions = new HashMap<>();
+	private final Random random = new Random(System.currentTimeMillis());
+	private int rotation = 0;
+
+	private DnsClient(NinioProvider ninioProvider, ResolvConf resolvConf, Connecter connecter, TcpSocket.Builder tcpConnecterFactory, DnsCache cache) {
+		this.ninioProvider = ninioProvider;
+		executor = ninioProvider.executor();
+		this.resolvConf = resolvConf;
+		timeout = (resolvConf.timeout < 0d) ? TIMEOUT : resolvConf.timeout;
+		attempts = Math.max(1, (resolvConf.attempts < 0) ? ATTEMPTS : resolvConf.attempts);
 		this.connecter = connecter;
+		this.tcpConnecterFactory = tcpConnecterFactory;
+		this.cache = cache;
 		instanceMapper = new InstanceMapper(requestIdProvider);
 	}
 	
 	@Override
 	public DnsRequestBuilder request() {
 		return new DnsRequestBuilder() {
-			private Instance instance = null;
+			private boolean launched = false;
+			private boolean canceled = false;
+			private final Map<Resolution, DnsAllReceiver> joined = new HashMap<>();
+			private DualStack dualStack = null;
 			private String host;
-			private ProtocolFamily family;
+			private ProtocolFamily family = null;
 			
 			@Override
 			public DnsRequestBuilder resolve(String host, ProtocolFamily family) {
@@ -141,8 +219,14 @@ public final class DnsClient implements DnsConnecter {
 				executor.execute(new Runnable() {
 					@Override
 					public void run() {
-						if (instance != null) {
-							instance.cancel();
+						canceled = true;
+						for (Map.Entry<Resolution, DnsAllReceiver> e : joined.entrySet()) {
+							e.getKey().cancel(e.getValue());
+						}
+						joined.clear();
+						if (dualStack != null) {
+							dualStack.cancel();
+							dualStack = null;
 						}
 					}
 				});
@@ -150,225 +234,362 @@ public final class DnsClient implements DnsConnecter {
 			
 			@Override
 			public Cancelable receive(final DnsReceiver c) {
+				return receiveAll(new DnsAllReceiver() {
+					@Override
+					public void received(List<byte[]> ips) {
+						c.received(ips.get(random.nextInt(ips.size())));
+					}
+					@Override
+					public void failed(IOException ioe) {
+						c.failed(ioe);
+					}
+				});
+			}
+
+			@Override
+			public Cancelable receiveAll(final DnsAllReceiver c) {
 				executor.execute(new Runnable() {
 					@Override
 					public void run() {
-						if (instance != null) {
+						if (launched) {
 							throw new IllegalStateException();
 						}
+						launched = true;
 
-						if (family == StandardProtocolFamily.INET6) {
-							String r = HOSTS6.get(host);
-							if (r != null) {
-								host = r;
-							}
-						} else {
-							String r = HOSTS4.get(host);
-							if (r != null) {
-								host = r;
-							}
+						List<byte[]> local = local(host, family);
+						if (local != null) {
+							c.received(local);
+							return;
 						}
-
-						byte[] parsedIp;
 						
-						if (host == null) {
-							parsedIp = new byte[] { };
+						if (SYSTEM) {
+							system(c);
 						} else {
+							resolve(c);
+						}
+					}
+				});
+
+				return this;
+			}
+
+			// On the dedicated pool, falling back to the asynchronous resolution
+			private void system(final DnsAllReceiver c) {
+				final String h = host;
+				LOGGER.trace("Sync resolution: {}", h);
+				try {
+					SYSTEM_EXECUTOR.execute(new Runnable() {
+						@Override
+						public void run() {
+							InetAddress[] all;
 							try {
-								parsedIp = InetAddresses.forString(host).getAddress();
-							} catch (IllegalArgumentException e) {
-								parsedIp = null;
+								all = InetAddress.getAllByName(h);
+							} catch (UnknownHostException e) {
+								all = new InetAddress[0];
 							}
-
-							if ((parsedIp == null) && SYSTEM) {
-								LOGGER.trace("Sync resolution: {}", host);
-								try {
-									parsedIp = InetAddress.getByName(host).getAddress();
-								} catch (UnknownHostException e) {
-									parsedIp = null;
-								}
+							List<byte[]> ips6 = new ArrayList<>();
+							List<byte[]> ips4 = new ArrayList<>();
+							for (InetAddress a : all) {
+								((a instanceof Inet6Address) ? ips6 : ips4).add(a.getAddress());
 							}
+							final List<byte[]> ips;
+							if (family == null) {
+								ips = interleave(ips6, ips4);
+							} else {
+								ips = (family == StandardProtocolFamily.INET6) ? ips6 : ips4;
+							}
+							executor.execute(new Runnable() {
+								@Override
+								public void run() {
+									if (canceled) {
+										return;
+									}
+									if (ips.isEmpty()) {
+										resolve(c);
+									} else {
+										c.received(ips);
+									}
+								}
+							});
 						}
-						
-						if (parsedIp == null) {
-							instance = new Instance(connecter, dnsAddress, instanceMapper, host, family);
-						} else {
-							c.received(parsedIp);
-							return;
-						}
-						
-						instance.receiver = c;
-						instance.launch();
+					});
+				} catch (RejectedExecutionException ree) {
+					LOGGER.trace("Too many sync resolutions, resolving asynchronously: {}", h);
+					resolve(c);
+				}
+			}
+
+			private void resolve(DnsAllReceiver c) {
+				if (family == null) {
+					dualStack = new DualStack(c);
+					join(StandardProtocolFamily.INET6, dualStack.v6);
+					join(StandardProtocolFamily.INET, dualStack.v4);
+				} else {
+					join(family, c);
+				}
+			}
+
+			private void join(ProtocolFamily f, DnsAllReceiver c) {
+				String key = DnsCache.key(host, f);
+				double now = DateUtils.now();
+				DnsCache.Entry e = cache.get(key, now);
+				if (e != null) {
+					LOGGER.trace("From cache: {}", host);
+					if (cache.shouldPrefetch(e, now) && !resolutions.containsKey(key)) {
+						LOGGER.trace("Prefetching: {}", host);
+						launch(key, host, f, null);
 					}
-				});
+					if (e.ips == null) {
+						c.failed(new IOException("No IP resolved"));
+					} else {
+						c.received(e.ips);
+					}
+					return;
+				}
+						
+				Resolution resolution = resolutions.get(key);
+				if (resolution == null) {
+					resolution = launch(key, host, f, c);
+				} else {
+					cache.countCoalesced();
+					resolution.receivers.add(c);
+				}
+				joined.put(resolution, c);
+			}
+		};
+	}
 
-				return this;
+	// Hosts file entries and IP literals, null if the host has to be resolved
+	private static List<byte[]> local(String host, ProtocolFamily family) {
+		if (host == null) {
+			return ImmutableList.of(new byte[] { });
+		}
+		String h = host.toLowerCase();
+		if (family == null) {
+			byte[] ip6 = parse(HOSTS6.get(h));
+			byte[] ip4 = parse(HOSTS4.get(h));
+			if ((ip6 != null) && (ip4 != null)) {
+				return ImmutableList.of(ip6, ip4);
+			}
+			if ((ip6 != null) || (ip4 != null)) {
+				return ImmutableList.of((ip6 != null) ? ip6 : ip4);
+			}
+		} else {
+			String ip = ((family == StandardProtocolFamily.INET6) ? HOSTS6 : HOSTS4).get(h);
+			if (ip != null) {
+				host = ip;
+			}
+		}
+		byte[] ip = parse(host);
+		return (ip == null) ? null : ImmutableList.of(ip);
+	}
+
+	private static byte[] parse(String ip) {
+		if (ip == null) {
+			return null;
+		}
+		try {
+			return InetAddresses.forString(ip).getAddress();
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	// Alternating families, starting with the first one (RFC 8305)
+	private static List<byte[]> interleave(List<byte[]> first, List<byte[]> second) {
+		if ((first == null) || first.isEmpty()) {
+			return (second == null) ? ImmutableList.<byte[]> of() : second;
+		}
+		if ((second == null) || second.isEmpty()) {
+			return first;
+		}
+		List<byte[]> l = new ArrayList<>(first.size() + second.size());
+		for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+			if (i < first.size()) {
+				l.add(first.get(i));
+			}
+			if (i < second.size()) {
+				l.add(second.get(i));
+			}
+		}
+		return l;
+	}
+
+	// Both families in parallel, the first answered waits a bit for the other one (Resolution Delay, RFC 8305)
+	private final class DualStack {
+		private final DnsAllReceiver receiver;
+		private List<byte[]> ips6 = null;
+		private List<byte[]> ips4 = null;
+		private boolean done6 = false;
+		private boolean done4 = false;
+		private boolean delivered = false;
+		private IOException error = null;
+		private ScheduledFuture<?> delay = null;
+
+		public final DnsAllReceiver v6 = new DnsAllReceiver() {
+			@Override
+			public void received(List<byte[]> ips) {
+				ips6 = ips;
+				done6 = true;
+				check();
+			}
+			@Override
+			public void failed(IOException ioe) {
+				error = ioe;
+				done6 = true;
+				check();
+			}
+		};
+		public final DnsAllReceiver v4 = new DnsAllReceiver() {
+			@Override
+			public void received(List<byte[]> ips) {
+				ips4 = ips;
+				done4 = true;
+				check();
+			}
+			@Override
+			public void failed(IOException ioe) {
+				error = ioe;
+				done4 = true;
+				check();
 			}
 		};
+
+		public DualStack(DnsAllReceiver receiver) {
+			this.receiver = receiver;
+		}
+
+		private void check() {
+			if (delivered) {
+				return;
+			}
+			if (done6 && done4) {
+				deliver();
+				return;
+			}
+			if ((delay == null) && ((ips6 != null) || (ips4 != null))) {
+				delay = TIMEOUT_EXECUTOR.schedule(new Runnable() {
+					@Override
+					public void run() {
+						executor.execute(new Runnable() {
+							@Override
+							public void run() {
+								deliver();
+							}
+						});
+					}
+				}, (long) (RESOLUTION_DELAY * 1000d), TimeUnit.MILLISECONDS);
+			}
+		}
+
+		public void cancel() {
+			delivered = true;
+			if (delay != null) {
+				delay.cancel(false);
+				delay = null;
+			}
+		}
+
+		private void deliver() {
+			if (delivered) {
+				return;
+			}
+			cancel();
+			List<byte[]> ips = interleave(ips6, ips4);
+			if (ips.isEmpty()) {
+				receiver.failed((error == null) ? new IOException("No IP resolved") : error);
+			} else {
+				receiver.received(ips);
+			}
+		}
+	}
+
+	// Without receiver when prefetching
+	private Resolution launch(String key, String host, ProtocolFamily family, DnsAllReceiver receiver) {
+		Resolution r = new Resolution(key);
+		if (receiver != null) {
+			r.receivers.add(receiver);
+		}
+		resolutions.put(key, r);
+		r.instance = new Instance(host, family, r);
+		r.instance.launch();
+		return r;
+	}
+
+	// Identical questions share the same instance
+	private final class Resolution {
+		private final String key;
+		public final List<DnsAllReceiver> receivers = new LinkedList<>();
+		public Instance instance;
+
+		public Resolution(String key) {
+			this.key = key;
+		}
+
+		public void cancel(DnsAllReceiver receiver) {
+			receivers.remove(receiver);
+			if (receivers.isEmpty() && (resolutions.get(key) == this)) {
+				resolutions.remove(key);
+				instance.cancel();
+			}
+		}
+
+		public void close() {
+			resolutions.remove(key);
+			receivers.clear();
+		}
+
+		public void resolved(List<byte[]> ips, long ttl) {
+			resolutions.remove(key);
+			cache.put(key, ips, ttl, DateUtils.now());
+			List<DnsAllReceiver> l = new ArrayList<>(receivers);
+			receivers.clear();
+			for (DnsAllReceiver r : l) {
+				r.received(ips);
+			}
+		}
+
+		// Negative TTL is negative if not specified by the server
+		public void failed(IOException e, boolean cacheable, long negativeTtl) {
+			resolutions.remove(key);
+			if (cacheable) {
+				cache.putNegative(key, negativeTtl, DateUtils.now());
+			}
+			List<DnsAllReceiver> l = new ArrayList<>(receivers);
+			receivers.clear();
+			for (DnsAllReceiver r : l) {
+				r.failed(e);
+			}
+		}
 	}
+	
 	@Override
 	public void connect(final DnsConnection callback) {
 		connecter.connect(new Connection() {
 			@Override
 			public void received(final Address address, final ByteBuffer packet) {
 				executor.execute(new Runnable() {
-					private String readName(ByteBuffer packet, ByteBuffer buffer) {
-						if (buffer.remaining() > 1) {
-							int position = buffer.position();
-							int pointer = buffer.getShort() & 0xFFFF;
-							if ((pointer & 0xC000) == 0xC000) {
-								pointer &= 0x3FFF;
-								ByteBuffer bb = packet.duplicate();
-								bb.position(pointer);
-								return readName(packet, bb);
-							}
-							buffer.position(position);
-						}
-						
-						StringBuilder s = new StringBuilder();
-						while (true) {
-							int n = buffer.get() & 0xFF;
-							if (n == 0) {
-								break;
-							}
-
-							if (buffer.remaining() > 0) {
-								if ((n & 0xC0) == 0xC0) {
-									int l = buffer.get() & 0xFF;
-									int pointer = ((n & 0x3F) << 16) | l;
-									ByteBuffer bb = packet.duplicate();
-									bb.position(pointer);
-									if (s.length() > 0) {
-										s.append('.');
-									}
-									s.append(readName(packet, bb));
-									break;
-								}
-							}
-
-							byte[] b = new byte[n];
-							buffer.get(b);
-							if (s.length() > 0) {
-								s.append('.');
-							}
-							s.append(new String(b, Charsets.UTF_8));
-						}
-						return s.toString();
-					}
-					
 					@Override
 					public void run() {
-						ByteBuffer buffer = packet.duplicate();
-						
-						short instanceId = buffer.getShort();
-						int flags = buffer.getShort() & 0xFFFF;
-						int questions = buffer.getShort() & 0xFFFF;
-						int answers = buffer.getShort() & 0xFFFF;
-						int authorityRRs = buffer.getShort() & 0xFFFF;
-						int addtionalRRs = buffer.getShort() & 0xFFFF;
-						LOGGER.trace("flags={}, questions={}, answers={}, authorityRRs={}, addtionalRRs={}", flags, questions, answers, authorityRRs, addtionalRRs);
-
-						for (int i = 0; i < questions; i++) {
-							String questionName = readName(packet, buffer);
-							@SuppressWarnings("unused")
-							int type = buffer.getShort() & 0xFFFF;
-							@SuppressWarnings("unused")
-							int clazz = buffer.getShort() & 0xFFFF;
-							LOGGER.trace("Question#{}: {}", i, questionName);
-						}
-						
-						List<String> nameServers = new LinkedList<>();
-						Map<String, List<byte[]>> ips4 = new HashMap<>();
-						Map<String, List<byte[]>> ips6 = new HashMap<>();
-						Map<String, String> nameToCnames = new HashMap<>();
-						for (int i = 0; i < (answers + authorityRRs + addtionalRRs); i++) {
-							String name = readName(packet, buffer);
-							int type = buffer.getShort() & 0xFFFF;
-							@SuppressWarnings("unused")
-							int clazz = buffer.getShort() & 0xFFFF;
-							@SuppressWarnings("unused")
-							long ttl = buffer.getInt() & 0xFFFFFFFFL;
-							int n = buffer.getShort() & 0xFFFF;
-							byte[] b = new byte[n];
-							buffer.get(b);
-							LOGGER.trace("Answer#{}: {} ({} bytes)", i, name, b.length);
-							if (type == 0x1) {
-								try {
-									LOGGER.trace("A {}: {}", name, InetAddress.getByAddress(b));
-								} catch (UnknownHostException e) {
-								}
-								List<byte[]> l = ips4.get(name);
-								if (l == null) {
-									l = new LinkedList<>();
-									ips4.put(name, l);
-								}
-								l.add(b);
-							} else if (type == 0x1C) {
-								try {
-									LOGGER.trace("AAAA {}: {}", name, InetAddress.getByAddress(b));
-								} catch (UnknownHostException e) {
-								}
-								List<byte[]> l = ips6.get(name);
-								if (l == null) {
-									l = new LinkedList<>();
-									ips6.put(name, l);
-								}
-								l.add(b);
-							} else if (type == 0x2) {
-								ByteBuffer bb = ByteBuffer.wrap(b);
-								String nsName = readName(packet, bb);
-								LOGGER.trace("NS {}: {}", name, nsName);
-								nameServers.add(nsName);
-							} else if (type == 0x5) {
-								ByteBuffer bb = ByteBuffer.wrap(b);
-								String cname = readName(packet, bb);
-								nameToCnames.put(name, cname);
-								LOGGER.trace("CNAME {}: {}", name, cname);
-							} else if (type == 0x6) {
-								ByteBuffer bb = ByteBuffer.wrap(b);
-								String primaryNS = readName(packet, bb);
-								String adminMB = readName(packet, bb);
-								@SuppressWarnings("unused")
-								long serialNumber = bb.getInt() & 0xFFFFFFFFL;
-								@SuppressWarnings("unused")
-								long refreshInterval = bb.getInt() & 0xFFFFFFFFL;
-								@SuppressWarnings("unused")
-								long retryInterval = bb.getInt() & 0xFFFFFFFFL;
-								@SuppressWarnings("unused")
-								long expirationLimit = bb.getInt() & 0xFFFFFFFFL;
-								@SuppressWarnings("unused")
-								long minimumTTL = bb.getInt() & 0xFFFFFFFFL;
-								LOGGER.trace("SOA {}: primaryNS={}, adminMB={}", name, primaryNS, adminMB);
-								//%% nameServers.add(primaryNS);
-							} else if (type == 0x15) {
-								ByteBuffer bb = ByteBuffer.wrap(b);
-								String mx = readName(packet, bb);
-								int preference = bb.getShort() & 0xFFFF;
-								LOGGER.trace("MX {}: ({}) {}", name, preference, mx);
-							} else {
-								// Ignored
-							}
-						}
-						
-						instanceMapper.handle(instanceId, nameServers, ips4, ips6, nameToCnames);
+						DnsClient.this.received(packet, false);
 					}
 				});
 			}
-			
+
 			@Override
 			public void failed(IOException ioe) {
 				if (callback != null) {
 					callback.failed(ioe);
 				}
 			}
-			
+
 			@Override
 			public void connected(Address address) {
 				if (callback != null) {
 					callback.connected(address);
 				}
 			}
-			
+
 			@Override
 			public void closed() {
 				if (callback != null) {
@@ -377,7 +598,22 @@ public final class DnsClient implements DnsConnecter {
 			}
 		});
 	}
-	
+
+	private void received(ByteBuffer packet, boolean viaTcp) {
+		if (packet.remaining() < DnsCodec.HEADER_LENGTH) {
+			return;
+		}
+		short instanceId = packet.getShort(packet.position());
+		int flags = packet.getShort(packet.position() + 2) & 0xFFFF;
+
+		if (!viaTcp && ((flags & DnsCodec.FLAG_TRUNCATED) != 0)) {
+			instanceMapper.truncated(instanceId);
+			return;
+		}
+
+		instanceMapper.handle(instanceId, packet);
+	}
+
 	@Override
 	public void close() {
 		executor.execute(new Runnable() {
@@ -416,7 +652,7 @@ public final class DnsClient implements DnsConnecter {
 	
 	private static final class InstanceMapper {
 		private final RequestIdProvider requestIdProvider;
-		private final Map<Short, Instance> instances = new HashMap<>();
+		private final CorrelationTable<Instance> instances = new CorrelationTable<>();
 		
 		public InstanceMapper(RequestIdProvider requestIdProvider) {
 			this.requestIdProvider = requestIdProvider;
@@ -444,41 +680,71 @@ public final class DnsClient implements DnsConnecter {
 		}
 		
 		public void close() {
-			for (Instance i : instances.values()) {
-				i.close();
+			instances.removeAll(new CorrelationTable.Visitor<Instance>() {
+				@Override
+				public void visit(int instanceId, Instance i) {
+					i.close();
+				}
+			});
+		}
+
+		// Responses that do not match the question are ignored
+		public void handle(short instanceId, ByteBuffer packet) {
+			Instance i = instances.get(instanceId);
+			if (i == null) {
+				return;
+			}
+			DnsCodec.Response response = DnsCodec.decode(packet, i.host, DnsCodec.type(i.family));
+			if (response == null) {
+				LOGGER.debug("Invalid response ignored (ID = {})", instanceId);
+				return;
 			}
-			instances.clear();
+			instances.remove(instanceId);
+			i.handle(response);
 		}
 
-		public void handle(short instanceId, List<String> nameServers, Map<String, List<byte[]>> ips4, Map<String, List<byte[]>> ips6, Map<String, String> nameToCnames) {
-			Instance i = instances.remove(instanceId);
+		// Kept mapped, the same question is asked again over TCP
+		public void truncated(short instanceId) {
+			Instance i = instances.get(instanceId);
 			if (i == null) {
 				return;
 			}
-			i.handle(nameServers, ips4, ips6, nameToCnames);
+			i.tcp();
 		}
 	}
 	
-	private static final class Instance {
-		private final Connecter connector;
-		private final InstanceMapper instanceMapper;
-		
-		private DnsReceiver receiver;
+	private final class Instance {
+		private Resolution resolution;
 		
+		private final List<String> names; // Search domains applied
+		private int nameIndex = 0;
 		private String host;
 		//%% private String nsRequest = null;
 		private final ProtocolFamily family;
-		private Address dnsAddress;
+		private Address dnsAddress; // Null when done
+		private final int firstServer;
+		private int tries = 0;
 		public short instanceId = RequestIdProvider.IGNORE_ID;
 		
-		private final Random random = new Random(System.currentTimeMillis());
+		private long ttl = Long.MAX_VALUE; // Minimum along CNAME and name server redirections
 
-		public Instance(Connecter connector, Address dnsAddress, InstanceMapper instanceMapper, String host, ProtocolFamily family) {
-			this.connector = connector;
-			this.dnsAddress = dnsAddress;
-			this.instanceMapper = instanceMapper;
-			this.host = host;
+		private ScheduledFuture<?> timeoutFuture = null;
+		private int sent = 0; // Identifies the timeout to ignore when it has been canceled too late
+		private Connecter tcp = null;
+
+		public Instance(String host, ProtocolFamily family, Resolution resolution) {
+			names = resolvConf.candidates(host);
+			this.host = DnsCodec.ascii(names.get(0));
 			this.family = family;
+			this.resolution = resolution;
+			List<Address> servers = resolvConf.nameServers;
+			if (resolvConf.rotate) {
+				firstServer = rotation;
+				rotation = (rotation + 1) % servers.size();
+			} else {
+				firstServer = 0;
+			}
+			dnsAddress = servers.get(firstServer);
 		}
 		
 		public void launch() {
@@ -487,16 +753,78 @@ public final class DnsClient implements DnsConnecter {
 		}
 		
 		public void close() {
-			dnsAddress = null;
-			receiver = null;
+			done();
+			if (resolution != null) {
+				resolution.close();
+			}
+			resolution = null;
 		}
 		
 		public void cancel() {
 			instanceMapper.unmap(this);
-			dnsAddress = null;
-			receiver = null;
+			done();
+			resolution = null;
 		}
 		
+		private void done() {
+			dnsAddress = null;
+			cancelTimeout();
+			closeTcp();
+		}
+
+		private void cancelTimeout() {
+			sent++;
+			if (timeoutFuture != null) {
+				timeoutFuture.cancel(false);
+				timeoutFuture = null;
+			}
+		}
+
+		private void scheduleTimeout() {
+			cancelTimeout();
+			final int s = sent;
+			timeoutFuture = TIMEOUT_EXECUTOR.schedule(new Runnable() {
+				@Override
+				public void run() {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							if (s == sent) {
+								timeoutFuture = null;
+								retry("Timeout");
+							}
+						}
+					});
+				}
+			}, (long) (timeout * 1000d), TimeUnit.MILLISECONDS);
+		}
+			
+		private void closeTcp() {
+			if (tcp != null) {
+				tcp.close();
+				tcp = null;
+			}
+		}
+
+		// Next name server (failover), all of them are tried again until the attempts are exhausted
+		private void retry(String reason) {
+			if (dnsAddress == null) {
+				return;
+			}
+			closeTcp();
+			tries++;
+			List<Address> servers = resolvConf.nameServers;
+			if (tries >= (servers.size() * attempts)) {
+				instanceMapper.unmap(this);
+				fail(new IOException(reason));
+				return;
+			}
+			dnsAddress = servers.get((firstServer + tries) % servers.size());
+			LOGGER.trace("{}, trying {} for {}", reason, dnsAddress, host);
+			instanceMapper.map(this);
+			write();
+		}
+
 		private void write() {
 			SendCallback sendCallback = new SendCallback() {
 				@Override
@@ -507,62 +835,136 @@ public final class DnsClient implements DnsConnecter {
 					fail(ioe);
 				}
 			};
-			
-			List<String> split = Splitter.on('.').splitToList(host); //%% (nsRequest == null) ? host : nsRequest);
-			List<byte[]> asBytes = new LinkedList<>();
-			int n = 0;
-			for (String s : split) {
-				byte[] bytes = s.getBytes(Charsets.UTF_8);
-				asBytes.add(bytes);
-				n += 1 + bytes.length;
-			}
-			ByteBuffer bb = ByteBuffer.allocate(Shorts.BYTES + Shorts.BYTES + (Shorts.BYTES * 4) + n + 1 + Shorts.BYTES + Shorts.BYTES);
-			bb.putShort(instanceId);
-			bb.putShort((short) 0x0100);
-			bb.putShort((short) 0x0001);
-			bb.putShort((short) 0x0000);
-			bb.putShort((short) 0x0000);
-			bb.putShort((short) 0x0000);
-			for (byte[] b : asBytes) {
-				bb.put((byte) b.length);
-				bb.put(b);
-			}
-			bb.put((byte) 0);
-			//%% bb.putShort((short) ((nsRequest == null) ? ((family == StandardProtocolFamily.INET6) ? 0x1C : 0x1) : 0xFF)); // Type 'A' or 'AAAA'
-			bb.putShort((short) ((family == null) ? 0xFF : ((family == StandardProtocolFamily.INET6) ? 0x1C : 0x1))); // Type 'A' or 'AAAA'
-			bb.putShort((short) 0x0001);
-			bb.flip();
-
-			connector.send(dnsAddress, bb, sendCallback);
-		}
-	
-		private void fail(IOException e) {
-			dnsAddress = null;
-			if (receiver != null) {
-				receiver.failed(e);
+
+			ByteBuffer query = DnsCodec.query(instanceId, host, DnsCodec.type(family), false);
+			if (query == null) {
+				instanceMapper.unmap(this);
+				fail(new IOException("Invalid name: " + host));
+				return;
 			}
-			receiver = null;
+			scheduleTimeout();
+			connecter.send(dnsAddress, query, sendCallback);
 		}
-		
-		private byte[] get(Map<String, List<byte[]>> ips, String h) {
-			List<byte[]> l = ips.get(h);
-			if (l == null) {
-				return null;
+
+		// Same question, same name server, the response is prefixed by its length (RFC 1035, 4.2.2)
+		public void tcp() {
+			if (dnsAddress == null) {
+				return;
 			}
-			return l.get(random.nextInt(l.size()));
+			closeTcp();
+			LOGGER.trace("Truncated response, asking {} over TCP: {}", dnsAddress, host);
+
+			final Connecter c = tcpConnecterFactory.to(dnsAddress).create(ninioProvider);
+			tcp = c;
+			scheduleTimeout();
+			c.connect(new Connection() {
+				private final ByteBuffer length = ByteBuffer.allocate(Shorts.BYTES);
+				private ByteBuffer response = null;
+
+				@Override
+				public void received(Address address, final ByteBuffer buffer) {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							if (tcp != c) {
+								return;
+							}
+							while (buffer.hasRemaining()) {
+								if (response == null) {
+									length.put(buffer.get());
+									if (!length.hasRemaining()) {
+										length.flip();
+										response = ByteBuffer.allocate(length.getShort() & 0xFFFF);
+									}
+								} else {
+									int n = Math.min(response.remaining(), buffer.remaining());
+									ByteBuffer b = buffer.duplicate();
+									b.limit(b.position() + n);
+									response.put(b);
+									buffer.position(buffer.position() + n);
+								}
+								if ((response != null) && !response.hasRemaining()) {
+									closeTcp();
+									response.flip();
+									DnsClient.this.received(response, true);
+									return;
+								}
+							}
+						}
+					});
+				}
+
+				@Override
+				public void failed(final IOException ioe) {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							if (tcp == c) {
+								retry("TCP failed: " + ioe.getMessage());
+							}
+						}
+					});
+				}
+
+				@Override
+				public void connected(Address address) {
+				}
+
+				@Override
+				public void closed() {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							if (tcp == c) {
+								retry("TCP closed");
+							}
+						}
+					});
+				}
+			});
+
+			c.send(null, DnsCodec.query(instanceId, host, DnsCodec.type(family), true), new SendCallback() {
+				@Override
+				public void sent() {
+				}
+				@Override
+				public void failed(final IOException ioe) {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							if (tcp == c) {
+								retry("TCP failed: " + ioe.getMessage());
+							}
+						}
+					});
+				}
+			});
+		}
+	
+		private void fail(IOException e) {
+			fail(e, false, -1L);
 		}
-		private byte[] get(Map<String, List<byte[]>> ips4, Map<String, List<byte[]>> ips6, String h) {
-			byte[] ip = get(ips4, h);
-			if (ip == null) {
-				ip = get(ips6, h);
+		private void fail(IOException e, boolean cacheable, long negativeTtl) {
+			done();
+			if (resolution != null) {
+				resolution.failed(e, cacheable, negativeTtl);
 			}
-			return ip;
+			resolution = null;
 		}
 		
-		private void handle(List<String> nameServers, Map<String, List<byte[]>> ips4, Map<String, List<byte[]>> ips6, Map<String, String> nameToCnames) {
+		private void handle(DnsCodec.Response response) {
 			if (dnsAddress == null) {
 				return;
 			}
+			cancelTimeout();
+			closeTcp();
+
+			if ((response.rcode == RCODE_FORMAT_ERROR) || (response.rcode == RCODE_SERVER_FAILURE) || (response.rcode == RCODE_NOT_IMPLEMENTED) || (response.rcode == RCODE_REFUSED)) {
+				retry("Error code: " + response.rcode);
+				return;
+			}
+
+			ttl = Math.min(ttl, response.ttl);
 			
 			/*%%
 			if (nsRequest != null) {
@@ -585,42 +987,31 @@ public final class DnsClient implements DnsConnecter {
 			}
 			*/
 			
-			String h = host;
-			boolean cnamed = false;
-			while (true) {
-				String hh = nameToCnames.get(h);
-				if (hh == null) {
-					break;
-				} else {
-					h = hh;
-					cnamed = true;
-				}
-			}
-			host = h;
-			
-			byte[] ip = get(ips4, ips6, h);
-			
-			if (ip != null) {
-				dnsAddress = null;
-				if (receiver != null) {
-					receiver.received(ip);
+			if (!response.ips.isEmpty()) {
+				done();
+				if (resolution != null) {
+					resolution.resolved(response.ips, ttl);
 				}
-				receiver = null;
-			} else if (nameServers.isEmpty()) {
-				if (cnamed) {
+				resolution = null;
+			} else if (response.cname != null) {
+				host = response.cname;
+				instanceMapper.map(this);
+				write();
+			} else if (!response.referral) {
+				if ((nameIndex + 1) < names.size()) {
+					nameIndex++;
+					host = DnsCodec.ascii(names.get(nameIndex));
+					LOGGER.trace("Searching: {}", host);
+					tries = 0;
+					ttl = Long.MAX_VALUE;
+					dnsAddress = resolvConf.nameServers.get(firstServer);
 					instanceMapper.map(this);
 					write();
 				} else {
-					fail(new IOException("No IP resolved"));
+					fail(new IOException("No IP resolved"), true, response.negativeTtl);
 				}
 			} else {
-				List<byte[]> availableNameServers = new LinkedList<>();
-				for (String ns : nameServers) {
-					byte[] nsIp = get(ips4, ips6, ns);
-					if (nsIp != null) {
-						availableNameServers.add(nsIp);
-					}
-				}
+				List<byte[]> availableNameServers = response.nameServers;
 				if (availableNameServers.isEmpty()) {
 					//%% if (nameServers.isEmpty()) {
 					fail(new IOException("No follow-up name servers"));
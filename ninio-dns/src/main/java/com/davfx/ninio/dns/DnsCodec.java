@@ -0,0 +1,426 @@
+package com.davfx.ninio.dns;
+
+import java.net.IDN;
+import java.net.ProtocolFamily;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// DNS wire format (RFC 1035), decoded in place: names are compared without being materialized and only the wanted records are read
+final class DnsCodec {
+
+	public static final int TYPE_A = 0x01;
+	public static final int TYPE_NS = 0x02;
+	public static final int TYPE_CNAME = 0x05;
+	public static final int TYPE_SOA = 0x06;
+	public static final int TYPE_AAAA = 0x1C;
+	public static final int TYPE_ANY = 0xFF;
+	public static final int CLASS_IN = 0x01;
+
+	public static final int HEADER_LENGTH = 12;
+	public static final int FLAG_TRUNCATED = 0x0200;
+	private static final int FLAG_RECURSION_DESIRED = 0x0100;
+
+	private static final int MAX_NAME_LENGTH = 255;
+	private static final int MAX_LABEL_LENGTH = 63;
+	private static final int IP4_LENGTH = 4;
+	private static final int IP6_LENGTH = 16;
+
+	private DnsCodec() {
+	}
+
+	public static int type(ProtocolFamily family) {
+		return (family == null) ? TYPE_ANY : ((family == StandardProtocolFamily.INET6) ? TYPE_AAAA : TYPE_A);
+	}
+
+	// Internationalized names are sent (and compared) in their ASCII form
+	public static String ascii(String host) {
+		for (int i = 0; i < host.length(); i++) {
+			if (host.charAt(i) > 0x7F) {
+				return IDN.toASCII(host, IDN.ALLOW_UNASSIGNED);
+			}
+		}
+		return host;
+	}
+
+	// Single exact-size allocation, sent buffers are owned by the connecter so they can not be recycled; null if the host is not a valid name
+	public static ByteBuffer query(short id, String host, int type, boolean lengthPrefixed) {
+		int prefix = lengthPrefixed ? 2 : 0;
+		ByteBuffer bb = ByteBuffer.allocate(prefix + HEADER_LENGTH + host.length() + 2 + 4);
+		bb.position(prefix);
+		bb.putShort(id);
+		bb.putShort((short) FLAG_RECURSION_DESIRED);
+		bb.putShort((short) 1);
+		bb.putShort((short) 0);
+		bb.putShort((short) 0);
+		bb.putShort((short) 0);
+		if (!putName(bb, host)) {
+			return null;
+		}
+		bb.putShort((short) type);
+		bb.putShort((short) CLASS_IN);
+		bb.flip();
+		if (lengthPrefixed) {
+			bb.putShort(0, (short) (bb.limit() - prefix));
+		}
+		return bb;
+	}
+
+	// Empty labels are skipped (trailing dot)
+	private static boolean putName(ByteBuffer bb, String host) {
+		int start = bb.position();
+		int labelStart = start;
+		bb.put((byte) 0);
+		int n = 0;
+		for (int i = 0; i < host.length(); i++) {
+			char c = host.charAt(i);
+			if (c == '.') {
+				if (n > 0) {
+					bb.put(labelStart, (byte) n);
+					labelStart = bb.position();
+					bb.put((byte) 0);
+					n = 0;
+				}
+			} else {
+				if ((c > 0x7F) || (n == MAX_LABEL_LENGTH)) {
+					return false;
+				}
+				bb.put((byte) c);
+				n++;
+			}
+		}
+		if (n > 0) {
+			bb.put(labelStart, (byte) n);
+			bb.put((byte) 0);
+		}
+		return (bb.position() - start) <= MAX_NAME_LENGTH;
+	}
+
+	// Position after the name (compression pointers are not followed), -1 if malformed
+	public static int skipName(ByteBuffer packet, int position) {
+		int p = position;
+		while (p < packet.limit()) {
+			int n = packet.get(p) & 0xFF;
+			if (n == 0) {
+				return p + 1;
+			}
+			if ((n & 0xC0) == 0xC0) {
+				return ((p + 2) <= packet.limit()) ? (p + 2) : -1;
+			}
+			if ((n & 0xC0) != 0) {
+				return -1;
+			}
+			p += 1 + n;
+		}
+		return -1;
+	}
+
+	// Position of the label actually found at the given position, pointers must go backward, -1 if malformed
+	// A loop can only go through labels, hence is stopped by the name length limit checked by the callers
+	private static int label(ByteBuffer packet, int position) {
+		int p = position;
+		while (p < packet.limit()) {
+			int n = packet.get(p) & 0xFF;
+			if ((n & 0xC0) == 0) {
+				return ((p + 1 + n) <= packet.limit()) ? p : -1;
+			}
+			if (((n & 0xC0) != 0xC0) || ((p + 1) >= packet.limit())) {
+				return -1;
+			}
+			int pointer = ((n & 0x3F) << 8) | (packet.get(p + 1) & 0xFF);
+			if (pointer >= p) {
+				return -1;
+			}
+			p = pointer;
+		}
+		return -1;
+	}
+
+	private static int lowerCase(int c) {
+		return ((c >= 'A') && (c <= 'Z')) ? (c + ('a' - 'A')) : c;
+	}
+
+	// Case-insensitive, the name is expected without trailing dot
+	public static boolean nameEquals(ByteBuffer packet, int position, String name) {
+		int i = 0;
+		int length = 0;
+		int p = position;
+		while (true) {
+			p = label(packet, p);
+			if (p < 0) {
+				return false;
+			}
+			int n = packet.get(p) & 0xFF;
+			if (n == 0) {
+				return i == name.length();
+			}
+			length += 1 + n;
+			if (length > MAX_NAME_LENGTH) {
+				return false;
+			}
+			if (i > 0) {
+				if ((i == name.length()) || (name.charAt(i) != '.')) {
+					return false;
+				}
+				i++;
+			}
+			if ((i + n) > name.length()) {
+				return false;
+			}
+			for (int k = 0; k < n; k++) {
+				if (lowerCase(packet.get(p + 1 + k) & 0xFF) != lowerCase(name.charAt(i))) {
+					return false;
+				}
+				i++;
+			}
+			p += 1 + n;
+		}
+	}
+
+	public static boolean nameEquals(ByteBuffer packet, int position1, int position2) {
+		int p1 = position1;
+		int p2 = position2;
+		int length = 0;
+		while (true) {
+			p1 = label(packet, p1);
+			p2 = label(packet, p2);
+			if ((p1 < 0) || (p2 < 0)) {
+				return false;
+			}
+			int n = packet.get(p1) & 0xFF;
+			if (n != (packet.get(p2) & 0xFF)) {
+				return false;
+			}
+			if (n == 0) {
+				return true;
+			}
+			length += 1 + n;
+			if (length > MAX_NAME_LENGTH) {
+				return false;
+			}
+			if (p1 != p2) {
+				for (int k = 1; k <= n; k++) {
+					if (lowerCase(packet.get(p1 + k) & 0xFF) != lowerCase(packet.get(p2 + k) & 0xFF)) {
+						return false;
+					}
+				}
+			}
+			p1 += 1 + n;
+			p2 += 1 + n;
+		}
+	}
+
+	// Only materialized when needed (CNAME to follow), null if malformed
+	public static String readName(ByteBuffer packet, int position) {
+		StringBuilder s = new StringBuilder();
+		int p = position;
+		while (true) {
+			p = label(packet, p);
+			if (p < 0) {
+				return null;
+			}
+			int n = packet.get(p) & 0xFF;
+			if (n == 0) {
+				return s.toString();
+			}
+			if (s.length() > 0) {
+				s.append('.');
+			}
+			if ((s.length() + n) > MAX_NAME_LENGTH) {
+				return null;
+			}
+			for (int k = 1; k <= n; k++) {
+				s.append((char) (packet.get(p + k) & 0xFF));
+			}
+			p += 1 + n;
+		}
+	}
+
+	public static final class Response {
+		public final int rcode;
+		public final List<byte[]> ips = new ArrayList<>(1);
+		public String cname = null; // To be asked for if no IP is in the response
+		public boolean referral = false;
+		public final List<byte[]> nameServers = new ArrayList<>(0); // Glue addresses of the referral
+		public long ttl = Long.MAX_VALUE; // Of the records used
+		public long negativeTtl = -1L;
+
+		private Response(int rcode) {
+			this.rcode = rcode;
+		}
+	}
+
+	// Resource records are walked by offset, from the given one
+	private static final class Records {
+		private final ByteBuffer packet;
+		public int owner;
+		public int type;
+		public long ttl;
+		public int data;
+		public int dataLength;
+
+		public Records(ByteBuffer packet) {
+			this.packet = packet;
+		}
+
+		// False if malformed
+		public boolean at(int position) {
+			int p = skipName(packet, position);
+			if ((p < 0) || ((p + 10) > packet.limit())) {
+				return false;
+			}
+			owner = position;
+			type = packet.getShort(p) & 0xFFFF;
+			ttl = packet.getInt(p + 4) & 0xFFFFFFFFL;
+			dataLength = packet.getShort(p + 8) & 0xFFFF;
+			data = p + 10;
+			return (data + dataLength) <= packet.limit();
+		}
+
+		public int next() {
+			return data + dataLength;
+		}
+
+		public byte[] ip() {
+			byte[] ip = new byte[dataLength];
+			for (int i = 0; i < dataLength; i++) {
+				ip[i] = packet.get(data + i);
+			}
+			return ip;
+		}
+	}
+
+	// Null if malformed or not answering the question
+	public static Response decode(ByteBuffer buffer, String host, int type) {
+		ByteBuffer packet = buffer.slice(); // Compression pointers are offsets from the message start
+		if (packet.limit() < HEADER_LENGTH) {
+			return null;
+		}
+		int flags = packet.getShort(2) & 0xFFFF;
+		int questions = packet.getShort(4) & 0xFFFF;
+		int answers = packet.getShort(6) & 0xFFFF;
+		int authorities = packet.getShort(8) & 0xFFFF;
+		int additionals = packet.getShort(10) & 0xFFFF;
+
+		if ((questions != 1) || !nameEquals(packet, HEADER_LENGTH, host)) {
+			return null;
+		}
+		int position = skipName(packet, HEADER_LENGTH);
+		if ((position < 0) || ((position + 4) > packet.limit()) || ((packet.getShort(position) & 0xFFFF) != type)) {
+			return null;
+		}
+		position += 4;
+
+		Response response = new Response(flags & 0x0F);
+		Records r = new Records(packet);
+
+		int answersStart = position;
+		for (int i = 0; i < answers; i++) {
+			if (!r.at(position)) {
+				return null;
+			}
+			position = r.next();
+		}
+		int authoritiesStart = position;
+		for (int i = 0; i < authorities; i++) {
+			if (!r.at(position)) {
+				return null;
+			}
+			position = r.next();
+		}
+		int additionalsStart = position;
+		for (int i = 0; i < additionals; i++) {
+			if (!r.at(position)) {
+				return null;
+			}
+			position = r.next();
+		}
+
+		// CNAME chain, from the question
+		int target = HEADER_LENGTH;
+		for (int hop = 0; hop < answers; hop++) {
+			int found = -1;
+			position = answersStart;
+			for (int i = 0; i < answers; i++) {
+				r.at(position);
+				if ((r.type == TYPE_CNAME) && nameEquals(packet, r.owner, target)) {
+					found = r.data;
+					response.ttl = Math.min(response.ttl, r.ttl);
+					break;
+				}
+				position = r.next();
+			}
+			if (found < 0) {
+				break;
+			}
+			target = found;
+		}
+
+		// A is preferred to AAAA when any is asked for
+		int wanted = (type == TYPE_ANY) ? TYPE_A : type;
+		while (true) {
+			position = answersStart;
+			for (int i = 0; i < answers; i++) {
+				r.at(position);
+				if ((r.type == wanted) && (r.dataLength == ((wanted == TYPE_AAAA) ? IP6_LENGTH : IP4_LENGTH)) && nameEquals(packet, r.owner, target)) {
+					response.ips.add(r.ip());
+					response.ttl = Math.min(response.ttl, r.ttl);
+				}
+				position = r.next();
+			}
+			if (!response.ips.isEmpty() || (type != TYPE_ANY) || (wanted == TYPE_AAAA)) {
+				break;
+			}
+			wanted = TYPE_AAAA;
+		}
+
+		if (response.ips.isEmpty() && (target != HEADER_LENGTH)) {
+			response.cname = readName(packet, target);
+			if (response.cname == null) {
+				return null;
+			}
+		}
+
+		position = authoritiesStart;
+		for (int i = 0; i < authorities; i++) {
+			r.at(position);
+			if (r.type == TYPE_SOA) {
+				int p = skipName(packet, r.data);
+				if (p >= 0) {
+					p = skipName(packet, p);
+				}
+				if ((p >= 0) && ((p + 20) <= r.next())) {
+					long minimumTtl = packet.getInt(p + 16) & 0xFFFFFFFFL;
+					response.negativeTtl = Math.min(r.ttl, minimumTtl);
+				}
+			} else if (r.type == TYPE_NS) {
+				response.referral = true;
+			}
+			position = r.next();
+		}
+
+		// Glue addresses of the name servers
+		if (response.referral) {
+			Records ns = new Records(packet);
+			position = additionalsStart;
+			for (int i = 0; i < additionals; i++) {
+				r.at(position);
+				if (((r.type == TYPE_A) && (r.dataLength == IP4_LENGTH)) || ((r.type == TYPE_AAAA) && (r.dataLength == IP6_LENGTH))) {
+					int nsPosition = authoritiesStart;
+					for (int j = 0; j < authorities; j++) {
+						ns.at(nsPosition);
+						if ((ns.type == TYPE_NS) && nameEquals(packet, r.owner, ns.data)) {
+							response.nameServers.add(r.ip());
+							break;
+						}
+						nsPosition = ns.next();
+					}
+				}
+				position = r.next();
+			}
+		}
+
+		return response;
+	}
+}
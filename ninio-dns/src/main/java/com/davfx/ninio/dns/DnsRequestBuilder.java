@@ -3,6 +3,7 @@ package com.davfx.ninio.dns;
 import java.net.ProtocolFamily;
 
 public interface DnsRequestBuilder extends Cancelable {
-	DnsRequestBuilder resolve(String host, ProtocolFamily family);
+	DnsRequestBuilder resolve(String host, ProtocolFamily family); // A null family means both (resolved in parallel)
 	Cancelable receive(DnsReceiver callback);
+	Cancelable receiveAll(DnsAllReceiver callback);
 }
@@ -2,6 +2,7 @@ package com.davfx.ninio.dns;
 
 import java.io.IOException;
 import java.net.ProtocolFamily;
+import java.util.List;
 
 import com.davfx.ninio.core.Timeout;
 
@@ -76,6 +77,40 @@ public final class DnsTimeout {
 					}
 				};
 			}
+
+			@Override
+			public Cancelable receiveAll(final DnsAllReceiver callback) {
+				final Timeout.Manager m = t.set(timeout);
+				wrappee.receiveAll(new DnsAllReceiver() {
+					@Override
+					public void failed(IOException ioe) {
+						m.cancel();
+						callback.failed(ioe);
+					}
+					
+					@Override
+					public void received(List<byte[]> ips) {
+						m.cancel();
+						callback.received(ips);
+					}
+				});
+
+				m.run(new Runnable() {
+					@Override
+					public void run() {
+						wrappee.cancel();
+						callback.failed(new IOException("Timeout"));
+					}
+				});
+
+				return new Cancelable() {
+					@Override
+					public void cancel() {
+						m.cancel();
+						wrappee.cancel();
+					}
+				};
+			}
 		};
 	}
 }
@@ -0,0 +1,67 @@
+package com.davfx.ninio.dns;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.net.InetAddresses;
+
+// Static host table, as in /etc/hosts (see man hosts), the first address of a name wins
+final class HostsFile {
+	private static final Logger LOGGER = LoggerFactory.getLogger(HostsFile.class);
+
+	private HostsFile() {
+	}
+
+	public static void load(File file, Map<String, String> v4, Map<String, String> v6) {
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8))) {
+			parse(r, v4, v6);
+		} catch (IOException ioe) {
+			LOGGER.debug("Could not read {}", file);
+		}
+	}
+
+	static void parse(BufferedReader r, Map<String, String> v4, Map<String, String> v6) throws IOException {
+		while (true) {
+			String line = r.readLine();
+			if (line == null) {
+				break;
+			}
+			int comment = line.indexOf('#');
+			if (comment >= 0) {
+				line = line.substring(0, comment);
+			}
+			List<String> l = Splitter.on(CharMatcher.WHITESPACE).omitEmptyStrings().splitToList(line);
+			if (l.size() < 2) {
+				continue;
+			}
+			String ip = l.get(0);
+			InetAddress a;
+			try {
+				a = InetAddresses.forString(ip);
+			} catch (IllegalArgumentException iae) {
+				LOGGER.trace("Invalid address: {}", ip);
+				continue;
+			}
+			Map<String, String> m = (a instanceof Inet4Address) ? v4 : v6;
+			for (String host : l.subList(1, l.size())) {
+				host = host.toLowerCase();
+				if (!m.containsKey(host)) {
+					m.put(host, ip);
+				}
+			}
+		}
+	}
+}
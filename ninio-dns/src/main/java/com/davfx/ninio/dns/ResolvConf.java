@@ -0,0 +1,196 @@
+package com.davfx.ninio.dns;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.davfx.ninio.core.Address;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.InetAddresses;
+
+// Name servers, search domains and options, as in /etc/resolv.conf (see man resolv.conf)
+public final class ResolvConf {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ResolvConf.class);
+
+	public static final int DEFAULT_NDOTS = 1;
+	private static final int MAX_NDOTS = 15;
+	private static final int MAX_SEARCH = 6;
+
+	public final List<Address> nameServers; // Never empty
+	public final List<String> search;
+	public final int ndots;
+	public final boolean rotate;
+	public final double timeout; // Negative if not specified
+	public final int attempts; // Negative if not specified
+
+	public ResolvConf(List<Address> nameServers, List<String> search, int ndots, boolean rotate, double timeout, int attempts) {
+		if (nameServers.isEmpty()) {
+			throw new IllegalArgumentException("No name server");
+		}
+		this.nameServers = ImmutableList.copyOf(nameServers);
+		this.search = ImmutableList.copyOf(search);
+		this.ndots = ndots;
+		this.rotate = rotate;
+		this.timeout = timeout;
+		this.attempts = attempts;
+	}
+
+	public ResolvConf(Address nameServer) {
+		this(ImmutableList.of(nameServer), ImmutableList.<String> of(), DEFAULT_NDOTS, false, -1d, -1);
+	}
+
+	public ResolvConf to(List<Address> nameServers) {
+		return new ResolvConf(nameServers, search, ndots, rotate, timeout, attempts);
+	}
+
+	// The default name server is used if the file can not be read or does not specify any
+	public static ResolvConf load(File file, Address defaultNameServer) {
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8))) {
+			return parse(r, defaultNameServer);
+		} catch (IOException ioe) {
+			LOGGER.debug("Could not read {}, using {}", file, defaultNameServer);
+			return new ResolvConf(defaultNameServer);
+		}
+	}
+
+	static ResolvConf parse(BufferedReader r, Address defaultNameServer) throws IOException {
+		ImmutableList.Builder<Address> nameServers = ImmutableList.builder();
+		List<String> search = ImmutableList.of();
+		int ndots = DEFAULT_NDOTS;
+		boolean rotate = false;
+		double timeout = -1d;
+		int attempts = -1;
+
+		while (true) {
+			String line = r.readLine();
+			if (line == null) {
+				break;
+			}
+			int comment = indexOfComment(line);
+			if (comment >= 0) {
+				line = line.substring(0, comment);
+			}
+			List<String> l = Splitter.on(CharMatcher.WHITESPACE).omitEmptyStrings().splitToList(line);
+			if (l.isEmpty()) {
+				continue;
+			}
+			String keyword = l.get(0);
+			List<String> values = l.subList(1, l.size());
+			switch (keyword) {
+			case "nameserver":
+				if (!values.isEmpty()) {
+					String ip = values.get(0);
+					int scope = ip.indexOf('%');
+					if (scope >= 0) {
+						ip = ip.substring(0, scope);
+					}
+					try {
+						nameServers.add(new Address(InetAddresses.forString(ip).getAddress(), DnsClient.DEFAULT_PORT));
+					} catch (IllegalArgumentException iae) {
+						LOGGER.warn("Invalid name server: {}", ip);
+					}
+				}
+				break;
+			case "domain":
+			case "search":
+				// The last one wins
+				ImmutableList.Builder<String> b = ImmutableList.builder();
+				int n = 0;
+				for (String d : values) {
+					if (n == MAX_SEARCH) {
+						break;
+					}
+					if (d.endsWith(".")) {
+						d = d.substring(0, d.length() - 1);
+					}
+					if (!d.isEmpty()) {
+						b.add(d.toLowerCase());
+						n++;
+					}
+				}
+				search = b.build();
+				break;
+			case "options":
+				for (String o : values) {
+					if (o.equals("rotate")) {
+						rotate = true;
+					} else if (o.startsWith("ndots:")) {
+						ndots = Math.min(MAX_NDOTS, parseInt(o, ndots));
+					} else if (o.startsWith("timeout:")) {
+						timeout = parseInt(o, (int) timeout);
+					} else if (o.startsWith("attempts:")) {
+						attempts = parseInt(o, attempts);
+					}
+				}
+				break;
+			default:
+				break;
+			}
+		}
+
+		List<Address> l = nameServers.build();
+		return new ResolvConf(l.isEmpty() ? ImmutableList.of(defaultNameServer) : l, search, ndots, rotate, timeout, attempts);
+	}
+
+	private static int indexOfComment(String line) {
+		int i = line.indexOf('#');
+		int j = line.indexOf(';');
+		if (i < 0) {
+			return j;
+		}
+		if (j < 0) {
+			return i;
+		}
+		return Math.min(i, j);
+	}
+
+	private static int parseInt(String option, int defaultValue) {
+		try {
+			return Math.max(0, Integer.parseInt(option.substring(option.indexOf(':') + 1)));
+		} catch (NumberFormatException nfe) {
+			LOGGER.warn("Invalid option: {}", option);
+			return defaultValue;
+		}
+	}
+
+	// Names to query, in order: as is first if it has at least ndots dots, never searched if it ends with a dot
+	public List<String> candidates(String host) {
+		if (host.endsWith(".")) {
+			return ImmutableList.of(host.substring(0, host.length() - 1));
+		}
+		if (search.isEmpty()) {
+			return ImmutableList.of(host);
+		}
+		int dots = 0;
+		for (int i = 0; i < host.length(); i++) {
+			if (host.charAt(i) == '.') {
+				dots++;
+			}
+		}
+		ImmutableList.Builder<String> b = ImmutableList.builder();
+		if (dots >= ndots) {
+			b.add(host);
+		}
+		for (String d : search) {
+			b.add(host + "." + d);
+		}
+		if (dots < ndots) {
+			b.add(host);
+		}
+		return b.build();
+	}
+
+	@Override
+	public String toString() {
+		return "ResolvConf[nameServers=" + nameServers + ", search=" + search + ", ndots=" + ndots + ", rotate=" + rotate + "]";
+	}
+}
@@ -0,0 +1,65 @@
+package com.davfx.ninio.dns;
+
+import java.net.StandardProtocolFamily;
+import java.util.Arrays;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class DnsCacheTest {
+
+	@Test
+	public void testTtl() {
+		DnsCache cache = new DnsCache();
+		String key = DnsCache.key("test.local", StandardProtocolFamily.INET);
+		List<byte[]> ips = Arrays.asList(new byte[] { 10, 0, 0, 1 });
+
+		Assertions.assertThat(cache.get(key, 0d)).isNull();
+		cache.put(key, ips, 60d, 0d);
+		Assertions.assertThat(cache.get(key, 59d).ips).isSameAs(ips);
+		Assertions.assertThat(cache.get(key, 60d)).isNull();
+		Assertions.assertThat(cache.size()).isEqualTo(0);
+
+		cache.put(key, ips, 0d, 0d); // Clamped to 5 seconds
+		Assertions.assertThat(cache.get(key, 4d)).isNotNull();
+		Assertions.assertThat(cache.get(key, 5d)).isNull();
+
+		Assertions.assertThat(cache.get(DnsCache.key("test.local", StandardProtocolFamily.INET6), 0d)).isNull();
+
+		Assertions.assertThat(cache.hits()).isEqualTo(2L);
+		Assertions.assertThat(cache.misses()).isEqualTo(4L);
+	}
+
+	@Test
+	public void testNegative() {
+		DnsCache cache = new DnsCache();
+		String key = DnsCache.key("unknown.local", null);
+
+		cache.putNegative(key, -1d, 0d); // Default: 30 seconds
+		Assertions.assertThat(cache.get(key, 29d).ips).isNull();
+		Assertions.assertThat(cache.get(key, 30d)).isNull();
+
+		cache.putNegative(key, 3600d, 0d); // Clamped to 5 minutes
+		Assertions.assertThat(cache.get(key, 299d)).isNotNull();
+		Assertions.assertThat(cache.get(key, 300d)).isNull();
+
+		Assertions.assertThat(cache.negativeHits()).isEqualTo(2L);
+	}
+
+	@Test
+	public void testPrefetch() {
+		DnsCache cache = new DnsCache();
+		String key = DnsCache.key("hot.local", StandardProtocolFamily.INET);
+		cache.put(key, Arrays.asList(new byte[] { 10, 0, 0, 1 }), 100d, 0d);
+
+		DnsCache.Entry e = cache.get(key, 95d);
+		Assertions.assertThat(cache.shouldPrefetch(e, 95d)).isFalse(); // Not hot yet
+		e = cache.get(key, 50d);
+		Assertions.assertThat(cache.shouldPrefetch(e, 50d)).isFalse(); // Not about to expire
+		e = cache.get(key, 95d);
+		Assertions.assertThat(cache.shouldPrefetch(e, 95d)).isTrue();
+		Assertions.assertThat(cache.shouldPrefetch(e, 96d)).isFalse(); // Only once
+		Assertions.assertThat(cache.prefetches()).isEqualTo(1L);
+	}
+}
@@ -0,0 +1,271 @@
+package com.davfx.ninio.dns;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.davfx.ninio.core.Address;
+import com.davfx.ninio.core.Ninio;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+
+public class DnsClientTest {
+
+	private static final byte[] IP = new byte[] { 10, 0, 0, 1 };
+	private static final byte[] IP6 = new byte[] { (byte) 0xFD, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 };
+
+	// Answers A queries for a single name, NXDOMAIN otherwise, on a free port (the same for UDP and TCP)
+	private static final class StandInServer implements AutoCloseable {
+		private final String name;
+		private final boolean truncate;
+		private final DatagramSocket socket;
+		private final ServerSocket serverSocket;
+		private final Thread udpThread;
+		private final Thread tcpThread;
+		public final AtomicInteger udpQueries = new AtomicInteger(0);
+		public final AtomicInteger tcpQueries = new AtomicInteger(0);
+
+		public StandInServer(String name, final boolean truncate) throws IOException {
+			this.name = name;
+			this.truncate = truncate;
+			socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			serverSocket = new ServerSocket();
+			try {
+				serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort()));
+			} catch (IOException ioe) {
+				socket.close();
+				serverSocket.close();
+				throw ioe;
+			}
+			udpThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (true) {
+							DatagramPacket p = new DatagramPacket(new byte[512], 512);
+							socket.receive(p);
+							udpQueries.incrementAndGet();
+							byte[] r = respond(Arrays.copyOf(p.getData(), p.getLength()), truncate);
+							socket.send(new DatagramPacket(r, r.length, p.getSocketAddress()));
+						}
+					} catch (IOException ioe) {
+					}
+				}
+			});
+			tcpThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (true) {
+							try (Socket s = serverSocket.accept()) {
+								DataInputStream in = new DataInputStream(s.getInputStream());
+								byte[] q = new byte[in.readUnsignedShort()];
+								in.readFully(q);
+								tcpQueries.incrementAndGet();
+								byte[] r = respond(q, false);
+								DataOutputStream out = new DataOutputStream(s.getOutputStream());
+								out.writeShort(r.length);
+								out.write(r);
+								out.flush();
+							}
+						}
+					} catch (IOException ioe) {
+					}
+				}
+			});
+			udpThread.start();
+			tcpThread.start();
+		}
+
+		public Address address() {
+			return new Address(Address.LOCALHOST, socket.getLocalPort());
+		}
+
+		private byte[] respond(byte[] query, boolean truncated) {
+			ByteBuffer q = ByteBuffer.wrap(query);
+			short id = q.getShort();
+			q.position(12);
+			StringBuilder b = new StringBuilder();
+			while (true) {
+				int n = q.get() & 0xFF;
+				if (n == 0) {
+					break;
+				}
+				byte[] l = new byte[n];
+				q.get(l);
+				if (b.length() > 0) {
+					b.append('.');
+				}
+				b.append(new String(l, Charsets.UTF_8));
+			}
+			int questionEnd = q.position() + 4;
+			boolean found = b.toString().equals(name);
+			byte[] ip = ((q.getShort() & 0xFFFF) == 0x1C) ? IP6 : IP;
+
+			ByteBuffer r = ByteBuffer.allocate(512);
+			r.putShort(id);
+			r.putShort((short) (0x8180 | (truncated ? 0x0200 : 0) | (found ? 0 : 3)));
+			r.putShort((short) 1);
+			r.putShort((short) ((found && !truncated) ? 1 : 0));
+			r.putShort((short) 0);
+			r.putShort((short) 0);
+			r.put(query, 12, questionEnd - 12);
+			if (found && !truncated) {
+				r.putShort((short) 0xC00C);
+				r.putShort((short) ((ip == IP6) ? 0x1C : 1));
+				r.putShort((short) 1);
+				r.putInt(60);
+				r.putShort((short) ip.length);
+				r.put(ip);
+			}
+			r.flip();
+			byte[] b2 = new byte[r.remaining()];
+			r.get(b2);
+			return b2;
+		}
+
+		@Override
+		public void close() throws IOException {
+			socket.close();
+			serverSocket.close();
+			try {
+				udpThread.join();
+				tcpThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static final class QueueReceiver implements DnsReceiver {
+		public final BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+		@Override
+		public void received(byte[] ip) {
+			results.add(ip);
+		}
+		@Override
+		public void failed(IOException ioe) {
+			results.add(ioe);
+		}
+	}
+
+	private static Object resolve(DnsConnecter client, String host) throws InterruptedException {
+		QueueReceiver r = new QueueReceiver();
+		client.request().resolve(host, StandardProtocolFamily.INET).receive(r);
+		return r.results.poll(5, TimeUnit.SECONDS);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<byte[]> ips(Object result) {
+		return (List<byte[]>) result;
+	}
+
+	private static ResolvConf conf(List<Address> nameServers, List<String> search) {
+		return new ResolvConf(nameServers, search, ResolvConf.DEFAULT_NDOTS, false, 0.5d, 1);
+	}
+
+	@Test
+	public void testCacheAndCoalesce() throws Exception {
+		DnsCache cache = new DnsCache();
+		try (Ninio ninio = Ninio.create(); StandInServer server = new StandInServer("test.local", false); DnsConnecter client = ninio.create(DnsClient.builder().with(conf(ImmutableList.of(server.address()), ImmutableList.<String> of())).with(cache))) {
+			client.connect(null);
+
+			QueueReceiver r0 = new QueueReceiver();
+			QueueReceiver r1 = new QueueReceiver();
+			client.request().resolve("test.local", StandardProtocolFamily.INET).receive(r0);
+			client.request().resolve("test.local", StandardProtocolFamily.INET).receive(r1);
+			Assertions.assertThat(r0.results.poll(5, TimeUnit.SECONDS)).isEqualTo(IP);
+			Assertions.assertThat(r1.results.poll(5, TimeUnit.SECONDS)).isEqualTo(IP);
+			Assertions.assertThat(cache.coalesced()).isEqualTo(1L);
+
+			Assertions.assertThat(resolve(client, "test.local")).isEqualTo(IP);
+			Assertions.assertThat(cache.hits()).isEqualTo(1L);
+
+			Assertions.assertThat(resolve(client, "unknown.local")).isInstanceOf(IOException.class);
+			Assertions.assertThat(resolve(client, "unknown.local")).isInstanceOf(IOException.class);
+			Assertions.assertThat(cache.negativeHits()).isEqualTo(1L);
+
+			Assertions.assertThat(server.udpQueries.get()).isEqualTo(2);
+		}
+	}
+
+	@Test
+	public void testDualStack() throws Exception {
+		try (Ninio ninio = Ninio.create(); StandInServer server = new StandInServer("test.local", false); DnsConnecter client = ninio.create(DnsClient.builder().with(conf(ImmutableList.of(server.address()), ImmutableList.<String> of())))) {
+			client.connect(null);
+
+			final BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+			client.request().resolve("test.local", null).receiveAll(new DnsAllReceiver() {
+				@Override
+				public void received(List<byte[]> ips) {
+					results.add(ips);
+				}
+				@Override
+				public void failed(IOException ioe) {
+					results.add(ioe);
+				}
+			});
+			Assertions.assertThat(ips(results.poll(5, TimeUnit.SECONDS))).containsExactly(IP6, IP);
+			Assertions.assertThat(server.udpQueries.get()).isEqualTo(2);
+
+			client.request().resolve("10.0.0.2", null).receiveAll(new DnsAllReceiver() {
+				@Override
+				public void received(List<byte[]> ips) {
+					results.add(ips);
+				}
+				@Override
+				public void failed(IOException ioe) {
+					results.add(ioe);
+				}
+			});
+			Assertions.assertThat(ips(results.poll(5, TimeUnit.SECONDS))).containsExactly(new byte[] { 10, 0, 0, 2 });
+		}
+	}
+
+	@Test
+	public void testDualStackSingle() throws Exception {
+		try (Ninio ninio = Ninio.create(); StandInServer server = new StandInServer("test.local", false); DnsConnecter client = ninio.create(DnsClient.builder().with(conf(ImmutableList.of(server.address()), ImmutableList.<String> of())))) {
+			client.connect(null);
+			QueueReceiver r = new QueueReceiver();
+			client.request().resolve("test.local", null).receive(r);
+			Assertions.assertThat((byte[]) r.results.poll(5, TimeUnit.SECONDS)).isIn(IP6, IP);
+			Assertions.assertThat(server.udpQueries.get()).isEqualTo(2);
+		}
+	}
+
+	@Test
+	public void testSearchAndFailover() throws Exception {
+		try (Ninio ninio = Ninio.create(); StandInServer server = new StandInServer("test.local", false); DatagramSocket silent = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)); DnsConnecter client = ninio.create(DnsClient.builder().with(conf(ImmutableList.of(new Address(Address.LOCALHOST, silent.getLocalPort()), server.address()), ImmutableList.of("local"))))) {
+			client.connect(null);
+			Assertions.assertThat(resolve(client, "test")).isEqualTo(IP);
+			Assertions.assertThat(server.udpQueries.get()).isEqualTo(1);
+		}
+	}
+
+	@Test
+	public void testTcpFallback() throws Exception {
+		try (Ninio ninio = Ninio.create(); StandInServer server = new StandInServer("test.local", true); DnsConnecter client = ninio.create(DnsClient.builder().with(conf(ImmutableList.of(server.address()), ImmutableList.<String> of())))) {
+			client.connect(null);
+			Assertions.assertThat(resolve(client, "test.local")).isEqualTo(IP);
+			Assertions.assertThat(server.udpQueries.get()).isEqualTo(1);
+			Assertions.assertThat(server.tcpQueries.get()).isEqualTo(1);
+		}
+	}
+}
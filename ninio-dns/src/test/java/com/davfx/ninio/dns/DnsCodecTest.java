@@ -0,0 +1,123 @@
+package com.davfx.ninio.dns;
+
+import java.nio.ByteBuffer;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class DnsCodecTest {
+
+	private static ByteBuffer header(ByteBuffer b, int flags, int answers, int authorities, int additionals) {
+		b.putShort((short) 42);
+		b.putShort((short) flags);
+		b.putShort((short) 1);
+		b.putShort((short) answers);
+		b.putShort((short) authorities);
+		b.putShort((short) additionals);
+		return b;
+	}
+
+	private static void record(ByteBuffer b, int pointer, int type, int ttl, byte[] data) {
+		b.putShort((short) (0xC000 | pointer));
+		b.putShort((short) type);
+		b.putShort((short) DnsCodec.CLASS_IN);
+		b.putInt(ttl);
+		b.putShort((short) data.length);
+		b.put(data);
+	}
+
+	@Test
+	public void testQuery() {
+		ByteBuffer q = DnsCodec.query((short) 42, "www.Davfx.com.", DnsCodec.TYPE_AAAA, true);
+		Assertions.assertThat(q.getShort(0)).isEqualTo((short) (q.remaining() - 2));
+		q.position(2);
+		ByteBuffer p = q.slice();
+		Assertions.assertThat(p.getShort(0)).isEqualTo((short) 42);
+		Assertions.assertThat(DnsCodec.nameEquals(p, DnsCodec.HEADER_LENGTH, "www.davfx.com")).isTrue();
+		Assertions.assertThat(DnsCodec.nameEquals(p, DnsCodec.HEADER_LENGTH, "www.davfx.co")).isFalse();
+		Assertions.assertThat(DnsCodec.nameEquals(p, DnsCodec.HEADER_LENGTH, "www.davfx.com.fr")).isFalse();
+		Assertions.assertThat(DnsCodec.readName(p, DnsCodec.HEADER_LENGTH)).isEqualTo("www.Davfx.com");
+		int end = DnsCodec.skipName(p, DnsCodec.HEADER_LENGTH);
+		Assertions.assertThat(p.getShort(end)).isEqualTo((short) DnsCodec.TYPE_AAAA);
+		Assertions.assertThat(end + 4).isEqualTo(p.limit());
+
+		Assertions.assertThat(DnsCodec.query((short) 1, "a..b", DnsCodec.TYPE_A, false)).isNotNull();
+		Assertions.assertThat(DnsCodec.query((short) 1, new String(new char[64]).replace('\0', 'a') + ".com", DnsCodec.TYPE_A, false)).isNull();
+		Assertions.assertThat(DnsCodec.ascii("bücher.de")).isEqualTo("xn--bcher-kva.de");
+	}
+
+	@Test
+	public void testCnameChainAndSkippedRecords() {
+		ByteBuffer q = DnsCodec.query((short) 42, "www.davfx.com", DnsCodec.TYPE_A, false);
+		ByteBuffer b = ByteBuffer.allocate(512);
+		header(b, 0x8180, 4, 0, 0);
+		b.put(q.array(), DnsCodec.HEADER_LENGTH, q.limit() - DnsCodec.HEADER_LENGTH);
+		// MX first, should be skipped without being decoded
+		record(b, DnsCodec.HEADER_LENGTH, 0x0F, 10, new byte[] { 0, 10, 2, 'm', 'x', (byte) 0xC0, DnsCodec.HEADER_LENGTH + 4 });
+		int cnameRecord = b.position();
+		// www.davfx.com CNAME cdn.davfx.com
+		record(b, DnsCodec.HEADER_LENGTH, DnsCodec.TYPE_CNAME, 300, new byte[] { 3, 'c', 'd', 'n', (byte) 0xC0, DnsCodec.HEADER_LENGTH + 4 });
+		int cdn = cnameRecord + 12;
+		record(b, cdn, DnsCodec.TYPE_A, 60, new byte[] { 10, 0, 0, 1 });
+		record(b, cdn, DnsCodec.TYPE_AAAA, 5, new byte[16]);
+		b.flip();
+
+		DnsCodec.Response r = DnsCodec.decode(b, "WWW.davfx.com", DnsCodec.TYPE_A);
+		Assertions.assertThat(r.rcode).isEqualTo(0);
+		Assertions.assertThat(r.ips).containsExactly(new byte[] { 10, 0, 0, 1 });
+		Assertions.assertThat(r.ttl).isEqualTo(60L);
+		Assertions.assertThat(r.cname).isNull();
+
+		Assertions.assertThat(DnsCodec.decode(b, "other.davfx.com", DnsCodec.TYPE_A)).isNull();
+		Assertions.assertThat(DnsCodec.decode(b, "www.davfx.com", DnsCodec.TYPE_AAAA)).isNull();
+
+		ByteBuffer any = b.duplicate();
+		any.putShort(DnsCodec.HEADER_LENGTH + 15, (short) DnsCodec.TYPE_ANY);
+		Assertions.assertThat(DnsCodec.decode(any, "www.davfx.com", DnsCodec.TYPE_ANY).ips).containsExactly(new byte[] { 10, 0, 0, 1 });
+
+		// Truncated
+		ByteBuffer truncated = b.duplicate();
+		truncated.limit(truncated.limit() - 10);
+		Assertions.assertThat(DnsCodec.decode(truncated, "www.davfx.com", DnsCodec.TYPE_A)).isNull();
+	}
+
+	@Test
+	public void testNegativeAndReferral() {
+		ByteBuffer q = DnsCodec.query((short) 42, "davfx.com", DnsCodec.TYPE_A, false);
+		ByteBuffer b = ByteBuffer.allocate(512);
+		header(b, 0x8183, 0, 2, 1);
+		b.put(q.array(), DnsCodec.HEADER_LENGTH, q.limit() - DnsCodec.HEADER_LENGTH);
+		ByteBuffer soa = ByteBuffer.allocate(4 + 20);
+		soa.put(new byte[] { (byte) 0xC0, DnsCodec.HEADER_LENGTH, (byte) 0xC0, DnsCodec.HEADER_LENGTH });
+		soa.putInt(1).putInt(2).putInt(3).putInt(4).putInt(120);
+		record(b, DnsCodec.HEADER_LENGTH, DnsCodec.TYPE_SOA, 3600, soa.array());
+		int nsRecord = b.position();
+		record(b, DnsCodec.HEADER_LENGTH, DnsCodec.TYPE_NS, 3600, new byte[] { 2, 'n', 's', (byte) 0xC0, DnsCodec.HEADER_LENGTH });
+		record(b, nsRecord + 12, DnsCodec.TYPE_A, 3600, new byte[] { 10, 0, 0, 53 });
+		b.flip();
+
+		DnsCodec.Response r = DnsCodec.decode(b, "davfx.com", DnsCodec.TYPE_A);
+		Assertions.assertThat(r.rcode).isEqualTo(3);
+		Assertions.assertThat(r.ips).isEmpty();
+		Assertions.assertThat(r.negativeTtl).isEqualTo(120L);
+		Assertions.assertThat(r.referral).isTrue();
+		Assertions.assertThat(r.nameServers).containsExactly(new byte[] { 10, 0, 0, 53 });
+	}
+
+	@Test
+	public void testPointerLoops() {
+		ByteBuffer b = ByteBuffer.allocate(64);
+		header(b, 0x8180, 1, 0, 0);
+		b.put(new byte[] { 1, 'a', (byte) 0xC0, DnsCodec.HEADER_LENGTH }); // a.a.a.a...
+		b.putShort((short) DnsCodec.TYPE_A).putShort((short) DnsCodec.CLASS_IN);
+		int self = b.position();
+		b.put(new byte[] { (byte) 0xC0, (byte) self }); // Points to itself
+		b.flip();
+
+		Assertions.assertThat(DnsCodec.nameEquals(b, DnsCodec.HEADER_LENGTH, "a.a")).isFalse();
+		Assertions.assertThat(DnsCodec.readName(b, DnsCodec.HEADER_LENGTH)).isNull();
+		Assertions.assertThat(DnsCodec.readName(b, self)).isNull();
+		Assertions.assertThat(DnsCodec.nameEquals(b, self, DnsCodec.HEADER_LENGTH)).isFalse();
+		Assertions.assertThat(DnsCodec.decode(b, "a", DnsCodec.TYPE_A)).isNull();
+	}
+}
@@ -0,0 +1,59 @@
+package com.davfx.ninio.dns;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.davfx.ninio.core.Address;
+
+public class ResolvConfTest {
+
+	private static final Address DEFAULT = new Address(new byte[] { 8, 8, 8, 8 }, DnsClient.DEFAULT_PORT);
+
+	@Test
+	public void testParse() throws Exception {
+		ResolvConf c = ResolvConf.parse(new BufferedReader(new StringReader(""
+				+ "# Generated\n"
+				+ "domain ignored.org\n"
+				+ "search Example.com. corp.example.com ; last one wins\n"
+				+ "nameserver 10.0.0.1\n"
+				+ "nameserver\tfe80::1%eth0\n"
+				+ "nameserver invalid\n"
+				+ "options ndots:2 timeout:3 attempts:4 rotate\n")), DEFAULT);
+
+		Assertions.assertThat(c.nameServers).containsExactly(new Address(new byte[] { 10, 0, 0, 1 }, 53), new Address(new byte[] { (byte) 0xFE, (byte) 0x80, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 }, 53));
+		Assertions.assertThat(c.search).containsExactly("example.com", "corp.example.com");
+		Assertions.assertThat(c.ndots).isEqualTo(2);
+		Assertions.assertThat(c.timeout).isEqualTo(3d);
+		Assertions.assertThat(c.attempts).isEqualTo(4);
+		Assertions.assertThat(c.rotate).isTrue();
+
+		Assertions.assertThat(c.candidates("www")).containsExactly("www.example.com", "www.corp.example.com", "www");
+		Assertions.assertThat(c.candidates("a.b.c")).containsExactly("a.b.c", "a.b.c.example.com", "a.b.c.corp.example.com");
+		Assertions.assertThat(c.candidates("www.davfx.com.")).containsExactly("www.davfx.com");
+
+		ResolvConf empty = ResolvConf.parse(new BufferedReader(new StringReader("search local\n")), DEFAULT);
+		Assertions.assertThat(empty.nameServers).containsExactly(DEFAULT);
+		Assertions.assertThat(empty.ndots).isEqualTo(ResolvConf.DEFAULT_NDOTS);
+		Assertions.assertThat(empty.timeout).isNegative();
+	}
+
+	@Test
+	public void testHosts() throws Exception {
+		Map<String, String> v4 = new HashMap<>();
+		Map<String, String> v6 = new HashMap<>();
+		v4.put("localhost", "127.0.0.1");
+		HostsFile.parse(new BufferedReader(new StringReader(""
+				+ "127.0.1.1\tLocalhost myhost # Comment\n"
+				+ "::1 localhost ip6-localhost\n"
+				+ "10.0.0.1 myhost\n"
+				+ "nonsense line\n")), v4, v6);
+
+		Assertions.assertThat(v4).hasSize(2).containsEntry("localhost", "127.0.0.1").containsEntry("myhost", "127.0.1.1");
+		Assertions.assertThat(v6).hasSize(2).containsEntry("localhost", "::1").containsEntry("ip6-localhost", "::1");
+	}
+}
@@ -2,6 +2,7 @@ package com.davfx.ninio.http;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
@@ -19,11 +20,12 @@ import com.davfx.ninio.core.Connection;
 import com.davfx.ninio.core.Failing;
 import com.davfx.ninio.core.NinioBuilder;
 import com.davfx.ninio.core.NinioProvider;
+import com.davfx.ninio.core.RacingSocketBuilder;
 import com.davfx.ninio.core.SecureSocketBuilder;
 import com.davfx.ninio.core.SendCallback;
 import com.davfx.ninio.core.TcpSocket;
+import com.davfx.ninio.dns.DnsAllReceiver;
 import com.davfx.ninio.dns.DnsConnecter;
-import com.davfx.ninio.dns.DnsReceiver;
 import com.davfx.ninio.http.dependencies.Dependencies;
 import com.davfx.ninio.util.ConfigUtils;
 import com.google.common.collect.ArrayListMultimap;
@@ -190,7 +192,7 @@ public final class HttpClient implements HttpConnecter {
 		}
 		
 		public void launch(final Executor executor, DnsConnecter dns, final TcpSocket.Builder connectorFactory, final TcpSocket.Builder secureConnectorFactory, final NinioProvider ninioProvider, final Runnable onClose) {
-			dns.request().resolve(address.host, null).receive(new DnsReceiver() {
+			dns.request().resolve(address.host, null).receiveAll(new DnsAllReceiver() {
 				@Override
 				public void failed(final IOException ioe) {
 					executor.execute(new Runnable() {
@@ -206,7 +208,7 @@ public final class HttpClient implements HttpConnecter {
 				}
 				
 				@Override
-				public void received(final byte[] ip) {
+				public void received(final List<byte[]> ips) {
 					executor.execute(new Runnable() {
 						@Override
 						public void run() {
@@ -215,10 +217,14 @@ public final class HttpClient implements HttpConnecter {
 								return;
 							}
 		
+							List<Address> addresses = new ArrayList<>(ips.size());
+							for (byte[] ip : ips) {
+								addresses.add(new Address(ip, address.port));
+							}
+							
+							// All the addresses are raced (IPv6 and IPv4 interleaved)
 							TcpSocket.Builder factory = address.secure ? secureConnectorFactory : connectorFactory;
-							factory.to(new Address(ip, address.port));
-		
-							Connecter c = factory.create(ninioProvider);
+							Connecter c = new RacingSocketBuilder(factory).to(addresses).create(ninioProvider);
 							c.connect(new Connection() {
 								@Override
 								public void received(Address address, final ByteBuffer buffer) {
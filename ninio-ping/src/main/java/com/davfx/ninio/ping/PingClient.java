@@ -2,8 +2,6 @@ package com.davfx.ninio.ping;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
@@ -12,6 +10,7 @@ import org.slf4j.LoggerFactory;
 import com.davfx.ninio.core.Address;
 import com.davfx.ninio.core.Connecter;
 import com.davfx.ninio.core.Connection;
+import com.davfx.ninio.core.CorrelationTable;
 import com.davfx.ninio.core.NinioBuilder;
 import com.davfx.ninio.core.NinioProvider;
 import com.davfx.ninio.core.Nop;
@@ -22,7 +21,6 @@ public final class PingClient implements PingConnecter {
 	private static final Logger LOGGER = LoggerFactory.getLogger(PingClient.class);
 	
 	private static final int ICMP_PROTOCOL = 1;
-	private static final long ID_LIMIT = 1L << 32;
 	
 	public static interface Builder extends NinioBuilder<PingConnecter> {
 		@Deprecated
@@ -56,9 +54,9 @@ public final class PingClient implements PingConnecter {
 	
 	private final Executor executor;
 	private final Connecter connecter;
-	private long nextId = 0L;
+	private int nextId = 0; // Identifier (high 16 bits) and sequence (low 16 bits), wrapping around
 
-	private final Map<Long, PingReceiver> receivers = new HashMap<>();
+	private final CorrelationTable<PingReceiver> receivers = new CorrelationTable<>();
 	
 	private boolean closed = false;
 
@@ -67,12 +65,14 @@ public final class PingClient implements PingConnecter {
 		this.connecter = connecter;
 	}
 	
-	private static void closeSendCallbacks(Map<Long, PingReceiver> receivers) {
-		IOException e = new IOException("Closed");
-		for (PingReceiver c : receivers.values()) {
-			c.failed(e);
-		}
-		receivers.clear();
+	private static void closeSendCallbacks(CorrelationTable<PingReceiver> receivers) {
+		final IOException e = new IOException("Closed");
+		receivers.removeAll(new CorrelationTable.Visitor<PingReceiver>() {
+			@Override
+			public void visit(int id, PingReceiver c) {
+				c.failed(e);
+			}
+		});
 	}
 	
 	@Override
@@ -89,7 +89,7 @@ public final class PingClient implements PingConnecter {
 						
 						long now = System.nanoTime();
 						long time;
-						long id;
+						int id;
 						try {
 							buffer.get(); // type
 							buffer.get(); // code
@@ -162,8 +162,23 @@ public final class PingClient implements PingConnecter {
 		});
 	}
 	
+	// Internet checksum (RFC 1071) of the ICMP packet, written at its place
+	static void checksum(byte[] packet, int length) {
+		int checksum = 0;
+		for (int i = 0; i < length; i += 2) {
+			checksum += ((packet[i] & 0xFF) << 8) | ((i + 1) < length ? (packet[i + 1] & 0xFF) : 0);
+		}
+		while ((checksum & 0xFFFF0000) != 0) {
+			checksum = (checksum & 0xFFFF) + (checksum >>> 16);
+		}
+		checksum = ~checksum & 0xFFFF;
+		packet[2] = (byte) (checksum >>> 8);
+		packet[3] = (byte) checksum;
+	}
+	
 	private static final class IdManager {
-		long id = -1L;
+		boolean set = false;
+		int id;
 	}
 	
 	@Override
@@ -178,12 +193,10 @@ public final class PingClient implements PingConnecter {
 					return;
 				}
 				
-				if (idManager.id < 0L) {
+				if (!idManager.set) {
+					idManager.set = true;
 					idManager.id = nextId;
 					nextId++;
-					if (nextId == ID_LIMIT) {
-						nextId = 0L;
-					}
 					receivers.put(idManager.id, callback);
 				}
 
@@ -192,27 +205,12 @@ public final class PingClient implements PingConnecter {
 				ByteBuffer b = ByteBuffer.wrap(sendData);
 				b.put((byte) 8); // requestType (Echo)
 				b.put((byte) 0); // code
-				int checksumPosition = b.position();
 				b.putShort((short) 0); // checksum
 				b.putShort((short) ((idManager.id >>> 16) & 0xFFFF)); // identifier
 				b.putShort((short) (idManager.id & 0xFFFF)); // sequence
 				long nt = System.nanoTime();
 				b.putLong(nt);
-				int endPosition = b.position();
-
-				b.position(0);
-				int checksum = 0;
-				while (b.position() < endPosition) {
-					checksum += b.getShort() & 0xFFFF;
-				}
-			    while((checksum & 0xFFFF0000) != 0) {
-			    	checksum = (checksum & 0xFFFF) + (checksum >>> 16);
-			    }
-
-			    checksum = (~checksum & 0xffff);
-				b.position(checksumPosition);
-				b.putShort((short) (checksum & 0xFFFF));
-				b.position(endPosition);
+				checksum(sendData, b.position());
 				b.flip();
 				
 				connecter.send(new Address(ip, 0), b, new Nop());
@@ -225,7 +223,7 @@ public final class PingClient implements PingConnecter {
 				executor.execute(new Runnable() {
 					@Override
 					public void run() {
-						if (idManager.id < 0L) {
+						if (!idManager.set) {
 							return;
 						}
 
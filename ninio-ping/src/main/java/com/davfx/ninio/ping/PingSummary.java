@@ -0,0 +1,52 @@
+package com.davfx.ninio.ping;
+
+import com.davfx.ninio.core.Address;
+
+// Round-trip times (in seconds) of all the probes sent to a target, NaN if none was answered
+public final class PingSummary {
+	public final byte[] ip;
+	public final int sent;
+	public final int received;
+	public final double min;
+	public final double avg;
+	public final double max;
+	public final double jitter; // Mean difference between consecutive answered probes (NaN with less than two)
+
+	// Times of the answered probes, in sending order
+	public PingSummary(byte[] ip, int sent, double[] times, int received) {
+		this.ip = ip;
+		this.sent = sent;
+		this.received = received;
+
+		double min = Double.NaN;
+		double max = Double.NaN;
+		double sum = 0d;
+		double deltas = 0d;
+		for (int i = 0; i < received; i++) {
+			double t = times[i];
+			if (!(t >= min)) {
+				min = t;
+			}
+			if (!(t <= max)) {
+				max = t;
+			}
+			sum += t;
+			if (i > 0) {
+				deltas += Math.abs(t - times[i - 1]);
+			}
+		}
+		this.min = min;
+		this.max = max;
+		avg = (received == 0) ? Double.NaN : (sum / received);
+		jitter = (received < 2) ? Double.NaN : (deltas / (received - 1));
+	}
+
+	public double loss() {
+		return (sent == 0) ? 0d : (((double) (sent - received)) / sent);
+	}
+
+	@Override
+	public String toString() {
+		return Address.ipToString(ip) + "[sent=" + sent + ", received=" + received + ", min=" + min + ", avg=" + avg + ", max=" + max + ", jitter=" + jitter + "]";
+	}
+}
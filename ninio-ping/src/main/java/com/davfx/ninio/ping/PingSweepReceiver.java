@@ -0,0 +1,9 @@
+package com.davfx.ninio.ping;
+
+import com.davfx.ninio.core.Failing;
+
+public interface PingSweepReceiver extends Failing {
+	// As soon as all the probes of the target have been answered or have timed out
+	void received(PingSummary summary);
+	void finished();
+}
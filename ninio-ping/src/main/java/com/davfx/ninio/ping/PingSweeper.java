@@ -0,0 +1,499 @@
+package com.davfx.ninio.ping;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.davfx.ninio.core.Address;
+import com.davfx.ninio.core.Connecter;
+import com.davfx.ninio.core.Connection;
+import com.davfx.ninio.core.CorrelationTable;
+import com.davfx.ninio.core.Disconnectable;
+import com.davfx.ninio.core.NinioBuilder;
+import com.davfx.ninio.core.NinioProvider;
+import com.davfx.ninio.core.Nop;
+import com.davfx.ninio.core.RawSocket;
+import com.davfx.ninio.ping.dependencies.Dependencies;
+import com.davfx.ninio.util.ClassThreadFactory;
+import com.davfx.ninio.util.ConfigUtils;
+import com.typesafe.config.Config;
+
+// Sweeps lists of IPv4 targets with several echo requests each, paced at a given rate shared by all the running sweeps
+// Probes are correlated by sweep (ICMP identifier) then by index (in the echoed payload), their timeouts are kept in a timer wheel
+public final class PingSweeper implements Disconnectable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PingSweeper.class);
+
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(PingSweeper.class.getPackage().getName());
+	private static final double DEFAULT_RATE = CONFIG.getDouble("sweep.rate");
+	private static final int DEFAULT_PROBES = CONFIG.getInt("sweep.probes");
+	private static final double DEFAULT_INTERVAL = ConfigUtils.getDuration(CONFIG, "sweep.interval");
+	private static final double DEFAULT_TIMEOUT = ConfigUtils.getDuration(CONFIG, "sweep.timeout");
+	private static final double TICK = ConfigUtils.getDuration(CONFIG, "sweep.tick");
+
+	private static final ScheduledExecutorService TICK_EXECUTOR = Executors.newSingleThreadScheduledExecutor(new ClassThreadFactory(PingSweeper.class, true));
+
+	private static final int ICMP_PROTOCOL = 1;
+	private static final byte ECHO_REQUEST = 8;
+	private static final byte ECHO_REPLY = 0;
+	private static final int PACKET_LENGTH = 20; // type, code, checksum, identifier, sequence, time, index
+
+	private static final byte IN_FLIGHT = 1;
+	private static final byte RESOLVED = 2;
+
+	public static interface Builder extends NinioBuilder<PingSweeper> {
+		Builder with(RawSocket.Builder connectorFactory);
+		// Echo requests per second, for all the sweeps
+		Builder rate(double rate);
+		// Echo requests per target
+		Builder probes(int probes);
+		// Min delay between two probes to the same target
+		Builder interval(double interval);
+		Builder timeout(double timeout);
+	}
+
+	public static Builder builder() {
+		return new Builder() {
+			private RawSocket.Builder connectorFactory = RawSocket.builder();
+			private double rate = DEFAULT_RATE;
+			private int probes = DEFAULT_PROBES;
+			private double interval = DEFAULT_INTERVAL;
+			private double timeout = DEFAULT_TIMEOUT;
+
+			@Override
+			public Builder with(RawSocket.Builder connectorFactory) {
+				this.connectorFactory = connectorFactory;
+				return this;
+			}
+			@Override
+			public Builder rate(double rate) {
+				this.rate = rate;
+				return this;
+			}
+			@Override
+			public Builder probes(int probes) {
+				this.probes = probes;
+				return this;
+			}
+			@Override
+			public Builder interval(double interval) {
+				this.interval = interval;
+				return this;
+			}
+			@Override
+			public Builder timeout(double timeout) {
+				this.timeout = timeout;
+				return this;
+			}
+
+			@Override
+			public PingSweeper create(NinioProvider ninioProvider) {
+				if ((probes <= 0) || (probes > 0xFFFF)) {
+					throw new IllegalArgumentException("Invalid probes: " + probes);
+				}
+				return new PingSweeper(ninioProvider.executor(), connectorFactory.protocol(ICMP_PROTOCOL).create(ninioProvider), rate, probes, interval, timeout);
+			}
+		};
+	}
+
+	// All the addresses from first to last (included)
+	public static List<byte[]> range(byte[] first, byte[] last) {
+		if ((first.length != 4) || (last.length != 4)) {
+			throw new IllegalArgumentException("Only IPv4 ranges are supported");
+		}
+		long from = ByteBuffer.wrap(first).getInt() & 0xFFFFFFFFL;
+		long to = ByteBuffer.wrap(last).getInt() & 0xFFFFFFFFL;
+		List<byte[]> ips = new ArrayList<>((int) Math.max(0L, Math.min(to - from + 1L, Integer.MAX_VALUE)));
+		for (long ip = from; ip <= to; ip++) {
+			ips.add(ByteBuffer.allocate(4).putInt((int) ip).array());
+		}
+		return ips;
+	}
+
+	// All the addresses of the network, network and broadcast addresses included
+	public static List<byte[]> subnet(byte[] ip, int prefixLength) {
+		if ((ip.length != 4) || (prefixLength < 0) || (prefixLength > 32)) {
+			throw new IllegalArgumentException("Invalid IPv4 network: " + Address.ipToString(ip) + "/" + prefixLength);
+		}
+		int mask = (prefixLength == 0) ? 0 : (0xFFFFFFFF << (32 - prefixLength));
+		int network = ByteBuffer.wrap(ip).getInt() & mask;
+		return range(ByteBuffer.allocate(4).putInt(network).array(), ByteBuffer.allocate(4).putInt(network | ~mask).array());
+	}
+
+	private final Executor executor;
+	private final Connecter connecter;
+	private final double rate;
+	private final int probes;
+	private final double interval;
+	private final double timeout;
+
+	private final CorrelationTable<Sweep> sweeps = new CorrelationTable<>(); // By identifier
+	private final List<Sweep> sending = new LinkedList<>();
+	private final TimerWheel timeouts;
+	private int nextIdentifier = new Random().nextInt() & 0xFFFF;
+	private int nextGeneration = 0; // So that the timeouts of a finished sweep do not hit another one with the same identifier
+
+	private ScheduledFuture<?> ticking = null;
+	private double tokens = 0d;
+	private double lastTick;
+
+	private boolean closed = false;
+
+	private PingSweeper(Executor executor, Connecter connecter, double rate, int probes, double interval, double timeout) {
+		this.executor = executor;
+		this.connecter = connecter;
+		this.rate = rate;
+		this.probes = probes;
+		this.interval = interval;
+		this.timeout = timeout;
+		lastTick = now();
+		timeouts = new TimerWheel(TICK, timeout, lastTick);
+	}
+
+	private static double now() {
+		return System.nanoTime() / 1_000_000_000d;
+	}
+
+	private final class Sweep {
+		public final int identifier;
+		public final int key; // Generation (high 16 bits) and identifier (low 16 bits)
+		public final byte[][] ips;
+		public final PingSweepReceiver receiver;
+
+		public final byte[] states; // Per probe (target index * probes + round), zero until sent
+		public final double[] times; // NaN if lost
+		public final int[] remaining; // Unresolved probes per target
+		public int finished = 0; // Targets
+
+		public int round = 0;
+		public int next = 0; // Next target of the round
+		public double roundStart = Double.NaN;
+
+		public Sweep(int identifier, int generation, byte[][] ips, PingSweepReceiver receiver) {
+			this.identifier = identifier;
+			key = ((generation & 0xFFFF) << 16) | identifier;
+			this.ips = ips;
+			this.receiver = receiver;
+			states = new byte[ips.length * probes];
+			times = new double[ips.length * probes];
+			Arrays.fill(times, Double.NaN);
+			remaining = new int[ips.length];
+			Arrays.fill(remaining, probes);
+		}
+
+		// Returns the number of probes sent
+		public int send(int budget, double now) {
+			int sent = 0;
+			while (sent < budget) {
+				if (next == ips.length) {
+					if ((round + 1) == probes) {
+						return sent;
+					}
+					if (now < (roundStart + interval)) {
+						return sent;
+					}
+					round++;
+					next = 0;
+					roundStart = Double.NaN;
+				}
+				if (Double.isNaN(roundStart)) {
+					roundStart = now;
+				}
+				int index = next;
+				next++;
+				int i = (index * probes) + round;
+				states[i] = IN_FLIGHT;
+				timeouts.add((((long) key) << 32) | (i & 0xFFFFFFFFL), now + timeout);
+
+				byte[] packet = new byte[PACKET_LENGTH];
+				ByteBuffer b = ByteBuffer.wrap(packet);
+				b.put(ECHO_REQUEST);
+				b.put((byte) 0); // code
+				b.putShort((short) 0); // checksum
+				b.putShort((short) identifier);
+				b.putShort((short) round); // sequence
+				b.putLong(System.nanoTime());
+				b.putInt(index);
+				PingClient.checksum(packet, PACKET_LENGTH);
+				b.flip();
+				connecter.send(new Address(ips[index], 0), b, new Nop());
+				sent++;
+			}
+			return sent;
+		}
+
+		public boolean allSent() {
+			return (next == ips.length) && ((round + 1) == probes);
+		}
+
+		public void resolved(int i, double time) {
+			states[i] = RESOLVED;
+			times[i] = time;
+			int index = i / probes;
+			remaining[index]--;
+			if (remaining[index] > 0) {
+				return;
+			}
+
+			double[] t = new double[probes];
+			int received = 0;
+			for (int k = index * probes; k < ((index + 1) * probes); k++) {
+				if (!Double.isNaN(times[k])) {
+					t[received] = times[k];
+					received++;
+				}
+			}
+			receiver.received(new PingSummary(ips[index], probes, t, received));
+
+			finished++;
+			if (finished == ips.length) {
+				sweeps.remove(identifier);
+				receiver.finished();
+			}
+		}
+	}
+
+	public void connect(final PingConnection callback) {
+		connecter.connect(new Connection() {
+			@Override
+			public void received(final Address address, final ByteBuffer buffer) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						if (closed) {
+							return;
+						}
+						long now = System.nanoTime();
+						if ((buffer.remaining() < PACKET_LENGTH) || (buffer.get(buffer.position()) != ECHO_REPLY)) {
+							return;
+						}
+						int p = buffer.position();
+						int identifier = buffer.getShort(p + 4) & 0xFFFF;
+						int round = buffer.getShort(p + 6) & 0xFFFF;
+						long time = buffer.getLong(p + 8);
+						int index = buffer.getInt(p + 16);
+
+						Sweep s = sweeps.get(identifier);
+						if ((s == null) || (round >= probes) || (index < 0) || (index >= s.ips.length)) {
+							return;
+						}
+						int i = (index * probes) + round;
+						// Replies from other pingers (or other hosts) are ignored
+						if ((s.states[i] != IN_FLIGHT) || !Arrays.equals(s.ips[index], address.ip)) {
+							return;
+						}
+						s.resolved(i, (now - time) / 1_000_000_000d);
+					}
+				});
+			}
+
+			@Override
+			public void failed(final IOException ioe) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						if (closed) {
+							return;
+						}
+						closed = true;
+						failAll(ioe);
+						callback.failed(ioe);
+					}
+				});
+			}
+
+			@Override
+			public void connected(final Address address) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						if (closed) {
+							return;
+						}
+						callback.connected(address);
+					}
+				});
+			}
+
+			@Override
+			public void closed() {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						if (closed) {
+							return;
+						}
+						closed = true;
+						failAll(new IOException("Closed"));
+						callback.closed();
+					}
+				});
+			}
+		});
+	}
+
+	private void failAll(final IOException ioe) {
+		stopTicking();
+		sending.clear();
+		sweeps.removeAll(new CorrelationTable.Visitor<Sweep>() {
+			@Override
+			public void visit(int identifier, Sweep s) {
+				s.receiver.failed(ioe);
+			}
+		});
+	}
+
+	private void stopTicking() {
+		if (ticking != null) {
+			ticking.cancel(false);
+			ticking = null;
+		}
+	}
+
+	private final Runnable tick = new Runnable() {
+		@Override
+		public void run() {
+			if (closed || (ticking == null)) {
+				return;
+			}
+			double now = now();
+
+			timeouts.advance(now, new TimerWheel.Visitor() {
+				@Override
+				public void expired(long handle) {
+					int key = (int) (handle >>> 32);
+					Sweep s = sweeps.get(key & 0xFFFF);
+					if ((s == null) || (s.key != key)) {
+						return;
+					}
+					int i = (int) handle;
+					if (s.states[i] == IN_FLIGHT) {
+						s.resolved(i, Double.NaN);
+					}
+				}
+			});
+
+			// A missed tick is not caught up beyond one more tick of burst
+			tokens = Math.min(tokens + ((now - lastTick) * rate), Math.max(1d, rate * TICK * 2d));
+			lastTick = now;
+			Iterator<Sweep> i = sending.iterator();
+			while (i.hasNext() && (tokens >= 1d)) {
+				Sweep s = i.next();
+				if (sweeps.get(s.identifier) != s) {
+					i.remove();
+					continue;
+				}
+				tokens -= s.send((int) tokens, now);
+				if (s.allSent()) {
+					i.remove();
+				}
+			}
+
+			if (sweeps.isEmpty()) {
+				LOGGER.trace("Nothing to sweep anymore");
+				stopTicking();
+			}
+		}
+	};
+
+	// Targets must be IPv4 addresses
+	public Cancelable sweep(Iterable<byte[]> ips, final PingSweepReceiver receiver) {
+		List<byte[]> l = new ArrayList<>();
+		for (byte[] ip : ips) {
+			if (ip.length != 4) {
+				throw new IllegalArgumentException("Only IPv4 targets are supported: " + Address.ipToString(ip));
+			}
+			l.add(ip);
+		}
+		if (((long) l.size() * probes) > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many targets: " + l.size());
+		}
+		final byte[][] targets = l.toArray(new byte[l.size()][]);
+
+		final Sweep[] started = new Sweep[] { null };
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (closed) {
+					receiver.failed(new IOException("Closed"));
+					return;
+				}
+				if (targets.length == 0) {
+					receiver.finished();
+					return;
+				}
+				if (sweeps.size() > 0xFFFF) {
+					receiver.failed(new IOException("Too many sweeps"));
+					return;
+				}
+				while (sweeps.containsKey(nextIdentifier)) {
+					nextIdentifier = (nextIdentifier + 1) & 0xFFFF;
+				}
+				Sweep s = new Sweep(nextIdentifier, nextGeneration, targets, receiver);
+				nextIdentifier = (nextIdentifier + 1) & 0xFFFF;
+				nextGeneration++;
+				sweeps.put(s.identifier, s);
+				sending.add(s);
+				started[0] = s;
+
+				if (ticking == null) {
+					lastTick = now();
+					tokens = 0d;
+					ticking = TICK_EXECUTOR.scheduleAtFixedRate(new Runnable() {
+						@Override
+						public void run() {
+							executor.execute(tick);
+						}
+					}, 0L, (long) (TICK * 1000d), TimeUnit.MILLISECONDS);
+				}
+			}
+		});
+
+		return new Cancelable() {
+			@Override
+			public void cancel() {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						Sweep s = started[0];
+						if ((s == null) || (sweeps.get(s.identifier) != s)) {
+							return;
+						}
+						sweeps.remove(s.identifier);
+						sending.remove(s);
+						s.receiver.failed(new IOException("Canceled"));
+					}
+				});
+			}
+		};
+	}
+
+	@Override
+	public void close() {
+		connecter.close();
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				failAll(new IOException("Closed"));
+			}
+		});
+	}
+}
@@ -0,0 +1,73 @@
+package com.davfx.ninio.ping;
+
+import java.util.Arrays;
+
+// Hashed timer wheel of long handles (no boxing, no task object), deadlines must be within the horizon given at creation, not thread-safe
+final class TimerWheel {
+
+	public static interface Visitor {
+		void expired(long handle);
+	}
+
+	private final double tick;
+	private final long[][] slots;
+	private final int[] sizes;
+	private final int mask;
+	private long current; // Next tick to expire
+	private int size = 0;
+
+	public TimerWheel(double tick, double horizon, double now) {
+		this.tick = tick;
+		int n = Integer.highestOneBit(((int) Math.ceil(horizon / tick) + 4) * 2 - 1);
+		slots = new long[n][];
+		sizes = new int[n];
+		for (int i = 0; i < n; i++) {
+			slots[i] = new long[8];
+		}
+		mask = n - 1;
+		current = (long) Math.floor(now / tick);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// Expires at the first tick after the deadline
+	public void add(long handle, double at) {
+		long t = Math.max(current, (long) Math.ceil(at / tick));
+		if ((t - current) >= mask) {
+			throw new IllegalArgumentException("Beyond horizon: " + (at - (current * tick)));
+		}
+		int i = (int) (t & mask);
+		if (sizes[i] == slots[i].length) {
+			slots[i] = Arrays.copyOf(slots[i], sizes[i] * 2);
+		}
+		slots[i][sizes[i]] = handle;
+		sizes[i]++;
+		size++;
+	}
+
+	// Visits all the handles whose deadline has passed
+	public int advance(double now, Visitor visitor) {
+		long until = (long) Math.floor(now / tick);
+		if (size == 0) {
+			current = Math.max(current, until + 1L);
+			return 0;
+		}
+		int n = 0;
+		while (current <= until) {
+			int i = (int) (current & mask);
+			current++;
+			long[] slot = slots[i];
+			int k = sizes[i];
+			// Visitors may add (to later slots only)
+			sizes[i] = 0;
+			size -= k;
+			for (int j = 0; j < k; j++) {
+				visitor.expired(slot[j]);
+			}
+			n += k;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,150 @@
+package com.davfx.ninio.ping;
+
+import java.io.IOException;
+import java.net.ProtocolFamily;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.davfx.ninio.core.Address;
+import com.davfx.ninio.core.Connecter;
+import com.davfx.ninio.core.Connection;
+import com.davfx.ninio.core.Ninio;
+import com.davfx.ninio.core.NinioProvider;
+import com.davfx.ninio.core.RawSocket;
+import com.davfx.ninio.core.SendCallback;
+import com.davfx.ninio.util.Lock;
+
+public class PingSweeperTest {
+
+	// Answers the echo requests sent to the hosts ending with an odd byte, records sending times
+	private static final class StandInNetwork implements RawSocket.Builder {
+		public final List<Long> sent = new ArrayList<>();
+
+		@Override
+		public RawSocket.Builder family(ProtocolFamily family) {
+			return this;
+		}
+		@Override
+		public RawSocket.Builder protocol(int protocol) {
+			return this;
+		}
+		@Override
+		public RawSocket.Builder bind(Address bindAddress) {
+			return this;
+		}
+
+		@Override
+		public Connecter create(NinioProvider ninioProvider) {
+			return new Connecter() {
+				private Connection callback;
+
+				@Override
+				public void connect(Connection callback) {
+					this.callback = callback;
+					callback.connected(null);
+				}
+
+				@Override
+				public void send(Address address, ByteBuffer buffer, SendCallback sendCallback) {
+					synchronized (sent) {
+						sent.add(System.nanoTime());
+					}
+					sendCallback.sent();
+					if ((address.ip[3] % 2) == 0) {
+						return;
+					}
+					byte[] reply = new byte[buffer.remaining()];
+					buffer.get(reply);
+					reply[0] = 0; // Echo reply
+					callback.received(new Address(address.ip, 0), ByteBuffer.wrap(reply));
+				}
+
+				@Override
+				public void close() {
+					callback.closed();
+				}
+			};
+		}
+	}
+
+	private static PingConnection nop() {
+		return new PingConnection() {
+			@Override
+			public void connected(Address address) {
+			}
+			@Override
+			public void failed(IOException ioe) {
+			}
+			@Override
+			public void closed() {
+			}
+		};
+	}
+
+	private static Map<String, PingSummary> sweep(PingSweeper sweeper, Iterable<byte[]> ips) throws IOException {
+		final Map<String, PingSummary> summaries = new TreeMap<>();
+		final Lock<Map<String, PingSummary>, IOException> lock = new Lock<>();
+		sweeper.sweep(ips, new PingSweepReceiver() {
+			@Override
+			public void received(PingSummary summary) {
+				summaries.put(Address.ipToString(summary.ip), summary);
+			}
+			@Override
+			public void finished() {
+				lock.set(summaries);
+			}
+			@Override
+			public void failed(IOException ioe) {
+				lock.fail(ioe);
+			}
+		});
+		return lock.waitFor();
+	}
+
+	@Test
+	public void testSweep() throws Exception {
+		Assertions.assertThat(PingSweeper.subnet(new byte[] { 10, 0, 0, 5 }, 30)).containsExactly(new byte[] { 10, 0, 0, 4 }, new byte[] { 10, 0, 0, 5 }, new byte[] { 10, 0, 0, 6 }, new byte[] { 10, 0, 0, 7 });
+		Assertions.assertThat(PingSweeper.range(new byte[] { 10, 0, 0, (byte) 254 }, new byte[] { 10, 0, 1, 1 })).hasSize(4);
+
+		StandInNetwork network = new StandInNetwork();
+		try (Ninio ninio = Ninio.create(); PingSweeper sweeper = ninio.create(PingSweeper.builder().with(network).probes(3).interval(0.05d).timeout(0.3d))) {
+			sweeper.connect(nop());
+			Map<String, PingSummary> summaries = sweep(sweeper, PingSweeper.subnet(new byte[] { 10, 0, 0, 0 }, 30));
+
+			Assertions.assertThat(summaries.keySet()).containsExactly("10.0.0.0", "10.0.0.1", "10.0.0.2", "10.0.0.3");
+			Assertions.assertThat(network.sent).hasSize(12);
+
+			PingSummary up = summaries.get("10.0.0.1");
+			Assertions.assertThat(up.sent).isEqualTo(3);
+			Assertions.assertThat(up.received).isEqualTo(3);
+			Assertions.assertThat(up.loss()).isEqualTo(0d);
+			Assertions.assertThat(up.min).isGreaterThanOrEqualTo(0d).isLessThanOrEqualTo(up.avg);
+			Assertions.assertThat(up.avg).isLessThanOrEqualTo(up.max);
+			Assertions.assertThat(up.jitter).isGreaterThanOrEqualTo(0d);
+
+			PingSummary down = summaries.get("10.0.0.2");
+			Assertions.assertThat(down.received).isEqualTo(0);
+			Assertions.assertThat(down.loss()).isEqualTo(1d);
+			Assertions.assertThat(down.avg).isNaN();
+		}
+	}
+
+	@Test
+	public void testPacing() throws Exception {
+		StandInNetwork network = new StandInNetwork();
+		try (Ninio ninio = Ninio.create(); PingSweeper sweeper = ninio.create(PingSweeper.builder().with(network).rate(200d).probes(1).timeout(0.3d))) {
+			sweeper.connect(nop());
+			Map<String, PingSummary> summaries = sweep(sweeper, PingSweeper.subnet(new byte[] { 10, 0, 0, 0 }, 26));
+
+			Assertions.assertThat(summaries).hasSize(64);
+			// 64 probes at 200 per second
+			Assertions.assertThat((network.sent.get(63) - network.sent.get(0)) / 1_000_000_000d).isGreaterThan(0.25d);
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package com.davfx.ninio.proxy;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.ProtocolFamily;
 import java.net.StandardProtocolFamily;
@@ -8,6 +9,9 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Executor;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.davfx.ninio.core.Address;
 import com.davfx.ninio.core.ByteBufferAllocator;
 import com.davfx.ninio.core.Connecter;
@@ -16,7 +20,9 @@ import com.davfx.ninio.core.NinioBuilder;
 import com.davfx.ninio.core.NinioProvider;
 import com.davfx.ninio.core.RawSocket;
 import com.davfx.ninio.core.SendCallback;
+import com.davfx.ninio.core.Sender;
 import com.davfx.ninio.core.TcpSocket;
+import com.davfx.ninio.core.TcpdumpManager;
 import com.davfx.ninio.core.TcpdumpMode;
 import com.davfx.ninio.core.TcpdumpSocket;
 import com.davfx.ninio.core.UdpSocket;
@@ -24,12 +30,16 @@ import com.davfx.ninio.http.HttpConnecter;
 import com.davfx.ninio.http.HttpSocket;
 import com.davfx.ninio.http.HttpSpecification;
 import com.davfx.ninio.http.WebsocketSocket;
-import com.google.common.base.Charsets;
+import com.davfx.ninio.proxy.dependencies.Dependencies;
+import com.davfx.ninio.util.ConfigUtils;
+import com.davfx.ninio.util.Lock;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.primitives.Ints;
+import com.typesafe.config.Config;
 
 public final class ProxyClient implements ProxyProvider {
 	
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProxyClient.class);
+
 	public static NinioBuilder<ProxyProvider> defaultClient(final Address address) {
 		return new NinioBuilder<ProxyProvider>() {
 			@Override
@@ -78,72 +88,166 @@ public final class ProxyClient implements ProxyProvider {
 		};
 	}
 	
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(ProxyClient.class.getPackage().getName());
+	private static final int DEFAULT_CONNECTIONS = CONFIG.getInt("client.connections");
+	private static final Assignment DEFAULT_ASSIGNMENT = Assignment.valueOf(CONFIG.getString("client.assignment").toUpperCase().replace('-', '_'));
+	private static final boolean DEFAULT_DATAGRAM_LANE = CONFIG.getBoolean("client.datagrams");
+
+	// How inner connections are spread over the upstream connections
+	public static enum Assignment {
+		HASH, // By connection ID
+		LEAST_LOADED // Fewest bytes waiting to be written, then fewest inner connections
+	}
+
 	public static interface Builder extends NinioBuilder<ProxyClient> {
 		@Deprecated
 		Builder with(Executor executor);
 
 		Builder with(TcpSocket.Builder connectorFactory);
+
+		// Number of upstream connections to the proxy server, opened when first needed
+		Builder connections(int connections);
+		Builder with(Assignment assignment);
+		// Datagram connections (UDP, raw, tcpdump) get their own upstream connection, not to wait behind bulk transfers
+		Builder datagramLane(boolean datagramLane);
+		
+		// What is sent to the proxy server is compressed (the server then does the same)
+		Builder deflate(boolean deflate);
+		// Small frames are held up to this duration (in seconds) to be written together (0 to disable)
+		Builder batch(double window);
 	}
-	
+
 	public static Builder builder() {
 		return new Builder() {
 			private TcpSocket.Builder connectorFactory = TcpSocket.builder();
-			
+			private int connections = DEFAULT_CONNECTIONS;
+			private Assignment assignment = DEFAULT_ASSIGNMENT;
+			private boolean datagramLane = DEFAULT_DATAGRAM_LANE;
+			private boolean deflate = ProxyLinkWriter.DEFAULT_DEFLATE;
+			private double batchWindow = ProxyLinkWriter.DEFAULT_BATCH_WINDOW;
+
 			@Deprecated
 			@Override
 			public Builder with(Executor executor) {
 				return this;
 			}
-			
+
 			@Override
 			public Builder with(TcpSocket.Builder connectorFactory) {
 				this.connectorFactory = connectorFactory;
 				return this;
 			}
 
+			@Override
+			public Builder connections(int connections) {
+				this.connections = connections;
+				return this;
+			}
+
+			@Override
+			public Builder with(Assignment assignment) {
+				this.assignment = assignment;
+				return this;
+			}
+
+			@Override
+			public Builder datagramLane(boolean datagramLane) {
+				this.datagramLane = datagramLane;
+				return this;
+			}
+
+			@Override
+			public Builder deflate(boolean deflate) {
+				this.deflate = deflate;
+				return this;
+			}
+
+			@Override
+			public Builder batch(double window) {
+				this.batchWindow = window;
+				return this;
+			}
+
 			@Override
 			public ProxyClient create(NinioProvider ninioProvider) {
-				return new ProxyClient(ninioProvider, connectorFactory);
+				if (connections <= 0) {
+					throw new IllegalArgumentException("Invalid connections: " + connections);
+				}
+				return new ProxyClient(ninioProvider, connectorFactory, connections, assignment, datagramLane, deflate, batchWindow);
 			}
 		};
 	}
-	
+
 	private final Executor proxyExecutor;
 	private final NinioProvider ninioProvider;
 	private final TcpSocket.Builder proxyConnectorFactory;
-	private Connecter proxyConnector = null;
+	private final Assignment assignment;
+	private final Upstream[] upstreams;
+	private final Upstream datagramUpstream;
+	private final boolean deflate;
+	private final double batchWindow;
 	private int nextConnectionId = 0;
 
 	private static final class InnerConnection {
 		public int connectionId;
 		public Connection connection = null;
-		
+		public Upstream upstream = null;
+		public ProxyFlowControl flow = null;
+		public boolean closing = false; // Closed by the client, kept until its queued data and CLOSE are sent
+
 		public InnerConnection() {
 		}
 	}
 
-	private final Map<Integer, InnerConnection> connections = new HashMap<>();
-
-	private ProxyClient(NinioProvider ninioProvider, TcpSocket.Builder proxyConnectorFactory) {
+	private ProxyClient(NinioProvider ninioProvider, TcpSocket.Builder proxyConnectorFactory, int connections, Assignment assignment, boolean datagramLane, boolean deflate, double batchWindow) {
 		proxyExecutor = ninioProvider.executor();
+		this.deflate = deflate;
+		this.batchWindow = batchWindow;
 		this.ninioProvider = ninioProvider;
 		this.proxyConnectorFactory = proxyConnectorFactory;
+		this.assignment = assignment;
+		upstreams = new Upstream[connections];
+		for (int i = 0; i < upstreams.length; i++) {
+			upstreams[i] = new Upstream();
+		}
+		datagramUpstream = datagramLane ? new Upstream() : null;
 	}
-	
+
 	@Override
 	public void close() {
 		proxyExecutor.execute(new Runnable() {
 			@Override
 			public void run() {
-				if (proxyConnector != null) {
-					proxyConnector.close();
+				for (Upstream u : upstreams) {
+					u.close();
+				}
+				if (datagramUpstream != null) {
+					datagramUpstream.close();
 				}
-				// connections.clear();
 			}
 		});
 		//%% ExecutorUtils.waitFor(proxyExecutor);
 	}
 
+	// Inner connections still multiplexed, over all the upstream connections
+	int connections() {
+		final Lock<Integer, RuntimeException> lock = new Lock<>();
+		proxyExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				int n = 0;
+				for (Upstream u : upstreams) {
+					n += u.connections.size();
+				}
+				if (datagramUpstream != null) {
+					n += datagramUpstream.connections.size();
+				}
+				lock.set(n);
+			}
+		});
+		return lock.waitFor();
+	}
+
 	@Override
 	public WithHeaderSocketBuilder factory() {
 		return new WithHeaderSocketBuilder() {
@@ -260,6 +364,16 @@ public final class ProxyClient implements ProxyProvider {
 				return this;
 			}
 			
+			@Override
+			public TcpdumpSocket.Builder replay(File file) {
+				throw new UnsupportedOperationException("Captures cannot be replayed through a proxy");
+			}
+			
+			@Override
+			public TcpdumpSocket.Builder shared(TcpdumpManager manager) {
+				return this; // Captured on the proxy side
+			}
+			
 			@Override
 			public TcpdumpSocket.Builder on(String interfaceId) {
 				this.interfaceId = interfaceId;
@@ -397,16 +511,261 @@ public final class ProxyClient implements ProxyProvider {
 	private Connecter createConnector(ProxyHeader header, Address connectAddress) {
 		return new InnerConnector(header, connectAddress);
 	}
-	
+
+	private static boolean isDatagram(String type) {
+		return type.equals(ProxyCommons.Types.UDP) || type.equals(ProxyCommons.Types.RAW) || type.equals(ProxyCommons.Types.TCPDUMP);
+	}
+
+	private Upstream assign(ProxyHeader header, int connectionId) {
+		if ((datagramUpstream != null) && isDatagram(header.type)) {
+			return datagramUpstream;
+		}
+		if (upstreams.length == 1) {
+			return upstreams[0];
+		}
+		switch (assignment) {
+		case LEAST_LOADED: {
+			Upstream best = null;
+			for (Upstream u : upstreams) {
+				if ((best == null) || (u.pending < best.pending) || ((u.pending == best.pending) && (u.connections.size() < best.connections.size()))) {
+					best = u;
+				}
+			}
+			return best;
+		}
+		default:
+			return upstreams[(connectionId & Integer.MAX_VALUE) % upstreams.length];
+		}
+	}
+
+	// One TCP connection to the proxy server, multiplexing inner connections
+	private final class Upstream implements Sender {
+		private Connecter proxyConnector = null;
+		private ProxyLinkWriter writer = null;
+		private ProxyCodec.Decoder decoder = null;
+		public final Map<Integer, InnerConnection> connections = new HashMap<>();
+		public long pending = 0L; // Bytes not written yet
+		public int window = ProxyFlowControl.DEFAULT_WINDOW; // Until negotiated with the server
+
+		private final SendCallback closeOnFailure = new SendCallback() {
+			@Override
+			public void failed(IOException e) {
+				proxyExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						close();
+					}
+				});
+			}
+			@Override
+			public void sent() {
+			}
+		};
+
+		public Upstream() {
+		}
+
+		public void close() {
+			if (proxyConnector != null) {
+				proxyConnector.close();
+				proxyConnector = null;
+				release();
+			}
+		}
+
+		private void release() {
+			writer.close();
+			writer = null;
+			decoder.close();
+			decoder = null;
+		}
+
+		private void lost(Connecter c, IOException e) {
+			if ((proxyConnector != null) && (proxyConnector != c)) {
+				return;
+			}
+			if (proxyConnector != null) {
+				proxyConnector = null;
+				release();
+			}
+			for (InnerConnection ic : connections.values()) {
+				ic.flow.failed((e == null) ? new IOException("Connection lost") : e);
+				if (ic.closing) {
+					continue;
+				}
+				if (e == null) {
+					ic.connection.closed();
+				} else {
+					ic.connection.failed(e);
+				}
+			}
+			connections.clear();
+		}
+
+		@Override
+		public void send(Address address, ByteBuffer buffer, final SendCallback callback) {
+			if (proxyConnector == null) {
+				callback.failed(new IOException("Connection lost"));
+				return;
+			}
+			final Connecter c = proxyConnector;
+			final int length = buffer.remaining();
+			pending += length;
+			writer.send(null, buffer, new SendCallback() {
+				private void written() {
+					proxyExecutor.execute(new Runnable() {
+						@Override
+						public void run() {
+							if (proxyConnector == c) {
+								pending -= length;
+							}
+						}
+					});
+				}
+				@Override
+				public void sent() {
+					written();
+					callback.sent();
+				}
+				@Override
+				public void failed(IOException e) {
+					written();
+					callback.failed(e);
+				}
+			});
+		}
+
+		// Removed once drained, the server does not answer a CLOSE sent by the client
+		public void drained(InnerConnection c) {
+			if (c.closing && (c.flow.queued() == 0) && (connections.get(c.connectionId) == c)) {
+				connections.remove(c.connectionId);
+			}
+		}
+
+		private void consumed(int connectionId, InnerConnection c, int length) {
+			int credit = c.flow.consumed(length);
+			if (credit == 0) {
+				return;
+			}
+			send(null, ProxyCodec.credit(connectionId, credit), closeOnFailure);
+		}
+
+		public void open() {
+			if (proxyConnector != null) {
+				return;
+			}
+			final Connecter c = proxyConnectorFactory.create(ninioProvider);
+			proxyConnector = c;
+			writer = new ProxyLinkWriter(c, batchWindow);
+			pending = 0L;
+			window = ProxyFlowControl.DEFAULT_WINDOW;
+
+			final ProxyCodec.Decoder d = new ProxyCodec.Decoder(new ProxyCodec.Handler() {
+				@Override
+				public void hello(int version, int options, int serverWindow) throws IOException {
+					if (version != ProxyCodec.VERSION) {
+						throw new IOException("Unsupported proxy version: " + version);
+					}
+					// Connections may have been opened (and have sent) already
+					window = ProxyFlowControl.negotiate(ProxyFlowControl.DEFAULT_WINDOW, serverWindow);
+					for (InnerConnection ic : connections.values()) {
+						ic.flow.window(window);
+					}
+				}
+
+				@Override
+				public void connect(int connectionId, Address address, ProxyHeader header) {
+					LOGGER.warn("Unexpected connection request from proxy server");
+				}
+
+				@Override
+				public void data(int connectionId, Address address, ByteBuffer payload) {
+					InnerConnection receivedInnerConnection = connections.get(connectionId);
+					if ((receivedInnerConnection != null) && !receivedInnerConnection.closing) {
+						int length = payload.remaining();
+						receivedInnerConnection.connection.received(address, payload);
+						consumed(connectionId, receivedInnerConnection, length);
+					}
+				}
+
+				@Override
+				public void credit(int connectionId, int increment) {
+					InnerConnection receivedInnerConnection = connections.get(connectionId);
+					if (receivedInnerConnection != null) {
+						receivedInnerConnection.flow.credited(increment);
+						drained(receivedInnerConnection);
+					}
+				}
+
+				@Override
+				public void close(int connectionId) {
+					InnerConnection receivedInnerConnection = connections.remove(connectionId);
+					if ((receivedInnerConnection != null) && !receivedInnerConnection.closing) {
+						receivedInnerConnection.flow.failed(new IOException("Closed"));
+						receivedInnerConnection.connection.closed();
+					}
+				}
+			});
+			decoder = d;
+
+			c.connect(new Connection() {
+				@Override
+				public void connected(Address address) {
+				}
+
+				@Override
+				public void closed() {
+					proxyExecutor.execute(new Runnable() {
+						@Override
+						public void run() {
+							lost(c, null);
+						}
+					});
+				}
+
+				@Override
+				public void failed(final IOException e) {
+					proxyExecutor.execute(new Runnable() {
+						@Override
+						public void run() {
+							lost(c, e);
+						}
+					});
+				}
+
+				@Override
+				public void received(Address receivedAddress, final ByteBuffer receivedBuffer) {
+					proxyExecutor.execute(new Runnable() {
+						@Override
+						public void run() {
+							if (proxyConnector != c) {
+								return;
+							}
+							try {
+								d.received(receivedBuffer);
+							} catch (IOException e) {
+								LOGGER.error("Invalid data from proxy server", e);
+								close();
+								lost(c, e);
+							}
+						}
+					});
+				}
+			});
+
+			writer.hello(deflate ? ProxyCodec.OPTION_DEFLATE : 0, ProxyFlowControl.DEFAULT_WINDOW, closeOnFailure);
+		}
+	}
+
 	private final class InnerConnector implements Connecter {
 		private final ProxyHeader header;
 		private final Address connectAddress;
 		private final InnerConnection innerConnection;
-		
+
 		public InnerConnector(ProxyHeader header, final Address connectAddress) {
 			this.header = header;
 			this.connectAddress = connectAddress;
-			
+
 			innerConnection = new InnerConnection();
 
 			proxyExecutor.execute(new Runnable() {
@@ -414,24 +773,15 @@ public final class ProxyClient implements ProxyProvider {
 				public void run() {
 					innerConnection.connectionId = nextConnectionId;
 					nextConnectionId++;
-					
-					connections.put(innerConnection.connectionId, innerConnection);
 				}
 			});
 		}
-		
-		private void doClose() {
-			proxyExecutor.execute(new Runnable() {
-				@Override
-				public void run() {
-					if (proxyConnector != null) {
-						proxyConnector.close();
-						proxyConnector = null;
-					}
-				}
-			});
+
+		// Still multiplexed on the upstream connection it was assigned to
+		private boolean isOpen() {
+			return (innerConnection.upstream != null) && !innerConnection.closing && (innerConnection.upstream.connections.get(innerConnection.connectionId) == innerConnection);
 		}
-		
+
 		@Override
 		public void connect(final Connection callback) {
 			proxyExecutor.execute(new Runnable() {
@@ -440,237 +790,22 @@ public final class ProxyClient implements ProxyProvider {
 					if (innerConnection.connection != null) {
 						throw new IllegalStateException("connect() cannot be called twice");
 					}
-					
-					if (proxyConnector == null) {
-						proxyConnector = proxyConnectorFactory.create(ninioProvider);
-						proxyConnector.connect(new Connection() {
-							@Override
-							public void connected(Address address) {
-							}
-							
-							@Override
-							public void closed() {
-								proxyExecutor.execute(new Runnable() {
-									@Override
-									public void run() {
-										for (InnerConnection c : connections.values()) {
-											c.connection.closed();
-										}
-										connections.clear();
-										
-										proxyConnector = null;
-									}
-								});
-							}
 
-							@Override
-							public void failed(final IOException e) {
-								proxyExecutor.execute(new Runnable() {
-									@Override
-									public void run() {
-										for (InnerConnection c : connections.values()) {
-											c.connection.failed(e);
-										}
-										connections.clear();
-										
-										proxyConnector = null;
-									}
-								});
-							}
+					Upstream upstream = assign(header, innerConnection.connectionId);
+					upstream.open();
 
-							private ByteBuffer readByteBuffer;
-
-							private int readConnectionId = -1;
-							private int command = -1;
-
-							private int readIpLength = -1;
-							private byte[] readIp = null;
-							private int readPort = -1;
-							private int readLength = -1;
-							
-							private int readByte(int old, ByteBuffer receivedBuffer) {
-								if (old >= 0) {
-									return old;
-								}
-								if (!receivedBuffer.hasRemaining()) {
-									return -1;
-								}
-								return receivedBuffer.get() & 0xFF;
-							}
-							private byte[] readBytes(ByteBuffer receivedBuffer, int len) {
-								if (readByteBuffer == null) {
-									readByteBuffer = ByteBuffer.allocate(len);
-								}
-								int l = len - readByteBuffer.position();
-								if (l > receivedBuffer.remaining()) {
-									l = receivedBuffer.remaining();
-								}
-								System.arraycopy(receivedBuffer.array(), receivedBuffer.arrayOffset() + receivedBuffer.position(), readByteBuffer.array(), readByteBuffer.arrayOffset() + readByteBuffer.position(), l);
-								receivedBuffer.position(receivedBuffer.position() + l);
-								readByteBuffer.position(readByteBuffer.position() + l);
-								if (readByteBuffer.position() == readByteBuffer.capacity()) {
-									byte[] b = readByteBuffer.array();
-									readByteBuffer = null;
-									return b;
-								}
-								return null;
-							}
-							private int readInt(int old, ByteBuffer receivedBuffer) {
-								if (old >= 0) {
-									return old;
-								}
-								byte[] r = readBytes(receivedBuffer, Ints.BYTES);
-								if (r == null) {
-									return -1;
-								}
-								return ByteBuffer.wrap(r).getInt();
-							}
-							/*
-							private String readString(String old, ByteBuffer receivedBuffer, int len) {
-								if (old != null) {
-									return old;
-								}
-								byte[] r = readBytes(receivedBuffer, len);
-								if (r == null) {
-									return null;
-								}
-								return new String(r, 0, r.length, Charsets.UTF_8);
-							}
-							*/
-							private byte[] readBytes(byte[] old, ByteBuffer receivedBuffer, int len) {
-								if (old != null) {
-									return old;
-								}
-								return readBytes(receivedBuffer, len);
-							}
-							
-							@Override
-							public void received(Address receivedAddress, final ByteBuffer receivedBuffer) {
-								proxyExecutor.execute(new Runnable() {
-									@Override
-									public void run() {
-										while (true) {
-											command = readByte(command, receivedBuffer);
-											if (command < 0) {
-												return;
-											}
-
-											readConnectionId = readInt(readConnectionId, receivedBuffer);
-											if (readConnectionId < 0) {
-												return;
-											}
-
-											switch (command) {
-											case ProxyCommons.Commands.SEND_WITH_ADDRESS: {
-												readIpLength = readInt(readIpLength, receivedBuffer);
-												if (readIpLength < 0) {
-													return;
-												}
-												readIp = readBytes(readIp, receivedBuffer, readIpLength);
-												if (readIp == null) {
-													return;
-												}
-												readPort = readInt(readPort, receivedBuffer);
-												if (readPort < 0) {
-													return;
-												}
-												readLength = readInt(readLength, receivedBuffer);
-												if (readLength < 0) {
-													return;
-												}
-												// LOGGER.debug("SEND_WITH_ADDRESS {}:{} [{} bytes]", Address.ipToString(readIp), readPort, readLength);
-												byte[] r = readBytes(receivedBuffer, readLength);
-												if (r == null) {
-													return;
-												}
-												InnerConnection receivedInnerConnection = connections.get(readConnectionId);
-												if (receivedInnerConnection != null) {
-													receivedInnerConnection.connection.received(new Address(readIp, readPort), ByteBuffer.wrap(r));
-												}
-												readConnectionId = -1;
-												command = -1;
-												readIpLength = -1;
-												readIp = null;
-												readPort = -1;
-												readLength = -1;
-												break;
-											}
-											case ProxyCommons.Commands.SEND_WITHOUT_ADDRESS: {
-												readLength = readInt(readLength, receivedBuffer);
-												if (readLength < 0) {
-													return;
-												}
-												// LOGGER.debug("SEND_WITHOUT_ADDRESS [{} bytes]", readLength);
-												byte[] r = readBytes(receivedBuffer, readLength);
-												if (r == null) {
-													return;
-												}
-												InnerConnection receivedInnerConnection = connections.get(readConnectionId);
-												if (receivedInnerConnection != null) {
-													receivedInnerConnection.connection.received(null, ByteBuffer.wrap(r));
-												}
-												readConnectionId = -1;
-												command = -1;
-												readLength = -1;
-												break;
-											}
-											case ProxyCommons.Commands.CLOSE: {
-												InnerConnection receivedInnerConnection = connections.remove(readConnectionId);
-												readConnectionId = -1;
-												command = -1;
-												if (receivedInnerConnection != null) {
-													receivedInnerConnection.connection.closed();
-												}
-												break;
-											}
-											}
-										}
-									}
-								});
-							}
-						});
-					}
-					
 					innerConnection.connection = callback;
+					innerConnection.upstream = upstream;
+					innerConnection.flow = new ProxyFlowControl(upstream, upstream.window);
+					upstream.connections.put(innerConnection.connectionId, innerConnection);
 
-					byte[] headerAsBytes = header.toString().getBytes(Charsets.UTF_8);
-
-					SendCallback sendCallback = new SendCallback() {
-						@Override
-						public void failed(IOException e) {
-							doClose();
-						}
-						@Override
-						public void sent() {
-						}
-					};
-					
-					if (connectAddress == null) {
-						ByteBuffer b = ByteBuffer.allocate(1 + Ints.BYTES + Ints.BYTES + headerAsBytes.length);
-						b.put((byte) ProxyCommons.Commands.CONNECT_WITHOUT_ADDRESS);
-						b.putInt(innerConnection.connectionId);
-						b.putInt(headerAsBytes.length);
-						b.put(headerAsBytes);
-						b.flip();
-						proxyConnector.send(null, b, sendCallback);
-					} else {
-						ByteBuffer b = ByteBuffer.allocate(1 + Ints.BYTES + Ints.BYTES + connectAddress.ip.length + Ints.BYTES + Ints.BYTES + headerAsBytes.length);
-						b.put((byte) ProxyCommons.Commands.CONNECT_WITH_ADDRESS);
-						b.putInt(innerConnection.connectionId);
-						b.putInt(connectAddress.ip.length);
-						b.put(connectAddress.ip);
-						b.putInt(connectAddress.port);
-						b.putInt(headerAsBytes.length);
-						b.put(headerAsBytes);
-						b.flip();
-						proxyConnector.send(null, b, sendCallback);
-					}
+					upstream.send(null, ProxyCodec.connect(innerConnection.connectionId, connectAddress, header), upstream.closeOnFailure);
 
 					callback.connected(null);
 				}
 			});
 		}
-		
+
 		@Override
 		public void send(final Address sendAddress, final ByteBuffer sendBuffer, final SendCallback callback) {
 			proxyExecutor.execute(new Runnable() {
@@ -679,34 +814,13 @@ public final class ProxyClient implements ProxyProvider {
 					if (innerConnection.connection == null) {
 						throw new IllegalStateException("send() must be called after connect()");
 					}
-					
-					if (proxyConnector == null) {
+
+					if (!isOpen()) {
 						callback.failed(new IOException("Connection lost"));
 						return;
 					}
 
-					if (sendAddress == null) {
-						// LOGGER.debug("-->SEND_WITHOUT_ADDRESS [{} bytes]", sendBuffer.remaining());
-						ByteBuffer b = ByteBuffer.allocate(1 + Ints.BYTES + Ints.BYTES + sendBuffer.remaining());
-						b.put((byte) ProxyCommons.Commands.SEND_WITHOUT_ADDRESS);
-						b.putInt(innerConnection.connectionId);
-						b.putInt(sendBuffer.remaining());
-						b.put(sendBuffer);
-						b.flip();
-						proxyConnector.send(null, b, callback);
-					} else {
-						// LOGGER.debug("-->SEND_WITH_ADDRESS {} [{} bytes]", sendAddress, sendBuffer.remaining());
-						ByteBuffer b = ByteBuffer.allocate(1 + Ints.BYTES + Ints.BYTES + sendAddress.ip.length + Ints.BYTES + Ints.BYTES + sendBuffer.remaining());
-						b.put((byte) ProxyCommons.Commands.SEND_WITH_ADDRESS);
-						b.putInt(innerConnection.connectionId);
-						b.putInt(sendAddress.ip.length); //TODO Reduce to short?
-						b.put(sendAddress.ip);
-						b.putInt(sendAddress.port);
-						b.putInt(sendBuffer.remaining());
-						b.put(sendBuffer);
-						b.flip();
-						proxyConnector.send(null, b, callback);
-					}
+					innerConnection.flow.data(innerConnection.connectionId, sendAddress, sendBuffer, callback);
 				}
 			});
 		}
@@ -716,29 +830,15 @@ public final class ProxyClient implements ProxyProvider {
 			proxyExecutor.execute(new Runnable() {
 				@Override
 				public void run() {
-					// connections.remove(innerConnection.connectionId); // Will be removed when server closes connection
-
-					if (proxyConnector == null) {
+					if (!isOpen()) {
 						return;
 					}
+					innerConnection.closing = true;
 
-					ByteBuffer b = ByteBuffer.allocate(1 + Ints.BYTES);
-					b.put((byte) ProxyCommons.Commands.CLOSE);
-					b.putInt(innerConnection.connectionId);
-					b.flip();
+					// After the data still waiting for credit, credits must still reach the connection until then
+					innerConnection.flow.send(ProxyCodec.close(innerConnection.connectionId), null, innerConnection.upstream.closeOnFailure);
+					innerConnection.upstream.drained(innerConnection);
 
-					SendCallback sendCallback = new SendCallback() {
-						@Override
-						public void failed(IOException e) {
-							doClose();
-						}
-						@Override
-						public void sent() {
-						}
-					};
-					
-					proxyConnector.send(null, b, sendCallback);
-					
 					innerConnection.connection.closed();
 				}
 			});
@@ -0,0 +1,397 @@
+package com.davfx.ninio.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.davfx.ninio.core.Address;
+import com.davfx.ninio.proxy.dependencies.Dependencies;
+import com.davfx.ninio.util.ConfigUtils;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.typesafe.config.Config;
+
+// Binary framing of the proxy link: each frame is a type byte, a varint body length and the body, unknown types are skipped
+// The first frame of each side is HELLO (magic, version, options, flow control window), options tell how what follows is encoded
+// Addresses are encoded as IP length (one byte), IP and port (two bytes), headers as varint-prefixed UTF-8 strings
+final class ProxyCodec {
+
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(ProxyCodec.class.getPackage().getName());
+	public static final int MAX_FRAME_LENGTH = CONFIG.getBytes("link.frame").intValue(); // Body length, a longer frame fails the link
+
+	public static final int VERSION = 2; // The text header protocol was the first one
+	private static final byte MAGIC_0 = 'N';
+	private static final byte MAGIC_1 = 'P';
+
+	public static final int OPTION_DEFLATE = 0x01; // The stream following HELLO is deflated (flushed with SYNC_FLUSH)
+	private static final int SUPPORTED_OPTIONS = OPTION_DEFLATE;
+
+	private static final int MAX_HEAD_LENGTH = 1 + 5;
+	private static final int INFLATE_CHUNK = 64 * 1024;
+
+	private ProxyCodec() {
+	}
+
+	public static int varintLength(int value) {
+		int n = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			n++;
+		}
+		return n;
+	}
+
+	public static void putVarint(ByteBuffer b, int value) {
+		while ((value & ~0x7F) != 0) {
+			b.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		b.put((byte) value);
+	}
+
+	public static int getVarint(ByteBuffer b) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (!b.hasRemaining()) {
+				throw new IOException("Truncated varint");
+			}
+			int v = b.get() & 0xFF;
+			value |= (v & 0x7F) << shift;
+			if ((v & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Varint too long");
+	}
+
+	public static int addressLength(Address address) {
+		return 1 + address.ip.length + 2;
+	}
+
+	private static void putAddress(ByteBuffer b, Address address) {
+		b.put((byte) address.ip.length);
+		b.put(address.ip);
+		b.putShort((short) address.port);
+	}
+
+	private static Address getAddress(ByteBuffer b) throws IOException {
+		int length = b.get() & 0xFF;
+		if (b.remaining() < (length + 2)) {
+			throw new IOException("Truncated address");
+		}
+		byte[] ip = new byte[length];
+		b.get(ip);
+		return new Address(ip, b.getShort() & 0xFFFF);
+	}
+
+	private static byte[] utf8(String s) {
+		return s.getBytes(Charsets.UTF_8);
+	}
+
+	private static String getString(ByteBuffer b) throws IOException {
+		int length = getVarint(b);
+		if ((length < 0) || (length > b.remaining())) {
+			throw new IOException("Truncated string");
+		}
+		String s = new String(b.array(), b.arrayOffset() + b.position(), length, Charsets.UTF_8);
+		b.position(b.position() + length);
+		return s;
+	}
+
+	private static ByteBuffer frame(int type, int bodyLength, int extra) {
+		ByteBuffer b = ByteBuffer.allocate(1 + varintLength(bodyLength) + bodyLength - extra);
+		b.put((byte) type);
+		putVarint(b, bodyLength);
+		return b;
+	}
+
+	public static ByteBuffer hello(int options, int window) {
+		ByteBuffer b = frame(ProxyCommons.Commands.HELLO, 2 + varintLength(VERSION) + varintLength(options) + varintLength(window), 0);
+		b.put(MAGIC_0);
+		b.put(MAGIC_1);
+		putVarint(b, VERSION);
+		putVarint(b, options);
+		putVarint(b, window);
+		b.flip();
+		return b;
+	}
+
+	// The payload is not copied, it follows as another buffer
+	public static ByteBuffer dataHead(int connectionId, Address address, int payloadLength) {
+		int length = varintLength(connectionId) + ((address == null) ? 0 : addressLength(address)) + payloadLength;
+		ByteBuffer b = frame((address == null) ? ProxyCommons.Commands.DATA : ProxyCommons.Commands.DATA_TO, length, payloadLength);
+		putVarint(b, connectionId);
+		if (address != null) {
+			putAddress(b, address);
+		}
+		b.flip();
+		return b;
+	}
+
+	public static ByteBuffer connect(int connectionId, Address address, ProxyHeader header) {
+		byte[] type = utf8(header.type);
+		int length = varintLength(connectionId) + ((address == null) ? 0 : addressLength(address)) + varintLength(type.length) + type.length + varintLength(header.parameters.size());
+		byte[][] parameters = new byte[header.parameters.size() * 2][];
+		int i = 0;
+		for (Map.Entry<String, String> e : header.parameters.entrySet()) {
+			parameters[i] = utf8(e.getKey());
+			parameters[i + 1] = utf8((e.getValue() == null) ? "" : e.getValue());
+			length += varintLength(parameters[i].length) + parameters[i].length + varintLength(parameters[i + 1].length) + parameters[i + 1].length;
+			i += 2;
+		}
+		ByteBuffer b = frame((address == null) ? ProxyCommons.Commands.CONNECT : ProxyCommons.Commands.CONNECT_TO, length, 0);
+		putVarint(b, connectionId);
+		if (address != null) {
+			putAddress(b, address);
+		}
+		putVarint(b, type.length);
+		b.put(type);
+		putVarint(b, header.parameters.size());
+		for (byte[] p : parameters) {
+			putVarint(b, p.length);
+			b.put(p);
+		}
+		b.flip();
+		return b;
+	}
+
+	public static ByteBuffer close(int connectionId) {
+		ByteBuffer b = frame(ProxyCommons.Commands.CLOSE, varintLength(connectionId), 0);
+		putVarint(b, connectionId);
+		b.flip();
+		return b;
+	}
+
+	public static ByteBuffer credit(int connectionId, int increment) {
+		ByteBuffer b = frame(ProxyCommons.Commands.CREDIT, varintLength(connectionId) + varintLength(increment), 0);
+		putVarint(b, connectionId);
+		putVarint(b, increment);
+		b.flip();
+		return b;
+	}
+
+	public static interface Handler {
+		// The window is zero if the other side does not control the flow
+		void hello(int version, int options, int window) throws IOException;
+		void connect(int connectionId, Address address, ProxyHeader header);
+		// The payload is a view on the received buffer
+		void data(int connectionId, Address address, ByteBuffer payload);
+		void close(int connectionId);
+		void credit(int connectionId, int increment);
+	}
+
+	// Complete frames are decoded in place (from heap buffers), only frames split across received buffers are copied, not thread-safe
+	public static final class Decoder {
+		private final Handler handler;
+		private boolean helloReceived = false;
+
+		private final byte[] head = new byte[MAX_HEAD_LENGTH];
+		private int headLength = 0;
+		private int bodyType;
+		private ByteBuffer body = null; // Being reassembled
+		private Inflater inflater = null;
+		private byte[] inflateChunk = null; // Reused, frames decoded from it are copied
+
+		public Decoder(Handler handler) {
+			this.handler = handler;
+		}
+
+		// Returns the body length, or -1 if the varint is not complete yet, checked before anything is allocated
+		private static int bodyLength(byte[] b, int offset, int length) throws IOException {
+			int value = 0;
+			for (int i = 0; (i < 5) && (i < length); i++) {
+				int v = b[offset + i] & 0xFF;
+				value |= (v & 0x7F) << (7 * i);
+				if ((v & 0x80) == 0) {
+					if ((value < 0) || (varintLength(value) != (i + 1))) {
+						throw new IOException("Invalid frame length");
+					}
+					if (value > MAX_FRAME_LENGTH) {
+						throw new IOException("Frame too long: " + value);
+					}
+					return value;
+				}
+			}
+			if (length >= 5) {
+				throw new IOException("Invalid frame length");
+			}
+			return -1;
+		}
+
+		public void received(ByteBuffer buffer) throws IOException {
+			if (!buffer.hasArray()) {
+				// Direct or read-only, decoded from a copy
+				ByteBuffer b = ByteBuffer.allocate(buffer.remaining());
+				b.put(buffer);
+				b.flip();
+				buffer = b;
+			}
+			if (inflater == null) {
+				decode(buffer, false);
+				if ((inflater == null) || !buffer.hasRemaining()) {
+					return;
+				}
+			}
+			inflate(buffer);
+		}
+
+		private void inflate(ByteBuffer buffer) throws IOException {
+			inflater.setInput(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+			try {
+				while (true) {
+					int n = inflater.inflate(inflateChunk);
+					if (n == 0) {
+						if (inflater.needsInput()) {
+							return;
+						}
+						throw new IOException("Invalid compressed stream");
+					}
+					decode(ByteBuffer.wrap(inflateChunk, 0, n), true);
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Invalid compressed stream", e);
+			}
+		}
+
+		public void close() {
+			if (inflater != null) {
+				inflater.end();
+			}
+		}
+
+		private void decode(ByteBuffer buffer, boolean inflated) throws IOException {
+			while (true) {
+				if (!inflated && (inflater != null)) {
+					// What follows HELLO is compressed
+					return;
+				}
+				if (body != null) {
+					int n = Math.min(body.remaining(), buffer.remaining());
+					body.put(buffer.array(), buffer.arrayOffset() + buffer.position(), n);
+					buffer.position(buffer.position() + n);
+					if (body.hasRemaining()) {
+						return;
+					}
+					body.flip();
+					ByteBuffer b = body;
+					body = null;
+					frame(bodyType, b);
+					continue;
+				}
+
+				if (!buffer.hasRemaining()) {
+					return;
+				}
+
+				if (headLength == 0) {
+					// Fast path, the whole frame is in the received buffer
+					int p = buffer.position();
+					int type = buffer.get(p) & 0xFF;
+					int length = bodyLength(buffer.array(), buffer.arrayOffset() + p + 1, buffer.remaining() - 1);
+					if (length >= 0) {
+						int start = p + 1 + varintLength(length);
+						if ((buffer.limit() - start) >= length) {
+							ByteBuffer b = buffer.duplicate();
+							b.limit(start + length);
+							b.position(start);
+							buffer.position(start + length);
+							if (inflated) {
+								// Payloads outlive the inflated chunk
+								ByteBuffer c = ByteBuffer.allocate(length);
+								c.put(b);
+								c.flip();
+								b = c;
+							}
+							frame(type, b);
+						} else {
+							bodyType = type;
+							body = ByteBuffer.allocate(length);
+							buffer.position(start);
+						}
+						continue;
+					}
+				}
+
+				head[headLength] = buffer.get();
+				headLength++;
+				if (headLength > 1) {
+					int length = bodyLength(head, 1, headLength - 1);
+					if (length >= 0) {
+						bodyType = head[0] & 0xFF;
+						body = ByteBuffer.allocate(length);
+						headLength = 0;
+					}
+				}
+			}
+		}
+
+		private void frame(int type, ByteBuffer b) throws IOException {
+			if (!helloReceived) {
+				if ((type != ProxyCommons.Commands.HELLO) || (b.remaining() < 2) || (b.get() != MAGIC_0) || (b.get() != MAGIC_1)) {
+					throw new IOException("Not a proxy link");
+				}
+				helloReceived = true;
+				int version = getVarint(b);
+				int options = b.hasRemaining() ? getVarint(b) : 0;
+				int window = b.hasRemaining() ? getVarint(b) : 0;
+				if (window < 0) {
+					throw new IOException("Invalid flow control window: " + window);
+				}
+				if ((options & ~SUPPORTED_OPTIONS) != 0) {
+					throw new IOException("Unsupported proxy options: " + options);
+				}
+				if ((options & OPTION_DEFLATE) != 0) {
+					inflater = new Inflater();
+					inflateChunk = new byte[INFLATE_CHUNK];
+				}
+				handler.hello(version, options, window);
+				return;
+			}
+
+			try {
+				switch (type) {
+				case ProxyCommons.Commands.DATA: {
+					int connectionId = getVarint(b);
+					handler.data(connectionId, null, b);
+					break;
+				}
+				case ProxyCommons.Commands.DATA_TO: {
+					int connectionId = getVarint(b);
+					Address address = getAddress(b);
+					handler.data(connectionId, address, b);
+					break;
+				}
+				case ProxyCommons.Commands.CLOSE:
+					handler.close(getVarint(b));
+					break;
+				case ProxyCommons.Commands.CONNECT:
+				case ProxyCommons.Commands.CONNECT_TO: {
+					int connectionId = getVarint(b);
+					Address address = (type == ProxyCommons.Commands.CONNECT_TO) ? getAddress(b) : null;
+					String headerType = getString(b);
+					int n = getVarint(b);
+					ImmutableMap.Builder<String, String> parameters = ImmutableMap.builder();
+					for (int i = 0; i < n; i++) {
+						String key = getString(b);
+						parameters.put(key, getString(b));
+					}
+					handler.connect(connectionId, address, new ProxyHeader(headerType, parameters.build()));
+					break;
+				}
+				case ProxyCommons.Commands.CREDIT: {
+					int connectionId = getVarint(b);
+					handler.credit(connectionId, getVarint(b));
+					break;
+				}
+				default:
+					break;
+				}
+			} catch (RuntimeException e) {
+				throw new IOException("Invalid frame: " + type, e);
+			}
+		}
+	}
+}
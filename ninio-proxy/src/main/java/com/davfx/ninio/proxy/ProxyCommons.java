@@ -6,11 +6,13 @@ import com.typesafe.config.Config;
 
 interface ProxyCommons {
 	interface Commands {
-		int SEND_WITH_ADDRESS = 0;
-		int SEND_WITHOUT_ADDRESS = 1;
+		int DATA = 0;
+		int DATA_TO = 1; // With an address
 		int CLOSE = 2;
-		int CONNECT_WITH_ADDRESS = 3;
-		int CONNECT_WITHOUT_ADDRESS = 4;
+		int CONNECT_TO = 3;
+		int CONNECT = 4;
+		int CREDIT = 5; // Window update of a connection, in bytes
+		int HELLO = 6;
 	}
 	
 	final class Types {
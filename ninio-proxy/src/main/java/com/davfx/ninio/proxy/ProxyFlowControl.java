@@ -0,0 +1,144 @@
+package com.davfx.ninio.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.LinkedList;
+
+import com.davfx.ninio.core.Address;
+import com.davfx.ninio.core.Nop;
+import com.davfx.ninio.core.SendCallback;
+import com.davfx.ninio.core.Sender;
+import com.davfx.ninio.proxy.dependencies.Dependencies;
+import com.davfx.ninio.util.ConfigUtils;
+import com.typesafe.config.Config;
+
+// Credit-based flow control of one channel: a window of payload bytes can be sent, then the other side credits them back once consumed
+// Frames are queued (in order) while the channel has no credit, not thread-safe
+// Each side tells its window in HELLO, the smallest one is used by both (zero on any side disables the flow control)
+final class ProxyFlowControl {
+
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(ProxyFlowControl.class.getPackage().getName());
+	public static final int DEFAULT_WINDOW = CONFIG.getBytes("flow.window").intValue();
+
+	public static int negotiate(int window, int otherWindow) {
+		if ((window == 0) || (otherWindow == 0)) {
+			return 0;
+		}
+		return Math.min(window, otherWindow);
+	}
+
+	private static final class ToSend {
+		public final ByteBuffer head;
+		public final ByteBuffer payload;
+		public final int length;
+		public final SendCallback callback;
+		public ToSend(ByteBuffer head, ByteBuffer payload, int length, SendCallback callback) {
+			this.head = head;
+			this.payload = payload;
+			this.length = length;
+			this.callback = callback;
+		}
+	}
+
+	private final Sender sender;
+	private int window;
+	private long credit;
+	private int consumed = 0;
+	private final Deque<ToSend> toSend = new LinkedList<>();
+
+	public ProxyFlowControl(Sender sender, int window) {
+		this.sender = sender;
+		this.window = window;
+		credit = window;
+	}
+
+	// Once negotiated, if the channel was opened before (what has been sent so far counts against the new window)
+	public void window(int window) {
+		credit += window - this.window;
+		this.window = window;
+		credited(0);
+	}
+
+	private void write(ByteBuffer head, ByteBuffer payload, SendCallback callback) {
+		if (payload == null) {
+			sender.send(null, head, callback);
+		} else {
+			// Not copied into the frame, both buffers are written at once by the socket
+			sender.send(null, head, new Nop());
+			sender.send(null, payload, callback);
+		}
+	}
+
+	// A frame bigger than the remaining credit is sent anyway (the credit goes negative), control frames (without payload) only keep their order
+	public void send(ByteBuffer head, ByteBuffer payload, SendCallback callback) {
+		int length = (payload == null) ? 0 : payload.remaining();
+		if (toSend.isEmpty() && ((window == 0) || (length == 0) || (credit > 0L))) {
+			credit -= length;
+			write(head, payload, callback);
+			return;
+		}
+		toSend.addLast(new ToSend(head, payload, length, callback));
+	}
+
+	// Payloads are split into frames the other side accepts, only the last one calls back, a datagram cannot be split
+	public void data(int connectionId, Address address, ByteBuffer payload, SendCallback callback) {
+		int max = ProxyCodec.MAX_FRAME_LENGTH - ProxyCodec.varintLength(connectionId);
+		if ((address != null) && (payload.remaining() > (max - ProxyCodec.addressLength(address)))) {
+			callback.failed(new IOException("Datagram too long: " + payload.remaining()));
+			return;
+		}
+		while (payload.remaining() > max) {
+			ByteBuffer b = payload.duplicate();
+			b.limit(b.position() + max);
+			payload.position(b.limit());
+			send(ProxyCodec.dataHead(connectionId, null, max), b, new Nop());
+		}
+		send(ProxyCodec.dataHead(connectionId, address, payload.remaining()), payload, callback);
+	}
+
+	public void credited(int increment) {
+		credit += increment;
+		while (!toSend.isEmpty() && ((window == 0) || (toSend.peekFirst().length == 0) || (credit > 0L))) {
+			ToSend s = toSend.removeFirst();
+			credit -= s.length;
+			write(s.head, s.payload, s.callback);
+		}
+	}
+
+	// Returns the credit to give back to the other side, zero until half the window has been consumed
+	public int consumed(int length) {
+		if (window == 0) {
+			return 0;
+		}
+		consumed += length;
+		if (consumed < (window / 2)) {
+			return 0;
+		}
+		int c = consumed;
+		consumed = 0;
+		return c;
+	}
+
+	public int queued() {
+		return toSend.size();
+	}
+
+	public void failed(IOException ioe) {
+		while (!toSend.isEmpty()) {
+			toSend.removeFirst().callback.failed(ioe);
+		}
+	}
+
+	// Dropped without calling back, returns the number of dropped data frames
+	public int clear() {
+		int dropped = 0;
+		for (ToSend s : toSend) {
+			if (s.payload != null) {
+				dropped++;
+			}
+		}
+		toSend.clear();
+		return dropped;
+	}
+}
@@ -0,0 +1,187 @@
+package com.davfx.ninio.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import com.davfx.ninio.core.Address;
+import com.davfx.ninio.core.SendCallback;
+import com.davfx.ninio.core.Sender;
+import com.davfx.ninio.proxy.dependencies.Dependencies;
+import com.davfx.ninio.util.ClassThreadFactory;
+import com.davfx.ninio.util.ConfigUtils;
+import com.typesafe.config.Config;
+
+// Writing side of the proxy link: small frames (datagrams, credits...) are held a little to be written together, the stream following HELLO can be deflated
+// Thread-safe, the order of the writes is kept
+final class ProxyLinkWriter implements Sender {
+
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(ProxyLinkWriter.class.getPackage().getName());
+	public static final boolean DEFAULT_DEFLATE = CONFIG.getString("link.compression").equals("deflate");
+	private static final int DEFLATE_LEVEL = CONFIG.getInt("link.level");
+	public static final double DEFAULT_BATCH_WINDOW = ConfigUtils.getDuration(CONFIG, "link.batch.window");
+	private static final int BATCH_SIZE = CONFIG.getBytes("link.batch.size").intValue();
+
+	private static final int DEFLATE_CHUNK = 16 * 1024;
+
+	private static final ScheduledExecutorService FLUSH_EXECUTOR = Executors.newSingleThreadScheduledExecutor(new ClassThreadFactory(ProxyLinkWriter.class, true));
+
+	private final Sender sender;
+	private final double batchWindow;
+
+	private Deflater deflater = null;
+	private byte[] deflateChunk = null;
+	private boolean closed = false;
+
+	private final List<ByteBuffer> batch = new ArrayList<>();
+	private final List<SendCallback> callbacks = new ArrayList<>();
+	private int batchLength = 0;
+	private boolean flushScheduled = false;
+
+	private final Runnable scheduledFlush = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (ProxyLinkWriter.this) {
+				flushScheduled = false;
+				flush();
+			}
+		}
+	};
+
+	public ProxyLinkWriter(Sender sender, double batchWindow) {
+		this.sender = sender;
+		this.batchWindow = batchWindow;
+	}
+
+	// Written as is, must be the first frame
+	public synchronized void hello(int options, int window, SendCallback callback) {
+		sender.send(null, ProxyCodec.hello(options, window), callback);
+		if ((options & ProxyCodec.OPTION_DEFLATE) != 0) {
+			deflater = new Deflater(DEFLATE_LEVEL);
+			deflateChunk = new byte[DEFLATE_CHUNK];
+		}
+	}
+
+	@Override
+	public synchronized void send(Address address, ByteBuffer buffer, SendCallback callback) {
+		if (closed) {
+			callback.failed(new IOException("Closed"));
+			return;
+		}
+
+		int length = buffer.remaining();
+		if ((batchWindow > 0d) && (length < BATCH_SIZE)) {
+			batch.add(buffer);
+			callbacks.add(callback);
+			batchLength += length;
+			if (batchLength >= BATCH_SIZE) {
+				flush();
+			} else if (!flushScheduled) {
+				flushScheduled = true;
+				FLUSH_EXECUTOR.schedule(scheduledFlush, (long) (batchWindow * 1_000_000d), TimeUnit.MICROSECONDS);
+			}
+			return;
+		}
+
+		if (deflater != null) {
+			// Compressed with what is held
+			batch.add(buffer);
+			callbacks.add(callback);
+			flush();
+			return;
+		}
+
+		flush();
+		sender.send(null, buffer, callback);
+	}
+
+	private void flush() {
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		ByteBuffer toSend;
+		if (deflater != null) {
+			toSend = deflate();
+		} else if (batch.size() == 1) {
+			toSend = batch.get(0);
+		} else {
+			toSend = ByteBuffer.allocate(batchLength);
+			for (ByteBuffer b : batch) {
+				toSend.put(b);
+			}
+			toSend.flip();
+		}
+
+		final SendCallback[] c = callbacks.toArray(new SendCallback[callbacks.size()]);
+		batch.clear();
+		callbacks.clear();
+		batchLength = 0;
+
+		sender.send(null, toSend, (c.length == 1) ? c[0] : new SendCallback() {
+			@Override
+			public void sent() {
+				for (SendCallback callback : c) {
+					callback.sent();
+				}
+			}
+			@Override
+			public void failed(IOException e) {
+				for (SendCallback callback : c) {
+					callback.failed(e);
+				}
+			}
+		});
+	}
+
+	// Flushed (SYNC_FLUSH) so that the other side can decode everything sent so far
+	private ByteBuffer deflate() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (ByteBuffer b : batch) {
+			if (b.hasArray()) {
+				deflater.setInput(b.array(), b.arrayOffset() + b.position(), b.remaining());
+			} else {
+				byte[] a = new byte[b.remaining()];
+				b.duplicate().get(a);
+				deflater.setInput(a);
+			}
+			b.position(b.limit());
+			while (!deflater.needsInput()) {
+				out.write(deflateChunk, 0, deflater.deflate(deflateChunk, 0, deflateChunk.length, Deflater.NO_FLUSH));
+			}
+		}
+		while (true) {
+			int n = deflater.deflate(deflateChunk, 0, deflateChunk.length, Deflater.SYNC_FLUSH);
+			out.write(deflateChunk, 0, n);
+			if (n < deflateChunk.length) {
+				break;
+			}
+		}
+		return ByteBuffer.wrap(out.toByteArray());
+	}
+
+	// What is held is dropped (failed)
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		IOException e = new IOException("Closed");
+		for (SendCallback callback : callbacks) {
+			callback.failed(e);
+		}
+		batch.clear();
+		callbacks.clear();
+		batchLength = 0;
+		if (deflater != null) {
+			deflater.end();
+			deflater = null;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package com.davfx.ninio.proxy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.davfx.ninio.core.Address;
+import com.google.common.collect.ImmutableMap;
+
+// Counters of a proxy server, by proxy client (removed when the client disconnects) and by connection type, thread-safe
+public final class ProxyMetrics {
+
+	public static final class Counters {
+		private final AtomicLong connections = new AtomicLong(0L);
+		private final AtomicLong bytesToTargets = new AtomicLong(0L);
+		private final AtomicLong bytesFromTargets = new AtomicLong(0L);
+		private final AtomicLong drops = new AtomicLong(0L);
+
+		// Currently open
+		public long connections() {
+			return connections.get();
+		}
+		public long bytesToTargets() {
+			return bytesToTargets.get();
+		}
+		public long bytesFromTargets() {
+			return bytesFromTargets.get();
+		}
+		// Data frames not forwarded (unknown connection, closed before being sent, failed), and connections refused
+		public long drops() {
+			return drops.get();
+		}
+
+		@Override
+		public String toString() {
+			return "connections = " + connections() + ", bytesToTargets = " + bytesToTargets() + ", bytesFromTargets = " + bytesFromTargets() + ", drops = " + drops();
+		}
+	}
+
+	private final ConcurrentMap<Address, Counters> clients = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Counters> types = new ConcurrentHashMap<>();
+
+	public ProxyMetrics() {
+	}
+
+	public ImmutableMap<Address, Counters> clients() {
+		return ImmutableMap.copyOf(clients);
+	}
+
+	public ImmutableMap<String, Counters> types() {
+		return ImmutableMap.copyOf(types);
+	}
+
+	@Override
+	public String toString() {
+		return "clients = " + clients + ", types = " + types;
+	}
+
+	Counters client(Address address) {
+		Counters c = new Counters();
+		if (address == null) {
+			return c; // Not registered
+		}
+		Counters previous = clients.putIfAbsent(address, c);
+		return (previous == null) ? c : previous;
+	}
+
+	void removeClient(Address address) {
+		if (address != null) {
+			clients.remove(address);
+		}
+	}
+
+	Counters type(String type) {
+		Counters c = types.get(type);
+		if (c != null) {
+			return c;
+		}
+		c = new Counters();
+		Counters previous = types.putIfAbsent(type, c);
+		return (previous == null) ? c : previous;
+	}
+
+	// Both the client and the type counters are updated at once
+	static final class Pair {
+		private final Counters client;
+		private final Counters type;
+		public Pair(Counters client, Counters type) {
+			this.client = client;
+			this.type = type;
+		}
+		public void opened() {
+			client.connections.incrementAndGet();
+			type.connections.incrementAndGet();
+		}
+		public void closed() {
+			client.connections.decrementAndGet();
+			type.connections.decrementAndGet();
+		}
+		public void toTarget(long bytes) {
+			client.bytesToTargets.addAndGet(bytes);
+			type.bytesToTargets.addAndGet(bytes);
+		}
+		public void fromTarget(long bytes) {
+			client.bytesFromTargets.addAndGet(bytes);
+			type.bytesFromTargets.addAndGet(bytes);
+		}
+		public void dropped(long count) {
+			client.drops.addAndGet(count);
+			type.drops.addAndGet(count);
+		}
+	}
+
+	static void dropped(Counters counters) {
+		counters.drops.incrementAndGet();
+	}
+}
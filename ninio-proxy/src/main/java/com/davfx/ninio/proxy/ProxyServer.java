@@ -4,9 +4,8 @@ import java.io.IOException;
 import java.net.ProtocolFamily;
 import java.net.StandardProtocolFamily;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,6 +14,7 @@ import com.davfx.ninio.core.Address;
 import com.davfx.ninio.core.Connected;
 import com.davfx.ninio.core.Connecter;
 import com.davfx.ninio.core.Connection;
+import com.davfx.ninio.core.CorrelationTable;
 import com.davfx.ninio.core.Disconnectable;
 import com.davfx.ninio.core.Listener;
 import com.davfx.ninio.core.Listening;
@@ -35,14 +35,29 @@ import com.davfx.ninio.http.HttpClient;
 import com.davfx.ninio.http.HttpConnecter;
 import com.davfx.ninio.http.HttpSocket;
 import com.davfx.ninio.http.WebsocketSocket;
-import com.google.common.base.Charsets;
-import com.google.common.primitives.Ints;
+import com.davfx.ninio.proxy.dependencies.Dependencies;
+import com.davfx.ninio.util.ConfigUtils;
+import com.davfx.ninio.util.SerialExecutor;
+import com.typesafe.config.Config;
 
 public final class ProxyServer implements Listening {
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(ProxyServer.class);
 
-	public static NinioBuilder<Disconnectable> defaultServer(final Address address, final ProxyListening listening) {
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(ProxyServer.class.getPackage().getName());
+	private static final int DEFAULT_THREADS = CONFIG.getInt("server.threads");
+
+	public static NinioBuilder<Disconnectable> defaultServer(Address address, ProxyListening listening) {
+		return defaultServer(address, listening, null);
+	}
+	
+	public static NinioBuilder<Disconnectable> defaultServer(Address address, ProxyListening listening, ProxyMetrics metrics) {
+		return defaultServer(address, listening, metrics, null);
+	}
+	
+	// Forwarded UDP connections are created with udpConnecterFactory (if not null)
+	// e.g. a shared InMemoryCache (with pass-through) so that identical polls from all the proxy clients reach the devices once
+	public static NinioBuilder<Disconnectable> defaultServer(final Address address, final ProxyListening listening, final ProxyMetrics metrics, final NinioBuilder<Connecter> udpConnecterFactory) {
 		return new NinioBuilder<Disconnectable>() {
 			@Override
 			public Disconnectable create(NinioProvider ninioProvider) {
@@ -50,7 +65,7 @@ public final class ProxyServer implements Listening {
 				final DnsConnecter dnsClient = DnsClient.builder().create(ninioProvider);
 				final HttpConnecter httpClient = HttpClient.builder().with(dnsClient).create(ninioProvider);
 				
-				final ProxyServer.Builder proxyServerBuilder = ProxyServer.builder().listening(new ProxyListening() {
+				final ProxyServer.Builder proxyServerBuilder = ProxyServer.builder().with(metrics).listening(new HeaderListening() {
 					@Override
 					public void connected(Address address) {
 						if (listening != null) {
@@ -72,13 +87,16 @@ public final class ProxyServer implements Listening {
 					
 					@Override
 					public NinioBuilder<Connecter> create(Address address, String header) {
-						ProxyHeader h = ProxyHeader.of(header);
-						
+						return create(address, ProxyHeader.of(header));
+					}
+					
+					@Override
+					public NinioBuilder<Connecter> create(Address address, ProxyHeader h) {
 						if (h.type.equals(ProxyCommons.Types.TCP)) {
 							return TcpSocket.builder().to(address);
 						}
 						if (h.type.equals(ProxyCommons.Types.UDP)) {
-							return UdpSocket.builder();
+							return (udpConnecterFactory == null) ? UdpSocket.builder() : udpConnecterFactory;
 						}
 						if (h.type.equals(ProxyCommons.Types.TCPDUMP)) {
 							return TcpdumpSocket.builder().on(h.parameters.get("interfaceId")).mode(TcpdumpMode.valueOf(h.parameters.get("mode"))).rule(h.parameters.get("rule"));
@@ -102,7 +120,7 @@ public final class ProxyServer implements Listening {
 							return null;
 						}
 						
-						return listening.create(address, header);
+						return listening.create(address, h.toString());
 					}
 				});
 
@@ -119,16 +137,34 @@ public final class ProxyServer implements Listening {
 		};
 	}
 	
+	// Gets the header as decoded from the link, without turning it back into text
+	static interface HeaderListening extends ProxyListening {
+		NinioBuilder<Connecter> create(Address address, ProxyHeader header);
+	}
+	
 	public static interface Builder extends NinioBuilder<ProxyServer> {
 		@Deprecated
 		Builder with(Executor executor);
 
 		Builder listening(ProxyListening listening);
+		
+		// Connections are spread over this number of threads, by connection ID
+		Builder threads(int threads);
+		Builder with(ProxyMetrics metrics);
+		
+		// What is sent to the proxy clients is compressed, even if they do not compress what they send
+		Builder deflate(boolean deflate);
+		// Small frames are held up to this duration (in seconds) to be written together (0 to disable)
+		Builder batch(double window);
 	}
 	
 	public static Builder builder() {
 		return new Builder() {
 			private ProxyListening listening = null;
+			private int threads = DEFAULT_THREADS;
+			private ProxyMetrics metrics = null;
+			private boolean deflate = ProxyLinkWriter.DEFAULT_DEFLATE;
+			private double batchWindow = ProxyLinkWriter.DEFAULT_BATCH_WINDOW;
 
 			@Deprecated
 			@Override
@@ -141,360 +177,358 @@ public final class ProxyServer implements Listening {
 				this.listening = listening;
 				return this;
 			}
+			
+			@Override
+			public Builder threads(int threads) {
+				this.threads = threads;
+				return this;
+			}
+			
+			@Override
+			public Builder with(ProxyMetrics metrics) {
+				this.metrics = metrics;
+				return this;
+			}
+
+			@Override
+			public Builder deflate(boolean deflate) {
+				this.deflate = deflate;
+				return this;
+			}
+			
+			@Override
+			public Builder batch(double window) {
+				this.batchWindow = window;
+				return this;
+			}
 
 			@Override
 			public ProxyServer create(NinioProvider ninioProvider) {
 				if (listening == null) {
 					throw new NullPointerException("listening");
 				}
-				return new ProxyServer(ninioProvider, listening);
+				if (threads <= 0) {
+					throw new IllegalArgumentException("Invalid threads: " + threads);
+				}
+				return new ProxyServer(ninioProvider, listening, (metrics == null) ? new ProxyMetrics() : metrics, threads, deflate, batchWindow);
 			}
 		};
 	}
 	
 	private final NinioProvider ninioProvider;
-	private final Executor proxyExecutor;
 	private final ProxyListening listening;
+	private final ProxyMetrics metrics;
+	private final Executor[] executors;
+	private final AtomicInteger nextLink = new AtomicInteger(0);
+	private final boolean deflate;
+	private final double batchWindow;
 
-	private ProxyServer(NinioProvider ninioProvider, ProxyListening listening) {
+	private ProxyServer(NinioProvider ninioProvider, ProxyListening listening, ProxyMetrics metrics, int threads, boolean deflate, double batchWindow) {
 		this.ninioProvider = ninioProvider;
-		proxyExecutor = ninioProvider.executor();
+		this.deflate = deflate;
+		this.batchWindow = batchWindow;
 		this.listening = listening;
+		this.metrics = metrics;
+		executors = new Executor[threads];
+		for (int i = 0; i < executors.length; i++) {
+			executors[i] = new SerialExecutor(ProxyServer.class);
+		}
 	}
 	
-	private void closedRegisteredConnections(Map<Integer, Connecter> connections, IOException ioe) {
-		for (final Connecter c : connections.values()) {
-			c.close();
+	public ProxyMetrics metrics() {
+		return metrics;
+	}
+	
+	private static final class Channel {
+		public final ProxyFlowControl flow;
+		public final ProxyMetrics.Pair metrics;
+		public Connecter connecter = null;
+		public boolean closing = false; // Closed by the target, kept until what waits for credit (then CLOSE) is sent
+		public Channel(ProxyFlowControl flow, ProxyMetrics.Pair metrics) {
+			this.flow = flow;
+			this.metrics = metrics;
 		}
-		connections.clear();
 	}
 
-	@Override
-	public Connection connecting(final Connected proxyConnector) {
-		final Map<Integer, Connecter> connections = new HashMap<>();
-
-		return new Connection() {
-			private ByteBuffer readByteBuffer;
+	// Connections of a proxy client whose IDs fall in the same stripe, only used in the stripe executor
+	private static final class Stripe {
+		public final Executor executor;
+		public final CorrelationTable<Channel> connections = new CorrelationTable<>();
+		public Stripe(Executor executor) {
+			this.executor = executor;
+		}
+	}
 
-			private int readConnectionId = -1;
-			private int command = -1;
+	private NinioBuilder<Connecter> create(Address address, ProxyHeader header) {
+		if (listening instanceof HeaderListening) {
+			return ((HeaderListening) listening).create(address, header);
+		}
+		return listening.create(address, header.toString());
+	}
 
-			private int readIpLength = -1;
-			private byte[] readIp = null;
-			private int readPort = -1;
-			private int readLength = -1;
-			private int readHeaderLength = -1;
-			private String readHeader = null;
+	// Connection from a proxy client, all the work of one of its connections is done in the executor of its stripe
+	private final class Link {
+		private final Connected proxyConnector;
+		public final ProxyLinkWriter writer;
+		private final Stripe[] stripes;
+		private Address clientAddress = null;
+		private volatile ProxyMetrics.Counters client = metrics.client(null);
+		public volatile int window = 0; // Negotiated in HELLO, before any connection
 
-			private int readByte(int old, ByteBuffer receivedBuffer) {
-				if (old >= 0) {
-					return old;
-				}
-				if (!receivedBuffer.hasRemaining()) {
-					return -1;
-				}
-				return receivedBuffer.get() & 0xFF;
+		public final SendCallback sendCallback = new SendCallback() {
+			@Override
+			public void failed(IOException e) {
+				proxyConnector.close();
 			}
-			private byte[] readBytes(ByteBuffer receivedBuffer, int len) {
-				if (readByteBuffer == null) {
-					readByteBuffer = ByteBuffer.allocate(len);
-				}
-				int l = len - readByteBuffer.position();
-				if (l > receivedBuffer.remaining()) {
-					l = receivedBuffer.remaining();
-				}
-				System.arraycopy(receivedBuffer.array(), receivedBuffer.arrayOffset() + receivedBuffer.position(), readByteBuffer.array(), readByteBuffer.arrayOffset() + readByteBuffer.position(), l);
-				receivedBuffer.position(receivedBuffer.position() + l);
-				readByteBuffer.position(readByteBuffer.position() + l);
-				if (readByteBuffer.position() == readByteBuffer.capacity()) {
-					byte[] b = readByteBuffer.array();
-					readByteBuffer = null;
-					return b;
-				}
-				return null;
+			@Override
+			public void sent() {
 			}
-			private int readInt(int old, ByteBuffer receivedBuffer) {
-				if (old >= 0) {
-					return old;
-				}
-				byte[] r = readBytes(receivedBuffer, Ints.BYTES);
-				if (r == null) {
-					return -1;
-				}
-				return ByteBuffer.wrap(r).getInt();
+		};
+
+		public Link(Connected proxyConnector) {
+			this.proxyConnector = proxyConnector;
+			writer = new ProxyLinkWriter(proxyConnector, batchWindow);
+			stripes = new Stripe[executors.length];
+			// Clients do not all start on the same executor
+			int offset = nextLink.getAndIncrement() & Integer.MAX_VALUE;
+			for (int i = 0; i < stripes.length; i++) {
+				stripes[i] = new Stripe(executors[(offset + i) % executors.length]);
 			}
-			private String readString(String old, ByteBuffer receivedBuffer, int len) {
-				if (old != null) {
-					return old;
+		}
+
+		public void connected(Address address) {
+			clientAddress = address;
+			client = metrics.client(address);
+		}
+
+		public ProxyMetrics.Counters client() {
+			return client;
+		}
+
+		public Stripe stripe(int connectionId) {
+			return stripes[(connectionId & Integer.MAX_VALUE) % stripes.length];
+		}
+
+		// Sent when the forwarded bytes have been written, the client can then send more
+		public SendCallback credit(final Stripe stripe, final int connectionId, final Channel channel, final int length) {
+			return new SendCallback() {
+				@Override
+				public void sent() {
+					channel.metrics.toTarget(length);
+					stripe.executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							int credit = channel.flow.consumed(length);
+							if (credit == 0) {
+								return;
+							}
+							writer.send(null, ProxyCodec.credit(connectionId, credit), sendCallback);
+						}
+					});
 				}
-				byte[] r = readBytes(receivedBuffer, len);
-				if (r == null) {
-					return null;
+				@Override
+				public void failed(IOException e) {
+					channel.metrics.dropped(1L);
+					proxyConnector.close();
 				}
-				return new String(r, 0, r.length, Charsets.UTF_8);
+			};
+		}
+
+		private void remove(Channel channel) {
+			channel.metrics.dropped(channel.flow.clear());
+			if (!channel.closing) {
+				channel.metrics.closed();
+				channel.connecter.close();
 			}
-			private byte[] readBytes(byte[] old, ByteBuffer receivedBuffer, int len) {
-				if (old != null) {
-					return old;
-				}
-				return readBytes(receivedBuffer, len);
+		}
+
+		// Removed once drained
+		public void drained(Stripe stripe, int connectionId, Channel channel) {
+			if (channel.closing && (channel.flow.queued() == 0) && (stripe.connections.get(connectionId) == channel)) {
+				stripe.connections.remove(connectionId);
 			}
-			
-			@Override
-			public void received(Address receivedAddress, ByteBuffer receivedBuffer) {
-				while (true) {
-					command = readByte(command, receivedBuffer);
-					if (command < 0) {
-						return;
-					}
-	
-					readConnectionId = readInt(readConnectionId, receivedBuffer);
-					if (readConnectionId < 0) {
-						return;
-					}
-					
-					final SendCallback sendCallback = new SendCallback() {
-						@Override
-						public void failed(IOException e) {
-							proxyConnector.close();
-						}
-						@Override
-						public void sent() {
-						}
-					};
-					
-					final int connectionId = readConnectionId;
-					final Connection connection = new Connection() {
-						@Override
-						public void closed() {
-							proxyExecutor.execute(new Runnable() {
-								@Override
-								public void run() {
-									connections.remove(connectionId);
-								}
-							});
-	
-							ByteBuffer b = ByteBuffer.allocate(1 + Ints.BYTES);
-							b.put((byte) ProxyCommons.Commands.CLOSE);
-							b.putInt(connectionId);
-							b.flip();
-	
-							proxyConnector.send(null, b, sendCallback);
-						}
+		}
 
-						@Override
-						public void failed(IOException e) {
-							closed();
-						}
+		public void open(final Stripe stripe, final int connectionId, ProxyHeader header, Connecter externalConnector) {
+			final Channel channel = new Channel(new ProxyFlowControl(writer, window), new ProxyMetrics.Pair(client, metrics.type(header.type)));
+			channel.connecter = externalConnector;
+			channel.metrics.opened();
+			Channel previous = stripe.connections.put(connectionId, channel);
+			if (previous != null) {
+				remove(previous);
+			}
 
+			externalConnector.connect(new Connection() {
+				@Override
+				public void closed() {
+					stripe.executor.execute(new Runnable() {
 						@Override
-						public void received(Address receivedAddress, ByteBuffer receivedBuffer) {
-							if (receivedAddress == null) {
-								// LOGGER.debug("-->SEND_WITHOUT_ADDRESS [{} bytes]", receivedBuffer.remaining());
-								ByteBuffer b = ByteBuffer.allocate(1 + Ints.BYTES + Ints.BYTES + receivedBuffer.remaining());
-								b.put((byte) ProxyCommons.Commands.SEND_WITHOUT_ADDRESS);
-								b.putInt(connectionId);
-								b.putInt(receivedBuffer.remaining());
-								b.put(receivedBuffer);
-								b.flip();
-								proxyConnector.send(null, b, sendCallback);
-							} else {
-								// LOGGER.debug("-->SEND_WITH_ADDRESS {} [{} bytes]", receivedAddress, receivedBuffer.remaining());
-								ByteBuffer b = ByteBuffer.allocate(1 + Ints.BYTES + Ints.BYTES + receivedAddress.ip.length + Ints.BYTES + Ints.BYTES + receivedBuffer.remaining());
-								b.put((byte) ProxyCommons.Commands.SEND_WITH_ADDRESS);
-								b.putInt(connectionId);
-								b.putInt(receivedAddress.ip.length);
-								b.put(receivedAddress.ip);
-								b.putInt(receivedAddress.port);
-								b.putInt(receivedBuffer.remaining());
-								b.put(receivedBuffer);
-								b.flip();
-								proxyConnector.send(null, b, sendCallback);
+						public void run() {
+							if ((stripe.connections.get(connectionId) != channel) || channel.closing) {
+								return;
 							}
+							channel.closing = true;
+							channel.metrics.closed();
+
+							// After the data still waiting for credit, credits must still reach the channel until then
+							channel.flow.send(ProxyCodec.close(connectionId), null, sendCallback);
+							drained(stripe, connectionId, channel);
 						}
+					});
+				}
 
+				@Override
+				public void failed(IOException e) {
+					closed();
+				}
+
+				@Override
+				public void received(final Address receivedAddress, final ByteBuffer receivedBuffer) {
+					stripe.executor.execute(new Runnable() {
 						@Override
-						public void connected(Address address) {
-						}
-					};
-					
-					switch (command) {
-					case ProxyCommons.Commands.SEND_WITH_ADDRESS: {
-						readIpLength = readInt(readIpLength, receivedBuffer);
-						if (readIpLength < 0) {
-							return;
-						}
-						readIp = readBytes(readIp, receivedBuffer, readIpLength);
-						if (readIp == null) {
-							return;
-						}
-						readPort = readInt(readPort, receivedBuffer);
-						if (readPort < 0) {
-							return;
-						}
-						readLength = readInt(readLength, receivedBuffer);
-						if (readLength < 0) {
-							return;
+						public void run() {
+							channel.metrics.fromTarget(receivedBuffer.remaining());
+							channel.flow.data(connectionId, receivedAddress, receivedBuffer, sendCallback);
 						}
-						// LOGGER.debug("SEND_WITH_ADDRESS {}:{} [{} bytes]", Address.ipToString(readIp), readPort, readLength);
-						byte[] r = readBytes(receivedBuffer, readLength);
-						if (r == null) {
-							return;
-						}
-						final ByteBuffer b = ByteBuffer.wrap(r);
-						final Address a = new Address(readIp, readPort);
-						proxyExecutor.execute(new Runnable() {
+					});
+				}
+
+				@Override
+				public void connected(Address address) {
+				}
+			});
+		}
+
+		public void closed() {
+			writer.close();
+			for (final Stripe stripe : stripes) {
+				stripe.executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						stripe.connections.removeAll(new CorrelationTable.Visitor<Channel>() {
 							@Override
-							public void run() {
-								Connecter receivedInnerConnection = connections.get(connectionId);
-								if (receivedInnerConnection != null) {
-									receivedInnerConnection.send(a, b, sendCallback);
-								}
+							public void visit(int connectionId, Channel channel) {
+								remove(channel);
 							}
 						});
-						readConnectionId = -1;
-						command = -1;
-						readIpLength = -1;
-						readIp = null;
-						readPort = -1;
-						readLength = -1;
-						break;
 					}
-					case ProxyCommons.Commands.SEND_WITHOUT_ADDRESS: {
-						readLength = readInt(readLength, receivedBuffer);
-						if (readLength < 0) {
-							return;
-						}
-						// LOGGER.debug("SEND_WITHOUT_ADDRESS [{} bytes]", readLength);
-						byte[] r = readBytes(receivedBuffer, readLength);
-						if (r == null) {
-							return;
+				});
+			}
+			metrics.removeClient(clientAddress);
+		}
+	}
+
+	@Override
+	public Connection connecting(final Connected proxyConnector) {
+		final Link link = new Link(proxyConnector);
+
+		// Called in the receiving thread, payloads are views on the received buffers (not reused by the socket)
+		final ProxyCodec.Decoder decoder = new ProxyCodec.Decoder(new ProxyCodec.Handler() {
+			@Override
+			public void hello(int version, int options, int window) throws IOException {
+				if (version != ProxyCodec.VERSION) {
+					throw new IOException("Unsupported proxy version: " + version);
+				}
+				link.window = ProxyFlowControl.negotiate(ProxyFlowControl.DEFAULT_WINDOW, window);
+				// Compressed for a client that compresses
+				link.writer.hello((deflate || ((options & ProxyCodec.OPTION_DEFLATE) != 0)) ? ProxyCodec.OPTION_DEFLATE : 0, ProxyFlowControl.DEFAULT_WINDOW, link.sendCallback);
+			}
+
+			@Override
+			public void connect(final int connectionId, final Address address, final ProxyHeader header) {
+				final Stripe stripe = link.stripe(connectionId);
+				stripe.executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						NinioBuilder<Connecter> externalBuilder = create(address, header);
+						if (externalBuilder == null) {
+							LOGGER.error("Unknown header: {}", header);
+							new ProxyMetrics.Pair(link.client(), metrics.type(header.type)).dropped(1L);
+						} else {
+							link.open(stripe, connectionId, header, externalBuilder.create(ninioProvider));
 						}
-						final ByteBuffer b = ByteBuffer.wrap(r);
-						proxyExecutor.execute(new Runnable() {
-							@Override
-							public void run() {
-								Connecter receivedInnerConnection = connections.get(connectionId);
-								if (receivedInnerConnection != null) {
-									receivedInnerConnection.send(null, b, sendCallback);
-								}
-							}
-						});
-						readConnectionId = -1;
-						command = -1;
-						readLength = -1;
-						break;
 					}
-					case ProxyCommons.Commands.CLOSE: {
-						proxyExecutor.execute(new Runnable() {
-							@Override
-							public void run() {
-								Connecter receivedInnerConnection = connections.remove(connectionId);
-								if (receivedInnerConnection != null) {
-									receivedInnerConnection.close();
-								}
-							}
-						});
-						readConnectionId = -1;
-						command = -1;
-						break;
-					}
-					case ProxyCommons.Commands.CONNECT_WITH_ADDRESS: {
-						readIpLength = readInt(readIpLength, receivedBuffer);
-						if (readIpLength < 0) {
-							return;
-						}
-						readIp = readBytes(readIp, receivedBuffer, readIpLength);
-						if (readIp == null) {
-							return;
-						}
-						readPort = readInt(readPort, receivedBuffer);
-						if (readPort < 0) {
-							return;
-						}
-						readHeaderLength = readInt(readHeaderLength, receivedBuffer);
-						if (readHeaderLength < 0) {
-							return;
-						}
-						readHeader = readString(readHeader, receivedBuffer, readHeaderLength);
-						if (readHeader == null) {
+				});
+			}
+
+			@Override
+			public void data(final int connectionId, final Address address, final ByteBuffer payload) {
+				final Stripe stripe = link.stripe(connectionId);
+				stripe.executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						Channel receivedInnerConnection = stripe.connections.get(connectionId);
+						if ((receivedInnerConnection == null) || receivedInnerConnection.closing) {
+							ProxyMetrics.dropped(link.client());
 							return;
 						}
-						
-						final String header = readHeader;
-						final Address a = new Address(readIp, readPort);
-						proxyExecutor.execute(new Runnable() {
-							@Override
-							public void run() {
-								NinioBuilder<Connecter> externalBuilder = listening.create(a, header);
-								if (externalBuilder == null) {
-									LOGGER.error("Unknown header (CONNECT_WITH_ADDRESS): {}", header);
-								} else {
-									Connecter externalConnector = externalBuilder.create(ninioProvider);
-									externalConnector.connect(connection);
-									connections.put(connectionId, externalConnector);
-								}
-							}
-						});
-						
-						readConnectionId = -1;
-						command = -1;
-						readIpLength = -1;
-						readIp = null;
-						readPort = -1;
-						readLength = -1;
-						readHeaderLength = -1;
-						readHeader = null;
-						break;
+						receivedInnerConnection.connecter.send(address, payload, link.credit(stripe, connectionId, receivedInnerConnection, payload.remaining()));
 					}
-					case ProxyCommons.Commands.CONNECT_WITHOUT_ADDRESS: {
-						readHeaderLength = readInt(readHeaderLength, receivedBuffer);
-						if (readHeaderLength < 0) {
-							return;
-						}
-						readHeader = readString(readHeader, receivedBuffer, readHeaderLength);
-						if (readHeader == null) {
-							return;
+				});
+			}
+
+			@Override
+			public void credit(final int connectionId, final int increment) {
+				final Stripe stripe = link.stripe(connectionId);
+				stripe.executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						Channel receivedInnerConnection = stripe.connections.get(connectionId);
+						if (receivedInnerConnection != null) {
+							receivedInnerConnection.flow.credited(increment);
+							link.drained(stripe, connectionId, receivedInnerConnection);
 						}
-	
-						final String header = readHeader;
-						proxyExecutor.execute(new Runnable() {
-							@Override
-							public void run() {
-								NinioBuilder<Connecter> externalBuilder = listening.create(null, header);
-								if (externalBuilder == null) {
-									LOGGER.error("Unknown header (CONNECT_WITHOUT_ADDRESS): {}", header);
-								} else {
-									Connecter externalConnector = externalBuilder.create(ninioProvider);
-									externalConnector.connect(connection);
-									connections.put(connectionId, externalConnector);
-								}
-							}
-						});
-	
-						readConnectionId = -1;
-						command = -1;
-						readLength = -1;
-						readHeaderLength = -1;
-						readHeader = null;
-						break;
 					}
+				});
+			}
+
+			@Override
+			public void close(final int connectionId) {
+				final Stripe stripe = link.stripe(connectionId);
+				stripe.executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						Channel receivedInnerConnection = stripe.connections.remove(connectionId);
+						if (receivedInnerConnection != null) {
+							link.remove(receivedInnerConnection);
+						}
 					}
+				});
+			}
+		});
+
+		return new Connection() {
+			private boolean invalid = false;
+
+			@Override
+			public void received(Address receivedAddress, ByteBuffer receivedBuffer) {
+				if (invalid) {
+					return;
+				}
+				try {
+					decoder.received(receivedBuffer);
+				} catch (IOException e) {
+					LOGGER.error("Invalid data from proxy client", e);
+					invalid = true;
+					proxyConnector.close();
 				}
 			}
 			
 			@Override
 			public void failed(IOException e) {
-				closedRegisteredConnections(connections, new IOException("Connection to proxy lost", e));
+				decoder.close();
+				link.closed();
 			}
 			
 			@Override
 			public void closed() {
-				closedRegisteredConnections(connections, new IOException("Connection to proxy lost"));
+				decoder.close();
+				link.closed();
 			}
 			
 			@Override
 			public void connected(Address address) {
+				link.connected(address);
 			}
 		};
 	}
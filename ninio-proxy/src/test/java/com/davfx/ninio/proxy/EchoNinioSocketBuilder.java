@@ -29,6 +29,7 @@ public final class EchoNinioSocketBuilder implements NinioBuilder<Connecter> {
 			@Override
 			public void send(Address address, ByteBuffer buffer, SendCallback callback) {
 				String s = new String(buffer.array(), buffer.position(), buffer.remaining(), Charsets.UTF_8);
+				callback.sent();
 				connection.received(address, ByteBuffer.wrap(("ECHO " + s).getBytes(Charsets.UTF_8)));
 			}
 		};
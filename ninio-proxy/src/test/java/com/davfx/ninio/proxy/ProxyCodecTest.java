@@ -0,0 +1,259 @@
+package com.davfx.ninio.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.davfx.ninio.core.Address;
+import com.davfx.ninio.core.Nop;
+import com.davfx.ninio.core.SendCallback;
+import com.davfx.ninio.core.Sender;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+
+public class ProxyCodecTest {
+
+	private static final class Recorder implements ProxyCodec.Handler {
+		public final List<String> events = new ArrayList<>();
+		public final List<ByteBuffer> payloads = new ArrayList<>();
+
+		@Override
+		public void hello(int version, int options, int window) {
+			events.add("hello " + version + " " + options + " " + window);
+		}
+		@Override
+		public void connect(int connectionId, Address address, ProxyHeader header) {
+			events.add("connect " + connectionId + " " + address + " " + header);
+		}
+		@Override
+		public void data(int connectionId, Address address, ByteBuffer payload) {
+			payloads.add(payload);
+			events.add("data " + connectionId + " " + address + " " + new String(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining(), Charsets.UTF_8));
+		}
+		@Override
+		public void close(int connectionId) {
+			events.add("close " + connectionId);
+		}
+		@Override
+		public void credit(int connectionId, int increment) {
+			events.add("credit " + connectionId + " " + increment);
+		}
+	}
+
+	private static byte[] stream() {
+		Address address = new Address(new byte[] { 10, 0, 0, 1 }, 8080);
+		byte[] payload = "hello".getBytes(Charsets.UTF_8);
+		ByteBuffer b = ByteBuffer.allocate(1024);
+		b.put(ProxyCodec.hello(0, 256 * 1024));
+		b.put(ProxyCodec.connect(300, address, new ProxyHeader("_tcp", ImmutableMap.of("k", "v w"))));
+		b.put(ProxyCodec.dataHead(300, null, payload.length));
+		b.put(payload);
+		b.put(ProxyCodec.dataHead(300, address, payload.length));
+		b.put(payload);
+		b.put(ProxyCodec.credit(300, 65536));
+		b.put(ProxyCodec.close(300));
+		b.flip();
+		byte[] bytes = new byte[b.remaining()];
+		b.get(bytes);
+		return bytes;
+	}
+
+	private static final List<String> EXPECTED = new ArrayList<String>() {
+		private static final long serialVersionUID = 1L;
+		{
+			add("hello " + ProxyCodec.VERSION + " 0 " + (256 * 1024));
+			add("connect 300 10.0.0.1:8080 " + new ProxyHeader("_tcp", ImmutableMap.of("k", "v w")));
+			add("data 300 null hello");
+			add("data 300 10.0.0.1:8080 hello");
+			add("credit 300 65536");
+			add("close 300");
+		}
+	};
+
+	@Test
+	public void testInPlace() throws Exception {
+		byte[] bytes = stream();
+		Recorder recorder = new Recorder();
+		new ProxyCodec.Decoder(recorder).received(ByteBuffer.wrap(bytes));
+		Assertions.assertThat(recorder.events).isEqualTo(EXPECTED);
+		// Not copied
+		for (ByteBuffer p : recorder.payloads) {
+			Assertions.assertThat(p.array()).isSameAs(bytes);
+		}
+	}
+
+	@Test
+	public void testSplit() throws Exception {
+		byte[] bytes = stream();
+		Recorder recorder = new Recorder();
+		ProxyCodec.Decoder decoder = new ProxyCodec.Decoder(recorder);
+		for (byte b : bytes) {
+			decoder.received(ByteBuffer.wrap(new byte[] { b }));
+		}
+		Assertions.assertThat(recorder.events).isEqualTo(EXPECTED);
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotAProxyLink() throws Exception {
+		new ProxyCodec.Decoder(new Recorder()).received(ByteBuffer.wrap("GET / HTTP/1.1\r\nHost: localhost\r\nAccept: */*\r\nUser-Agent: ninio\r\nConnection: close\r\n\r\n".getBytes(Charsets.UTF_8)));
+	}
+
+	@Test
+	public void testDirect() throws Exception {
+		byte[] bytes = stream();
+		ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+		direct.put(bytes);
+		direct.flip();
+		Recorder recorder = new Recorder();
+		new ProxyCodec.Decoder(recorder).received(direct);
+		Assertions.assertThat(recorder.events).isEqualTo(EXPECTED);
+	}
+
+	@Test(expected = IOException.class)
+	public void testFrameTooLong() throws Exception {
+		ByteBuffer b = ByteBuffer.allocate(64);
+		b.put(ProxyCodec.hello(0, 0));
+		b.put(ProxyCodec.dataHead(1, null, ProxyCodec.MAX_FRAME_LENGTH)); // Nothing is allocated
+		b.flip();
+		new ProxyCodec.Decoder(new Recorder()).received(b);
+	}
+
+	@Test
+	public void testLongPayloadSplit() throws Exception {
+		final List<ByteBuffer> written = new ArrayList<>();
+		ProxyFlowControl flow = new ProxyFlowControl(new Sender() {
+			@Override
+			public void send(Address address, ByteBuffer buffer, SendCallback callback) {
+				written.add(buffer);
+				callback.sent();
+			}
+		}, 0);
+		int length = (2 * ProxyCodec.MAX_FRAME_LENGTH) + 10;
+		final AtomicInteger sent = new AtomicInteger(0);
+		flow.data(1, null, ByteBuffer.allocate(length), new SendCallback() {
+			@Override
+			public void sent() {
+				sent.incrementAndGet();
+			}
+			@Override
+			public void failed(IOException e) {
+			}
+		});
+		Assertions.assertThat(sent.get()).isEqualTo(1);
+
+		Recorder recorder = new Recorder();
+		ProxyCodec.Decoder decoder = new ProxyCodec.Decoder(recorder);
+		decoder.received(ProxyCodec.hello(0, 0));
+		for (ByteBuffer b : written) {
+			decoder.received(b);
+		}
+		Assertions.assertThat(recorder.payloads).hasSize(3);
+		int received = 0;
+		for (ByteBuffer p : recorder.payloads) {
+			received += p.remaining();
+		}
+		Assertions.assertThat(received).isEqualTo(length);
+	}
+
+	@Test
+	public void testDeflatedAndBatched() throws Exception {
+		final List<ByteBuffer> written = new ArrayList<>();
+		ProxyLinkWriter writer = new ProxyLinkWriter(new Sender() {
+			@Override
+			public void send(Address address, ByteBuffer buffer, SendCallback callback) {
+				synchronized (written) {
+					written.add(buffer);
+				}
+				callback.sent();
+			}
+		}, 0.05d);
+
+		final AtomicInteger sent = new AtomicInteger(0);
+		SendCallback counting = new SendCallback() {
+			@Override
+			public void sent() {
+				sent.incrementAndGet();
+			}
+			@Override
+			public void failed(IOException e) {
+			}
+		};
+
+		Address address = new Address(new byte[] { 10, 0, 0, 1 }, 161);
+		byte[] payload = "hello".getBytes(Charsets.UTF_8);
+		writer.hello(ProxyCodec.OPTION_DEFLATE, 0, new Nop());
+		for (int i = 0; i < 10; i++) {
+			writer.send(null, ProxyCodec.dataHead(i, address, payload.length), counting);
+			writer.send(null, ByteBuffer.wrap(payload), counting);
+		}
+		Thread.sleep(200L);
+		writer.close();
+
+		// HELLO, then all the small frames deflated at once
+		Assertions.assertThat(written).hasSize(2);
+		Assertions.assertThat(sent.get()).isEqualTo(20);
+
+		// In two parts, payloads are kept after the inflated chunk is reused
+		Recorder whole = new Recorder();
+		ProxyCodec.Decoder wholeDecoder = new ProxyCodec.Decoder(whole);
+		wholeDecoder.received(written.get(0).duplicate());
+		ByteBuffer deflated = written.get(1).duplicate();
+		int half = deflated.position() + (deflated.remaining() / 2);
+		ByteBuffer first = deflated.duplicate();
+		first.limit(half);
+		wholeDecoder.received(first);
+		deflated.position(half);
+		wholeDecoder.received(deflated);
+		wholeDecoder.close();
+		Assertions.assertThat(whole.payloads).hasSize(10);
+		for (ByteBuffer p : whole.payloads) {
+			Assertions.assertThat(new String(p.array(), p.arrayOffset() + p.position(), p.remaining(), Charsets.UTF_8)).isEqualTo("hello");
+		}
+
+		Recorder recorder = new Recorder();
+		ProxyCodec.Decoder decoder = new ProxyCodec.Decoder(recorder);
+		for (ByteBuffer b : written) {
+			while (b.hasRemaining()) {
+				decoder.received(ByteBuffer.wrap(new byte[] { b.get() }));
+			}
+		}
+		decoder.close();
+
+		Assertions.assertThat(recorder.events).hasSize(11);
+		Assertions.assertThat(recorder.events.get(0)).isEqualTo("hello " + ProxyCodec.VERSION + " " + ProxyCodec.OPTION_DEFLATE + " 0");
+		Assertions.assertThat(recorder.events.get(10)).isEqualTo("data 9 10.0.0.1:161 hello");
+	}
+
+	@Test
+	public void testWindowNegotiated() throws Exception {
+		Assertions.assertThat(ProxyFlowControl.negotiate(1024, 256)).isEqualTo(256);
+		Assertions.assertThat(ProxyFlowControl.negotiate(1024, 0)).isEqualTo(0);
+		Assertions.assertThat(ProxyFlowControl.negotiate(0, 1024)).isEqualTo(0);
+
+		final List<ByteBuffer> written = new ArrayList<>();
+		ProxyFlowControl flow = new ProxyFlowControl(new Sender() {
+			@Override
+			public void send(Address address, ByteBuffer buffer, SendCallback callback) {
+				written.add(buffer);
+				callback.sent();
+			}
+		}, 1024);
+		for (int i = 0; i < 4; i++) {
+			flow.send(ProxyCodec.dataHead(1, null, 512), ByteBuffer.allocate(512), new Nop());
+		}
+		// Head and payload of the first two frames
+		Assertions.assertThat(written).hasSize(4);
+		Assertions.assertThat(flow.queued()).isEqualTo(2);
+
+		// The other side does not control the flow
+		flow.window(0);
+		Assertions.assertThat(written).hasSize(8);
+		Assertions.assertThat(flow.queued()).isEqualTo(0);
+		Assertions.assertThat(flow.consumed(4096)).isEqualTo(0);
+	}
+}
@@ -0,0 +1,256 @@
+package com.davfx.ninio.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.davfx.ninio.core.Address;
+import com.davfx.ninio.core.Connecter;
+import com.davfx.ninio.core.Connection;
+import com.davfx.ninio.core.Disconnectable;
+import com.davfx.ninio.core.Ninio;
+import com.davfx.ninio.core.NinioBuilder;
+import com.davfx.ninio.core.NinioProvider;
+import com.davfx.ninio.core.Nop;
+import com.davfx.ninio.core.SendCallback;
+import com.davfx.ninio.core.TcpSocket;
+import com.davfx.ninio.util.Lock;
+import com.davfx.ninio.util.Wait;
+
+public class ProxyPoolTest {
+
+	@Test
+	public void testCreditsOverPool() throws Exception {
+		test(8082, ProxyClient.builder().connections(3).with(ProxyClient.Assignment.LEAST_LOADED));
+	}
+
+	@Test
+	public void testDeflatedAndBatched() throws Exception {
+		test(8083, ProxyClient.builder().connections(2).deflate(true).batch(0.0005d));
+	}
+
+	@Test(timeout = 30000L)
+	public void testClosedWhileWaitingForCredit() throws Exception {
+		int proxyPort = 8086;
+		final int chunks = 16;
+		final int size = 64 * 1024; // Several times the flow control window
+
+		try (Ninio ninio = Ninio.create()) {
+			final Wait serverWaitServerConnecting = new Wait();
+			try (Disconnectable proxyServer = ninio.create(ProxyServer.defaultServer(new Address(Address.ANY, proxyPort), new ProxyListening() {
+				@Override
+				public void closed() {
+				}
+				@Override
+				public void connected(Address address) {
+					serverWaitServerConnecting.run();
+				}
+				@Override
+				public void failed(IOException e) {
+				}
+				@Override
+				public NinioBuilder<Connecter> create(Address address, String header) {
+					if (!header.equals("_")) {
+						return null;
+					}
+					// Sends everything and closes at once
+					return new NinioBuilder<Connecter>() {
+						@Override
+						public Connecter create(NinioProvider ninioProvider) {
+							return new Connecter() {
+								@Override
+								public void connect(Connection callback) {
+									for (int i = 0; i < chunks; i++) {
+										callback.received(null, ByteBuffer.wrap(new byte[size]));
+									}
+									callback.closed();
+								}
+								@Override
+								public void send(Address address, ByteBuffer buffer, SendCallback callback) {
+									callback.sent();
+								}
+								@Override
+								public void close() {
+								}
+							};
+						}
+					};
+				}
+			}))) {
+				serverWaitServerConnecting.waitFor();
+
+				try (ProxyClient proxyClient = ninio.create(ProxyClient.builder().with(TcpSocket.builder().to(new Address(Address.LOCALHOST, proxyPort))))) {
+					final Lock<Long, IOException> lock = new Lock<>();
+					try (Connecter client = ninio.create(proxyClient.factory().header(new ProxyHeader("_")))) {
+						client.connect(new Connection() {
+							private long received = 0L;
+							@Override
+							public void connected(Address address) {
+							}
+							@Override
+							public void received(Address address, ByteBuffer buffer) {
+								received += buffer.remaining();
+							}
+							@Override
+							public void closed() {
+								lock.set(received);
+							}
+							@Override
+							public void failed(IOException e) {
+								lock.fail(e);
+							}
+						});
+						Assertions.assertThat(lock.waitFor()).isEqualTo(((long) chunks) * size);
+					}
+				}
+			}
+		}
+	}
+
+	@Test(timeout = 30000L)
+	public void testClosedByClient() throws Exception {
+		int proxyPort = 8087;
+		int connections = 50;
+
+		try (Ninio ninio = Ninio.create()) {
+			final Wait serverWaitServerConnecting = new Wait();
+			try (Disconnectable proxyServer = ninio.create(ProxyServer.defaultServer(new Address(Address.ANY, proxyPort), new ProxyListening() {
+				@Override
+				public void closed() {
+				}
+				@Override
+				public void connected(Address address) {
+					serverWaitServerConnecting.run();
+				}
+				@Override
+				public void failed(IOException e) {
+				}
+				@Override
+				public NinioBuilder<Connecter> create(Address address, String header) {
+					return header.equals("_") ? new EchoNinioSocketBuilder() : null;
+				}
+			}))) {
+				serverWaitServerConnecting.waitFor();
+
+				try (ProxyClient proxyClient = ninio.create(ProxyClient.builder().connections(2).with(ProxyClient.Assignment.LEAST_LOADED).with(TcpSocket.builder().to(new Address(Address.LOCALHOST, proxyPort))))) {
+					for (int i = 0; i < connections; i++) {
+						final Lock<Boolean, IOException> lock = new Lock<>();
+						Connecter client = ninio.create(proxyClient.factory().header(new ProxyHeader("_")));
+						client.connect(new Connection() {
+							@Override
+							public void connected(Address address) {
+							}
+							@Override
+							public void received(Address address, ByteBuffer buffer) {
+								lock.set(true);
+							}
+							@Override
+							public void closed() {
+							}
+							@Override
+							public void failed(IOException e) {
+								lock.fail(e);
+							}
+						});
+						client.send(null, ByteBuffer.wrap(new byte[] { 1 }), new Nop());
+						Assertions.assertThat(lock.waitFor()).isTrue();
+						client.close();
+					}
+
+					// Not waiting for the server to answer the CLOSE
+					Assertions.assertThat(proxyClient.connections()).isEqualTo(0);
+				}
+			}
+		}
+	}
+
+	private static void test(int proxyPort, ProxyClient.Builder proxyClientBuilder) throws Exception {
+		int connections = 6;
+		int messages = 200;
+		int size = 4 * 1024; // Each connection sends (and gets back) several times the flow control window
+
+		ProxyMetrics metrics = new ProxyMetrics();
+		try (Ninio ninio = Ninio.create()) {
+			final Wait serverWaitServerConnecting = new Wait();
+			try (Disconnectable proxyServer = ninio.create(ProxyServer.defaultServer(new Address(Address.ANY, proxyPort), new ProxyListening() {
+				@Override
+				public void closed() {
+				}
+				@Override
+				public void connected(Address address) {
+					serverWaitServerConnecting.run();
+				}
+				@Override
+				public void failed(IOException e) {
+				}
+				@Override
+				public NinioBuilder<Connecter> create(Address address, String header) {
+					return header.equals("_") ? new EchoNinioSocketBuilder() : null;
+				}
+			}, metrics))) {
+				serverWaitServerConnecting.waitFor();
+
+				try (ProxyClient proxyClient = ninio.create(proxyClientBuilder.with(TcpSocket.builder().to(new Address(Address.LOCALHOST, proxyPort))))) {
+					final CountDownLatch done = new CountDownLatch(connections);
+					final AtomicLong failures = new AtomicLong(0L);
+					List<Connecter> clients = new ArrayList<>();
+					for (int i = 0; i < connections; i++) {
+						Connecter client = ninio.create(proxyClient.factory().header(new ProxyHeader("_")));
+						clients.add(client);
+						final long expected = ((long) messages) * ("ECHO ".length() + size);
+						client.connect(new Connection() {
+							private long received = 0L;
+							@Override
+							public void connected(Address address) {
+							}
+							@Override
+							public void received(Address address, ByteBuffer buffer) {
+								received += buffer.remaining();
+								if (received == expected) {
+									done.countDown();
+								}
+							}
+							@Override
+							public void closed() {
+							}
+							@Override
+							public void failed(IOException e) {
+								failures.incrementAndGet();
+							}
+						});
+					}
+					for (int j = 0; j < messages; j++) {
+						for (Connecter client : clients) {
+							client.send(null, ByteBuffer.wrap(new byte[size]), new Nop());
+						}
+					}
+
+					Assertions.assertThat(done.await(30, TimeUnit.SECONDS)).isTrue();
+					Assertions.assertThat(failures.get()).isEqualTo(0L);
+
+					ProxyMetrics.Counters echo = metrics.types().get("_");
+					Assertions.assertThat(echo.connections()).isEqualTo(connections);
+					Assertions.assertThat(echo.bytesToTargets()).isEqualTo(((long) connections) * messages * size);
+					Assertions.assertThat(echo.bytesFromTargets()).isEqualTo(((long) connections) * messages * ("ECHO ".length() + size));
+					Assertions.assertThat(echo.drops()).isEqualTo(0L);
+					long clientConnections = 0L;
+					for (ProxyMetrics.Counters c : metrics.clients().values()) {
+						clientConnections += c.connections();
+					}
+					Assertions.assertThat(clientConnections).isEqualTo(connections);
+
+					for (Connecter client : clients) {
+						client.close();
+					}
+				}
+			}
+		}
+	}
+}
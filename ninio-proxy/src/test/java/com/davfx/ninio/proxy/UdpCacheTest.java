@@ -0,0 +1,138 @@
+package com.davfx.ninio.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.davfx.ninio.core.Address;
+import com.davfx.ninio.core.Connecter;
+import com.davfx.ninio.core.Connection;
+import com.davfx.ninio.core.Disconnectable;
+import com.davfx.ninio.core.InMemoryCache;
+import com.davfx.ninio.core.Ninio;
+import com.davfx.ninio.core.NinioBuilder;
+import com.davfx.ninio.core.Nop;
+import com.davfx.ninio.core.UdpSocket;
+import com.davfx.ninio.util.Lock;
+import com.davfx.ninio.util.Wait;
+import com.google.common.base.Charsets;
+
+public class UdpCacheTest {
+
+	// Packet: request id (int), key
+	private static final class TestInterpreter implements InMemoryCache.Interpreter<Integer> {
+		@Override
+		public InMemoryCache.Context<Integer> handleRequest(ByteBuffer packet) {
+			int id = packet.getInt();
+			return new InMemoryCache.Context<Integer>(new String(packet.array(), packet.arrayOffset() + packet.position(), packet.remaining(), Charsets.UTF_8), id);
+		}
+		@Override
+		public Integer handleResponse(ByteBuffer packet) {
+			return packet.getInt();
+		}
+		@Override
+		public ByteBuffer transform(ByteBuffer packet, Integer sub) {
+			ByteBuffer b = ByteBuffer.allocate(packet.remaining());
+			b.put(packet);
+			b.putInt(0, sub);
+			b.flip();
+			return b;
+		}
+	}
+
+	private static ByteBuffer packet(int id, String key) {
+		byte[] k = key.getBytes(Charsets.UTF_8);
+		ByteBuffer b = ByteBuffer.allocate(4 + k.length);
+		b.putInt(id);
+		b.put(k);
+		b.flip();
+		return b;
+	}
+
+	private static int poll(Ninio ninio, int proxyPort, Address device, int id) throws IOException {
+		final Lock<Integer, IOException> lock = new Lock<>();
+		try (ProxyProvider proxyClient = ninio.create(ProxyClient.defaultClient(new Address(Address.LOCALHOST, proxyPort)));
+				Connecter client = ninio.create(proxyClient.udp())) {
+			client.connect(new Connection() {
+				@Override
+				public void received(Address address, ByteBuffer buffer) {
+					lock.set(buffer.getInt());
+				}
+				@Override
+				public void connected(Address address) {
+				}
+				@Override
+				public void closed() {
+				}
+				@Override
+				public void failed(IOException e) {
+					lock.fail(e);
+				}
+			});
+			client.send(device, packet(id, "sysUpTime"), new Nop());
+			return lock.waitFor();
+		}
+	}
+
+	@Test
+	public void testSharedAcrossProxyClients() throws Exception {
+		int port = 8084;
+		int proxyPort = 8085;
+		final AtomicInteger requests = new AtomicInteger(0);
+
+		try (Ninio ninio = Ninio.create()) {
+			final Wait deviceWaitConnecting = new Wait();
+			try (final Connecter device = ninio.create(UdpSocket.builder().bind(new Address(Address.ANY, port)))) {
+				device.connect(new Connection() {
+					@Override
+					public void received(Address address, ByteBuffer buffer) {
+						requests.incrementAndGet();
+						device.send(address, buffer, new Nop());
+					}
+					@Override
+					public void connected(Address address) {
+						deviceWaitConnecting.run();
+					}
+					@Override
+					public void closed() {
+					}
+					@Override
+					public void failed(IOException e) {
+					}
+				});
+				deviceWaitConnecting.waitFor();
+
+				final Wait serverWaitServerConnecting = new Wait();
+				NinioBuilder<Connecter> udp = InMemoryCache.<Integer>builder().dataExpiration(10d).requestExpiration(10d).using(new TestInterpreter()).shared(true).passThrough(true);
+				try (Disconnectable proxyServer = ninio.create(ProxyServer.defaultServer(new Address(Address.ANY, proxyPort), new ProxyListening() {
+					@Override
+					public void closed() {
+					}
+					@Override
+					public void connected(Address address) {
+						serverWaitServerConnecting.run();
+					}
+					@Override
+					public void failed(IOException e) {
+					}
+					@Override
+					public NinioBuilder<Connecter> create(Address address, String header) {
+						return null;
+					}
+				}, null, udp))) {
+					serverWaitServerConnecting.waitFor();
+
+					Address deviceAddress = new Address(Address.LOCALHOST, port);
+					// Each poll from its own proxy client, with the same request ID
+					Assertions.assertThat(poll(ninio, proxyPort, deviceAddress, 7)).isEqualTo(7);
+					Assertions.assertThat(poll(ninio, proxyPort, deviceAddress, 7)).isEqualTo(7);
+					Assertions.assertThat(poll(ninio, proxyPort, deviceAddress, 8)).isEqualTo(8);
+					Assertions.assertThat(requests.get()).isEqualTo(1);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.davfx.ninio.snmp;
+
+import com.davfx.ninio.core.Address;
+import com.davfx.ninio.snmp.dependencies.Dependencies;
+import com.davfx.ninio.util.ConfigUtils;
+import com.davfx.ninio.util.DateUtils;
+import com.davfx.ninio.util.MemoryCache;
+import com.typesafe.config.Config;
+
+// Engine ID, boot count and time of the remote engines (RFC 3414), shared by all the clients of the process so that engines are discovered once
+final class AuthEngines {
+
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(AuthEngines.class.getPackage().getName());
+	private static final double CACHE_DURATION = ConfigUtils.getDuration(CONFIG, "auth.engines.cache");
+	private static final double RESYNC_DURATION = ConfigUtils.getDuration(CONFIG, "auth.engines.resync");
+
+	private static final class Engine {
+		public final byte[] id;
+		public final int bootCount;
+		public final int time;
+		public final double at; // When time was received
+		public Engine(byte[] id, int bootCount, int time, double at) {
+			this.id = id;
+			this.bootCount = bootCount;
+			this.time = time;
+			this.at = at;
+		}
+	}
+
+	private static final MemoryCache<Address, Engine> ENGINES = MemoryCache.<Address, Engine> builder().expireAfterWrite(CACHE_DURATION).build();
+
+	private AuthEngines() {
+	}
+
+	private static Engine get(Address address) {
+		synchronized (ENGINES) {
+			return ENGINES.get(address);
+		}
+	}
+
+	// Called when a packet has been received from a synced engine
+	public static void update(Address address, AuthRemoteEngine engine) {
+		Engine e = new Engine(engine.getId(), engine.getBootCount(), engine.getTime(), DateUtils.now());
+		synchronized (ENGINES) {
+			ENGINES.put(address, e);
+		}
+	}
+
+	public static void remove(Address address) {
+		synchronized (ENGINES) {
+			ENGINES.remove(address);
+		}
+	}
+
+	// The engine time is extrapolated from the last received one, returns false if the engine has to be discovered
+	public static boolean restore(Address address, AuthRemoteEngine engine) {
+		Engine e = get(address);
+		if (e == null) {
+			return false;
+		}
+		engine.setId(e.id);
+		engine.setBootCount(e.bootCount);
+		engine.resetTime(e.time + ((int) (DateUtils.now() - e.at)));
+		return true;
+	}
+
+	// Nothing received (or resync requested) for a while, the time window (150 seconds) may be missed because of clock drift
+	public static boolean shouldResync(Address address, double resyncedAt) {
+		Engine e = get(address);
+		return (e != null) && ((DateUtils.now() - Math.max(e.at, resyncedAt)) > RESYNC_DURATION);
+	}
+}
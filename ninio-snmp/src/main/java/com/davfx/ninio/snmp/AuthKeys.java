@@ -0,0 +1,169 @@
+package com.davfx.ninio.snmp;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+import com.davfx.ninio.snmp.dependencies.Dependencies;
+import com.davfx.ninio.util.ConfigUtils;
+import com.davfx.ninio.util.MemoryCache;
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import com.typesafe.config.Config;
+
+// Localized keys (RFC 3414) and precomputed HMAC states, shared by all the engines with the same credentials
+final class AuthKeys {
+
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(AuthKeys.class.getPackage().getName());
+	private static final double CACHE_DURATION = ConfigUtils.getDuration(CONFIG, "auth.keys");
+
+	private static final int PASSWORD_TO_KEY_LENGTH = 1024 * 1024;
+	private static final int HMAC_BLOCK_LENGTH = 64;
+	private static final int HMAC_LENGTH = 12;
+
+	// Password to key is the expensive part (1 MiB digested), it does not depend on the engine
+	private static final MemoryCache<List<String>, byte[]> PASSWORD_KEYS = MemoryCache.<List<String>, byte[]> builder().expireAfterAccess(CACHE_DURATION).build();
+	private static final MemoryCache<List<String>, AuthKeys> LOCALIZED_KEYS = MemoryCache.<List<String>, AuthKeys> builder().expireAfterAccess(CACHE_DURATION).build();
+
+	public static AuthKeys get(AuthRemoteSpecification authRemoteSpecification, byte[] engineId) {
+		List<String> k = Arrays.asList(authRemoteSpecification.authDigestAlgorithm, authRemoteSpecification.authPassword, authRemoteSpecification.privPassword, BaseEncoding.base16().encode(engineId));
+		AuthKeys keys;
+		synchronized (LOCALIZED_KEYS) {
+			keys = LOCALIZED_KEYS.get(k);
+		}
+		if (keys == null) {
+			// Computed outside the lock, concurrent computations of the same keys are harmless
+			keys = new AuthKeys(authRemoteSpecification.authDigestAlgorithm, authRemoteSpecification.authPassword, authRemoteSpecification.privPassword, engineId);
+			synchronized (LOCALIZED_KEYS) {
+				LOCALIZED_KEYS.put(k, keys);
+			}
+		}
+		return keys;
+	}
+
+	private static MessageDigest messageDigest(String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static byte[] passwordToKey(String algorithm, String password) {
+		List<String> k = Arrays.asList(algorithm, password);
+		byte[] key;
+		synchronized (PASSWORD_KEYS) {
+			key = PASSWORD_KEYS.get(k);
+		}
+		if (key != null) {
+			return key;
+		}
+
+		MessageDigest messageDigest = messageDigest(algorithm);
+		byte[] passwordBytes = password.getBytes(Charsets.UTF_8);
+		byte[] b = new byte[HMAC_BLOCK_LENGTH];
+		int passwordIndex = 0;
+		for (int count = 0; count < PASSWORD_TO_KEY_LENGTH; count += b.length) {
+			for (int i = 0; i < b.length; i++) {
+				// Take the next octet of the password, wrapping to the beginning of the password as necessary
+				b[i] = passwordBytes[passwordIndex];
+				passwordIndex++;
+				if (passwordIndex == passwordBytes.length) {
+					passwordIndex = 0;
+				}
+			}
+			messageDigest.update(b);
+		}
+		key = messageDigest.digest();
+
+		synchronized (PASSWORD_KEYS) {
+			PASSWORD_KEYS.put(k, key);
+		}
+		return key;
+	}
+
+	static byte[] localize(String algorithm, byte[] key, byte[] engineId) {
+		MessageDigest messageDigest = messageDigest(algorithm);
+		messageDigest.update(key);
+		messageDigest.update(engineId);
+		messageDigest.update(key);
+		return messageDigest.digest();
+	}
+
+	private final String algorithm;
+	public final byte[] authKey;
+	public final byte[] privKey;
+
+	private final byte[] innerPad = new byte[HMAC_BLOCK_LENGTH];
+	private final byte[] outerPad = new byte[HMAC_BLOCK_LENGTH];
+	// Never updated, only cloned
+	private final MessageDigest inner;
+	private final MessageDigest outer;
+
+	private AuthKeys(String algorithm, String authPassword, String privPassword, byte[] engineId) {
+		this.algorithm = algorithm;
+		authKey = localize(algorithm, passwordToKey(algorithm, authPassword), engineId);
+		privKey = (privPassword == null) ? null : localize(algorithm, passwordToKey(algorithm, privPassword), engineId);
+
+		/*
+		 * the HMAC_MD transform looks like:
+		 *
+		 * MD(K XOR opad, MD(K XOR ipad, msg))
+		 *
+		 * where K is an n byte key ipad is the byte 0x36 repeated 64 times opad
+		 * is the byte 0x5c repeated 64 times and text is the data being
+		 * protected
+		 */
+		for (int i = 0; i < authKey.length; ++i) {
+			innerPad[i] = (byte) (authKey[i] ^ 0x36);
+			outerPad[i] = (byte) (authKey[i] ^ 0x5c);
+		}
+		for (int i = authKey.length; i < HMAC_BLOCK_LENGTH; ++i) {
+			innerPad[i] = 0x36;
+			outerPad[i] = 0x5c;
+		}
+
+		MessageDigest i = messageDigest(algorithm);
+		i.update(innerPad);
+		MessageDigest o = messageDigest(algorithm);
+		o.update(outerPad);
+		try {
+			i.clone();
+		} catch (CloneNotSupportedException e) {
+			// Pads are digested again for every message
+			i = null;
+			o = null;
+		}
+		inner = i;
+		outer = o;
+	}
+
+	private MessageDigest start(MessageDigest prototype, byte[] pad) {
+		if (prototype != null) {
+			try {
+				return (MessageDigest) prototype.clone();
+			} catch (CloneNotSupportedException e) {
+			}
+		}
+		MessageDigest messageDigest = messageDigest(algorithm);
+		messageDigest.update(pad);
+		return messageDigest;
+	}
+
+	// Truncated HMAC (12 bytes) of the message, the message buffer position is not modified
+	public byte[] hmac(ByteBuffer message) {
+		MessageDigest i = start(inner, innerPad);
+		i.update(message.duplicate());
+		byte[] innerDigest = i.digest();
+
+		MessageDigest o = start(outer, outerPad);
+		o.update(innerDigest);
+		byte[] digest = o.digest();
+
+		byte[] k = new byte[HMAC_LENGTH];
+		System.arraycopy(digest, 0, k, 0, k.length);
+		return k;
+	}
+}
@@ -5,6 +5,7 @@ import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
@@ -14,7 +15,6 @@ import javax.crypto.spec.SecretKeySpec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Charsets;
 import com.google.common.io.BaseEncoding;
 
 public final class AuthRemoteEngine {
@@ -27,7 +27,7 @@ public final class AuthRemoteEngine {
 	private byte[] id = null;
 
 	public final AuthRemoteSpecification authRemoteSpecification;
-	private final MessageDigest messageDigest;
+	private AuthKeys keys = null;
 	
 	private int packetNumber = 0;
     private byte[] encryptionParameters = new byte[8];
@@ -46,7 +46,7 @@ public final class AuthRemoteEngine {
 		this.authRemoteSpecification = authRemoteSpecification;
 
 		try {
-			messageDigest = MessageDigest.getInstance(authRemoteSpecification.authDigestAlgorithm);
+			MessageDigest.getInstance(authRemoteSpecification.authDigestAlgorithm);
 		} catch (NoSuchAlgorithmException e) {
 			throw new RuntimeException(e);
 		}
@@ -94,6 +94,9 @@ public final class AuthRemoteEngine {
 
 	public void setId(byte[] id) {
 		LOGGER.trace("Auth engine ID: {} -> {}", (this.id == null) ? null : BaseEncoding.base16().encode(this.id), BaseEncoding.base16().encode(id));
+		if ((this.id == null) || !Arrays.equals(this.id, id)) {
+			keys = null;
+		}
 		this.id = id;
 	}
 	public void setEncryptionParameters(byte[] encryptionParameters) {
@@ -127,84 +130,24 @@ public final class AuthRemoteEngine {
 		this.time = resetTime;
 	}
 
+	// Recomputed only when the engine ID changes
+	private AuthKeys keys() {
+		if (keys == null) {
+			keys = AuthKeys.get(authRemoteSpecification, id);
+		}
+		return keys;
+	}
+
 	public byte[] getAuthKey() {
-		return getKey(authRemoteSpecification.authPassword);
+		return keys().authKey;
 	}
 	
 	private byte[] getPrivKey() {
-		return getKey(authRemoteSpecification.privPassword);
+		return keys().privKey;
 	}
 
-	private byte[] getKey(String password) {
-		byte[] passwordBytes = password.getBytes(Charsets.UTF_8);
-
-		int passwordIndex = 0;
-
-		int count = 0;
-		// Use while loop until we've done 1 Megabyte
-		while (count < (1024 * 1024)) {
-			byte[] b = new byte[64];
-			for (int i = 0; i < b.length; i++) {
-				// Take the next octet of the password, wrapping to the
-				// beginning of the password as necessary
-				b[i] = passwordBytes[passwordIndex % passwordBytes.length];
-				passwordIndex++;
-			}
-			messageDigest.update(b);
-			count += b.length;
-		}
-
-		byte[] digest = messageDigest.digest();
-
-		messageDigest.reset();
-		messageDigest.update(digest);
-		messageDigest.update(id);
-		messageDigest.update(digest);
-		return messageDigest.digest();
-	}
-	
 	public byte[] hash(ByteBuffer message) {
-		ByteBuffer messageDup = message.duplicate();
-
-		byte[] digest = getAuthKey();
-
-		byte[] newDigest;
-		byte[] k_ipad = new byte[64]; /* inner padding - key XORd with ipad */
-		byte[] k_opad = new byte[64]; /* outer padding - key XORd with opad */
-
-		/*
-		 * the HMAC_MD transform looks like:
-		 * 
-		 * MD(K XOR opad, MD(K XOR ipad, msg))
-		 * 
-		 * where K is an n byte key ipad is the byte 0x36 repeated 64 times opad
-		 * is the byte 0x5c repeated 64 times and text is the data being
-		 * protected
-		 */
-		/* start out by storing key, ipad and opad in pads */
-		for (int i = 0; i < digest.length; ++i) {
-			k_ipad[i] = (byte) (digest[i] ^ 0x36);
-			k_opad[i] = (byte) (digest[i] ^ 0x5c);
-		}
-		for (int i = digest.length; i < 64; ++i) {
-			k_ipad[i] = 0x36;
-			k_opad[i] = 0x5c;
-		}
-
-		/* perform inner MD */
-		messageDigest.update(k_ipad); /* start with inner pad */
-		messageDigest.update(messageDup); /* then text of msg */
-		newDigest = messageDigest.digest(); /* finish up 1st pass */
-		/* perform outer MD */
-		messageDigest.reset(); /* init md5 for 2nd pass */
-		messageDigest.update(k_opad); /* start with outer pad */
-		messageDigest.update(newDigest); /* then results of 1st hash */
-		newDigest = messageDigest.digest(); /* finish up 2nd pass */
-
-		// copy the digest into the message (12 bytes only!)
-		byte[] k = new byte[12];
-		System.arraycopy(newDigest, 0, k, 0, k.length);
-		return k;
+		return keys().hmac(message);
 	}
 
 	public ByteBuffer encrypt(ByteBuffer decryptedBuffer) {
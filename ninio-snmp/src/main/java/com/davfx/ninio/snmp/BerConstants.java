@@ -73,6 +73,7 @@ public final class BerConstants {
 	 * public static final int GET = (ASN_CONTEXT | ASN_CONSTRUCTOR | 0x0); public static final int GETNEXT = (ASN_CONTEXT | ASN_CONSTRUCTOR | 0x1); public static final int RESPONSE = (ASN_CONTEXT | ASN_CONSTRUCTOR | 0x2); public static final int GETBULK = (ASN_CONTEXT | ASN_CONSTRUCTOR | 0x5);
 	 */
 	
+	public static final int TOO_BIG_ERROR = 1;
 	public static final int NO_SUCH_NAME_ERROR = 2;
 	
 	public static final Oid TIMESTAMP_OID = new Oid("1.3.6.1.2.1.1.3.0");
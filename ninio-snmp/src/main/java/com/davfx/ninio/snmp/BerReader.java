@@ -1,13 +1,9 @@
 package com.davfx.ninio.snmp;
 
 import java.io.IOException;
-import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.util.Deque;
 import java.util.LinkedList;
-import java.util.List;
-
-import com.google.common.io.BaseEncoding;
 
 public final class BerReader {
 	private final ByteBuffer buffer;
@@ -67,18 +63,32 @@ public final class BerReader {
 		return (int) value;
 	}
 
-	//TODO Check the OPAQUE UINT64 format
-	private static long doReadLong(ByteBuffer buffer, int length) throws IOException {
+	private static long doReadSigned(ByteBuffer buffer, int length) throws IOException {
+		if (length > 8) {
+			throw new IOException("Integer too long: " + length);
+		}
 		long value = 0L;
 		for (int i = 0; i < length; i++) {
 			int b = buffer.get() & 0xFF;
 			if ((i == 0) && ((b & 0x80) == 0x80)) {
-				value = 0xFFFFFFFFL; // Negative, in two's complement form
+				value = -1L; // Negative, in two's complement form
 			}
 			value <<= 8;
 			value |= b;
 		}
+		return value;
+	}
 
+	// Up to 64 bits, a leading zero byte may be prepended
+	private static long doReadUnsigned(ByteBuffer buffer, int length) throws IOException {
+		if (length > 9) {
+			throw new IOException("Unsigned integer too long: " + length);
+		}
+		long value = 0L;
+		for (int i = 0; i < length; i++) {
+			value <<= 8;
+			value |= buffer.get() & 0xFFL;
+		}
 		return value;
 	}
 
@@ -91,23 +101,6 @@ public final class BerReader {
 		return buffer.getDouble();
 	}
 
-	private static BigInteger doReadUnsignedLongInteger(ByteBuffer buffer, int length) throws IOException {
-		byte[] b = new byte[length];
-		buffer.get(b);
-
-		return new BigInteger(b);
-
-		/*
-		long value = 0;
-		for (int i = 0; i < length; i++) {
-			long b = buffer.get() & 0xFFL;
-			value <<= 8;
-			value |= b;
-		}
-		return value;
-		*/
-	}
-
 	public int readInteger() throws IOException {
 		int type = doReadType(buffer);
 		if (type != BerConstants.INTEGER) {
@@ -118,16 +111,25 @@ public final class BerReader {
 	}
 
 	private static long[] doReadOid(ByteBuffer buffer, int length) throws IOException {
-		List<Long> values = new LinkedList<>();
-
 		if (length == 0) {
 			throw new IOException("Invalid OID");
 		}
 
+		// Counted first, not to box the values
+		int p = buffer.position();
+		int count = 2;
+		for (int i = 1; i < length; i++) {
+			if ((buffer.get(p + i) & 0x80) == 0) {
+				count++;
+			}
+		}
+
+		long[] v = new long[count];
+		int i = 0;
 		{
 			int b = buffer.get() & 0xFF;
-			values.add((long) (b / 40));
-			values.add((long) (b % 40));
+			v[i++] = b / 40;
+			v[i++] = b % 40;
 		}
 
 		length--;
@@ -140,18 +142,15 @@ public final class BerReader {
 			value |= (b & ~0x80);
 
 			if ((b & 0x80) == 0) {
-				values.add(value);
+				v[i++] = value;
 				value = 0L;
 			}
 
 			length--;
 		}
 
-		long[] v = new long[values.size()];
-		int i = 0;
-		for (long val : values) {
-			v[i] = val;
-			i++;
+		if (i < count) {
+			throw new IOException("Invalid OID");
 		}
 		return v;
 	}
@@ -166,6 +165,10 @@ public final class BerReader {
 		return new Oid(doReadOid(buffer, length));
 	}
 	
+	private static void doSkip(ByteBuffer buffer, int length) {
+		buffer.position(buffer.position() + length);
+	}
+
 	private static ByteBuffer doReadString(ByteBuffer buffer, int length) throws IOException {
 		ByteBuffer b = ByteBuffer.wrap(buffer.array(), buffer.position(), length);
 		buffer.position(buffer.position() + length);
@@ -211,127 +214,118 @@ public final class BerReader {
 		return (buffer.position() < position);
 	}
 
+	// String form, null for null values
 	public String readValue() throws IOException {
-		return doReadValue(buffer, false);
+		return readSnmpValue().toString();
+	}
+
+	public SnmpValue readSnmpValue() throws IOException {
+		doReadValue(buffer, false, collector);
+		return collector.value;
+	}
+
+	// Streaming, numbers are not boxed and bytes are not copied
+	public void readValue(SnmpValue.Visitor visitor) throws IOException {
+		doReadValue(buffer, false, visitor);
 	}
 
-	private static String doReadValue(ByteBuffer buffer, boolean opaque) throws IOException {
-	// public OidValue readOidValue() throws IOException {
+	private final ValueCollector collector = new ValueCollector();
+
+	private static final class ValueCollector implements SnmpValue.Visitor {
+		public SnmpValue value;
+
+		@Override
+		public void visitNull(int type) {
+			value = SnmpValue.nullValue(type);
+		}
+		@Override
+		public void visitLong(int type, long v, boolean unsigned) {
+			value = unsigned ? SnmpValue.unsigned(type, v) : SnmpValue.signed(type, v);
+		}
+		@Override
+		public void visitDouble(int type, double v) {
+			value = SnmpValue.floating(type, v);
+		}
+		@Override
+		public void visitBytes(int type, ByteBuffer v) {
+			byte[] b = new byte[v.remaining()];
+			v.get(b);
+			value = SnmpValue.bytes(type, b);
+		}
+		@Override
+		public void visitOid(Oid v) {
+			value = SnmpValue.oid(v);
+		}
+	}
+
+	private static void doReadValue(ByteBuffer buffer, boolean opaque, SnmpValue.Visitor visitor) throws IOException {
 		int type = buffer.get() & 0xFF;
 
 		if ((type & BerConstants.ASN_BIT8) == BerConstants.ASN_BIT8) {
 			if (!opaque) {
+				// noSuchObject, noSuchInstance or endOfMibView
 				int l = doReadLength(buffer);
-				doReadString(buffer, l);
-				return null;
+				doSkip(buffer, l);
+				visitor.visitNull(type);
+				return;
 			}
 			type = buffer.get() & 0xFF; // OPAQUE wrapped type
 		} else if (opaque) {
 			int l = doReadLength(buffer);
-			doReadString(buffer, l);
-			return null;
+			doSkip(buffer, l);
+			visitor.visitNull(BerConstants.OPAQUE);
+			return;
 		}
 
 		int length = doReadLength(buffer);
 
 		if (type == BerConstants.INTEGER) {
-			return String.valueOf(doReadInteger(buffer, length));
-			// return new OidValue(OidValue.Type.NUMBER, doReadInteger(length));
+			visitor.visitLong(type, doReadSigned(buffer, length), false);
+			return;
 		}
 
-		if (type == BerConstants.TIMETICKS) {
-			return String.valueOf(doReadUnsignedLongInteger(buffer, length));
-			// return new OidValue(OidValue.Type.TIME, doReadUnsignedLongInteger(length));
-		}
-
-		if ((type == BerConstants.COUNTER32) || (type == BerConstants.GAUGE32) || (type == BerConstants.COUNTER64) || (type == BerConstants.UNSIGNEDINTEGER32)) {
-			return String.valueOf(doReadUnsignedLongInteger(buffer, length));
-			// return new OidValue(OidValue.Type.NUMBER, doReadUnsignedLongInteger(length));
+		if ((type == BerConstants.TIMETICKS) || (type == BerConstants.COUNTER32) || (type == BerConstants.GAUGE32) || (type == BerConstants.COUNTER64) || (type == BerConstants.UNSIGNEDINTEGER32)) {
+			visitor.visitLong(type, doReadUnsigned(buffer, length), true);
+			return;
 		}
 
 		if (type == BerConstants.NULL) {
 			if (length != 0) {
 				throw new IOException("Invalid Null encoding, length is not zero");
 			}
-			return null;
-			// return new OidValue(OidValue.Type.NULL);
+			visitor.visitNull(type);
+			return;
 		}
 
 		if (type == BerConstants.OID) {
-			return new Oid(doReadOid(buffer, length)).toString();
-			// return new OidValue(OidValue.Type.OID, doReadOid(length));
-		}
-
-		if (type == BerConstants.IPADDRESS) {
-			return asIpString(doReadString(buffer, length));
-			// return new OidValue(OidValue.Type.IPADDRESS, doReadString(length));
-		}
-
-		if (type == BerConstants.OCTETSTRING) {
-			return string(doReadString(buffer, length));
-			// return new OidValue(OidValue.Type.STRING, doReadString(length));
+			visitor.visitOid(new Oid(doReadOid(buffer, length)));
+			return;
 		}
 
 		if (type == BerConstants.OPAQUE) {
 			ByteBuffer wrapped = doReadString(buffer, length);
-			return doReadValue(wrapped, true);
-			//%% return new OidValue(OidValue.Type.STRING, doReadString(length));
+			doReadValue(wrapped, true, visitor);
+			return;
 		}
 
 		if (type == BerConstants.OPAQUE_FLOAT) {
-			return String.valueOf(doReadFloat(buffer, length));
+			visitor.visitDouble(type, doReadFloat(buffer, length));
+			return;
 		}
 		if (type == BerConstants.OPAQUE_DOUBLE) {
-			return String.valueOf(doReadDouble(buffer, length));
+			visitor.visitDouble(type, doReadDouble(buffer, length));
+			return;
 		}
 		if (type == BerConstants.OPAQUE_INTEGER64) {
-			return String.valueOf(doReadLong(buffer, length));
+			visitor.visitLong(type, doReadSigned(buffer, length), false);
+			return;
 		}
 		if (type == BerConstants.OPAQUE_UNSIGNEDINTEGER64) {
-			return String.valueOf(doReadUnsignedLongInteger(buffer, length));
-		}
-
-		// if ((type == BerConstants.ASN_BITSTRING) || (type ==
-		// BerConstants.OPAQUE) || (type == BerConstants.NSAPADDRESS)) {
-		return string(doReadString(buffer, length));
-		// return new OidValue(OidValue.Type.OTHER, doReadString(length));
-		// }
-	}
-
-	private static String asIpString(ByteBuffer bb) {
-		ByteBuffer bytes = bb.duplicate();
-		if (bytes.remaining() == 4) {
-			StringBuilder b = new StringBuilder();
-			while (bytes.hasRemaining()) {
-				int k = bytes.get() & 0xFF;
-				if (b.length() > 0) {
-					b.append('.');
-				}
-				b.append(String.valueOf(k));
-			}
-			return b.toString();
+			visitor.visitLong(type, doReadUnsigned(buffer, length), true);
+			return;
 		}
 
-		StringBuilder b = new StringBuilder();
-		while (bytes.hasRemaining()) {
-			int k = ((bytes.get() & 0xFF) << 8) | (bytes.get() & 0xFF);
-			String s = Integer.toHexString(k);
-			if (b.length() > 0) {
-				b.append(':');
-			}
-			b.append(s);
-		}
-		return b.toString();
-	}
-	
-	private static String string(ByteBuffer bb) {
-		ByteBuffer bytes = bb.duplicate();
-		while (bytes.hasRemaining()) {
-			int c = bytes.get() & 0xFF;
-			if (((c < 32) && (c != 10) && (c != 13)) || (c >= 127)) {
-				return BaseEncoding.base16().encode(bb.array(), bb.position(), bb.remaining());
-			}
-		}
-		return BerPacketUtils.string(bb);
+		// OCTETSTRING, IPADDRESS, BITSTRING, NSAPADDRESS...
+		visitor.visitBytes(type, doReadString(buffer, length));
 	}
 }
@@ -0,0 +1,105 @@
+package com.davfx.ninio.snmp;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+// Single pass BER encoding, backwards from the end of the buffer: contents are written before their header, so lengths are always known
+public final class BerWriter {
+	private final byte[] bytes;
+	private int position;
+
+	public BerWriter(byte[] bytes) {
+		this.bytes = bytes;
+		position = bytes.length;
+	}
+
+	public BerWriter reset() {
+		position = bytes.length;
+		return this;
+	}
+
+	// Written so far, used to mark the end of a sequence content
+	public int length() {
+		return bytes.length - position;
+	}
+
+	private void put(int b) {
+		if (position == 0) {
+			throw new BufferOverflowException();
+		}
+		position--;
+		bytes[position] = (byte) b;
+	}
+
+	private void put(byte[] b, int offset, int length) {
+		if (position < length) {
+			throw new BufferOverflowException();
+		}
+		position -= length;
+		System.arraycopy(b, offset, bytes, position, length);
+	}
+
+	public void writeHeader(int type, int length) {
+		if (length < 0x80) {
+			put(length);
+		} else {
+			int count = 0;
+			for (int l = length; l != 0; l >>>= 8) {
+				put(l & 0xFF);
+				count++;
+			}
+			put(BerConstants.ASN_BIT8 | count); // Number of bytes
+		}
+		put(type);
+	}
+
+	// The sequence content has been written since mark was taken (mark = length())
+	public void writeSequence(int type, int mark) {
+		writeHeader(type, length() - mark);
+	}
+
+	public void writeInteger(int value) {
+		int n = 4;
+		while (n > 1) {
+			int top = value >> (((n - 1) * 8) - 1); // Two's complement, the sign bit must be kept
+			if ((top != 0) && (top != -1)) {
+				break;
+			}
+			n--;
+		}
+		for (int i = 0; i < n; i++) {
+			put((value >>> (8 * i)) & 0xFF);
+		}
+		writeHeader(BerConstants.INTEGER, n);
+	}
+
+	public void writeNull() {
+		writeHeader(BerConstants.NULL, 0);
+	}
+
+	public void writeBytes(int type, byte[] b) {
+		put(b, 0, b.length);
+		writeHeader(type, b.length);
+	}
+
+	public void writeOid(Oid oid) {
+		writeBytes(BerConstants.OID, oid.ber());
+	}
+
+	// Already encoded (header included)
+	public void writeRaw(byte[] encoded) {
+		put(encoded, 0, encoded.length);
+	}
+
+	// Backed by the writer array
+	public ByteBuffer buffer() {
+		return ByteBuffer.wrap(bytes, position, length()).slice();
+	}
+
+	public ByteBuffer copy() {
+		ByteBuffer b = ByteBuffer.allocate(length());
+		b.put(bytes, position, length());
+		b.flip();
+		return b;
+	}
+}
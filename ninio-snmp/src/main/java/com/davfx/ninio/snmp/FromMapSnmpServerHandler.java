@@ -7,22 +7,36 @@ import java.util.SortedMap;
 import com.davfx.ninio.core.Address;
 
 public final class FromMapSnmpServerHandler implements SnmpServerHandler {
-	private final SortedMap<Oid, String> map;
+	private final OidTrie<String> trie;
 	private final SnmpServerHandler wrappee;
 	
+	// The map is copied
 	public FromMapSnmpServerHandler(SortedMap<Oid, String> map, SnmpServerHandler wrappee) {
-		this.map = map;
+		this(trie(map), wrappee);
+	}
+	
+	// The trie is not copied, it should not be modified while the server is running
+	public FromMapSnmpServerHandler(OidTrie<String> trie, SnmpServerHandler wrappee) {
+		this.trie = trie;
 		this.wrappee = wrappee;
 	}
+	
+	private static OidTrie<String> trie(Map<Oid, String> map) {
+		OidTrie<String> trie = new OidTrie<>();
+		for (Map.Entry<Oid, String> e : map.entrySet()) {
+			trie.put(e.getKey(), e.getValue());
+		}
+		return trie;
+	}
 
 	@Override
-	public void from(Oid oid, SnmpServerHandler.Callback callback) {
-		SortedMap<Oid, String> tail = map.tailMap(oid);
-		for (Map.Entry<Oid, String> e : tail.entrySet()) {
-			if (!callback.handle(new SnmpResult(e.getKey(), e.getValue()))) {
-				break;
+	public void from(Oid oid, final SnmpServerHandler.Callback callback) {
+		trie.from(oid, new OidTrie.Visitor<String>() {
+			@Override
+			public boolean visit(Oid oid, String value) {
+				return callback.handle(new SnmpResult(oid, value));
 			}
-		}
+		});
 	}
 	
 	@Override
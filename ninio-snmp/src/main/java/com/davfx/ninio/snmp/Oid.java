@@ -1,24 +1,48 @@
 package com.davfx.ninio.snmp;
 
 import java.util.Arrays;
-import java.util.List;
-
-import com.google.common.base.Splitter;
 
 public final class Oid implements Comparable<Oid> {
 	public final long[] raw;
 
 	public Oid(String dotNotation) {
-		List<String> s = Splitter.on('.').splitToList(dotNotation);
-		//%% if (s.size() < 2) {
-		//%% throw new IllegalArgumentException();
-		//%% }
-		raw = new long[s.size()];
-		int i = 0;
-		for (String e : s) {
-			raw[i] = Long.parseLong(e);
-			i++;
+		raw = parse(dotNotation);
+	}
+
+	// Parsed in place, without splitting
+	private static long[] parse(String dotNotation) {
+		int n = 1;
+		for (int i = 0; i < dotNotation.length(); i++) {
+			if (dotNotation.charAt(i) == '.') {
+				n++;
+			}
 		}
+		long[] r = new long[n];
+		int k = 0;
+		int start = 0;
+		for (int i = 0; i <= dotNotation.length(); i++) {
+			if ((i == dotNotation.length()) || (dotNotation.charAt(i) == '.')) {
+				r[k] = parse(dotNotation, start, i);
+				k++;
+				start = i + 1;
+			}
+		}
+		return r;
+	}
+
+	private static long parse(String s, int from, int to) {
+		if (from == to) {
+			throw new NumberFormatException("Empty OID component: " + s);
+		}
+		long v = 0L;
+		for (int i = from; i < to; i++) {
+			int d = s.charAt(i) - '0';
+			if ((d < 0) || (d > 9) || (v > ((Long.MAX_VALUE - d) / 10L))) {
+				throw new NumberFormatException("Invalid OID: " + s);
+			}
+			v = (v * 10L) + d;
+		}
+		return v;
 	}
 
 	public Oid(long[] raw) {
@@ -28,6 +52,53 @@ public final class Oid implements Comparable<Oid> {
 		this.raw = raw;
 	}
 
+	// BER encoded content, computed once and shared by all the packets built with this OID
+	private volatile byte[] ber = null;
+
+	byte[] ber() {
+		byte[] b = ber;
+		if (b == null) {
+			b = encode(raw);
+			ber = b;
+		}
+		return b;
+	}
+
+	private static byte[] encode(long[] raw) {
+		if (raw.length < 2) {
+			throw new IllegalArgumentException();
+		}
+
+		int l = 1;
+		for (int i = 2; i < raw.length; i++) {
+			l += (bits(raw[i]) / 7) + 1;
+		}
+
+		byte[] b = new byte[l];
+		int k = 0;
+		b[k++] = (byte) ((raw[1] + (raw[0] * 40)) & 0xFF);
+		for (int i = 2; i < raw.length; i++) {
+			long value = raw[i];
+			for (int bits = bits(value); bits >= 0; bits -= 7) {
+				long v = (value >>> bits) & ~0x80L;
+				if (bits > 0) {
+					v |= 0x80L; // Continuation bit
+				}
+				b[k++] = (byte) v;
+			}
+		}
+		return b;
+	}
+
+	// Shift of the most significant 7-bit group
+	private static int bits(long value) {
+		int bits = 0;
+		while ((bits < 63) && ((value >>> (bits + 7)) != 0L)) {
+			bits += 7;
+		}
+		return bits;
+	}
+
 	public Oid sub(Oid child) {
 		if (child.raw.length < raw.length) {
 			return null;
@@ -49,9 +120,16 @@ public final class Oid implements Comparable<Oid> {
 		return new Oid(r);
 	}
 
+	private int hash = 0; // Computed once (racy but idempotent, as String does)
+
 	@Override
 	public int hashCode() {
-		return Arrays.hashCode(raw);
+		int h = hash;
+		if (h == 0) {
+			h = Arrays.hashCode(raw);
+			hash = h;
+		}
+		return h;
 	}
 
 	@Override
@@ -90,6 +168,9 @@ public final class Oid implements Comparable<Oid> {
 			return false;
 		}
 		Oid oid = (Oid) o;
+		if ((hash != 0) && (oid.hash != 0) && (hash != oid.hash)) {
+			return false;
+		}
 		return Arrays.equals(oid.raw, raw);
 	}
 	
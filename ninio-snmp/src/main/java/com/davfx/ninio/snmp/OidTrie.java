@@ -0,0 +1,203 @@
+package com.davfx.ninio.snmp;
+
+import java.util.Arrays;
+
+// OID components as trie levels, children sorted by component: exact lookup in O(depth), ordered iteration from any OID (GETNEXT/GETBULK), longest prefix match (subscriptions), not thread-safe
+public final class OidTrie<V> {
+
+	public static interface Visitor<V> {
+		boolean visit(Oid oid, V value); // Return false to stop
+	}
+
+	private static final long[] NO_KEY = new long[0];
+	private static final Node<?>[] NO_CHILD = new Node<?>[0];
+
+	private static final class Node<V> {
+		public long[] keys = NO_KEY;
+		@SuppressWarnings("unchecked")
+		public Node<V>[] children = (Node<V>[]) NO_CHILD;
+		public int count = 0;
+		public Oid oid = null;
+		public V value = null;
+
+		public Node<V> child(long key) {
+			int i = Arrays.binarySearch(keys, 0, count, key);
+			return (i < 0) ? null : children[i];
+		}
+
+		public Node<V> getOrCreate(long key) {
+			int i = Arrays.binarySearch(keys, 0, count, key);
+			if (i >= 0) {
+				return children[i];
+			}
+			i = -(i + 1);
+			if (count == keys.length) {
+				int n = Math.max(2, count * 2);
+				keys = Arrays.copyOf(keys, n);
+				children = Arrays.copyOf(children, n);
+			}
+			System.arraycopy(keys, i, keys, i + 1, count - i);
+			System.arraycopy(children, i, children, i + 1, count - i);
+			Node<V> c = new Node<>();
+			keys[i] = key;
+			children[i] = c;
+			count++;
+			return c;
+		}
+
+		public void removeChild(long key) {
+			int i = Arrays.binarySearch(keys, 0, count, key);
+			if (i < 0) {
+				return;
+			}
+			count--;
+			System.arraycopy(keys, i + 1, keys, i, count - i);
+			System.arraycopy(children, i + 1, children, i, count - i);
+			children[count] = null;
+		}
+
+		public boolean isEmpty() {
+			return (oid == null) && (count == 0);
+		}
+	}
+
+	private final Node<V> root = new Node<>();
+	private int size = 0;
+
+	public OidTrie() {
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public V put(Oid oid, V value) {
+		Node<V> n = root;
+		for (long k : oid.raw) {
+			n = n.getOrCreate(k);
+		}
+		V previous = n.value;
+		if (n.oid == null) {
+			size++;
+		}
+		n.oid = oid;
+		n.value = value;
+		return previous;
+	}
+
+	private Node<V> find(Oid oid) {
+		Node<V> n = root;
+		for (long k : oid.raw) {
+			n = n.child(k);
+			if (n == null) {
+				return null;
+			}
+		}
+		return n;
+	}
+
+	public V get(Oid oid) {
+		Node<V> n = find(oid);
+		return (n == null) ? null : n.value;
+	}
+
+	public boolean containsKey(Oid oid) {
+		Node<V> n = find(oid);
+		return (n != null) && (n.oid != null);
+	}
+
+	public V remove(Oid oid) {
+		return remove(root, oid.raw, 0);
+	}
+
+	// Empty nodes are pruned on the way back
+	private V remove(Node<V> n, long[] raw, int depth) {
+		if (depth == raw.length) {
+			if (n.oid == null) {
+				return null;
+			}
+			V previous = n.value;
+			n.oid = null;
+			n.value = null;
+			size--;
+			return previous;
+		}
+		Node<V> c = n.child(raw[depth]);
+		if (c == null) {
+			return null;
+		}
+		V previous = remove(c, raw, depth + 1);
+		if (c.isEmpty()) {
+			n.removeChild(raw[depth]);
+		}
+		return previous;
+	}
+
+	// Value of the longest registered prefix of the given OID (itself included)
+	public V match(Oid oid) {
+		Node<V> n = root;
+		V found = root.value;
+		for (long k : oid.raw) {
+			n = n.child(k);
+			if (n == null) {
+				break;
+			}
+			if (n.oid != null) {
+				found = n.value;
+			}
+		}
+		return found;
+	}
+
+	// In OID order, starting from the given OID (included if present)
+	public boolean from(Oid oid, Visitor<? super V> visitor) {
+		return from(root, oid.raw, 0, visitor);
+	}
+
+	// All the OIDs starting with the given prefix (itself included), in OID order
+	public boolean under(Oid prefix, Visitor<? super V> visitor) {
+		Node<V> n = find(prefix);
+		if (n == null) {
+			return true;
+		}
+		return all(n, visitor);
+	}
+
+	// The node is a prefix of raw (depth components), its own OID is before raw unless equal
+	private static <V> boolean from(Node<V> n, long[] raw, int depth, Visitor<? super V> visitor) {
+		if (depth == raw.length) {
+			return all(n, visitor);
+		}
+		int i = Arrays.binarySearch(n.keys, 0, n.count, raw[depth]);
+		if (i >= 0) {
+			if (!from(n.children[i], raw, depth + 1, visitor)) {
+				return false;
+			}
+			i++;
+		} else {
+			i = -(i + 1);
+		}
+		for (; i < n.count; i++) {
+			if (!all(n.children[i], visitor)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static <V> boolean all(Node<V> n, Visitor<? super V> visitor) {
+		if ((n.oid != null) && !visitor.visit(n.oid, n.value)) {
+			return false;
+		}
+		for (int i = 0; i < n.count; i++) {
+			if (!all(n.children[i], visitor)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,82 @@
+package com.davfx.ninio.snmp;
+
+import com.davfx.ninio.core.Address;
+import com.davfx.ninio.util.MemoryCache;
+
+// Per agent round-trip time estimation and retransmission timeout (as TCP does, RFC 6298), not thread-safe
+final class RoundTripTimes {
+
+	private static final double ALPHA = 1d / 8d;
+	private static final double BETA = 1d / 4d;
+	private static final double K = 4d;
+
+	private static final class Agent {
+		public double srtt = -1d;
+		public double rttvar = 0d;
+		public double unreachableUntil = 0d;
+	}
+
+	private final double initial;
+	private final double min;
+	private final double max;
+	private final double cooldown;
+	private final MemoryCache<Address, Agent> agents;
+
+	public RoundTripTimes(double initial, double min, double max, double cooldown, double expiration) {
+		this.initial = initial;
+		this.min = min;
+		this.max = max;
+		this.cooldown = cooldown;
+		agents = MemoryCache.<Address, Agent> builder().expireAfterAccess(expiration).build();
+	}
+
+	private Agent agent(Address address) {
+		Agent a = agents.get(address);
+		if (a == null) {
+			a = new Agent();
+			agents.put(address, a);
+		}
+		return a;
+	}
+
+	// Timeout of the given attempt (0 for the first send), doubled at each retransmission
+	public double timeout(Address address, int attempt) {
+		Agent a = agents.get(address);
+		double rto = ((a == null) || (a.srtt < 0d)) ? initial : (a.srtt + (K * a.rttvar));
+		rto = Math.max(min, rto);
+		for (int i = 0; i < attempt; i++) {
+			rto *= 2d;
+		}
+		return Math.min(max, rto);
+	}
+
+	public void sample(Address address, double rtt) {
+		Agent a = agent(address);
+		if (a.srtt < 0d) {
+			a.srtt = rtt;
+			a.rttvar = rtt / 2d;
+		} else {
+			a.rttvar = ((1d - BETA) * a.rttvar) + (BETA * Math.abs(a.srtt - rtt));
+			a.srtt = ((1d - ALPHA) * a.srtt) + (ALPHA * rtt);
+		}
+		a.unreachableUntil = 0d;
+	}
+
+	public void reachable(Address address) {
+		Agent a = agents.get(address);
+		if (a != null) {
+			a.unreachableUntil = 0d;
+		}
+	}
+
+	public void unreachable(Address address, double now) {
+		if (cooldown > 0d) {
+			agent(address).unreachableUntil = now + cooldown;
+		}
+	}
+
+	public boolean isUnreachable(Address address, double now) {
+		Agent a = agents.get(address);
+		return (a != null) && (a.unreachableUntil > now);
+	}
+}
@@ -3,12 +3,15 @@ package com.davfx.ninio.snmp;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.SecureRandom;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,12 +19,15 @@ import org.slf4j.LoggerFactory;
 import com.davfx.ninio.core.Address;
 import com.davfx.ninio.core.Connecter;
 import com.davfx.ninio.core.Connection;
+import com.davfx.ninio.core.CorrelationTable;
 import com.davfx.ninio.core.NinioBuilder;
 import com.davfx.ninio.core.NinioProvider;
 import com.davfx.ninio.core.SendCallback;
 import com.davfx.ninio.core.UdpSocket;
 import com.davfx.ninio.snmp.dependencies.Dependencies;
+import com.davfx.ninio.util.ClassThreadFactory;
 import com.davfx.ninio.util.ConfigUtils;
+import com.davfx.ninio.util.DateUtils;
 import com.davfx.ninio.util.MemoryCache;
 import com.google.common.collect.ImmutableList;
 import com.typesafe.config.Config;
@@ -36,6 +42,26 @@ public final class SnmpClient implements SnmpConnecter {
 
 	private static final int BULK_SIZE = CONFIG.getInt("bulkSize");
 	private static final double AUTH_ENGINES_CACHE_DURATION = ConfigUtils.getDuration(CONFIG, "auth.cache");
+	private static final int REQUEST_MAX_OIDS = CONFIG.getInt("request.oids");
+	private static final int REQUEST_MAX_SIZE = CONFIG.getBytes("request.size").intValue();
+	private static final int VARBIND_OVERHEAD = 6; // Sequence header and null value
+
+	private static final int RETRY_COUNT = CONFIG.getInt("retry.count");
+	private static final double RETRY_RTO_INITIAL = ConfigUtils.getDuration(CONFIG, "retry.rto.initial");
+	private static final double RETRY_RTO_MIN = ConfigUtils.getDuration(CONFIG, "retry.rto.min");
+	private static final double RETRY_RTO_MAX = ConfigUtils.getDuration(CONFIG, "retry.rto.max");
+	private static final boolean RETRY_NEW_ID = CONFIG.getBoolean("retry.newId");
+	private static final double RETRY_COOLDOWN = ConfigUtils.getDuration(CONFIG, "retry.cooldown");
+	private static final double RETRY_CACHE_DURATION = ConfigUtils.getDuration(CONFIG, "retry.cache");
+
+	// Retransmission timers, fired back into the client executor
+	private static final ScheduledExecutorService RETRY_EXECUTOR;
+	static {
+		// Most retransmissions are cancelled (answered), they must not stay queued until their delay expires
+		ScheduledThreadPoolExecutor e = new ScheduledThreadPoolExecutor(1, new ClassThreadFactory(SnmpClient.class, true));
+		e.setRemoveOnCancelPolicy(true);
+		RETRY_EXECUTOR = e;
+	}
 
 	public static interface Builder extends NinioBuilder<SnmpConnecter> {
 		@Deprecated
@@ -71,6 +97,7 @@ public final class SnmpClient implements SnmpConnecter {
 	private final Connecter connecter;
 	
 	private final InstanceMapper instanceMapper;
+	private final Retransmitter retransmitter;
 
 	private final RequestIdProvider requestIdProvider = new RequestIdProvider();
 	private final MemoryCache<Address, AuthRemoteEnginePendingRequestManager> authRemoteEngines = MemoryCache.<Address, AuthRemoteEnginePendingRequestManager> builder().expireAfterAccess(AUTH_ENGINES_CACHE_DURATION).build();
@@ -79,6 +106,7 @@ public final class SnmpClient implements SnmpConnecter {
 		this.executor = executor;
 		this.connecter = connecter;
 		instanceMapper = new InstanceMapper(requestIdProvider);
+		retransmitter = new Retransmitter(executor);
 	}
 	
 	@Override
@@ -86,8 +114,9 @@ public final class SnmpClient implements SnmpConnecter {
 		return new SnmpRequestBuilder() {
 			private String community = null;
 			private AuthRemoteSpecification authRemoteSpecification = null;
+			private int bulkLength = BULK_SIZE;
 			private Address address;
-			private Oid oid;
+			private List<Oid> oids;
 			private List<SnmpResult> trap = null;
 			
 			@Override
@@ -100,13 +129,25 @@ public final class SnmpClient implements SnmpConnecter {
 				this.authRemoteSpecification = authRemoteSpecification;
 				return this;
 			}
+			@Override
+			public SnmpRequestBuilder bulkLength(int bulkLength) {
+				this.bulkLength = bulkLength;
+				return this;
+			}
 			
-			private Instance instance = null;
+			private Request request = null;
 			
 			@Override
 			public SnmpRequestBuilder build(Address address, Oid oid) {
 				this.address = address;
-				this.oid = oid;
+				oids = ImmutableList.of(oid);
+				return this;
+			}
+			
+			@Override
+			public SnmpRequestBuilder build(Address address, Iterable<Oid> oids) {
+				this.address = address;
+				this.oids = ImmutableList.copyOf(oids);
 				return this;
 			}
 			
@@ -115,8 +156,8 @@ public final class SnmpClient implements SnmpConnecter {
 				executor.execute(new Runnable() {
 					@Override
 					public void run() {
-						if (instance != null) {
-							instance.cancel();
+						if (request != null) {
+							request.cancel();
 						}
 					}
 				});
@@ -134,19 +175,18 @@ public final class SnmpClient implements SnmpConnecter {
 			@Override
 			public Cancelable call(final SnmpCallType type, final SnmpReceiver r) {
 				final AuthRemoteSpecification s = authRemoteSpecification;
-				final Oid o = oid;
+				final List<Oid> o = oids;
 				final Address a = address;
 				final String c = community;
+				final int b = bulkLength;
 				final Iterable<SnmpResult> t = (trap == null) ? null : ImmutableList.copyOf(trap);
 				executor.execute(new Runnable() {
 					@Override
 					public void run() {
-						if (instance != null) {
+						if (request != null) {
 							throw new IllegalStateException();
 						}
 						
-						instance = new Instance(connecter, instanceMapper, o, a, type, c, t);
-
 						AuthRemoteEnginePendingRequestManager authRemoteEnginePendingRequestManager = null;
 						if (s != null) {
 							authRemoteEnginePendingRequestManager = authRemoteEngines.get(a);
@@ -157,9 +197,8 @@ public final class SnmpClient implements SnmpConnecter {
 							authRemoteEnginePendingRequestManager.update(authRemoteSpecification, a, connecter);
 						}
 
-						instance.receiver = r;
-						instance.authRemoteEnginePendingRequestManager = authRemoteEnginePendingRequestManager;
-						instance.launch();
+						request = new Request(connecter, instanceMapper, retransmitter, a, type, c, b, t, authRemoteEnginePendingRequestManager, r);
+						request.launch(o);
 					}
 				});
 				return this;
@@ -207,7 +246,9 @@ public final class SnmpClient implements SnmpConnecter {
 						
 						if (authRemoteEnginePendingRequestManager != null) {
 							if (ready && (errorStatus == BerConstants.ERROR_STATUS_AUTHENTICATION_NOT_SYNCED)) {
-								authRemoteEnginePendingRequestManager.reset();
+								authRemoteEnginePendingRequestManager.reset(address);
+							} else if (authRemoteEnginePendingRequestManager.isReady()) {
+								AuthEngines.update(address, authRemoteEnginePendingRequestManager.engine);
 							}
 
 							authRemoteEnginePendingRequestManager.discoverIfNecessary(address, connecter);
@@ -274,14 +315,16 @@ public final class SnmpClient implements SnmpConnecter {
 		public static final class PendingRequest {
 			public final SnmpCallType request;
 			public final int instanceId;
-			public final Oid oid;
+			public final List<Oid> oids;
+			public final int bulkLength;
 			public final Iterable<SnmpResult> trap;
 			public final SendCallback sendCallback;
 
-			public PendingRequest(SnmpCallType request, int instanceId, Oid oid, Iterable<SnmpResult> trap, SendCallback sendCallback) {
+			public PendingRequest(SnmpCallType request, int instanceId, List<Oid> oids, int bulkLength, Iterable<SnmpResult> trap, SendCallback sendCallback) {
 				this.request = request;
 				this.instanceId = instanceId;
-				this.oid = oid;
+				this.oids = oids;
+				this.bulkLength = bulkLength;
 				this.trap = trap;
 				this.sendCallback = sendCallback;
 			}
@@ -289,19 +332,25 @@ public final class SnmpClient implements SnmpConnecter {
 		
 		public AuthRemoteEngine engine = null;
 		public final List<PendingRequest> pendingRequests = new LinkedList<>();
+		private double resyncedAt = 0d;
 		
 		public AuthRemoteEnginePendingRequestManager() {
 		}
 		
 		public void update(AuthRemoteSpecification authRemoteSpecification, Address address, Connecter connector) {
-			if (engine == null) {
+			if ((engine == null) || !engine.authRemoteSpecification.equals(authRemoteSpecification)) {
 				engine = new AuthRemoteEngine(authRemoteSpecification);
-				discoverIfNecessary(address, connector);
-			} else {
-				if (!engine.authRemoteSpecification.equals(authRemoteSpecification)) {
-					engine = new AuthRemoteEngine(authRemoteSpecification);
+				// Already discovered by another client, or before this manager expired
+				if (!AuthEngines.restore(address, engine)) {
 					discoverIfNecessary(address, connector);
 				}
+				return;
+			}
+			
+			// Refreshed before the time window is missed, requests are not delayed
+			if (isReady() && AuthEngines.shouldResync(address, resyncedAt)) {
+				resyncedAt = DateUtils.now();
+				discover(address, connector);
 			}
 		}
 		
@@ -312,31 +361,36 @@ public final class SnmpClient implements SnmpConnecter {
 			return true;
 		}
 		
-		public void reset() {
+		public void reset(Address address) {
+			AuthEngines.remove(address);
 			engine = new AuthRemoteEngine(engine.authRemoteSpecification);
 		}
 		
 		public void discoverIfNecessary(Address address, Connecter connector) {
 			if ((engine.getId() == null) || (engine.getBootCount() == 0) || (engine.getTime() == 0)) {
-				Version3PacketBuilder builder = Version3PacketBuilder.get(engine, RequestIdProvider.IGNORE_ID, DISCOVER_OID);
-				ByteBuffer b = builder.getBuffer();
-				LOGGER.trace("Writing discover GET v3: {} #{}, packet size = {}", DISCOVER_OID, RequestIdProvider.IGNORE_ID, b.remaining());
-				connector.send(address, b, new SendCallback() {
-					@Override
-					public void sent() {
-					}
-					@Override
-					public void failed(IOException ioe) {
-						IOException e = new IOException("Failed to send discover packet", ioe);
-						for (PendingRequest r : pendingRequests) {
-							r.sendCallback.failed(e);
-						}
-						pendingRequests.clear();
-					}
-				});
+				discover(address, connector);
 			}
 		}
 		
+		private void discover(Address address, Connecter connector) {
+			Version3PacketBuilder builder = Version3PacketBuilder.get(engine, RequestIdProvider.IGNORE_ID, DISCOVER_OID);
+			ByteBuffer b = builder.getBuffer();
+			LOGGER.trace("Writing discover GET v3: {} #{}, packet size = {}", DISCOVER_OID, RequestIdProvider.IGNORE_ID, b.remaining());
+			connector.send(address, b, new SendCallback() {
+				@Override
+				public void sent() {
+				}
+				@Override
+				public void failed(IOException ioe) {
+					IOException e = new IOException("Failed to send discover packet", ioe);
+					for (PendingRequest r : pendingRequests) {
+						r.sendCallback.failed(e);
+					}
+					pendingRequests.clear();
+				}
+			});
+		}
+		
 		public void registerPendingRequest(PendingRequest r) {
 			pendingRequests.add(r);
 		}
@@ -349,30 +403,30 @@ public final class SnmpClient implements SnmpConnecter {
 			for (PendingRequest r : pendingRequests) {
 				switch (r.request) {
 					case GET: {
-						Version3PacketBuilder builder = Version3PacketBuilder.get(engine, r.instanceId, r.oid);
+						Version3PacketBuilder builder = Version3PacketBuilder.get(engine, r.instanceId, r.oids);
 						ByteBuffer b = builder.getBuffer();
-						LOGGER.trace("Writing GET v3: {} #{}, packet size = {}", r.oid, r.instanceId, b.remaining());
+						LOGGER.trace("Writing GET v3: {} #{}, packet size = {}", r.oids, r.instanceId, b.remaining());
 						connector.send(address, b, r.sendCallback);
 						break;
 					}
 					case GETNEXT: {
-						Version3PacketBuilder builder = Version3PacketBuilder.getNext(engine, r.instanceId, r.oid);
+						Version3PacketBuilder builder = Version3PacketBuilder.getNext(engine, r.instanceId, r.oids);
 						ByteBuffer b = builder.getBuffer();
-						LOGGER.trace("Writing GETNEXT v3: {} #{}, packet size = {}", r.oid, r.instanceId, b.remaining());
+						LOGGER.trace("Writing GETNEXT v3: {} #{}, packet size = {}", r.oids, r.instanceId, b.remaining());
 						connector.send(address, b, r.sendCallback);
 						break;
 					}
 					case GETBULK: {
-						Version3PacketBuilder builder = Version3PacketBuilder.getBulk(engine, r.instanceId, r.oid, BULK_SIZE);
+						Version3PacketBuilder builder = Version3PacketBuilder.getBulk(engine, r.instanceId, r.oids, r.bulkLength);
 						ByteBuffer b = builder.getBuffer();
-						LOGGER.trace("Writing GETBULK v3: {} #{}, packet size = {}", r.oid, r.instanceId, b.remaining());
+						LOGGER.trace("Writing GETBULK v3: {} #{}, packet size = {}", r.oids, r.instanceId, b.remaining());
 						connector.send(address, b, r.sendCallback);
 						break;
 					}
 					case TRAP: {
-						Version3PacketBuilder builder = Version3PacketBuilder.trap(engine, r.instanceId, r.oid, r.trap);
+						Version3PacketBuilder builder = Version3PacketBuilder.trap(engine, r.instanceId, r.oids.get(0), r.trap);
 						ByteBuffer b = builder.getBuffer();
-						LOGGER.trace("Writing TRAP v3: {} #{}, packet size = {}", r.oid, r.instanceId, b.remaining());
+						LOGGER.trace("Writing TRAP v3: {} #{}, packet size = {}", r.oids, r.instanceId, b.remaining());
 						connector.send(address, b, r.sendCallback);
 						break;
 					}
@@ -414,7 +468,7 @@ public final class SnmpClient implements SnmpConnecter {
 	
 	private static final class InstanceMapper {
 		private final RequestIdProvider requestIdProvider;
-		private final Map<Integer, Instance> instances = new HashMap<>();
+		private final CorrelationTable<Instance> instances = new CorrelationTable<>();
 		
 		public InstanceMapper(RequestIdProvider requestIdProvider) {
 			this.requestIdProvider = requestIdProvider;
@@ -442,27 +496,32 @@ public final class SnmpClient implements SnmpConnecter {
 		}
 		
 		public void close() {
-			for (Instance i : instances.values()) {
-				i.close();
-			}
-			instances.clear();
+			instances.removeAll(new CorrelationTable.Visitor<Instance>() {
+				@Override
+				public void visit(int instanceId, Instance i) {
+					i.close();
+				}
+			});
 		}
 
-		public void fail(IOException ioe) {
-			for (Instance i : instances.values()) {
-				i.fail(ioe);
-			}
-			instances.clear();
+		public void fail(final IOException ioe) {
+			instances.removeAll(new CorrelationTable.Visitor<Instance>() {
+				@Override
+				public void visit(int instanceId, Instance i) {
+					i.fail(ioe);
+				}
+			});
 		}
 
-		public void handle(int instanceId, int errorStatus, int errorIndex, Iterable<SnmpResult> results) {
+		public void handle(int instanceId, final int errorStatus, final int errorIndex, final Iterable<SnmpResult> results) {
 			if (instanceId == Integer.MAX_VALUE) {
 				LOGGER.trace("Calling all instances (request ID = {})", Integer.MAX_VALUE);
-				List<Instance> l = new LinkedList<>(instances.values());
-				instances.clear();
-				for (Instance i : l) {
-					i.handle(errorStatus, errorIndex, results);
-				}
+				instances.removeAll(new CorrelationTable.Visitor<Instance>() {
+					@Override
+					public void visit(int instanceId, Instance i) {
+						i.handle(errorStatus, errorIndex, results);
+					}
+				});
 				return;
 			}
 			
@@ -474,13 +533,271 @@ public final class SnmpClient implements SnmpConnecter {
 		}
 	}
 	
+	// Only used from the client executor
+	private static final class Retransmitter {
+		private final Executor executor;
+		private final RoundTripTimes roundTripTimes = new RoundTripTimes(RETRY_RTO_INITIAL, RETRY_RTO_MIN, RETRY_RTO_MAX, RETRY_COOLDOWN, RETRY_CACHE_DURATION);
+		
+		public Retransmitter(Executor executor) {
+			this.executor = executor;
+		}
+		
+		public void schedule(final Instance instance) {
+			double timeout = roundTripTimes.timeout(instance.address, instance.attempt);
+			instance.retransmission = RETRY_EXECUTOR.schedule(new Runnable() {
+				@Override
+				public void run() {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							instance.retransmit();
+						}
+					});
+				}
+			}, (long) (timeout * 1000d), TimeUnit.MILLISECONDS);
+		}
+		
+		public void sample(Address address, double rtt) {
+			roundTripTimes.sample(address, rtt);
+		}
+		
+		public void reachable(Address address) {
+			roundTripTimes.reachable(address);
+		}
+		
+		public void unreachable(Address address) {
+			roundTripTimes.unreachable(address, DateUtils.now());
+		}
+		
+		public boolean isUnreachable(Address address) {
+			return roundTripTimes.isUnreachable(address, DateUtils.now());
+		}
+	}
+	
+	// Requests with many OIDs are split in several instances, each with its own request ID
+	private static final class Request {
+		private final Connecter connector;
+		private final InstanceMapper instanceMapper;
+		private final Retransmitter retransmitter;
+		private final Address address;
+		private final SnmpCallType snmpCallType;
+		private final String community;
+		private final int bulkLength;
+		private final Iterable<SnmpResult> trap;
+		private final AuthRemoteEnginePendingRequestManager authRemoteEnginePendingRequestManager;
+		private SnmpReceiver receiver;
+		
+		private final List<Instance> instances = new LinkedList<>();
+		
+		public Request(Connecter connector, InstanceMapper instanceMapper, Retransmitter retransmitter, Address address, SnmpCallType snmpCallType, String community, int bulkLength, Iterable<SnmpResult> trap, AuthRemoteEnginePendingRequestManager authRemoteEnginePendingRequestManager, SnmpReceiver receiver) {
+			this.connector = connector;
+			this.instanceMapper = instanceMapper;
+			this.retransmitter = retransmitter;
+			this.address = address;
+			this.snmpCallType = snmpCallType;
+			this.community = community;
+			this.bulkLength = bulkLength;
+			this.trap = trap;
+			this.authRemoteEnginePendingRequestManager = authRemoteEnginePendingRequestManager;
+			this.receiver = receiver;
+		}
+		
+		public void launch(List<Oid> oids) {
+			if (snmpCallType == SnmpCallType.TRAP) {
+				// Never answered: neither mapped nor retransmitted, and says nothing about the agent being reachable
+				launch(oids, bulkLength);
+				finishIfDone();
+				return;
+			}
+
+			if ((receiver != null) && retransmitter.isUnreachable(address)) {
+				LOGGER.trace("Unreachable: {}", address);
+				receiver.failed(new IOException("Unreachable"));
+				receiver = null;
+				return;
+			}
+
+			if (oids.size() <= 1) {
+				launch(oids, bulkLength);
+				return;
+			}
+
+			// Responses to GETBULK carry bulkLength varbinds per OID
+			int maxOids = (snmpCallType == SnmpCallType.GETBULK) ? Math.max(1, REQUEST_MAX_OIDS / bulkLength) : REQUEST_MAX_OIDS;
+			List<List<Oid>> split = new LinkedList<>();
+			List<Oid> current = new LinkedList<>();
+			int size = 0;
+			for (Oid oid : oids) {
+				int s = oid.ber().length + VARBIND_OVERHEAD;
+				if (!current.isEmpty() && ((current.size() >= maxOids) || ((size + s) > REQUEST_MAX_SIZE))) {
+					split.add(current);
+					current = new LinkedList<>();
+					size = 0;
+				}
+				current.add(oid);
+				size += s;
+			}
+			split.add(current);
+			
+			LOGGER.trace("Request split in {} ({} OIDs)", split.size(), oids.size());
+			for (List<Oid> l : split) {
+				launch(ImmutableList.copyOf(l), bulkLength);
+			}
+		}
+		
+		private void launch(List<Oid> oids, int bulkLength) {
+			Instance instance = new Instance(connector, instanceMapper, retransmitter, this, oids, bulkLength, address, snmpCallType, community, trap);
+			instance.authRemoteEnginePendingRequestManager = authRemoteEnginePendingRequestManager;
+			boolean waitForResponse = (receiver != null) && (snmpCallType != SnmpCallType.TRAP);
+			if (waitForResponse) {
+				instances.add(instance);
+			}
+			instance.launch(waitForResponse);
+		}
+		
+		public void cancel() {
+			List<Instance> l = new LinkedList<>(instances);
+			instances.clear();
+			for (Instance i : l) {
+				i.cancel();
+			}
+			receiver = null;
+		}
+		
+		public void fail(Instance instance, IOException e) {
+			instances.remove(instance);
+			SnmpReceiver r = receiver; // Cleared by cancel()
+			cancel();
+			if (r != null) {
+				r.failed(e);
+			}
+		}
+		
+		public void closed(Instance instance) {
+			instances.remove(instance);
+			cancel();
+		}
+		
+		public void handle(Instance instance, int errorStatus, int errorIndex, Iterable<SnmpResult> results) {
+			if (!instances.remove(instance)) {
+				return;
+			}
+			
+			if (errorStatus == BerConstants.ERROR_STATUS_AUTHENTICATION_NOT_SYNCED) {
+				fail(instance, new IOException("Authentication engine not synced"));
+				return;
+			}
+
+			if (errorStatus == BerConstants.ERROR_STATUS_AUTHENTICATION_FAILED) {
+				fail(instance, new IOException("Authentication failed"));
+				return;
+			}
+			
+			if (errorStatus == BerConstants.ERROR_STATUS_TIMEOUT) {
+				fail(instance, new IOException("Timeout"));
+				return;
+			}
+			
+			List<Oid> oids = instance.requestOids;
+
+			if (errorStatus == BerConstants.TOO_BIG_ERROR) {
+				if (oids.size() > 1) {
+					LOGGER.trace("Too big, splitting request ({} OIDs)", oids.size());
+					int half = oids.size() / 2;
+					launch(oids.subList(0, half), instance.bulkLength);
+					launch(oids.subList(half, oids.size()), instance.bulkLength);
+					return;
+				}
+				if ((snmpCallType == SnmpCallType.GETBULK) && (instance.bulkLength > 1)) {
+					LOGGER.trace("Too big, reducing bulk length to {}", instance.bulkLength / 2);
+					launch(oids, instance.bulkLength / 2);
+					return;
+				}
+				LOGGER.trace("Too big: {}", oids);
+				finishIfDone();
+				return;
+			}
+			
+			if ((errorStatus == BerConstants.NO_SUCH_NAME_ERROR) && (oids.size() > 1) && (errorIndex > 0) && (errorIndex <= oids.size())) {
+				// Agents without per-varbind exceptions reject the whole request, the faulty OID is removed
+				LOGGER.trace("No such name: {}", oids.get(errorIndex - 1));
+				List<Oid> l = new LinkedList<>(oids);
+				l.remove(errorIndex - 1);
+				launch(ImmutableList.copyOf(l), instance.bulkLength);
+				return;
+			}
+
+			if (errorStatus != 0) {
+				LOGGER.trace("Received error: {}/{}", errorStatus, errorIndex);
+			}
+			
+			if (receiver != null) {
+				if (oids.size() <= 1) {
+					for (SnmpResult r : results) {
+						received(r);
+					}
+				} else {
+					// Delivered grouped by requested OID
+					List<List<SnmpResult>> byOid = new ArrayList<>(oids.size());
+					for (int i = 0; i < oids.size(); i++) {
+						byOid.add(new LinkedList<SnmpResult>());
+					}
+					int i = 0;
+					for (SnmpResult r : results) {
+						int k;
+						if (snmpCallType == SnmpCallType.GET) {
+							k = oids.indexOf(r.oid);
+							if (k < 0) {
+								k = i % oids.size();
+							}
+						} else {
+							// GETNEXT and GETBULK (without non-repeaters) results follow the requested OIDs order
+							k = i % oids.size();
+						}
+						byOid.get(k).add(r);
+						i++;
+					}
+					for (List<SnmpResult> l : byOid) {
+						for (SnmpResult r : l) {
+							received(r);
+						}
+					}
+				}
+			}
+
+			finishIfDone();
+		}
+		
+		private void received(SnmpResult r) {
+			if (r.typedValue().isNull()) {
+				return;
+			}
+			LOGGER.trace("Addind to results: {}", r);
+			if (receiver != null) {
+				receiver.received(r);
+			}
+		}
+		
+		private void finishIfDone() {
+			if (!instances.isEmpty()) {
+				return;
+			}
+			if (receiver != null) {
+				receiver.finished();
+			}
+			receiver = null;
+		}
+	}
+	
 	private static final class Instance {
 		private final Connecter connector;
 		private final InstanceMapper instanceMapper;
+		private final Retransmitter retransmitter;
 		
-		private SnmpReceiver receiver;
+		private Request request;
 		
-		private final Oid requestOid;
+		public final List<Oid> requestOids;
+		public final int bulkLength;
 		public int instanceId = RequestIdProvider.IGNORE_ID;
 
 		private final Address address;
@@ -490,11 +807,18 @@ public final class SnmpClient implements SnmpConnecter {
 		
 		private final Iterable<SnmpResult> trap;
 
-		public Instance(Connecter connector, InstanceMapper instanceMapper, Oid requestOid, Address address, SnmpCallType snmpCallType, String community, Iterable<SnmpResult> trap) {
+		private int attempt = 0;
+		private double sentAt;
+		private ScheduledFuture<?> retransmission = null;
+
+		public Instance(Connecter connector, InstanceMapper instanceMapper, Retransmitter retransmitter, Request request, List<Oid> requestOids, int bulkLength, Address address, SnmpCallType snmpCallType, String community, Iterable<SnmpResult> trap) {
 			this.connector = connector;
 			this.instanceMapper = instanceMapper;
+			this.retransmitter = retransmitter;
+			this.request = request;
 			
-			this.requestOid = requestOid;
+			this.requestOids = requestOids;
+			this.bulkLength = bulkLength;
 			
 			this.address = address;
 			this.snmpCallType = snmpCallType;
@@ -503,23 +827,65 @@ public final class SnmpClient implements SnmpConnecter {
 			this.trap = trap;
 		}
 		
-		public void launch() {
-			if (receiver != null) {
+		public void launch(boolean waitForResponse) {
+			if (waitForResponse) {
 				instanceMapper.map(this);
+			} else {
+				request = null;
 			}
 			write();
+			if (request != null) {
+				retransmitter.schedule(this);
+			}
+		}
+		
+		// No response has been received in time
+		public void retransmit() {
+			retransmission = null;
+			if (request == null) {
+				return;
+			}
+			if (attempt >= RETRY_COUNT) {
+				LOGGER.trace("No response after {} retransmissions: {} #{}", attempt, requestOids, instanceId);
+				retransmitter.unreachable(address);
+				instanceMapper.unmap(this);
+				fail(new IOException("Timeout"));
+				return;
+			}
+			attempt++;
+			if (RETRY_NEW_ID) {
+				instanceMapper.map(this);
+			}
+			LOGGER.trace("Retransmitting ({}): {} #{}", attempt, requestOids, instanceId);
+			write();
+			retransmitter.schedule(this);
+		}
+		
+		private void cancelRetransmission() {
+			if (retransmission != null) {
+				retransmission.cancel(false);
+				retransmission = null;
+			}
 		}
 		
 		public void close() {
-			receiver = null;
+			cancelRetransmission();
+			if (request != null) {
+				Request r = request;
+				request = null;
+				r.closed(this);
+			}
 		}
 		
 		public void cancel() {
+			cancelRetransmission();
 			instanceMapper.unmap(this);
-			receiver = null;
+			request = null;
 		}
 
 		private void write() {
+			sentAt = DateUtils.now();
+
 			SendCallback sendCallback = new SendCallback() {
 				@Override
 				public void sent() {
@@ -533,30 +899,30 @@ public final class SnmpClient implements SnmpConnecter {
 			if (authRemoteEnginePendingRequestManager == null) {
 				switch (snmpCallType) { 
 					case GET: {
-						Version2cPacketBuilder builder = Version2cPacketBuilder.get(community, instanceId, requestOid);
+						Version2cPacketBuilder builder = Version2cPacketBuilder.get(community, instanceId, requestOids);
 						ByteBuffer b = builder.getBuffer();
-						LOGGER.trace("Writing GET: {} #{} ({}), packet size = {}", requestOid, instanceId, community, b.remaining());
+						LOGGER.trace("Writing GET: {} #{} ({}), packet size = {}", requestOids, instanceId, community, b.remaining());
 						connector.send(address, b, sendCallback);
 						break;
 					}
 					case GETNEXT: {
-						Version2cPacketBuilder builder = Version2cPacketBuilder.getNext(community, instanceId, requestOid);
+						Version2cPacketBuilder builder = Version2cPacketBuilder.getNext(community, instanceId, requestOids);
 						ByteBuffer b = builder.getBuffer();
-						LOGGER.trace("Writing GETNEXT: {} #{} ({}), packet size = {}", requestOid, instanceId, community, b.remaining());
+						LOGGER.trace("Writing GETNEXT: {} #{} ({}), packet size = {}", requestOids, instanceId, community, b.remaining());
 						connector.send(address, b, sendCallback);
 						break;
 					}
 					case GETBULK: {
-						Version2cPacketBuilder builder = Version2cPacketBuilder.getBulk(community, instanceId, requestOid, BULK_SIZE);
+						Version2cPacketBuilder builder = Version2cPacketBuilder.getBulk(community, instanceId, requestOids, bulkLength);
 						ByteBuffer b = builder.getBuffer();
-						LOGGER.trace("Writing GETBULK: {} #{} ({}), packet size = {}", requestOid, instanceId, community, b.remaining());
+						LOGGER.trace("Writing GETBULK: {} #{} ({}), packet size = {}", requestOids, instanceId, community, b.remaining());
 						connector.send(address, b, sendCallback);
 						break;
 					}
 					case TRAP: {
-						Version2cPacketBuilder builder = Version2cPacketBuilder.trap(community, instanceId, requestOid, trap);
+						Version2cPacketBuilder builder = Version2cPacketBuilder.trap(community, instanceId, requestOids.get(0), trap);
 						ByteBuffer b = builder.getBuffer();
-						LOGGER.trace("Writing TRAP: {} #{} ({}), packet size = {}", requestOid, instanceId, community, b.remaining());
+						LOGGER.trace("Writing TRAP: {} #{} ({}), packet size = {}", requestOids, instanceId, community, b.remaining());
 						connector.send(address, b, sendCallback);
 						break;
 					}
@@ -564,55 +930,34 @@ public final class SnmpClient implements SnmpConnecter {
 						break;
 				}
 			} else {
-				authRemoteEnginePendingRequestManager.registerPendingRequest(new AuthRemoteEnginePendingRequestManager.PendingRequest(snmpCallType, instanceId, requestOid, trap, sendCallback));
+				authRemoteEnginePendingRequestManager.registerPendingRequest(new AuthRemoteEnginePendingRequestManager.PendingRequest(snmpCallType, instanceId, requestOids, bulkLength, trap, sendCallback));
 				authRemoteEnginePendingRequestManager.sendPendingRequestsIfReady(address, connector);
 			}
 		}
 	
 		public void fail(IOException e) {
-			if (receiver != null) {
-				receiver.failed(e);
+			cancelRetransmission();
+			if (request != null) {
+				Request r = request;
+				request = null;
+				r.fail(this, e);
 			}
-			receiver = null;
 		}
 		
 		private void handle(int errorStatus, int errorIndex, Iterable<SnmpResult> results) {
-			if (requestOid == null) {
-				return;
-			}
-
-			if (errorStatus == BerConstants.ERROR_STATUS_AUTHENTICATION_NOT_SYNCED) {
-				fail(new IOException("Authentication engine not synced"));
-				return;
-			}
-
-			if (errorStatus == BerConstants.ERROR_STATUS_AUTHENTICATION_FAILED) {
-				fail(new IOException("Authentication failed"));
-				return;
-			}
-			
-			if (errorStatus == BerConstants.ERROR_STATUS_TIMEOUT) {
-				fail(new IOException("Timeout"));
-				return;
-			}
-
-			if (errorStatus != 0) {
-				LOGGER.trace("Received error: {}/{}", errorStatus, errorIndex);
-			}
-
-			for (SnmpResult r : results) {
-				if (r.value == null) {
-					continue;
+			cancelRetransmission();
+			if (request != null) {
+				// Karn: a response to a reused request ID may answer any of the transmissions
+				if ((attempt == 0) || RETRY_NEW_ID) {
+					retransmitter.sample(address, DateUtils.now() - sentAt);
+				} else {
+					retransmitter.reachable(address);
 				}
-				LOGGER.trace("Addind to results: {}", r);
-				if (receiver != null) {
-					receiver.received(r);
-				}
-			}
-			if (receiver != null) {
-				receiver.finished();
+
+				Request r = request;
+				request = null;
+				r.handle(this, errorStatus, errorIndex, results);
 			}
-			receiver = null;
 		}
 	}
 }
@@ -124,8 +124,8 @@ public final class SnmpInMemoryCacheInterpreter implements InMemoryCache.Interpr
 							ber.beginReadSequence();
 							{
 								Oid oid = ber.readOid();
-								String value = ber.readValue();
-								if (value != null) {
+								SnmpValue value = ber.readSnmpValue();
+								if (!value.isNull()) {
 									results.add(new SnmpResult(oid, value));
 								}
 							}
@@ -148,7 +148,7 @@ public final class SnmpInMemoryCacheInterpreter implements InMemoryCache.Interpr
 		for (SnmpResult r : results) {
 			oidSequence.add(new SequenceBerPacket(BerConstants.SEQUENCE)
 				.add(new OidBerPacket(r.oid))
-				.add(new BytesBerPacket(BerPacketUtils.bytes(r.value))));
+				.add(new BytesBerPacket(BerPacketUtils.bytes(r.value()))));
 		}
 
 		SequenceBerPacket root = new SequenceBerPacket(BerConstants.SEQUENCE)
@@ -5,8 +5,12 @@ import com.davfx.ninio.core.Address;
 public interface SnmpRequestBuilder extends Cancelable {
 	SnmpRequestBuilder community(String community);
 	SnmpRequestBuilder auth(AuthRemoteSpecification authRemoteSpecification);
+	// Max repetitions of GETBULK requests (defaults to bulkSize in configuration)
+	SnmpRequestBuilder bulkLength(int bulkLength);
 
 	SnmpRequestBuilder build(Address address, Oid oid);
+	// Many OIDs in as few requests as possible, results are grouped by requested OID
+	SnmpRequestBuilder build(Address address, Iterable<Oid> oids);
 	SnmpRequestBuilder add(Oid oid, String value);
 
 	Cancelable call(SnmpCallType type, SnmpReceiver callback);
@@ -4,21 +4,34 @@ import java.util.Objects;
 
 public final class SnmpResult {
 	public final Oid oid;
-	public final String value;
+	private final SnmpValue typedValue;
 
 	public SnmpResult(Oid oid, String value) {
+		this(oid, (value == null) ? SnmpValue.NULL : SnmpValue.string(value));
+	}
+
+	public SnmpResult(Oid oid, SnmpValue typedValue) {
 		this.oid = oid;
-		this.value = value;
+		this.typedValue = typedValue;
+	}
+
+	public SnmpValue typedValue() {
+		return typedValue;
+	}
+
+	// String form, only computed on first call (null for null values)
+	public String value() {
+		return typedValue.toString();
 	}
 
 	@Override
 	public String toString() {
-		return oid + ":" + value;
+		return oid + ":" + value();
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(oid, value);
+		return Objects.hash(oid, value());
 	}
 
 	@Override
@@ -33,6 +46,6 @@ public final class SnmpResult {
 			return false;
 		}
 		SnmpResult other = (SnmpResult) obj;
-		return Objects.equals(oid, other.oid) && Objects.equals(value, other.value);
+		return Objects.equals(oid, other.oid) && Objects.equals(value(), other.value());
 	}
 }
@@ -2,6 +2,7 @@ package com.davfx.ninio.snmp;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -81,7 +82,7 @@ public final class SnmpServer implements Disconnectable {
 				String community;
 				final int bulkLength;
 				int request;
-				final Oid oid;
+				final List<Oid> oids = new ArrayList<>();
 				try {
 					BerReader ber = new BerReader(buffer);
 					ber.beginReadSequence();
@@ -95,12 +96,14 @@ public final class SnmpServer implements Disconnectable {
 							bulkLength = ber.readInteger();
 							ber.beginReadSequence();
 							{
-								ber.beginReadSequence();
-								{
-									oid = ber.readOid();
-									ber.readNull();
+								while (ber.hasRemainingInSequence()) {
+									ber.beginReadSequence();
+									{
+										oids.add(ber.readOid());
+										ber.readNull();
+									}
+									ber.endReadSequence();
 								}
-								ber.endReadSequence();
 							}
 							ber.endReadSequence();
 						}
@@ -112,34 +115,22 @@ public final class SnmpServer implements Disconnectable {
 					return;
 				}
 
-				LOGGER.trace("Request with community: {} and oid: {}", community, oid);
+				LOGGER.trace("Request with community: {} and oids: {}", community, oids);
 				
 				if (request == BerConstants.GET) {
 					final List<SnmpResult> next = new LinkedList<>();
 
-					if (handler != null) {
-						handler.from(oid, new SnmpServerHandler.Callback() {
-							@Override
-							public boolean handle(SnmpResult result) {
-								// if (!oid.isPrefix(handleOid)) {
-								// return false;
-								// }
-								if (result.oid.equals(oid)) {
-									next.add(result);
-									return false;
-								}
-								return true;
-							}
-						});
-					}
-
-					if (next.isEmpty()) {
-						LOGGER.trace("GET {}: None", oid);
-						connecter.send(address, build(requestId, community, BerConstants.NO_SUCH_NAME_ERROR, 0, null), new Nop());
-						return;
+					for (int i = 0; i < oids.size(); i++) {
+						SnmpResult found = get(oids.get(i));
+						if (found == null) {
+							LOGGER.trace("GET {}: None", oids.get(i));
+							connecter.send(address, build(requestId, community, BerConstants.NO_SUCH_NAME_ERROR, i + 1, null), new Nop());
+							return;
+						}
+						next.add(found);
 					}
 
-					LOGGER.trace("GET {}: {}", oid, next);
+					LOGGER.trace("GET {}: {}", oids, next);
 					connecter.send(address, build(requestId, community, 0, 0, next), new Nop());
 					return;
 				}
@@ -147,65 +138,81 @@ public final class SnmpServer implements Disconnectable {
 				if (request == BerConstants.GETNEXT) {
 					final List<SnmpResult> next = new LinkedList<>();
 
-					if (handler != null) {
-						handler.from(oid, new SnmpServerHandler.Callback() {
-							@Override
-							public boolean handle(SnmpResult result) {
-								if (result.oid.equals(oid)) {
-									// Skipped
-									return true;
-								} else {
-									if (next.isEmpty()) {
-										next.add(result);
-									}
-									return false;
-								}
-							}
-						});
-					}
-
-					if (next.isEmpty()) {
-						LOGGER.trace("GETNEXT {}: No next", oid);
-						connecter.send(address, build(requestId, community, BerConstants.NO_SUCH_NAME_ERROR, 0, null), new Nop());
-						return;
+					for (int i = 0; i < oids.size(); i++) {
+						List<SnmpResult> found = next(oids.get(i), 1);
+						if (found.isEmpty()) {
+							LOGGER.trace("GETNEXT {}: No next", oids.get(i));
+							connecter.send(address, build(requestId, community, BerConstants.NO_SUCH_NAME_ERROR, i + 1, null), new Nop());
+							return;
+						}
+						next.addAll(found);
 					}
 
-					LOGGER.trace("GETNEXT {}: {}", oid, next);
+					LOGGER.trace("GETNEXT {}: {}", oids, next);
 					connecter.send(address, build(requestId, community, 0, 0, next), new Nop());
 					return;
 				}
 				
 				if (request == BerConstants.GETBULK) {
-					final List<SnmpResult> next = new LinkedList<>();
+					List<List<SnmpResult>> found = new ArrayList<>(oids.size());
+					for (Oid oid : oids) {
+						found.add(next(oid, bulkLength));
+					}
 
-					if (handler != null) {
-						handler.from(oid, new SnmpServerHandler.Callback() {
-							@Override
-							public boolean handle(SnmpResult result) {
-								// if (!oid.isPrefix(handleOid)) {
-								// return false;
-								// }
-								if (result.oid.equals(oid)) {
-									// Skipped
-								} else {
-									next.add(result);
-								}
-								return next.size() < bulkLength;
+					// Interleaved, one row per repetition
+					final List<SnmpResult> next = new LinkedList<>();
+					for (int r = 0; r < bulkLength; r++) {
+						for (List<SnmpResult> l : found) {
+							if (r < l.size()) {
+								next.add(l.get(r));
 							}
-						});
+						}
 					}
 
 					if (next.isEmpty()) {
-						LOGGER.trace("GETBULK {}: No next", oid);
+						LOGGER.trace("GETBULK {}: No next", oids);
 						connecter.send(address, build(requestId, community, BerConstants.NO_SUCH_NAME_ERROR, 0, null), new Nop());
 						return;
 					}
 
-					LOGGER.trace("GETBULK {}: {}", oid, next);
+					LOGGER.trace("GETBULK {}: {}", oids, next);
 					connecter.send(address, build(requestId, community, 0, 0, next), new Nop());
 					return;
 				}
 			}
+			
+			private SnmpResult get(final Oid oid) {
+				final List<SnmpResult> found = new LinkedList<>();
+				if (handler != null) {
+					handler.from(oid, new SnmpServerHandler.Callback() {
+						@Override
+						public boolean handle(SnmpResult result) {
+							if (result.oid.equals(oid)) {
+								found.add(result);
+								return false;
+							}
+							return result.oid.compareTo(oid) < 0; // Ordered results, the requested OID has been passed
+						}
+					});
+				}
+				return found.isEmpty() ? null : found.get(0);
+			}
+			
+			private List<SnmpResult> next(final Oid oid, final int count) {
+				final List<SnmpResult> found = new ArrayList<>();
+				if (handler != null) {
+					handler.from(oid, new SnmpServerHandler.Callback() {
+						@Override
+						public boolean handle(SnmpResult result) {
+							if (!result.oid.equals(oid)) {
+								found.add(result);
+							}
+							return found.size() < count;
+						}
+					});
+				}
+				return found;
+			}
 		});
 	}
 
@@ -218,7 +225,7 @@ public final class SnmpServer implements Disconnectable {
 			for (SnmpResult ov : oidValues) {
 				oidSequence.add(new SequenceBerPacket(BerConstants.SEQUENCE)
 					.add(new OidBerPacket(ov.oid))
-					.add(ber(ov.value)));
+					.add(ber(ov.value())));
 			}
 		}
 
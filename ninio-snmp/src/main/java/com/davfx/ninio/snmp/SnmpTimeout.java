@@ -43,6 +43,11 @@ public final class SnmpTimeout {
 				wrappee.auth(authRemoteSpecification);
 				return this;
 			}
+			@Override
+			public SnmpRequestBuilder bulkLength(int bulkLength) {
+				wrappee.bulkLength(bulkLength);
+				return this;
+			}
 			
 			@Override
 			public SnmpRequestBuilder build(Address address, Oid oid) {
@@ -50,6 +55,12 @@ public final class SnmpTimeout {
 				return this;
 			}
 			
+			@Override
+			public SnmpRequestBuilder build(Address address, Iterable<Oid> oids) {
+				wrappee.build(address, oids);
+				return this;
+			}
+			
 			@Override
 			public SnmpRequestBuilder add(Oid oid, String value) {
 				wrappee.add(oid, value);
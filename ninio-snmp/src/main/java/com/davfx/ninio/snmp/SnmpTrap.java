@@ -0,0 +1,32 @@
+package com.davfx.ninio.snmp;
+
+import java.util.List;
+
+import com.davfx.ninio.core.Address;
+
+public final class SnmpTrap {
+	public static final int VERSION_1 = 0;
+
+	public final Address from;
+	public final int version; // VERSION_1, BerConstants.VERSION_2C or BerConstants.VERSION_3
+	public final String community; // User name with v3
+	public final boolean inform;
+	public final int requestId; // Time stamp with v1
+	public final Oid trapOid;
+	public final List<SnmpResult> results;
+
+	public SnmpTrap(Address from, int version, String community, boolean inform, int requestId, Oid trapOid, List<SnmpResult> results) {
+		this.from = from;
+		this.version = version;
+		this.community = community;
+		this.inform = inform;
+		this.requestId = requestId;
+		this.trapOid = trapOid;
+		this.results = results;
+	}
+
+	@Override
+	public String toString() {
+		return (inform ? "INFORM" : "TRAP") + " v" + ((version == VERSION_1) ? 1 : ((version == BerConstants.VERSION_2C) ? "2c" : 3)) + " from " + from + " (" + community + ") #" + requestId + " " + trapOid + " " + results;
+	}
+}
@@ -0,0 +1,10 @@
+package com.davfx.ninio.snmp;
+
+import com.davfx.ninio.core.Closing;
+import com.davfx.ninio.core.Connecting;
+import com.davfx.ninio.core.Failing;
+
+// Called from the receiver worker threads, traps from the same source are always handled by the same thread, in order
+public interface SnmpTrapHandler extends Connecting, Failing, Closing {
+	void received(SnmpTrap trap);
+}
@@ -0,0 +1,444 @@
+package com.davfx.ninio.snmp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.davfx.ninio.core.Address;
+import com.davfx.ninio.core.Connecter;
+import com.davfx.ninio.core.Connection;
+import com.davfx.ninio.core.Disconnectable;
+import com.davfx.ninio.core.NinioBuilder;
+import com.davfx.ninio.core.NinioProvider;
+import com.davfx.ninio.core.Nop;
+import com.davfx.ninio.core.UdpSocket;
+import com.davfx.ninio.snmp.dependencies.Dependencies;
+import com.davfx.ninio.util.ClassThreadFactory;
+import com.davfx.ninio.util.ConfigUtils;
+import com.davfx.ninio.util.MemoryCache;
+import com.typesafe.config.Config;
+
+// Packets are only queued on the receiving thread, then decoded in batches by workers (one queue per worker, sources are spread by address)
+// Syntax: snmptrap -v2c -c<anything> 127.0.0.1:6162 '' 1.3.6.1.6.3.1.1.5.3 1.3.6.1.2.1.2.2.1.1.1 i 1
+// snmpinform -v2c -c<anything> 127.0.0.1:6162 '' 1.3.6.1.6.3.1.1.5.3 1.3.6.1.2.1.2.2.1.1.1 i 1
+public final class SnmpTrapReceiver implements Disconnectable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SnmpTrapReceiver.class);
+
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(SnmpTrapReceiver.class.getPackage().getName());
+
+	private static final int WORKERS = CONFIG.getInt("trap.workers");
+	private static final int QUEUE_SIZE = CONFIG.getInt("trap.queue");
+	private static final int BATCH_SIZE = CONFIG.getInt("trap.batch");
+	private static final double DEDUPLICATION_DURATION = ConfigUtils.getDuration(CONFIG, "trap.deduplicate");
+	private static final double AUTH_ENGINES_CACHE_DURATION = ConfigUtils.getDuration(CONFIG, "auth.cache");
+
+	private static final int TRAP_V1 = BerConstants.ASN_CONTEXT | BerConstants.ASN_CONSTRUCTOR | 0x4;
+	private static final Oid GENERIC_TRAP_OID_PREFIX = new Oid("1.3.6.1.6.3.1.1.5");
+
+	public static interface Builder extends NinioBuilder<SnmpTrapReceiver> {
+		Builder with(UdpSocket.Builder connectorFactory);
+		Builder workers(int workers);
+
+		// v3 users, by login
+		Builder auth(AuthRemoteSpecification authRemoteSpecification);
+
+		Builder handle(SnmpTrapHandler handler);
+	}
+
+	public static Builder builder() {
+		return new Builder() {
+			private UdpSocket.Builder connectorFactory = UdpSocket.builder().bind(new Address(Address.ANY, SnmpClient.DEFAULT_TRAP_PORT));
+			private int workers = WORKERS;
+			private final Map<String, AuthRemoteSpecification> users = new HashMap<>();
+			private SnmpTrapHandler handler = null;
+
+			@Override
+			public Builder with(UdpSocket.Builder connectorFactory) {
+				this.connectorFactory = connectorFactory;
+				return this;
+			}
+
+			@Override
+			public Builder workers(int workers) {
+				this.workers = workers;
+				return this;
+			}
+
+			@Override
+			public Builder auth(AuthRemoteSpecification authRemoteSpecification) {
+				users.put(authRemoteSpecification.authLogin, authRemoteSpecification);
+				return this;
+			}
+
+			@Override
+			public Builder handle(SnmpTrapHandler handler) {
+				this.handler = handler;
+				return this;
+			}
+
+			@Override
+			public SnmpTrapReceiver create(NinioProvider ninioProvider) {
+				if (handler == null) {
+					throw new NullPointerException("handler");
+				}
+				return new SnmpTrapReceiver(connectorFactory.create(ninioProvider), workers, new HashMap<>(users), handler);
+			}
+		};
+	}
+
+	private static final class Packet {
+		public final Address from;
+		public final ByteBuffer buffer;
+		public Packet(Address from, ByteBuffer buffer) {
+			this.from = from;
+			this.buffer = buffer;
+		}
+	}
+
+	// Retransmitted v1/v2c packets are identical, v3 ones are encrypted again but keep their request ID
+	private static final class Key {
+		private final Address from;
+		private final int requestId;
+		private final int contentHash;
+		public Key(Address from, int requestId, int contentHash) {
+			this.from = from;
+			this.requestId = requestId;
+			this.contentHash = contentHash;
+		}
+		@Override
+		public int hashCode() {
+			return Objects.hash(from, requestId, contentHash);
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return (requestId == other.requestId) && (contentHash == other.contentHash) && from.equals(other.from);
+		}
+	}
+
+	private final Connecter connecter;
+	private final Map<String, AuthRemoteSpecification> users;
+	private final SnmpTrapHandler handler;
+	private final Worker[] workers;
+	private volatile boolean closed = false;
+
+	private final AtomicLong receivedCount = new AtomicLong(0L);
+	private final AtomicLong droppedCount = new AtomicLong(0L);
+	private final AtomicLong duplicateCount = new AtomicLong(0L);
+	private final AtomicLong invalidCount = new AtomicLong(0L);
+
+	private SnmpTrapReceiver(Connecter connecter, int workerCount, Map<String, AuthRemoteSpecification> users, final SnmpTrapHandler handler) {
+		this.connecter = connecter;
+		this.users = users;
+		this.handler = handler;
+
+		ClassThreadFactory threadFactory = new ClassThreadFactory(SnmpTrapReceiver.class, true);
+		workers = new Worker[Math.max(1, workerCount)];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Worker();
+			threadFactory.newThread(workers[i]).start();
+		}
+
+		connecter.connect(new Connection() {
+			@Override
+			public void connected(Address address) {
+				handler.connected(address);
+			}
+
+			@Override
+			public void closed() {
+				handler.closed();
+			}
+
+			@Override
+			public void failed(IOException ioe) {
+				handler.failed(ioe);
+			}
+
+			@Override
+			public void received(Address address, ByteBuffer buffer) {
+				receivedCount.incrementAndGet();
+				Worker w = workers[(address.hashCode() & Integer.MAX_VALUE) % workers.length];
+				if (!w.queue.offer(new Packet(address, buffer))) {
+					droppedCount.incrementAndGet();
+				}
+			}
+		});
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		connecter.close();
+		for (Worker w : workers) {
+			w.queue.clear();
+			w.queue.offer(new Packet(null, null)); // Wakes the worker up
+		}
+	}
+
+	public long received() {
+		return receivedCount.get();
+	}
+	// Not queued, the workers could not keep up
+	public long dropped() {
+		return droppedCount.get();
+	}
+	public long duplicates() {
+		return duplicateCount.get();
+	}
+	public long invalid() {
+		return invalidCount.get();
+	}
+
+	private final class Worker implements Runnable {
+		public final BlockingQueue<Packet> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+		// Only used by this worker
+		private final MemoryCache<Key, Boolean> seen = MemoryCache.<Key, Boolean> builder().expireAfterWrite(DEDUPLICATION_DURATION).build();
+		private final MemoryCache<Address, AuthRemoteEngine> engines = MemoryCache.<Address, AuthRemoteEngine> builder().expireAfterAccess(AUTH_ENGINES_CACHE_DURATION).build();
+
+		@Override
+		public void run() {
+			List<Packet> batch = new ArrayList<>(BATCH_SIZE);
+			while (!closed) {
+				try {
+					batch.add(queue.take());
+				} catch (InterruptedException e) {
+					break;
+				}
+				queue.drainTo(batch, BATCH_SIZE - 1);
+				for (Packet p : batch) {
+					if (closed) {
+						break;
+					}
+					if (p.from == null) {
+						continue;
+					}
+					handle(p.from, p.buffer);
+				}
+				batch.clear();
+			}
+		}
+
+		private void handle(Address from, ByteBuffer buffer) {
+			int contentHash = buffer.hashCode();
+			SnmpTrap trap;
+			try {
+				trap = decode(from, buffer);
+			} catch (Exception e) {
+				LOGGER.trace("Invalid trap packet from {}", from, e);
+				invalidCount.incrementAndGet();
+				return;
+			}
+			if (trap == null) {
+				invalidCount.incrementAndGet();
+				return;
+			}
+
+			Key key = new Key(from, trap.requestId, (trap.version == BerConstants.VERSION_3) ? 0 : contentHash);
+			if (seen.get(key) != null) {
+				LOGGER.trace("Duplicate: {}", trap);
+				duplicateCount.incrementAndGet();
+				return;
+			}
+			seen.put(key, Boolean.TRUE);
+
+			try {
+				handler.received(trap);
+			} catch (Exception e) {
+				LOGGER.error("Trap handler failed", e);
+			}
+		}
+
+		private SnmpTrap decode(Address from, ByteBuffer buffer) throws IOException {
+			ByteBuffer packet = buffer.duplicate();
+			BerReader ber = new BerReader(buffer);
+			ber.beginReadSequence();
+			int version = ber.readInteger();
+			if (version == BerConstants.VERSION_3) {
+				return decodeVersion3(from, packet, ber);
+			}
+			if ((version != SnmpTrap.VERSION_1) && (version != BerConstants.VERSION_2C)) {
+				throw new IOException("Invalid version: " + version);
+			}
+			String community = BerPacketUtils.string(ber.readBytes());
+			int pduPosition = buffer.position();
+			int type = ber.beginReadSequence();
+
+			if (type == TRAP_V1) {
+				Oid enterprise = ber.readOid();
+				ber.readSnmpValue(); // Agent address
+				int generic = ber.readInteger();
+				int specific = ber.readInteger();
+				int timestamp = (int) ber.readSnmpValue().longValue();
+				Oid trapOid = (generic < 6) ? GENERIC_TRAP_OID_PREFIX.append(new Oid(new long[] { generic + 1 })) : enterprise.append(new Oid(new long[] { 0L, specific }));
+				return new SnmpTrap(from, version, community, false, timestamp, trapOid, readVarbinds(ber));
+			}
+
+			if ((type != BerConstants.TRAP) && (type != BerConstants.INFORM)) {
+				throw new IOException("Not a trap: " + type);
+			}
+			boolean inform = (type == BerConstants.INFORM);
+			int requestId = ber.readInteger();
+			ber.readInteger(); // Error status
+			ber.readInteger(); // Error index
+			List<SnmpResult> results = readVarbinds(ber);
+
+			if (inform) {
+				// The response is the inform itself, with the PDU type changed
+				ByteBuffer response = ByteBuffer.allocate(packet.remaining());
+				int start = packet.position();
+				response.put(packet);
+				response.flip();
+				response.put(pduPosition - start, (byte) BerConstants.RESPONSE);
+				connecter.send(from, response, new Nop());
+			}
+
+			return new SnmpTrap(from, version, community, inform, requestId, trapOid(results), results);
+		}
+
+		// Authenticated packets are dropped if their HMAC is not the one of the user, checked before the cached engine is updated
+		private SnmpTrap decodeVersion3(Address from, ByteBuffer packet, BerReader ber) throws IOException {
+			byte securityFlags;
+			ber.beginReadSequence();
+			{
+				ber.readInteger(); // Packet number
+				ber.readInteger(); // Max packet size
+				securityFlags = ber.readBytes().get();
+				int securityModel = ber.readInteger();
+				if (securityModel != BerConstants.VERSION_3_USM_SECURITY_MODEL) {
+					throw new IOException("Invalid security model: " + securityModel);
+				}
+			}
+			ber.endReadSequence();
+
+			BerReader secBer = new BerReader(ber.readBytes());
+			AuthRemoteEngine engine;
+			String login;
+			secBer.beginReadSequence();
+			{
+				ByteBuffer id = secBer.readBytes();
+				int bootCount = secBer.readInteger();
+				int time = secBer.readInteger();
+				login = BerPacketUtils.string(secBer.readBytes());
+				ByteBuffer authenticationParameters = secBer.readBytes();
+				ByteBuffer encryptionParameters = secBer.readBytes();
+
+				AuthRemoteSpecification specification = users.get(login);
+				if (specification == null) {
+					throw new IOException("Unknown user: " + login);
+				}
+				byte[] b = new byte[id.remaining()];
+				id.get(b);
+
+				if ((securityFlags & BerConstants.VERSION_3_AUTH_FLAG) != 0) {
+					authenticate(packet, authenticationParameters, AuthKeys.get(specification, b));
+				} else if ((specification.authPassword != null) || ((securityFlags & BerConstants.VERSION_3_PRIV_FLAG) != 0)) {
+					throw new IOException("Not authenticated: " + login);
+				}
+
+				engine = engines.get(from);
+				if ((engine == null) || !engine.authRemoteSpecification.equals(specification)) {
+					engine = new AuthRemoteEngine(specification);
+					engines.put(from, engine);
+				}
+				engine.setId(b);
+				engine.setBootCount(bootCount);
+				engine.resetTime(time);
+				if (encryptionParameters.hasRemaining()) {
+					b = new byte[encryptionParameters.remaining()];
+					encryptionParameters.get(b);
+					engine.setEncryptionParameters(b);
+				}
+			}
+			secBer.endReadSequence();
+
+			BerReader pdu;
+			if ((securityFlags & BerConstants.VERSION_3_PRIV_FLAG) != 0) {
+				pdu = new BerReader(engine.decrypt(ber.readBytes()));
+			} else {
+				pdu = ber;
+			}
+
+			pdu.beginReadSequence();
+			pdu.readBytes(); // Context engine ID
+			pdu.readBytes(); // Context name
+			int type = pdu.beginReadSequence();
+			if ((type != BerConstants.TRAP) && (type != BerConstants.INFORM)) {
+				throw new IOException("Not a trap: " + type);
+			}
+			int requestId = pdu.readInteger();
+			pdu.readInteger(); // Error status
+			pdu.readInteger(); // Error index
+			List<SnmpResult> results = readVarbinds(pdu);
+			if (type == BerConstants.INFORM) {
+				// Acknowledging requires this receiver to be discovered as an authoritative engine, not supported
+				LOGGER.trace("v3 inform not acknowledged: {} #{}", from, requestId);
+			}
+			return new SnmpTrap(from, BerConstants.VERSION_3, login, type == BerConstants.INFORM, requestId, trapOid(results), results);
+		}
+	}
+
+	// The HMAC is computed on the whole packet, with the authentication parameters zeroed
+	private static void authenticate(ByteBuffer packet, ByteBuffer authenticationParameters, AuthKeys keys) throws IOException {
+		byte[] received = new byte[authenticationParameters.remaining()];
+		authenticationParameters.duplicate().get(received);
+
+		ByteBuffer zeroed = ByteBuffer.allocate(packet.remaining());
+		zeroed.put(packet.duplicate());
+		zeroed.flip();
+		int offset = authenticationParameters.position() - packet.position(); // The parameters are a view on the packet
+		for (int i = 0; i < received.length; i++) {
+			zeroed.put(offset + i, (byte) 0);
+		}
+
+		if (!MessageDigest.isEqual(keys.hmac(zeroed), received)) {
+			throw new IOException("Authentication failed");
+		}
+	}
+
+	private static List<SnmpResult> readVarbinds(BerReader ber) throws IOException {
+		List<SnmpResult> results = new ArrayList<>();
+		ber.beginReadSequence();
+		while (ber.hasRemainingInSequence()) {
+			ber.beginReadSequence();
+			{
+				Oid oid = ber.readOid();
+				SnmpValue value = ber.readSnmpValue();
+				if (!value.isNull()) {
+					results.add(new SnmpResult(oid, value));
+				}
+			}
+			ber.endReadSequence();
+		}
+		ber.endReadSequence();
+		return results;
+	}
+
+	private static Oid trapOid(List<SnmpResult> results) {
+		for (SnmpResult r : results) {
+			if (r.oid.equals(BerConstants.TRAP_OID)) {
+				if (r.typedValue().kind == SnmpValue.Kind.OID) {
+					return r.typedValue().oid();
+				}
+				return new Oid(r.value()); // Sent as a string by some agents
+			}
+		}
+		return null;
+	}
+}
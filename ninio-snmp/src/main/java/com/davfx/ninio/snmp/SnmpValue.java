@@ -0,0 +1,230 @@
+package com.davfx.ninio.snmp;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.UnsignedLongs;
+
+// Typed varbind value, numbers are kept as primitives and the string form is only computed when asked for
+public final class SnmpValue {
+
+	// Streaming view of the values, primitives are not boxed
+	public static interface Visitor {
+		// NULL, or an exception (noSuchObject, noSuchInstance, endOfMibView)
+		void visitNull(int type);
+		// INTEGER and OPAQUE_INTEGER64 are signed, counters, gauges, time ticks and OPAQUE_UNSIGNEDINTEGER64 are unsigned
+		void visitLong(int type, long value, boolean unsigned);
+		void visitDouble(int type, double value);
+		// OCTETSTRING, IPADDRESS and unknown types, the buffer is only valid during the call
+		void visitBytes(int type, ByteBuffer value);
+		void visitOid(Oid value);
+	}
+
+	public static enum Kind {
+		NULL, SIGNED, UNSIGNED, DOUBLE, BYTES, IP, OID
+	}
+
+	public static final SnmpValue NULL = new SnmpValue(BerConstants.NULL, Kind.NULL, 0L, 0d, null, null);
+
+	public static SnmpValue nullValue(int type) {
+		if (type == BerConstants.NULL) {
+			return NULL;
+		}
+		return new SnmpValue(type, Kind.NULL, 0L, 0d, null, null);
+	}
+	public static SnmpValue signed(int type, long value) {
+		return new SnmpValue(type, Kind.SIGNED, value, 0d, null, null);
+	}
+	public static SnmpValue unsigned(int type, long value) {
+		return new SnmpValue(type, Kind.UNSIGNED, value, 0d, null, null);
+	}
+	public static SnmpValue floating(int type, double value) {
+		return new SnmpValue(type, Kind.DOUBLE, 0L, value, null, null);
+	}
+	public static SnmpValue bytes(int type, byte[] value) {
+		return new SnmpValue(type, (type == BerConstants.IPADDRESS) ? Kind.IP : Kind.BYTES, 0L, 0d, value, null);
+	}
+	public static SnmpValue oid(Oid value) {
+		return new SnmpValue(BerConstants.OID, Kind.OID, 0L, 0d, null, value);
+	}
+	// Octet string, the string form is kept as is
+	public static SnmpValue string(String value) {
+		SnmpValue v = new SnmpValue(BerConstants.OCTETSTRING, Kind.BYTES, 0L, 0d, value.getBytes(Charsets.US_ASCII), null);
+		v.string = value;
+		return v;
+	}
+
+	public final int type; // ASN.1 tag
+	public final Kind kind;
+	private final long longValue;
+	private final double doubleValue;
+	private final byte[] bytes;
+	private final Oid oid;
+
+	private String string = null;
+
+	private SnmpValue(int type, Kind kind, long longValue, double doubleValue, byte[] bytes, Oid oid) {
+		this.type = type;
+		this.kind = kind;
+		this.longValue = longValue;
+		this.doubleValue = doubleValue;
+		this.bytes = bytes;
+		this.oid = oid;
+	}
+
+	public boolean isNull() {
+		return kind == Kind.NULL;
+	}
+
+	// Unsigned values greater than Long.MAX_VALUE (COUNTER64) are negative, use UnsignedLongs to handle them
+	public long longValue() {
+		switch (kind) {
+		case SIGNED:
+		case UNSIGNED:
+			return longValue;
+		case DOUBLE:
+			return (long) doubleValue;
+		default:
+			throw new IllegalStateException("Not a number: " + kind);
+		}
+	}
+
+	public double doubleValue() {
+		switch (kind) {
+		case SIGNED:
+			return longValue;
+		case UNSIGNED:
+			return (longValue >= 0L) ? longValue : (((longValue >>> 1) * 2d) + (longValue & 1L));
+		case DOUBLE:
+			return doubleValue;
+		default:
+			throw new IllegalStateException("Not a number: " + kind);
+		}
+	}
+
+	// Not copied, must not be modified
+	public byte[] bytes() {
+		if (bytes == null) {
+			throw new IllegalStateException("Not bytes: " + kind);
+		}
+		return bytes;
+	}
+
+	public Oid oid() {
+		if (oid == null) {
+			throw new IllegalStateException("Not an OID: " + kind);
+		}
+		return oid;
+	}
+
+	public void accept(Visitor visitor) {
+		switch (kind) {
+		case NULL:
+			visitor.visitNull(type);
+			break;
+		case SIGNED:
+			visitor.visitLong(type, longValue, false);
+			break;
+		case UNSIGNED:
+			visitor.visitLong(type, longValue, true);
+			break;
+		case DOUBLE:
+			visitor.visitDouble(type, doubleValue);
+			break;
+		case OID:
+			visitor.visitOid(oid);
+			break;
+		default:
+			visitor.visitBytes(type, ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+			break;
+		}
+	}
+
+	// Same string form as the one historically returned by BerReader.readValue (null for null values)
+	@Override
+	public String toString() {
+		String s = string;
+		if (s == null) {
+			s = computeString();
+			string = s;
+		}
+		return s;
+	}
+
+	private String computeString() {
+		switch (kind) {
+		case NULL:
+			return null;
+		case SIGNED:
+			return String.valueOf(longValue);
+		case UNSIGNED:
+			return UnsignedLongs.toString(longValue);
+		case DOUBLE:
+			if (type == BerConstants.OPAQUE_FLOAT) {
+				return String.valueOf((float) doubleValue);
+			}
+			return String.valueOf(doubleValue);
+		case OID:
+			return oid.toString();
+		case IP:
+			return ipString(bytes);
+		default:
+			return string(bytes);
+		}
+	}
+
+	private static String ipString(byte[] bytes) {
+		StringBuilder b = new StringBuilder();
+		if (bytes.length == 4) {
+			for (byte k : bytes) {
+				if (b.length() > 0) {
+					b.append('.');
+				}
+				b.append(String.valueOf(k & 0xFF));
+			}
+			return b.toString();
+		}
+
+		for (int i = 0; (i + 1) < bytes.length; i += 2) {
+			int k = ((bytes[i] & 0xFF) << 8) | (bytes[i + 1] & 0xFF);
+			if (b.length() > 0) {
+				b.append(':');
+			}
+			b.append(Integer.toHexString(k));
+		}
+		return b.toString();
+	}
+
+	private static String string(byte[] bytes) {
+		for (byte k : bytes) {
+			int c = k & 0xFF;
+			if (((c < 32) && (c != 10) && (c != 13)) || (c >= 127)) {
+				return BaseEncoding.base16().encode(bytes);
+			}
+		}
+		return new String(bytes, Charsets.US_ASCII);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(type, kind, longValue, doubleValue, Arrays.hashCode(bytes), oid);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (!(obj instanceof SnmpValue)) {
+			return false;
+		}
+		SnmpValue other = (SnmpValue) obj;
+		return (type == other.type) && (kind == other.kind) && (longValue == other.longValue) && (Double.compare(doubleValue, other.doubleValue) == 0) && Arrays.equals(bytes, other.bytes) && Objects.equals(oid, other.oid);
+	}
+}
@@ -0,0 +1,413 @@
+package com.davfx.ninio.snmp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.davfx.ninio.core.Address;
+import com.davfx.ninio.core.Failing;
+import com.davfx.ninio.snmp.dependencies.Dependencies;
+import com.davfx.ninio.util.ConfigUtils;
+import com.davfx.ninio.util.SerialExecutor;
+import com.google.common.collect.ImmutableList;
+import com.typesafe.config.Config;
+
+// Walks subtrees and tables with parallel GETBULK streams, each agent having a bounded number of in-flight requests
+public final class SnmpWalker {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SnmpWalker.class);
+
+	private static final Config CONFIG = ConfigUtils.load(new Dependencies()).getConfig(SnmpWalker.class.getPackage().getName());
+
+	private static final int INITIAL_BULK_LENGTH = CONFIG.getInt("walk.bulk.initial");
+	private static final int MAX_BULK_LENGTH = CONFIG.getInt("walk.bulk.max");
+	private static final int DEFAULT_LIMIT = CONFIG.getInt("walk.limit");
+
+	public static interface TableReceiver extends Failing {
+		// Called in index order, values follow the columns order (null if the row has no value in a column)
+		void received(Oid index, List<String> row);
+		void finished();
+	}
+
+	public static interface Walk {
+		Walk community(String community);
+		Walk auth(AuthRemoteSpecification authRemoteSpecification);
+
+		Cancelable walk(Address address, Oid root, SnmpReceiver receiver);
+		// The subtree is split in as many streams as start points, results are ordered within each stream only
+		Cancelable walk(Address address, Oid root, Iterable<Oid> startPoints, SnmpReceiver receiver);
+		// One stream per column, rows are assembled by index
+		Cancelable table(Address address, List<Oid> columns, TableReceiver receiver);
+	}
+
+	public static interface Builder {
+		Builder with(SnmpConnecter connecter);
+		// Max in-flight requests per agent
+		Builder limit(int limit);
+		SnmpWalker build();
+	}
+
+	public static Builder builder() {
+		return new Builder() {
+			private SnmpConnecter connecter = null;
+			private int limit = DEFAULT_LIMIT;
+
+			@Override
+			public Builder with(SnmpConnecter connecter) {
+				this.connecter = connecter;
+				return this;
+			}
+
+			@Override
+			public Builder limit(int limit) {
+				this.limit = limit;
+				return this;
+			}
+
+			@Override
+			public SnmpWalker build() {
+				if (connecter == null) {
+					throw new NullPointerException("connecter");
+				}
+				return new SnmpWalker(connecter, limit);
+			}
+		};
+	}
+
+	private final Executor executor = new SerialExecutor(SnmpWalker.class);
+	private final SnmpConnecter connecter;
+	private final int limit;
+
+	private final Map<Address, Agent> agents = new HashMap<>();
+
+	private SnmpWalker(SnmpConnecter connecter, int limit) {
+		this.connecter = connecter;
+		this.limit = limit;
+	}
+
+	public Walk request() {
+		return new Walk() {
+			private String community = null;
+			private AuthRemoteSpecification authRemoteSpecification = null;
+
+			@Override
+			public Walk community(String community) {
+				this.community = community;
+				return this;
+			}
+			@Override
+			public Walk auth(AuthRemoteSpecification authRemoteSpecification) {
+				this.authRemoteSpecification = authRemoteSpecification;
+				return this;
+			}
+
+			@Override
+			public Cancelable walk(Address address, Oid root, SnmpReceiver receiver) {
+				return walk(address, root, ImmutableList.<Oid> of(), receiver);
+			}
+
+			@Override
+			public Cancelable walk(Address address, Oid root, Iterable<Oid> startPoints, final SnmpReceiver receiver) {
+				TreeSet<Oid> sorted = new TreeSet<>();
+				for (Oid o : startPoints) {
+					if (root.isPrefixOf(o) && !root.equals(o)) {
+						sorted.add(o);
+					}
+				}
+
+				List<Stream> streams = new ArrayList<>(sorted.size() + 1);
+				Oid start = root;
+				for (Oid o : sorted) {
+					// A stream stops at (and includes) the start point of the next one
+					streams.add(new Stream(root, start, o));
+					start = o;
+				}
+				streams.add(new Stream(root, start, null));
+
+				return start(new Walking(address, community, authRemoteSpecification, streams) {
+					@Override
+					protected void received(Stream stream, SnmpResult result) {
+						receiver.received(result);
+					}
+					@Override
+					protected void finished() {
+						receiver.finished();
+					}
+					@Override
+					protected void failed(IOException ioe) {
+						receiver.failed(ioe);
+					}
+				});
+			}
+
+			@Override
+			public Cancelable table(Address address, List<Oid> columns, final TableReceiver receiver) {
+				final List<Oid> c = ImmutableList.copyOf(columns);
+				List<Stream> streams = new ArrayList<>(c.size());
+				for (Oid column : c) {
+					streams.add(new Stream(column, column, null));
+				}
+
+				final TreeMap<Oid, String[]> rows = new TreeMap<>();
+				return start(new Walking(address, community, authRemoteSpecification, streams) {
+					@Override
+					protected void received(Stream stream, SnmpResult result) {
+						Oid index = stream.prefix.sub(result.oid);
+						String[] row = rows.get(index);
+						if (row == null) {
+							row = new String[c.size()];
+							rows.put(index, row);
+						}
+						row[stream.id] = result.value();
+					}
+					@Override
+					protected void finished() {
+						for (Map.Entry<Oid, String[]> e : rows.entrySet()) {
+							receiver.received(e.getKey(), Collections.unmodifiableList(Arrays.asList(e.getValue())));
+						}
+						rows.clear();
+						receiver.finished();
+					}
+					@Override
+					protected void failed(IOException ioe) {
+						rows.clear();
+						receiver.failed(ioe);
+					}
+				});
+			}
+		};
+	}
+
+	private static final class Agent {
+		public int inFlight = 0;
+		public final LinkedList<Runnable> waiting = new LinkedList<>();
+	}
+
+	private static final class Stream {
+		public int id;
+		public final Oid prefix;
+		public final Oid end;
+		public Oid cursor;
+		public int bulkLength = INITIAL_BULK_LENGTH;
+		public SnmpRequestBuilder request = null;
+		public boolean inFlight = false;
+
+		public Stream(Oid prefix, Oid start, Oid end) {
+			this.prefix = prefix;
+			this.end = end;
+			cursor = start;
+		}
+	}
+
+	private static abstract class Walking {
+		public final Address address;
+		public final String community;
+		public final AuthRemoteSpecification authRemoteSpecification;
+		public final List<Stream> streams;
+		public int remaining;
+		public boolean done = false;
+
+		public Walking(Address address, String community, AuthRemoteSpecification authRemoteSpecification, List<Stream> streams) {
+			this.address = address;
+			this.community = community;
+			this.authRemoteSpecification = authRemoteSpecification;
+			this.streams = streams;
+			remaining = streams.size();
+			int id = 0;
+			for (Stream s : streams) {
+				s.id = id;
+				id++;
+			}
+		}
+
+		protected abstract void received(Stream stream, SnmpResult result);
+		protected abstract void finished();
+		protected abstract void failed(IOException ioe);
+	}
+
+	private Cancelable start(final Walking walking) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				LOGGER.trace("Walking {} in {} streams", walking.address, walking.streams.size());
+				if (walking.streams.isEmpty()) {
+					walking.done = true;
+					walking.finished();
+					return;
+				}
+				for (Stream s : walking.streams) {
+					next(walking, s);
+				}
+			}
+		});
+		return new Cancelable() {
+			@Override
+			public void cancel() {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						stop(walking);
+					}
+				});
+			}
+		};
+	}
+
+	private void acquire(Address address, Runnable runnable) {
+		Agent agent = agents.get(address);
+		if (agent == null) {
+			agent = new Agent();
+			agents.put(address, agent);
+		}
+		if ((limit > 0) && (agent.inFlight >= limit)) {
+			agent.waiting.add(runnable);
+			return;
+		}
+		agent.inFlight++;
+		runnable.run();
+	}
+
+	private void release(Address address) {
+		Agent agent = agents.get(address);
+		if (agent == null) {
+			return;
+		}
+		agent.inFlight--;
+		Runnable next = agent.waiting.poll();
+		if (next != null) {
+			agent.inFlight++;
+			next.run();
+			return;
+		}
+		if (agent.inFlight == 0) {
+			agents.remove(address);
+		}
+	}
+
+	private void stop(Walking walking) {
+		walking.done = true;
+		for (Stream s : walking.streams) {
+			if (s.inFlight) {
+				s.inFlight = false;
+				s.request.cancel();
+				release(walking.address);
+			}
+		}
+	}
+
+	private void next(final Walking walking, final Stream stream) {
+		acquire(walking.address, new Runnable() {
+			@Override
+			public void run() {
+				if (walking.done) {
+					release(walking.address);
+					return;
+				}
+
+				SnmpRequestBuilder r = connecter.request();
+				if (walking.community != null) {
+					r.community(walking.community);
+				}
+				if (walking.authRemoteSpecification != null) {
+					r.auth(walking.authRemoteSpecification);
+				}
+				r.bulkLength(stream.bulkLength).build(walking.address, stream.cursor);
+				stream.request = r;
+				stream.inFlight = true;
+
+				final SnmpRequestBuilder current = r;
+				r.call(SnmpCallType.GETBULK, new SnmpReceiver() {
+					private final List<SnmpResult> results = new LinkedList<>();
+
+					@Override
+					public void received(SnmpResult result) {
+						results.add(result);
+					}
+
+					@Override
+					public void finished() {
+						executor.execute(new Runnable() {
+							@Override
+							public void run() {
+								if (!stream.inFlight || (stream.request != current)) {
+									return;
+								}
+								stream.inFlight = false;
+								release(walking.address);
+								handle(walking, stream, results);
+							}
+						});
+					}
+
+					@Override
+					public void failed(final IOException ioe) {
+						executor.execute(new Runnable() {
+							@Override
+							public void run() {
+								if (!stream.inFlight || (stream.request != current)) {
+									return;
+								}
+								stream.inFlight = false;
+								// Stopped first, the released slot goes to another walk, not to the remaining streams of this one
+								if (!walking.done) {
+									stop(walking);
+									walking.failed(ioe);
+								}
+								release(walking.address);
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	private void handle(Walking walking, Stream stream, List<SnmpResult> results) {
+		if (walking.done) {
+			return;
+		}
+
+		boolean ended = results.isEmpty();
+		for (SnmpResult r : results) {
+			if (!stream.prefix.isPrefixOf(r.oid) || ((stream.end != null) && (r.oid.compareTo(stream.end) > 0)) || (r.oid.compareTo(stream.cursor) <= 0)) {
+				// Out of the subtree (or the stream range), or not increasing (agent bug)
+				ended = true;
+				break;
+			}
+			walking.received(stream, r);
+			stream.cursor = r.oid;
+			if (r.oid.equals(stream.end)) {
+				ended = true;
+				break;
+			}
+		}
+
+		if (ended) {
+			walking.remaining--;
+			if (walking.remaining == 0) {
+				walking.done = true;
+				walking.finished();
+			}
+			return;
+		}
+
+		if (results.size() >= stream.bulkLength) {
+			stream.bulkLength = Math.min(MAX_BULK_LENGTH, stream.bulkLength * 2);
+		} else {
+			// Agent truncated the response to fit its max message size
+			stream.bulkLength = Math.max(1, results.size());
+		}
+		LOGGER.trace("Walking {} from {} (bulk length = {})", walking.address, stream.cursor, stream.bulkLength);
+		next(walking, stream);
+	}
+}
@@ -1,58 +1,111 @@
 package com.davfx.ninio.snmp;
 
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.ImmutableList;
 
 public final class Version2cPacketBuilder {
-	
-	private static interface Value {
-		BerPacket ber();
-	}
-	
-	private static final class OidValue {
-		public final Oid oid;
-		public final Value value;
-		public OidValue(Oid oid, Value value) {
-			this.oid = oid;
-			this.value = value;
+
+	private static final int MAX_PACKET_SIZE = 64 * 1024;
+	private static final int MAX_CACHED_HEADERS = 1024;
+
+	// Packets are encoded in a per-thread buffer, then copied to their own buffer (kept by the connecter until sent)
+	private static final ThreadLocal<BerWriter> WRITERS = new ThreadLocal<BerWriter>() {
+		@Override
+		protected BerWriter initialValue() {
+			return new BerWriter(new byte[MAX_PACKET_SIZE]);
+		}
+	};
+
+	// Version and community, encoded once per community
+	private static final ConcurrentMap<String, byte[]> HEADERS = new ConcurrentHashMap<>();
+
+	private static byte[] header(String community) {
+		byte[] h = HEADERS.get(community);
+		if (h == null) {
+			BerWriter w = new BerWriter(new byte[community.length() + 16]);
+			w.writeBytes(BerConstants.OCTETSTRING, BerPacketUtils.bytes(community).array());
+			w.writeInteger(BerConstants.VERSION_2C);
+			h = new byte[w.length()];
+			w.buffer().get(h);
+			if (HEADERS.size() >= MAX_CACHED_HEADERS) {
+				HEADERS.clear();
+			}
+			HEADERS.put(community, h);
 		}
+		return h;
 	}
-	
+
 	private final ByteBuffer buffer;
 
-	private Version2cPacketBuilder(String community, int requestId, int type, int bulkLength, Iterable<OidValue> oidValues) {
-		SequenceBerPacket seq = new SequenceBerPacket(BerConstants.SEQUENCE);
-		for (OidValue oidValue : oidValues) {
-			seq.add(new SequenceBerPacket(BerConstants.SEQUENCE)
-						.add(new OidBerPacket(oidValue.oid))
-						.add(oidValue.value.ber()));
+	private Version2cPacketBuilder(String community, int requestId, int type, int bulkLength, List<Oid> oids) {
+		BerWriter w = WRITERS.get().reset();
+
+		// Backwards, from the last varbind to the header
+		ListIterator<Oid> i = oids.listIterator(oids.size());
+		while (i.hasPrevious()) {
+			int varbind = w.length();
+			w.writeNull();
+			w.writeOid(i.previous());
+			w.writeSequence(BerConstants.SEQUENCE, varbind);
 		}
-		SequenceBerPacket root = new SequenceBerPacket(BerConstants.SEQUENCE)
-			.add(new IntegerBerPacket(BerConstants.VERSION_2C))
-			.add(new BytesBerPacket(BerPacketUtils.bytes(community)))
-			.add(new SequenceBerPacket(type)
-				.add(new IntegerBerPacket(requestId))
-				.add(new IntegerBerPacket(0))
-				.add(new IntegerBerPacket(bulkLength))
-				.add(seq));
-
-		buffer = ByteBuffer.allocate(BerPacketUtils.typeAndLengthBufferLength(root.lengthBuffer()) + root.length());
-		root.write(buffer);
-		buffer.flip();
+
+		buffer = finish(w, community, requestId, type, bulkLength);
 	}
 
-	private static Iterable<OidValue> single(Oid oid) {
-		List<OidValue> l = new LinkedList<>();
-		l.add(new OidValue(oid, new Value() {
-			@Override
-			public BerPacket ber() {
-				return new NullBerPacket();
-			}
-		}));
-		return l;
+	private Version2cPacketBuilder(String community, int requestId, Oid trapOid, List<SnmpResult> oidValues) {
+		BerWriter w = WRITERS.get().reset();
+
+		ListIterator<SnmpResult> i = oidValues.listIterator(oidValues.size());
+		while (i.hasPrevious()) {
+			SnmpResult r = i.previous();
+			int varbind = w.length();
+			w.writeBytes(BerConstants.OCTETSTRING, BerPacketUtils.bytes(r.value()).array());
+			w.writeOid(r.oid);
+			w.writeSequence(BerConstants.SEQUENCE, varbind);
+		}
+
+		int varbind = w.length();
+		w.writeOid(trapOid);
+		w.writeOid(BerConstants.TRAP_OID);
+		w.writeSequence(BerConstants.SEQUENCE, varbind);
+
+		varbind = w.length();
+		w.writeInteger((int) (System.currentTimeMillis() / 10L));
+		w.writeOid(BerConstants.TIMESTAMP_OID);
+		w.writeSequence(BerConstants.SEQUENCE, varbind);
+
+		buffer = finish(w, community, requestId, BerConstants.TRAP, 0);
+	}
+
+	// Varbinds have been written from the beginning of the writer
+	private static ByteBuffer finish(BerWriter w, String community, int requestId, int type, int bulkLength) {
+		w.writeSequence(BerConstants.SEQUENCE, 0);
+		w.writeInteger(bulkLength);
+		w.writeInteger(0);
+		w.writeInteger(requestId);
+		w.writeSequence(type, 0);
+		w.writeRaw(header(community));
+		w.writeSequence(BerConstants.SEQUENCE, 0);
+		return w.copy();
+	}
+
+	private static List<Oid> list(Iterable<Oid> oids) {
+		if (oids instanceof List) {
+			return (List<Oid>) oids;
+		}
+		return ImmutableList.copyOf(oids);
+	}
+
+	private static List<Oid> single(Oid oid) {
+		return Collections.singletonList(oid);
 	}
-	
+
 	public static Version2cPacketBuilder getBulk(String community, int requestId, Oid oid, int bulkLength) {
 		return new Version2cPacketBuilder(community, requestId, BerConstants.GETBULK, bulkLength, single(oid));
 	}
@@ -63,29 +116,18 @@ public final class Version2cPacketBuilder {
 		return new Version2cPacketBuilder(community, requestId, BerConstants.GETNEXT, 0, single(oid));
 	}
 
-	public static Version2cPacketBuilder trap(String community, int requestId, final Oid trapOid, Iterable<SnmpResult> oidValues) {
-		List<OidValue> l = new LinkedList<>();
-		l.add(new OidValue(BerConstants.TIMESTAMP_OID, new Value() {
-			@Override
-			public BerPacket ber() {
-				return new IntegerBerPacket((int) (System.currentTimeMillis() / 10L));
-			}
-		}));
-		l.add(new OidValue(BerConstants.TRAP_OID, new Value() {
-			@Override
-			public BerPacket ber() {
-				return new OidBerPacket(trapOid);
-			}
-		}));
-		for (final SnmpResult oidValue : oidValues) {
-			l.add(new OidValue(oidValue.oid, new Value() {
-				@Override
-				public BerPacket ber() {
-					return new BytesBerPacket(BerPacketUtils.bytes(oidValue.value));
-				}
-			}));
-		}
-		return new Version2cPacketBuilder(community, requestId, BerConstants.TRAP, 0, l);
+	public static Version2cPacketBuilder getBulk(String community, int requestId, Iterable<Oid> oids, int bulkLength) {
+		return new Version2cPacketBuilder(community, requestId, BerConstants.GETBULK, bulkLength, list(oids));
+	}
+	public static Version2cPacketBuilder get(String community, int requestId, Iterable<Oid> oids) {
+		return new Version2cPacketBuilder(community, requestId, BerConstants.GET, 0, list(oids));
+	}
+	public static Version2cPacketBuilder getNext(String community, int requestId, Iterable<Oid> oids) {
+		return new Version2cPacketBuilder(community, requestId, BerConstants.GETNEXT, 0, list(oids));
+	}
+
+	public static Version2cPacketBuilder trap(String community, int requestId, Oid trapOid, Iterable<SnmpResult> oidValues) {
+		return new Version2cPacketBuilder(community, requestId, trapOid, ImmutableList.copyOf(oidValues));
 	}
 
 	public ByteBuffer getBuffer() {
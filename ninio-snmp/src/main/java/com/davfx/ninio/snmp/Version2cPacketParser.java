@@ -59,8 +59,8 @@ public final class Version2cPacketParser {
 						ber.beginReadSequence();
 						{
 							Oid oid = ber.readOid();
-							String value = ber.readValue();
-							if (value == null) {
+							SnmpValue value = ber.readSnmpValue();
+							if (value.isNull()) {
 								LOGGER.trace("Opaque value: {}", oid);
 							} else {
 								results.add(new SnmpResult(oid, value));
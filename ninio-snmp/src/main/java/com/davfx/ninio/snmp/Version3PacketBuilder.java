@@ -1,6 +1,7 @@
 package com.davfx.ninio.snmp;
 
 import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -145,16 +146,24 @@ public final class Version3PacketBuilder {
 		buffer.position(p);
 	}
 
-	private static Iterable<OidValue> single(Oid oid) {
+	private static final Value NULL = new Value() {
+		@Override
+		public BerPacket ber() {
+			return new NullBerPacket();
+		}
+	};
+
+	private static Iterable<OidValue> nulls(Iterable<Oid> oids) {
 		List<OidValue> l = new LinkedList<>();
-		l.add(new OidValue(oid, new Value() {
-			@Override
-			public BerPacket ber() {
-				return new NullBerPacket();
-			}
-		}));
+		for (Oid oid : oids) {
+			l.add(new OidValue(oid, NULL));
+		}
 		return l;
 	}
+
+	private static Iterable<OidValue> single(Oid oid) {
+		return nulls(Collections.singletonList(oid));
+	}
 	
 	public static Version3PacketBuilder getBulk(AuthRemoteEngine authEngine, int requestId, Oid oid, int bulkLength) {
 		return new Version3PacketBuilder(authEngine, requestId, BerConstants.GETBULK, bulkLength, single(oid));
@@ -166,6 +175,16 @@ public final class Version3PacketBuilder {
 		return new Version3PacketBuilder(authEngine, requestId, BerConstants.GETNEXT, 0, single(oid));
 	}
 
+	public static Version3PacketBuilder getBulk(AuthRemoteEngine authEngine, int requestId, Iterable<Oid> oids, int bulkLength) {
+		return new Version3PacketBuilder(authEngine, requestId, BerConstants.GETBULK, bulkLength, nulls(oids));
+	}
+	public static Version3PacketBuilder get(AuthRemoteEngine authEngine, int requestId, Iterable<Oid> oids) {
+		return new Version3PacketBuilder(authEngine, requestId, BerConstants.GET, 0, nulls(oids));
+	}
+	public static Version3PacketBuilder getNext(AuthRemoteEngine authEngine, int requestId, Iterable<Oid> oids) {
+		return new Version3PacketBuilder(authEngine, requestId, BerConstants.GETNEXT, 0, nulls(oids));
+	}
+
 	public static Version3PacketBuilder trap(AuthRemoteEngine authEngine, int requestId, final Oid trapOid, Iterable<SnmpResult> oidValues) {
 		List<OidValue> l = new LinkedList<>();
 		l.add(new OidValue(BerConstants.TIMESTAMP_OID, new Value() {
@@ -184,7 +203,7 @@ public final class Version3PacketBuilder {
 			l.add(new OidValue(oidValue.oid, new Value() {
 				@Override
 				public BerPacket ber() {
-					return new BytesBerPacket(BerPacketUtils.bytes(oidValue.value));
+					return new BytesBerPacket(BerPacketUtils.bytes(oidValue.value()));
 				}
 			}));
 		}
@@ -104,7 +104,7 @@ public final class Version3PacketParser {
 						pdu.beginReadSequence();
 						{
 							Oid oid = pdu.readOid();
-							String value = pdu.readValue();
+							SnmpValue value = pdu.readSnmpValue();
 							LOGGER.trace("<- {} = {}", oid, value);
 							
 							
@@ -142,9 +142,9 @@ public final class Version3PacketParser {
 						pdu.beginReadSequence();
 						{
 							Oid oid = pdu.readOid();
-							String value = pdu.readValue();
+							SnmpValue value = pdu.readSnmpValue();
 							LOGGER.trace("<- {} = {}", oid, value);
-							if (value != null) {
+							if (!value.isNull()) {
 								results.add(new SnmpResult(oid, value));
 							}
 						}
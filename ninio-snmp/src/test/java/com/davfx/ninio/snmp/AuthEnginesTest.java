@@ -0,0 +1,32 @@
+package com.davfx.ninio.snmp;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.davfx.ninio.core.Address;
+
+public class AuthEnginesTest {
+
+	private static final AuthRemoteSpecification SPECIFICATION = new AuthRemoteSpecification("u", "password", "MD5", "u", "password", "AES");
+
+	@Test
+	public void testRestore() {
+		Address address = new Address(Address.LOCALHOST, 16161);
+
+		AuthRemoteEngine discovered = new AuthRemoteEngine(SPECIFICATION);
+		discovered.setId(new byte[] { 0x00, 0x00, 0x00, 0x02, 0x00, 0x00, 0x00, 0x00, (byte) 0xC0, (byte) 0xA8, 0x00, 0x01 });
+		discovered.setBootCount(3);
+		discovered.resetTime(1000);
+		AuthEngines.update(address, discovered);
+
+		AuthRemoteEngine restored = new AuthRemoteEngine(SPECIFICATION);
+		Assertions.assertThat(AuthEngines.restore(address, restored)).isTrue();
+		Assertions.assertThat(restored.getId()).isEqualTo(discovered.getId());
+		Assertions.assertThat(restored.getBootCount()).isEqualTo(3);
+		Assertions.assertThat(restored.getTime()).isBetween(1000, 1001);
+		Assertions.assertThat(AuthEngines.shouldResync(address, 0d)).isFalse();
+
+		AuthEngines.remove(address);
+		Assertions.assertThat(AuthEngines.restore(address, new AuthRemoteEngine(SPECIFICATION))).isFalse();
+	}
+}
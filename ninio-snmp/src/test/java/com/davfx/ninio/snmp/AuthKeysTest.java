@@ -0,0 +1,50 @@
+package com.davfx.ninio.snmp;
+
+import java.nio.ByteBuffer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+
+public class AuthKeysTest {
+
+	private static final byte[] ENGINE_ID = BaseEncoding.base16().decode("000000000000000000000002");
+
+	// RFC 3414, A.3
+	@Test
+	public void testLocalizedKeys() {
+		Assertions.assertThat(BaseEncoding.base16().encode(AuthKeys.passwordToKey("MD5", "maplesyrup"))).isEqualTo("9FAF3283884E92834EBC9847D8EDD963");
+		Assertions.assertThat(BaseEncoding.base16().encode(AuthKeys.get(new AuthRemoteSpecification("u", "maplesyrup", "MD5", "u", "maplesyrup", "DES"), ENGINE_ID).authKey)).isEqualTo("526F5EED9FCCE26F8964C2930787D82B");
+		Assertions.assertThat(BaseEncoding.base16().encode(AuthKeys.get(new AuthRemoteSpecification("u", "maplesyrup", "SHA", "u", "maplesyrup", "AES"), ENGINE_ID).authKey)).isEqualTo("6695FEBC9288E36282235FC7151F128497B38F3F");
+	}
+
+	@Test
+	public void testSharedAcrossEngines() {
+		AuthRemoteEngine a = new AuthRemoteEngine(new AuthRemoteSpecification("u", "password", "MD5", "u", "password", "AES"));
+		AuthRemoteEngine b = new AuthRemoteEngine(new AuthRemoteSpecification("u", "password", "MD5", "u", "password", "AES"));
+		a.setId(ENGINE_ID);
+		b.setId(ENGINE_ID.clone());
+		Assertions.assertThat(a.getAuthKey()).isSameAs(b.getAuthKey());
+	}
+
+	@Test
+	public void testHmac() throws Exception {
+		AuthKeys keys = AuthKeys.get(new AuthRemoteSpecification("u", "maplesyrup", "SHA", "u", "maplesyrup", "AES"), ENGINE_ID);
+		ByteBuffer message = ByteBuffer.wrap("some message to authenticate".getBytes(Charsets.UTF_8));
+
+		Mac mac = Mac.getInstance("HmacSHA1");
+		mac.init(new SecretKeySpec(keys.authKey, "HmacSHA1"));
+		byte[] expected = new byte[12];
+		System.arraycopy(mac.doFinal(message.array()), 0, expected, 0, expected.length);
+
+		// Twice, the precomputed states must not be altered
+		Assertions.assertThat(keys.hmac(message)).isEqualTo(expected);
+		Assertions.assertThat(keys.hmac(message)).isEqualTo(expected);
+		Assertions.assertThat(message.position()).isEqualTo(0);
+	}
+}
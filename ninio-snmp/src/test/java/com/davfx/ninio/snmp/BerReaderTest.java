@@ -0,0 +1,77 @@
+package com.davfx.ninio.snmp;
+
+import java.nio.ByteBuffer;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class BerReaderTest {
+
+	private static BerReader reader(int... bytes) {
+		byte[] b = new byte[bytes.length];
+		for (int i = 0; i < bytes.length; i++) {
+			b[i] = (byte) bytes[i];
+		}
+		return new BerReader(ByteBuffer.wrap(b));
+	}
+
+	@Test
+	public void testTypedValues() throws Exception {
+		SnmpValue v = reader(BerConstants.INTEGER, 1, 0xFB).readSnmpValue();
+		Assertions.assertThat(v.kind).isEqualTo(SnmpValue.Kind.SIGNED);
+		Assertions.assertThat(v.longValue()).isEqualTo(-5L);
+		Assertions.assertThat(v.toString()).isEqualTo("-5");
+
+		v = reader(BerConstants.COUNTER64, 9, 0, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFE).readSnmpValue();
+		Assertions.assertThat(v.kind).isEqualTo(SnmpValue.Kind.UNSIGNED);
+		Assertions.assertThat(v.longValue()).isEqualTo(-2L);
+		Assertions.assertThat(v.toString()).isEqualTo("18446744073709551614");
+
+		v = reader(BerConstants.TIMETICKS, 2, 0x01, 0x00).readSnmpValue();
+		Assertions.assertThat(v.type).isEqualTo(BerConstants.TIMETICKS);
+		Assertions.assertThat(v.longValue()).isEqualTo(256L);
+
+		Assertions.assertThat(reader(BerConstants.IPADDRESS, 4, 10, 0, 0, 1).readSnmpValue().toString()).isEqualTo("10.0.0.1");
+		Assertions.assertThat(reader(BerConstants.OCTETSTRING, 2, 0x00, 0xAB).readSnmpValue().toString()).isEqualTo("00AB");
+		Assertions.assertThat(reader(BerConstants.OCTETSTRING, 2, 'o', 'k').readSnmpValue().toString()).isEqualTo("ok");
+		Assertions.assertThat(reader(BerConstants.OID, 3, 0x2B, 6, 1).readSnmpValue().oid()).isEqualTo(new Oid("1.3.6.1"));
+
+		v = reader(0x82, 0).readSnmpValue(); // endOfMibView
+		Assertions.assertThat(v.isNull()).isTrue();
+		Assertions.assertThat(v.type).isEqualTo(0x82);
+		Assertions.assertThat(reader(0x82, 0).readValue()).isNull();
+	}
+
+	@Test
+	public void testStreaming() throws Exception {
+		final long[] received = new long[1];
+		reader(BerConstants.GAUGE32, 5, 0, 0xFF, 0xFF, 0xFF, 0xFF).readValue(new SnmpValue.Visitor() {
+			@Override
+			public void visitNull(int type) {
+			}
+			@Override
+			public void visitLong(int type, long value, boolean unsigned) {
+				Assertions.assertThat(type).isEqualTo(BerConstants.GAUGE32);
+				Assertions.assertThat(unsigned).isTrue();
+				received[0] = value;
+			}
+			@Override
+			public void visitDouble(int type, double value) {
+			}
+			@Override
+			public void visitBytes(int type, ByteBuffer value) {
+			}
+			@Override
+			public void visitOid(Oid value) {
+			}
+		});
+		Assertions.assertThat(received[0]).isEqualTo(0xFFFFFFFFL);
+	}
+
+	@Test
+	public void testLazyString() {
+		SnmpResult r = new SnmpResult(new Oid("1.1"), SnmpValue.unsigned(BerConstants.COUNTER32, 42L));
+		Assertions.assertThat(r.value()).isSameAs(r.value());
+		Assertions.assertThat(r).isEqualTo(new SnmpResult(new Oid("1.1"), "42"));
+	}
+}
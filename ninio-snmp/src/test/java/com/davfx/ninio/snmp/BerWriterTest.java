@@ -0,0 +1,58 @@
+package com.davfx.ninio.snmp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class BerWriterTest {
+
+	// Same packet, built with the BerPacket tree
+	private static ByteBuffer tree(String community, int requestId, int type, int bulkLength, List<Oid> oids) {
+		SequenceBerPacket seq = new SequenceBerPacket(BerConstants.SEQUENCE);
+		for (Oid oid : oids) {
+			seq.add(new SequenceBerPacket(BerConstants.SEQUENCE).add(new OidBerPacket(oid)).add(new NullBerPacket()));
+		}
+		SequenceBerPacket root = new SequenceBerPacket(BerConstants.SEQUENCE)
+			.add(new IntegerBerPacket(BerConstants.VERSION_2C))
+			.add(new BytesBerPacket(BerPacketUtils.bytes(community)))
+			.add(new SequenceBerPacket(type)
+				.add(new IntegerBerPacket(requestId))
+				.add(new IntegerBerPacket(0))
+				.add(new IntegerBerPacket(bulkLength))
+				.add(seq));
+		ByteBuffer b = ByteBuffer.allocate(BerPacketUtils.typeAndLengthBufferLength(root.lengthBuffer()) + root.length());
+		root.write(b);
+		b.flip();
+		return b;
+	}
+
+	@Test
+	public void testSameAsTree() {
+		Assertions.assertThat(Version2cPacketBuilder.get("public", 1234, new Oid("1.3.6.1.2.1.1.3.0")).getBuffer()).isEqualTo(tree("public", 1234, BerConstants.GET, 0, Arrays.asList(new Oid("1.3.6.1.2.1.1.3.0"))));
+		Assertions.assertThat(Version2cPacketBuilder.getBulk("c", -70000, new Oid("1.3.6.1.4.1.9.9.166.1.1.1.1.4.16413"), 200).getBuffer()).isEqualTo(tree("c", -70000, BerConstants.GETBULK, 200, Arrays.asList(new Oid("1.3.6.1.4.1.9.9.166.1.1.1.1.4.16413"))));
+
+		// Long enough for multi-byte lengths
+		List<Oid> oids = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			oids.add(new Oid("1.3.6.1.2.1.2.2.1.10." + (i * 1000)));
+		}
+		Assertions.assertThat(Version2cPacketBuilder.get("public", Integer.MAX_VALUE, oids).getBuffer()).isEqualTo(tree("public", Integer.MAX_VALUE, BerConstants.GET, 0, oids));
+	}
+
+	@Test
+	public void testIntegers() throws Exception {
+		for (int v : new int[] { 0, 1, 127, 128, 255, 256, -1, -128, -129, 32767, 32768, -32769, Integer.MAX_VALUE, Integer.MIN_VALUE }) {
+			BerWriter w = new BerWriter(new byte[16]);
+			w.writeInteger(v);
+			ByteBuffer expected = ByteBuffer.allocate(16);
+			new IntegerBerPacket(v).write(expected);
+			expected.flip();
+			Assertions.assertThat(w.buffer()).isEqualTo(expected);
+			Assertions.assertThat(new BerReader(w.buffer()).readInteger()).isEqualTo(v);
+		}
+	}
+}
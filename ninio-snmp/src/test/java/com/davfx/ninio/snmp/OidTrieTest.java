@@ -0,0 +1,66 @@
+package com.davfx.ninio.snmp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class OidTrieTest {
+
+	private static List<Oid> from(OidTrie<String> trie, Oid oid, final int limit) {
+		final List<Oid> l = new ArrayList<>();
+		trie.from(oid, new OidTrie.Visitor<String>() {
+			@Override
+			public boolean visit(Oid oid, String value) {
+				l.add(oid);
+				return l.size() < limit;
+			}
+		});
+		return l;
+	}
+
+	@Test
+	public void testSameAsTreeMap() {
+		Random random = new Random(42L);
+		OidTrie<String> trie = new OidTrie<>();
+		TreeMap<Oid, String> map = new TreeMap<>();
+		for (int n = 0; n < 20_000; n++) {
+			long[] raw = new long[2 + random.nextInt(4)];
+			for (int i = 0; i < raw.length; i++) {
+				raw[i] = random.nextInt(4);
+			}
+			Oid oid = new Oid(raw);
+			if (random.nextInt(3) > 0) {
+				Assertions.assertThat(trie.put(oid, "v" + n)).isEqualTo(map.put(oid, "v" + n));
+			} else {
+				Assertions.assertThat(trie.remove(oid)).isEqualTo(map.remove(oid));
+			}
+			Assertions.assertThat(trie.size()).isEqualTo(map.size());
+
+			List<Oid> expected = new ArrayList<>();
+			for (Map.Entry<Oid, String> e : map.tailMap(oid).entrySet()) {
+				if (expected.size() == 5) {
+					break;
+				}
+				expected.add(e.getKey());
+			}
+			Assertions.assertThat(from(trie, oid, 5)).isEqualTo(expected);
+			Assertions.assertThat(trie.get(oid)).isEqualTo(map.get(oid));
+		}
+	}
+
+	@Test
+	public void testMatch() {
+		OidTrie<String> trie = new OidTrie<>();
+		trie.put(new Oid("1.3.6.1.2.1.2.2.1"), "ifEntry");
+		trie.put(new Oid("1.3.6.1.2.1.2.2.1.10"), "ifInOctets");
+		Assertions.assertThat(trie.match(new Oid("1.3.6.1.2.1.2.2.1.10.3"))).isEqualTo("ifInOctets");
+		Assertions.assertThat(trie.match(new Oid("1.3.6.1.2.1.2.2.1.16.3"))).isEqualTo("ifEntry");
+		Assertions.assertThat(trie.match(new Oid("1.3.6.1.2.1.1.3.0"))).isNull();
+		Assertions.assertThat(trie.containsKey(new Oid("1.3.6.1.2.1.2.2"))).isFalse();
+	}
+}
@@ -0,0 +1,38 @@
+package com.davfx.ninio.snmp;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.davfx.ninio.core.Address;
+
+public class RoundTripTimesTest {
+
+	private static final Address AGENT = new Address(Address.LOCALHOST, 161);
+
+	@Test
+	public void testTimeouts() {
+		RoundTripTimes t = new RoundTripTimes(1d, 0.2d, 10d, 30d, 3600d);
+		Assertions.assertThat(t.timeout(AGENT, 0)).isEqualTo(1d);
+		Assertions.assertThat(t.timeout(AGENT, 1)).isEqualTo(2d);
+		Assertions.assertThat(t.timeout(AGENT, 5)).isEqualTo(10d);
+
+		t.sample(AGENT, 0.1d); // srtt = 0.1, rttvar = 0.05
+		Assertions.assertThat(t.timeout(AGENT, 0)).isCloseTo(0.3d, Assertions.offset(1e-9));
+		for (int i = 0; i < 100; i++) {
+			t.sample(AGENT, 0.01d);
+		}
+		Assertions.assertThat(t.timeout(AGENT, 0)).isEqualTo(0.2d);
+		Assertions.assertThat(t.timeout(AGENT, 2)).isCloseTo(0.8d, Assertions.offset(1e-9));
+	}
+
+	@Test
+	public void testUnreachable() {
+		RoundTripTimes t = new RoundTripTimes(1d, 0.2d, 10d, 30d, 3600d);
+		Assertions.assertThat(t.isUnreachable(AGENT, 0d)).isFalse();
+		t.unreachable(AGENT, 100d);
+		Assertions.assertThat(t.isUnreachable(AGENT, 110d)).isTrue();
+		Assertions.assertThat(t.isUnreachable(AGENT, 131d)).isFalse();
+		t.reachable(AGENT);
+		Assertions.assertThat(t.isUnreachable(AGENT, 110d)).isFalse();
+	}
+}
@@ -1,6 +1,11 @@
 package com.davfx.ninio.snmp;
 
 import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.TreeMap;
@@ -79,8 +84,11 @@ public class SnmpTest {
 	}
 	
 	private static List<SnmpResult> call(SnmpConnecter snmpClient, Address a, Oid oid, SnmpCallType snmpCallType) throws IOException {
+		return call(snmpClient, a, Arrays.asList(oid), snmpCallType);
+	}
+	private static List<SnmpResult> call(SnmpConnecter snmpClient, Address a, List<Oid> oids, SnmpCallType snmpCallType) throws IOException {
 		final Lock<List<SnmpResult>, IOException> lock = new Lock<>();
-		snmpClient.request().community("community").build(a, oid).call(snmpCallType, new SnmpReceiver() {
+		snmpClient.request().community("community").build(a, oids).call(snmpCallType, new SnmpReceiver() {
 			private final List<SnmpResult> r = new LinkedList<>();
 			
 			@Override
@@ -108,6 +116,67 @@ public class SnmpTest {
 	}
 
 	
+	@Test
+	public void testMultipleOids() throws Exception {
+		try (Ninio ninio = Ninio.create()) {
+			TreeMap<Oid, String> map = new TreeMap<>();
+			map.put(new Oid("1.1.1"), "val1.1.1");
+			map.put(new Oid("1.1.1.1"), "val1.1.1.1");
+			map.put(new Oid("1.1.1.2"), "val1.1.1.2");
+			map.put(new Oid("1.1.2"), "val1.1.2");
+			map.put(new Oid("1.1.3.1"), "val1.1.3.1");
+			map.put(new Oid("1.1.3.2"), "val1.1.3.2");
+			List<Oid> many = new ArrayList<>();
+			for (int i = 1; i <= 100; i++) {
+				Oid oid = new Oid("1.2." + i);
+				map.put(oid, "val" + i);
+				many.add(oid);
+			}
+			
+			int port = 8080;
+			final Wait waitServer = new Wait();
+			try (Disconnectable snmpServer = ninio.create(SnmpServer.builder().with(UdpSocket.builder().bind(new Address(Address.LOCALHOST, port)))
+					.handle(new FromMapSnmpServerHandler(map, new SnmpServerHandler() {
+						@Override
+						public void from(Oid oid, Callback callback) {
+						}
+						@Override
+						public void failed(IOException ioe) {
+						}
+						@Override
+						public void connected(Address address) {
+						}
+						@Override
+						public void closed() {
+							waitServer.run();
+						}
+					})))) {
+				try (SnmpConnecter snmpClient = ninio.create(SnmpClient.builder().with(UdpSocket.builder()))) {
+					snmpClient.connect(null);
+					Address a = new Address(Address.LOCALHOST, port);
+					
+					// The missing OID is removed and the request sent again
+					Assertions.assertThat(call(snmpClient, a, Arrays.asList(new Oid("1.1.1"), new Oid("1.1.4"), new Oid("1.1.2")), SnmpCallType.GET).toString()).isEqualTo("[1.1.1:val1.1.1, 1.1.2:val1.1.2]");
+					
+					Assertions.assertThat(call(snmpClient, a, Arrays.asList(new Oid("1.1.1"), new Oid("1.1.3.1")), SnmpCallType.GETNEXT).toString()).isEqualTo("[1.1.1.1:val1.1.1.1, 1.1.3.2:val1.1.3.2]");
+					
+					// Interleaved by the agent, grouped by requested OID
+					List<SnmpResult> bulk = call(snmpClient, a, Arrays.asList(new Oid("1.1.1.1"), new Oid("1.1.3.1")), SnmpCallType.GETBULK);
+					Assertions.assertThat(bulk.subList(0, 4).toString()).isEqualTo("[1.1.1.2:val1.1.1.2, 1.1.2:val1.1.2, 1.1.3.1:val1.1.3.1, 1.1.3.2:val1.1.3.2]");
+					Assertions.assertThat(bulk.get(bulk.size() / 2).toString()).isEqualTo("1.1.3.2:val1.1.3.2");
+					
+					// Split in several requests
+					List<SnmpResult> results = call(snmpClient, a, many, SnmpCallType.GET);
+					Assertions.assertThat(results).hasSize(many.size());
+					for (SnmpResult r : results) {
+						Assertions.assertThat(r.value()).isEqualTo(map.get(r.oid));
+					}
+				}
+			}
+			waitServer.waitFor();
+		}
+	}
+
 	@Test
 	public void testTimeout() throws Exception {
 		try (Ninio ninio = Ninio.create()) {
@@ -144,6 +213,79 @@ public class SnmpTest {
 		}
 	}
 	
+	@Test(timeout = 30000L)
+	public void testNoResponse() throws Exception {
+		try (Ninio ninio = Ninio.create(); DatagramSocket silent = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+			try (SnmpConnecter snmpClient = ninio.create(SnmpClient.builder().with(UdpSocket.builder()))) {
+				snmpClient.connect(null);
+				// Failed by the client itself once the retransmissions are exhausted
+				try {
+					get(snmpClient, new Address(Address.LOCALHOST, silent.getLocalPort()), new Oid("1.1.1"));
+					Assertions.fail("Should have failed");
+				} catch (IOException ioe) {
+					Assertions.assertThat(ioe.getMessage()).isEqualTo("Timeout");
+				}
+			}
+		}
+	}
+
+	@Test(timeout = 60000L)
+	public void testTrapNotRetransmitted() throws Exception {
+		try (Ninio ninio = Ninio.create(); DatagramSocket silent = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+			TreeMap<Oid, String> map = new TreeMap<>();
+			map.put(new Oid("1.1.1"), "val1.1.1");
+
+			int port = 8080;
+			try (Disconnectable snmpServer = ninio.create(SnmpServer.builder().with(UdpSocket.builder().bind(new Address(Address.LOCALHOST, port)))
+					.handle(new FromMapSnmpServerHandler(map, new SnmpServerHandler() {
+						@Override
+						public void from(Oid oid, Callback callback) {
+						}
+						@Override
+						public void failed(IOException ioe) {
+						}
+						@Override
+						public void connected(Address address) {
+						}
+						@Override
+						public void closed() {
+						}
+					})))) {
+				try (SnmpConnecter snmpClient = ninio.create(SnmpClient.builder().with(UdpSocket.builder()))) {
+					snmpClient.connect(null);
+					Address a = new Address(Address.LOCALHOST, port);
+
+					final Lock<Boolean, IOException> trapLock = new Lock<>();
+					snmpClient.request().community("community").build(a, new Oid("1.3.6.1.6.3.1.1.5.3")).add(new Oid("1.3.6.1.2.1.2.2.1.1.1"), "down").call(SnmpCallType.TRAP, new SnmpReceiver() {
+						@Override
+						public void received(SnmpResult result) {
+						}
+						@Override
+						public void finished() {
+							trapLock.set(true);
+						}
+						@Override
+						public void failed(IOException ioe) {
+							trapLock.fail(ioe);
+						}
+					});
+
+					// Takes as long as all the retransmissions a trap would get if it waited for a response
+					try {
+						get(snmpClient, new Address(Address.LOCALHOST, silent.getLocalPort()), new Oid("1.1.1"));
+						Assertions.fail("Should have failed");
+					} catch (IOException ioe) {
+						Assertions.assertThat(ioe.getMessage()).isEqualTo("Timeout");
+					}
+
+					Assertions.assertThat(trapLock.waitFor()).isTrue();
+					// Not marked unreachable by the unanswered trap
+					Assertions.assertThat(get(snmpClient, a, new Oid("1.1.1")).toString()).isEqualTo("[1.1.1:val1.1.1]");
+				}
+			}
+		}
+	}
+
 	@Test
 	public void testWithCache() throws Exception {
 		try (Ninio ninio = Ninio.create()) {
@@ -192,7 +334,7 @@ public class SnmpTest {
 						handler.from(oid, new Callback() {
 							@Override
 							public boolean handle(SnmpResult result) {
-								return callback.handle(new SnmpResult(result.oid, result.value + "/" + k));
+								return callback.handle(new SnmpResult(result.oid, result.value() + "/" + k));
 							}
 						});
 					}
@@ -282,7 +424,7 @@ public class SnmpTest {
 							handler.from(oid, new Callback() {
 								@Override
 								public boolean handle(SnmpResult result) {
-									return callback.handle(new SnmpResult(result.oid, result.value + "/" + k));
+									return callback.handle(new SnmpResult(result.oid, result.value() + "/" + k));
 								}
 							});
 						}
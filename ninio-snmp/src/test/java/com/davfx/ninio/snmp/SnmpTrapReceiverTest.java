@@ -0,0 +1,218 @@
+package com.davfx.ninio.snmp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.davfx.ninio.core.Address;
+import com.davfx.ninio.core.Connecter;
+import com.davfx.ninio.core.Connection;
+import com.davfx.ninio.core.Ninio;
+import com.davfx.ninio.core.Nop;
+import com.davfx.ninio.core.UdpSocket;
+import com.davfx.ninio.util.Lock;
+
+public class SnmpTrapReceiverTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SnmpTrapReceiverTest.class);
+
+	private static final int PORT = 8080;
+
+	private static final class QueueHandler implements SnmpTrapHandler {
+		public final BlockingQueue<SnmpTrap> traps = new LinkedBlockingQueue<>();
+		@Override
+		public void received(SnmpTrap trap) {
+			traps.add(trap);
+		}
+		@Override
+		public void connected(Address address) {
+		}
+		@Override
+		public void failed(IOException ioe) {
+		}
+		@Override
+		public void closed() {
+		}
+	}
+
+	private static ByteBuffer inform(String community, int requestId, Oid trapOid, Oid oid, String value) {
+		BerWriter w = new BerWriter(new byte[1024]);
+		int varbind = w.length();
+		w.writeBytes(BerConstants.OCTETSTRING, BerPacketUtils.bytes(value).array());
+		w.writeOid(oid);
+		w.writeSequence(BerConstants.SEQUENCE, varbind);
+		varbind = w.length();
+		w.writeOid(trapOid);
+		w.writeOid(BerConstants.TRAP_OID);
+		w.writeSequence(BerConstants.SEQUENCE, varbind);
+		w.writeSequence(BerConstants.SEQUENCE, 0);
+		w.writeInteger(0);
+		w.writeInteger(0);
+		w.writeInteger(requestId);
+		w.writeSequence(BerConstants.INFORM, 0);
+		w.writeBytes(BerConstants.OCTETSTRING, BerPacketUtils.bytes(community).array());
+		w.writeInteger(BerConstants.VERSION_2C);
+		w.writeSequence(BerConstants.SEQUENCE, 0);
+		return w.copy();
+	}
+
+	@Test
+	public void testTrapAndInform() throws Exception {
+		try (Ninio ninio = Ninio.create()) {
+			QueueHandler handler = new QueueHandler();
+			try (SnmpTrapReceiver receiver = ninio.create(SnmpTrapReceiver.builder().with(UdpSocket.builder().bind(new Address(Address.LOCALHOST, PORT))).handle(handler))) {
+				try (SnmpConnecter snmpClient = ninio.create(SnmpClient.builder().with(UdpSocket.builder()))) {
+					snmpClient.connect(null);
+					snmpClient.request().community("public").build(new Address(Address.LOCALHOST, PORT), new Oid("1.3.6.1.6.3.1.1.5.3")).add(new Oid("1.3.6.1.2.1.2.2.1.1.1"), "down").call(SnmpCallType.TRAP, null);
+
+					SnmpTrap trap = handler.traps.poll(5, TimeUnit.SECONDS);
+					Assertions.assertThat(trap.inform).isFalse();
+					Assertions.assertThat(trap.version).isEqualTo(BerConstants.VERSION_2C);
+					Assertions.assertThat(trap.community).isEqualTo("public");
+					Assertions.assertThat(trap.trapOid).isEqualTo(new Oid("1.3.6.1.6.3.1.1.5.3"));
+					Assertions.assertThat(trap.results).contains(new SnmpResult(new Oid("1.3.6.1.2.1.2.2.1.1.1"), "down"));
+				}
+
+				final Lock<Integer, IOException> acknowledged = new Lock<>();
+				try (Connecter client = ninio.create(UdpSocket.builder())) {
+					client.connect(new Connection() {
+						@Override
+						public void received(Address address, ByteBuffer buffer) {
+							try {
+								acknowledged.set(new Version2cPacketParser(buffer).getRequestId());
+							} catch (IOException e) {
+								acknowledged.fail(e);
+							}
+						}
+						@Override
+						public void connected(Address address) {
+						}
+						@Override
+						public void closed() {
+						}
+						@Override
+						public void failed(IOException e) {
+							acknowledged.fail(e);
+						}
+					});
+
+					Oid trapOid = new Oid("1.3.6.1.6.3.1.1.5.4");
+					client.send(new Address(Address.LOCALHOST, PORT), inform("public", 1234, trapOid, new Oid("1.3.6.1.2.1.2.2.1.1.1"), "up"), new Nop());
+					Assertions.assertThat(acknowledged.waitFor()).isEqualTo(1234);
+
+					SnmpTrap trap = handler.traps.poll(5, TimeUnit.SECONDS);
+					Assertions.assertThat(trap.inform).isTrue();
+					Assertions.assertThat(trap.requestId).isEqualTo(1234);
+					Assertions.assertThat(trap.trapOid).isEqualTo(trapOid);
+
+					// Retransmitted, acknowledged again but not handled again
+					client.send(new Address(Address.LOCALHOST, PORT), inform("public", 1234, trapOid, new Oid("1.3.6.1.2.1.2.2.1.1.1"), "up"), new Nop());
+					Assertions.assertThat(handler.traps.poll(500, TimeUnit.MILLISECONDS)).isNull();
+					Assertions.assertThat(receiver.duplicates()).isEqualTo(1L);
+				}
+			}
+		}
+	}
+
+	// authNoPriv, signed with the keys of the given user
+	private static ByteBuffer trapV3(AuthRemoteSpecification specification, int requestId) {
+		byte[] engineId = new byte[] { (byte) 0x80, 0, 0x1F, (byte) 0x88, 4, 1, 2, 3, 4 };
+		BerPacket root = new SequenceBerPacket(BerConstants.SEQUENCE)
+			.add(new IntegerBerPacket(BerConstants.VERSION_3))
+			.add(new SequenceBerPacket(BerConstants.SEQUENCE)
+				.add(new IntegerBerPacket(requestId)) // Packet number
+				.add(new IntegerBerPacket(65535)) // Max packet size
+				.add(new BytesBerPacket(ByteBuffer.wrap(new byte[] { (byte) BerConstants.VERSION_3_AUTH_FLAG })))
+				.add(new IntegerBerPacket(BerConstants.VERSION_3_USM_SECURITY_MODEL)))
+			.add(new BytesSequenceBerPacket(new SequenceBerPacket(BerConstants.SEQUENCE)
+				.add(new BytesBerPacket(ByteBuffer.wrap(engineId)))
+				.add(new IntegerBerPacket(1))
+				.add(new IntegerBerPacket(100))
+				.add(new BytesBerPacket(BerPacketUtils.bytes(specification.authLogin)))
+				.add(new BytesBerPacket(ByteBuffer.allocate(12))) // Authentication parameters, zeroed to compute the HMAC
+				.add(new BytesBerPacket(ByteBuffer.allocate(0)))))
+			.add(new SequenceBerPacket(BerConstants.SEQUENCE)
+				.add(new BytesBerPacket(ByteBuffer.wrap(engineId)))
+				.add(new BytesBerPacket(ByteBuffer.allocate(0)))
+				.add(new SequenceBerPacket(BerConstants.TRAP)
+					.add(new IntegerBerPacket(requestId))
+					.add(new IntegerBerPacket(0))
+					.add(new IntegerBerPacket(0))
+					.add(new SequenceBerPacket(BerConstants.SEQUENCE)
+						.add(new SequenceBerPacket(BerConstants.SEQUENCE)
+							.add(new OidBerPacket(BerConstants.TRAP_OID))
+							.add(new OidBerPacket(new Oid("1.3.6.1.6.3.1.1.5.3"))))
+						.add(new SequenceBerPacket(BerConstants.SEQUENCE)
+							.add(new OidBerPacket(new Oid("1.3.6.1.2.1.2.2.1.1.1")))
+							.add(new BytesBerPacket(BerPacketUtils.bytes("down")))))));
+		ByteBuffer buffer = ByteBuffer.allocate(BerPacketUtils.typeAndLengthBufferLength(root.lengthBuffer()) + root.length());
+		root.write(buffer);
+		buffer.flip();
+
+		byte[] hmac = AuthKeys.get(specification, engineId).hmac(buffer.duplicate());
+		byte[] b = buffer.array();
+		int position = 0;
+		while ((b[position] != BerConstants.OCTETSTRING) || (b[position + 1] != hmac.length) || (b[position + 2] != 0)) {
+			position++;
+		}
+		System.arraycopy(hmac, 0, b, position + 2, hmac.length);
+		return buffer;
+	}
+
+	@Test
+	public void testAuthenticatedV3() throws Exception {
+		AuthRemoteSpecification specification = new AuthRemoteSpecification("u", "password", "MD5", null, null, "AES");
+		try (Ninio ninio = Ninio.create()) {
+			QueueHandler handler = new QueueHandler();
+			try (SnmpTrapReceiver receiver = ninio.create(SnmpTrapReceiver.builder().with(UdpSocket.builder().bind(new Address(Address.LOCALHOST, PORT))).auth(specification).handle(handler))) {
+				try (Connecter client = ninio.create(UdpSocket.builder())) {
+					client.connect(new Nop());
+
+					client.send(new Address(Address.LOCALHOST, PORT), trapV3(specification, 1), new Nop());
+					SnmpTrap trap = handler.traps.poll(5, TimeUnit.SECONDS);
+					Assertions.assertThat(trap.version).isEqualTo(BerConstants.VERSION_3);
+					Assertions.assertThat(trap.community).isEqualTo("u");
+					Assertions.assertThat(trap.requestId).isEqualTo(1);
+
+					// Modified on the way
+					ByteBuffer tampered = trapV3(specification, 2);
+					tampered.put(tampered.limit() - 1, (byte) 'X');
+					client.send(new Address(Address.LOCALHOST, PORT), tampered, new Nop());
+					// Known user, wrong password
+					client.send(new Address(Address.LOCALHOST, PORT), trapV3(new AuthRemoteSpecification("u", "guessed!", "MD5", null, null, "AES"), 3), new Nop());
+
+					Assertions.assertThat(handler.traps.poll(500, TimeUnit.MILLISECONDS)).isNull();
+					Assertions.assertThat(receiver.invalid()).isEqualTo(2L);
+				}
+			}
+		}
+	}
+
+	@Ignore
+	@Test
+	public void testLoad() throws Exception {
+		int count = 1_000_000;
+		try (Ninio ninio = Ninio.create()) {
+			QueueHandler handler = new QueueHandler();
+			try (SnmpTrapReceiver receiver = ninio.create(SnmpTrapReceiver.builder().with(UdpSocket.builder().bind(new Address(Address.LOCALHOST, PORT))).handle(handler))) {
+				try (Connecter client = ninio.create(UdpSocket.builder())) {
+					client.connect(new Nop());
+					long t = System.currentTimeMillis();
+					for (int i = 0; i < count; i++) {
+						client.send(new Address(Address.LOCALHOST, PORT), Version2cPacketBuilder.trap("public", i, new Oid("1.3.6.1.6.3.1.1.5.3"), java.util.Arrays.asList(new SnmpResult(new Oid("1.3.6.1.2.1.2.2.1.1.1"), String.valueOf(i)))).getBuffer(), new Nop());
+					}
+					Thread.sleep(2000);
+					LOGGER.info("{} sent in {} ms: received = {}, handled = {}, dropped = {}, duplicates = {}, invalid = {}", count, System.currentTimeMillis() - t, receiver.received(), handler.traps.size(), receiver.dropped(), receiver.duplicates(), receiver.invalid());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package com.davfx.ninio.snmp;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.davfx.ninio.core.Address;
+import com.davfx.ninio.core.Disconnectable;
+import com.davfx.ninio.core.Ninio;
+import com.davfx.ninio.core.UdpSocket;
+import com.davfx.ninio.util.Lock;
+
+public class SnmpWalkerTest {
+
+	private static final int PORT = 8080;
+
+	private static Disconnectable server(Ninio ninio, TreeMap<Oid, String> map) {
+		return ninio.create(SnmpServer.builder().with(UdpSocket.builder().bind(new Address(Address.LOCALHOST, PORT)))
+				.handle(new FromMapSnmpServerHandler(map, new SnmpServerHandler() {
+					@Override
+					public void from(Oid oid, Callback callback) {
+					}
+					@Override
+					public void failed(IOException ioe) {
+					}
+					@Override
+					public void connected(Address address) {
+					}
+					@Override
+					public void closed() {
+					}
+				})));
+	}
+
+	private static SnmpConnecter client(Ninio ninio) {
+		SnmpConnecter snmpClient = ninio.create(SnmpClient.builder().with(UdpSocket.builder()));
+		snmpClient.connect(new SnmpConnection() {
+			@Override
+			public void failed(IOException ioe) {
+			}
+			@Override
+			public void connected(Address address) {
+			}
+			@Override
+			public void closed() {
+			}
+		});
+		return snmpClient;
+	}
+
+	@Test
+	public void testTable() throws Exception {
+		TreeMap<Oid, String> map = new TreeMap<>();
+		for (int i = 1; i <= 100; i++) {
+			map.put(new Oid("1.1.1." + i), "descr" + i);
+			if (i != 3) {
+				map.put(new Oid("1.1.2." + i), "type" + i);
+			}
+		}
+		map.put(new Oid("1.2.1"), "after");
+
+		try (Ninio ninio = Ninio.create(); Disconnectable snmpServer = server(ninio, map); SnmpConnecter snmpClient = client(ninio)) {
+			SnmpWalker walker = SnmpWalker.builder().with(snmpClient).limit(1).build();
+			final List<String> rows = new LinkedList<>();
+			final Lock<String, IOException> lock = new Lock<>();
+			walker.request().community("public").table(new Address(Address.LOCALHOST, PORT), Arrays.asList(new Oid("1.1.1"), new Oid("1.1.2")), new SnmpWalker.TableReceiver() {
+				@Override
+				public void failed(IOException ioe) {
+					lock.fail(ioe);
+				}
+				@Override
+				public void received(Oid index, List<String> row) {
+					rows.add(index + ":" + row);
+				}
+				@Override
+				public void finished() {
+					lock.set("done");
+				}
+			});
+			Assertions.assertThat(lock.waitFor()).isEqualTo("done");
+			Assertions.assertThat(rows).hasSize(100);
+			Assertions.assertThat(rows.get(0)).isEqualTo("1:[descr1, type1]");
+			Assertions.assertThat(rows.get(2)).isEqualTo("3:[descr3, null]");
+			Assertions.assertThat(rows.get(99)).isEqualTo("100:[descr100, type100]");
+		}
+	}
+
+	@Test
+	public void testSplitWalk() throws Exception {
+		TreeMap<Oid, String> map = new TreeMap<>();
+		for (int i = 1; i <= 50; i++) {
+			map.put(new Oid("1.1." + i + ".1"), "a" + i);
+			map.put(new Oid("1.1." + i + ".2"), "b" + i);
+		}
+		map.put(new Oid("1.1.7"), "start");
+		map.put(new Oid("1.2.1"), "after");
+
+		try (Ninio ninio = Ninio.create(); Disconnectable snmpServer = server(ninio, map); SnmpConnecter snmpClient = client(ninio)) {
+			SnmpWalker walker = SnmpWalker.builder().with(snmpClient).build();
+			final TreeMap<Oid, String> walked = new TreeMap<>();
+			final Lock<String, IOException> lock = new Lock<>();
+			walker.request().community("public").walk(new Address(Address.LOCALHOST, PORT), new Oid("1.1"), Arrays.asList(new Oid("1.1.7"), new Oid("1.1.20"), new Oid("1.1.33.1")), new SnmpReceiver() {
+				@Override
+				public void failed(IOException ioe) {
+					lock.fail(ioe);
+				}
+				@Override
+				public void received(SnmpResult result) {
+					Assertions.assertThat(walked.put(result.oid, result.value())).isNull();
+				}
+				@Override
+				public void finished() {
+					lock.set("done");
+				}
+			});
+			Assertions.assertThat(lock.waitFor()).isEqualTo("done");
+			Assertions.assertThat(walked).isEqualTo(map.subMap(new Oid("1.1"), new Oid("1.2")));
+		}
+	}
+
+	@Test(timeout = 60000L)
+	public void testSilentAgent() throws Exception {
+		try (Ninio ninio = Ninio.create(); DatagramSocket silent = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)); SnmpConnecter snmpClient = client(ninio)) {
+			SnmpWalker walker = SnmpWalker.builder().with(snmpClient).limit(1).build();
+			Address a = new Address(Address.LOCALHOST, silent.getLocalPort());
+			final List<Lock<String, IOException>> locks = new LinkedList<>();
+			// The second walk waits for the slot held by the first one
+			for (int i = 0; i < 2; i++) {
+				final Lock<String, IOException> lock = new Lock<>();
+				locks.add(lock);
+				walker.request().community("public").walk(a, new Oid("1.1"), Arrays.asList(new Oid("1.1.7")), new SnmpReceiver() {
+					@Override
+					public void failed(IOException ioe) {
+						lock.set(ioe.getMessage());
+					}
+					@Override
+					public void received(SnmpResult result) {
+					}
+					@Override
+					public void finished() {
+						lock.set("done");
+					}
+				});
+			}
+			Assertions.assertThat(locks.get(0).waitFor()).isEqualTo("Timeout");
+			Assertions.assertThat(locks.get(1).waitFor()).isEqualTo("Unreachable");
+		}
+	}
+}